@@ -29,7 +29,6 @@ import java.util.Random;
 import java.util.Set;
 
 import de.zib.scalaris.Connection;
-import de.zib.scalaris.ErlangValue;
 import de.zib.scalaris.NotFoundException;
 import de.zib.scalaris.Transaction;
 import de.zib.scalaris.TransactionSingleOp;
@@ -482,8 +481,8 @@ public class ScalarisDataHandler {
         
         TransactionSingleOp scalaris_single = new TransactionSingleOp(connection);
         try {
-            List<ErlangValue> pages = scalaris_single.read(getArticleListKey()).listValue();
-            String randomTitle = pages.get(random.nextInt(pages.size())).stringValue();
+            List<String> pages = scalaris_single.read(getArticleListKey()).lazyStringListValue();
+            String randomTitle = pages.get(random.nextInt(pages.size()));
             return new RandomTitleResult(randomTitle);
         } catch (Exception e) {
             return new RandomTitleResult(false, "unknown exception reading page list at \"pages\" from Scalaris: " + e.getMessage());
@@ -182,27 +182,42 @@ public class WikiServlet extends HttpServlet implements Servlet, WikiServletCont
     }
     
     /**
-     * Loads the siteinfo object from Scalaris.
+     * Loads the siteinfo object from Scalaris using a connection from the
+     * pool.
      * 
      * @return <tt>true</tt> on success,
      *         <tt>false</tt> if not found or no connection available
      */
-    private synchronized boolean loadSiteInfo()  {
-        TransactionSingleOp scalaris_single;
+    private boolean loadSiteInfo() {
+        Connection connection = getScalarisConnection(null);
+        if (connection == null) {
+            return false;
+        }
         try {
-            scalaris_single = new TransactionSingleOp(cFactory.createConnection());
-            try {
-                siteinfo = scalaris_single.read("siteinfo").jsonValue(SiteInfo.class);
-                // TODO: fix siteinfo's base url
-                namespace = new MyNamespace(siteinfo);
-                initialized = true;
-            } catch (Exception e) {
-                // no warning here - this probably is an empty wiki
-                return false;
-            }
+            return loadSiteInfo(connection);
+        } finally {
+            cFactory.returnConnection(connection);
+        }
+    }
+    
+    /**
+     * Loads the siteinfo object from Scalaris.
+     * 
+     * @param connection
+     *            connection to the Scalaris erlang node
+     * 
+     * @return <tt>true</tt> on success,
+     *         <tt>false</tt> if not found
+     */
+    private synchronized boolean loadSiteInfo(Connection connection) {
+        try {
+            TransactionSingleOp scalaris_single = new TransactionSingleOp(connection);
+            siteinfo = scalaris_single.read("siteinfo").jsonValue(SiteInfo.class);
+            // TODO: fix siteinfo's base url
+            namespace = new MyNamespace(siteinfo);
+            initialized = true;
         } catch (Exception e) {
-            System.out.println(e);
-            e.printStackTrace();
+            // no warning here - this probably is an empty wiki
             return false;
         }
         return true;
@@ -242,14 +257,15 @@ public class WikiServlet extends HttpServlet implements Servlet, WikiServletCont
     }
 
     /**
-     * Sets up the connection to the Scalaris erlang node once on the server.
+     * Borrows a connection to a Scalaris erlang node from the connection pool.
+     * It must be given back with {@link ConnectionFactory#returnConnection(Connection)}.
      * 
-     * @param config
-     *            the servlet's configuration
+     * @param request
+     *            the request of the current operation
      */
     private Connection getScalarisConnection(HttpServletRequest request) {
         try {
-            return cFactory.createConnection();
+            return cFactory.borrowConnection();
         } catch (Exception e) {
             if (request != null) {
                 addToParam_notice(request, "error: <pre>" + e.getMessage() + "</pre>");
@@ -263,6 +279,7 @@ public class WikiServlet extends HttpServlet implements Servlet, WikiServletCont
 
     @Override
     public void destroy() {
+        cFactory.getConnectionPool().close();
     }
 
     /*
@@ -285,7 +302,27 @@ public class WikiServlet extends HttpServlet implements Servlet, WikiServletCont
             showEmptyPage(request, response); // should forward to another page
             return; // return just in case
         }
-        if (!initialized && !loadSiteInfo() || !currentImport.isEmpty()) {
+        try {
+            doGet(request, response, connection);
+        } finally {
+            cFactory.returnConnection(connection);
+        }
+    }
+
+    /**
+     * Handles a GET request with a connection from the pool.
+     * 
+     * @param request
+     *            the request of the current operation
+     * @param response
+     *            the response of the current operation
+     * @param connection
+     *            connection to the Scalaris erlang node
+     */
+    private void doGet(HttpServletRequest request,
+            HttpServletResponse response, Connection connection)
+            throws ServletException, IOException {
+        if (!initialized && !loadSiteInfo(connection) || !currentImport.isEmpty()) {
             showImportPage(request, response, connection); // should forward to another page
             return; // return just in case
         }
@@ -444,14 +481,18 @@ public class WikiServlet extends HttpServlet implements Servlet, WikiServletCont
             showEmptyPage(request, response); // should forward to another page
             return; // return just in case
         }
-        if (!initialized && !loadSiteInfo() || !currentImport.isEmpty()) {
-            showImportPage(request, response, connection); // should forward to another page
-            return; // return just in case
+        try {
+            if (!initialized && !loadSiteInfo(connection) || !currentImport.isEmpty()) {
+                showImportPage(request, response, connection); // should forward to another page
+                return; // return just in case
+            }
+            request.setCharacterEncoding("UTF-8");
+            response.setCharacterEncoding("UTF-8");
+
+            handleEditPageSubmitted(request, response, request.getParameter("title"), connection);
+        } finally {
+            cFactory.returnConnection(connection);
         }
-        request.setCharacterEncoding("UTF-8");
-        response.setCharacterEncoding("UTF-8");
-        
-        handleEditPageSubmitted(request, response, request.getParameter("title"), connection);
         
         // if the request has not been forwarded, print a general error
         response.setContentType("text/html");
@@ -0,0 +1,91 @@
+/**
+ *  Copyright 2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Benchmarks of {@link ConnectionPolicy#selectNode()} of all connection
+ * policies under contention, i.e. with up to 16 threads sharing one policy
+ * object while nodes keep failing and recovering.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ * @version 3.6
+ * @since 3.6
+ *
+ * @see de.zib.scalaris.examples.ConnectionPolicyBenchmark
+ */
+public class ConnectionPolicyBench implements MicroBenchmark.Suite {
+    /**
+     * Number of nodes the policies choose from.
+     */
+    private static final int NODES = 8;
+    /**
+     * Thread counts to test.
+     */
+    private static final int[] THREADS = {1, 4, 16};
+    /**
+     * Number of operations (per thread) between two node failures.
+     */
+    private static final int FLAP_EVERY = 1000;
+
+    /**
+     * Selects a node and lets it fail every {@link #FLAP_EVERY} operations.
+     */
+    private static class SelectNode implements MicroBenchmark.Operation {
+        private final ConnectionPolicy policy;
+        private final ThreadLocal<int[]> ops = new ThreadLocal<int[]>() {
+            @Override
+            protected int[] initialValue() {
+                return new int[1];
+            }
+        };
+
+        SelectNode(final ConnectionPolicy policy) {
+            this.policy = policy;
+        }
+
+        public int run() {
+            final PeerNode node = policy.selectNode();
+            final int[] count = ops.get();
+            if ((++count[0] % FLAP_EVERY) == 0) {
+                policy.nodeFailed(node);
+                policy.nodeConnectSuccess(node);
+            }
+            return node.hashCode();
+        }
+    }
+
+    private static List<PeerNode> createNodes() {
+        final List<PeerNode> nodes = new ArrayList<PeerNode>(NODES);
+        for (int i = 0; i < NODES; ++i) {
+            nodes.add(new PeerNode("node" + i + "@localhost"));
+        }
+        return nodes;
+    }
+
+    public void register(final MicroBenchmark harness) {
+        for (final int threads : THREADS) {
+            harness.add("DefaultConnectionPolicy.selectNode", threads,
+                    new SelectNode(new DefaultConnectionPolicy(createNodes())));
+            harness.add("LockFreeConnectionPolicy.selectNode", threads,
+                    new SelectNode(new LockFreeConnectionPolicy(createNodes())));
+            harness.add("LatencyAwareConnectionPolicy.selectNode", threads,
+                    new SelectNode(new LatencyAwareConnectionPolicy(createNodes())));
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/**
+ *  Copyright 2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Benchmarks of {@link ErlangValue#convertToErlang(Object)} and the
+ * <tt>*Value()</tt> accessors of {@link ErlangValue}.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ * @version 3.6
+ * @since 3.6
+ */
+public class ErlangValueBench implements MicroBenchmark.Suite {
+    /**
+     * Number of elements of the lists.
+     */
+    private static final int LIST_SIZE = 100;
+
+    public void register(final MicroBenchmark harness) {
+        final String string = "Some value of a scalaris key.";
+        final byte[] binary = string.getBytes(ErlangValue.UTF8);
+        final Long longObj = 4711L;
+        final Integer intObj = 42;
+        final Double doubleObj = 47.11;
+        final BigInteger bigInt = BigInteger.valueOf(Long.MAX_VALUE).shiftLeft(8);
+        final long[] longs = new long[LIST_SIZE];
+        final double[] doubles = new double[LIST_SIZE];
+        final List<Long> longList = new ArrayList<Long>(LIST_SIZE);
+        final List<String> stringList = new ArrayList<String>(LIST_SIZE);
+        final List<byte[]> binaryList = new ArrayList<byte[]>(LIST_SIZE);
+        for (int i = 0; i < LIST_SIZE; ++i) {
+            longs[i] = i * 4711L;
+            doubles[i] = i * 47.11;
+            longList.add(longs[i]);
+            stringList.add(string + i);
+            binaryList.add(binary);
+        }
+        final Map<String, Object> map = new HashMap<String, Object>();
+        map.put("id", 4711);
+        map.put("title", string);
+        map.put("minor", false);
+        map.put("categories", stringList.subList(0, 3));
+
+        // Java -> Erlang
+        harness.add("ErlangValue.convertToErlang(Boolean)", new MicroBenchmark.Operation() {
+            public int run() { return ErlangValue.convertToErlang(Boolean.TRUE).hashCode(); }
+        });
+        harness.add("ErlangValue.convertToErlang(Integer)", new MicroBenchmark.Operation() {
+            public int run() { return ErlangValue.convertToErlang(intObj).hashCode(); }
+        });
+        harness.add("ErlangValue.convertToErlang(Long)", new MicroBenchmark.Operation() {
+            public int run() { return ErlangValue.convertToErlang(longObj).hashCode(); }
+        });
+        harness.add("ErlangValue.convertToErlang(BigInteger)", new MicroBenchmark.Operation() {
+            public int run() { return ErlangValue.convertToErlang(bigInt).hashCode(); }
+        });
+        harness.add("ErlangValue.convertToErlang(Double)", new MicroBenchmark.Operation() {
+            public int run() { return ErlangValue.convertToErlang(doubleObj).hashCode(); }
+        });
+        harness.add("ErlangValue.convertToErlang(String)", new MicroBenchmark.Operation() {
+            public int run() { return ErlangValue.convertToErlang(string).hashCode(); }
+        });
+        harness.add("ErlangValue.convertToErlang(byte[])", new MicroBenchmark.Operation() {
+            public int run() { return ErlangValue.convertToErlang(binary).hashCode(); }
+        });
+        harness.add("ErlangValue.convertToErlang(List<Long>)", new MicroBenchmark.Operation() {
+            public int run() { return ErlangValue.convertToErlang(longList).hashCode(); }
+        });
+        harness.add("ErlangValue.convertToErlang(long[])", new MicroBenchmark.Operation() {
+            public int run() { return ErlangValue.convertToErlang(longs).arity(); }
+        });
+        harness.add("ErlangValue.convertToErlang(List<String>)", new MicroBenchmark.Operation() {
+            public int run() { return ErlangValue.convertToErlang(stringList).hashCode(); }
+        });
+        harness.add("ErlangValue.convertToErlang(Map)", new MicroBenchmark.Operation() {
+            public int run() { return ErlangValue.convertToErlang(map).hashCode(); }
+        });
+
+        // Erlang -> Java
+        final ErlangValue boolValue = new ErlangValue(Boolean.TRUE);
+        final ErlangValue intValue = new ErlangValue(intObj);
+        final ErlangValue longValue = new ErlangValue(longObj);
+        final ErlangValue bigIntValue = new ErlangValue(bigInt);
+        final ErlangValue doubleValue = new ErlangValue(doubleObj);
+        final ErlangValue stringValue = new ErlangValue(string);
+        final ErlangValue binaryValue = new ErlangValue(binary);
+        final ErlangValue jsonValue = new ErlangValue(map);
+        final ErlangValue longListValue = new ErlangValue(longs);
+        final ErlangValue doubleListValue = new ErlangValue(doubles);
+        final ErlangValue stringListValue = new ErlangValue(stringList);
+        final ErlangValue binaryListValue = new ErlangValue(binaryList);
+        harness.add("ErlangValue.boolValue", new MicroBenchmark.Operation() {
+            public int run() { return boolValue.boolValue() ? 1 : 0; }
+        });
+        harness.add("ErlangValue.intValue", new MicroBenchmark.Operation() {
+            public int run() { return intValue.intValue(); }
+        });
+        harness.add("ErlangValue.longValue", new MicroBenchmark.Operation() {
+            public int run() { return (int) longValue.longValue(); }
+        });
+        harness.add("ErlangValue.bigIntValue", new MicroBenchmark.Operation() {
+            public int run() { return bigIntValue.bigIntValue().bitLength(); }
+        });
+        harness.add("ErlangValue.doubleValue", new MicroBenchmark.Operation() {
+            public int run() { return (int) doubleValue.doubleValue(); }
+        });
+        harness.add("ErlangValue.stringValue", new MicroBenchmark.Operation() {
+            public int run() { return stringValue.stringValue().length(); }
+        });
+        harness.add("ErlangValue.binaryValue", new MicroBenchmark.Operation() {
+            public int run() { return binaryValue.binaryValue().length; }
+        });
+        harness.add("ErlangValue.jsonValue", new MicroBenchmark.Operation() {
+            public int run() { return jsonValue.jsonValue().size(); }
+        });
+        harness.add("ErlangValue.listValue", new MicroBenchmark.Operation() {
+            public int run() { return longListValue.listValue().size(); }
+        });
+        harness.add("ErlangValue.longListValue", new MicroBenchmark.Operation() {
+            public int run() { return longListValue.longListValue().size(); }
+        });
+        harness.add("ErlangValue.longArrayValue", new MicroBenchmark.Operation() {
+            public int run() { return longListValue.longArrayValue().length; }
+        });
+        harness.add("ErlangValue.intArrayValue", new MicroBenchmark.Operation() {
+            public int run() { return longListValue.intArrayValue().length; }
+        });
+        harness.add("ErlangValue.doubleListValue", new MicroBenchmark.Operation() {
+            public int run() { return doubleListValue.doubleListValue().size(); }
+        });
+        harness.add("ErlangValue.doubleArrayValue", new MicroBenchmark.Operation() {
+            public int run() { return doubleListValue.doubleArrayValue().length; }
+        });
+        harness.add("ErlangValue.stringListValue", new MicroBenchmark.Operation() {
+            public int run() { return stringListValue.stringListValue().size(); }
+        });
+        harness.add("ErlangValue.lazyStringListValue", new MicroBenchmark.Operation() {
+            public int run() { return stringListValue.lazyStringListValue().get(LIST_SIZE / 2).length(); }
+        });
+        harness.add("ErlangValue.binaryListValue", new MicroBenchmark.Operation() {
+            public int run() { return binaryListValue.binaryListValue().size(); }
+        });
+    }
+}
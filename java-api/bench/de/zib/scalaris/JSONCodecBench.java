@@ -0,0 +1,147 @@
+/**
+ *  Copyright 2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import com.ericsson.otp.erlang.OtpErlangDecodeException;
+import com.ericsson.otp.erlang.OtpErlangList;
+import com.ericsson.otp.erlang.OtpErlangTuple;
+import com.ericsson.otp.erlang.OtpInputStream;
+import com.ericsson.otp.erlang.OtpOutputStream;
+
+/**
+ * Benchmarks of the JSON codecs for Beans ({@link ErlangValueJSONToBean})
+ * and maps ({@link ErlangValueJSONToMap}) as well as the binary Bean format
+ * ({@link ErlangValueBinaryBean}), with and without the encoding to the
+ * erlang external term format. The <tt>uncached</tt> variants create a new
+ * {@link ErlangValueJSONToBean} per conversion, i.e. analyse the Bean class
+ * each time.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ * @version 3.6
+ * @since 3.6
+ */
+public class JSONCodecBench implements MicroBenchmark.Suite {
+    /**
+     * Sample Bean similar to a wiki revision.
+     */
+    public static class Revision {
+        private int id = 4711;
+        private String timestamp = "2011-01-01T00:00:00Z";
+        private boolean minor = false;
+        private String contributor = "Scalaris";
+        private String comment = "benchmark";
+        private String text = "Some text of a wiki page.";
+        private List<String> categories = new ArrayList<String>();
+
+        /**
+         * Creates a new revision.
+         */
+        public Revision() {
+            categories.add("Category:A");
+            categories.add("Category:B");
+        }
+
+        public int getId() { return id; }
+        public String getTimestamp() { return timestamp; }
+        public boolean isMinor() { return minor; }
+        public String getContributor() { return contributor; }
+        public String getComment() { return comment; }
+        public String getText() { return text; }
+        public List<String> getCategories() { return categories; }
+
+        public void setId(final int id) { this.id = id; }
+        public void setTimestamp(final String timestamp) { this.timestamp = timestamp; }
+        public void setMinor(final boolean minor) { this.minor = minor; }
+        public void setContributor(final String contributor) { this.contributor = contributor; }
+        public void setComment(final String comment) { this.comment = comment; }
+        public void setText(final String text) { this.text = text; }
+        public void setCategories(final List<String> categories) { this.categories = categories; }
+    }
+
+    public void register(final MicroBenchmark harness) {
+        final Revision bean = new Revision();
+        final ErlangValueJSONToBean<Revision> beanCodec = ErlangValueJSONToBean.getInstance(Revision.class);
+        final OtpErlangTuple beanJSON = beanCodec.toScalarisJSON(bean);
+        final byte[] beanJSONBytes = new OtpOutputStream(beanJSON).toByteArray();
+        final Map<String, Object> map = new ErlangValue(beanJSON).jsonValue();
+        final ErlangValueJSONToMap mapCodec = new ErlangValueJSONToMap();
+        final OtpErlangTuple mapJSON = mapCodec.toScalarisJSON(map);
+        final byte[] binaryBeanBytes = new OtpOutputStream(new ErlangValueBinaryBean(bean).value()).toByteArray();
+
+        harness.add("JSON.bean.toScalarisJSON", new MicroBenchmark.Operation() {
+            public int run() {
+                return ErlangValueJSONToBean.getInstance(Revision.class).toScalarisJSON(bean).arity();
+            }
+        });
+        harness.add("JSON.bean.toJava", new MicroBenchmark.Operation() {
+            public int run() {
+                return ErlangValueJSONToBean.getInstance(Revision.class)
+                        .toJava((OtpErlangList) beanJSON.elementAt(1)).getId();
+            }
+        });
+        harness.add("JSON.bean.encode", new MicroBenchmark.Operation() {
+            public int run() {
+                return new OtpOutputStream(ErlangValueJSONToBean.getInstance(
+                        Revision.class).toScalarisJSON(bean)).size();
+            }
+        });
+        harness.add("JSON.bean.decode", new MicroBenchmark.Operation() {
+            public int run() {
+                try {
+                    final OtpErlangTuple t = (OtpErlangTuple) new OtpInputStream(beanJSONBytes).read_any();
+                    return ErlangValueJSONToBean.getInstance(Revision.class)
+                            .toJava((OtpErlangList) t.elementAt(1)).getId();
+                } catch (final OtpErlangDecodeException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        harness.add("JSON.bean.toScalarisJSON.uncached", new MicroBenchmark.Operation() {
+            public int run() {
+                return new ErlangValueJSONToBean<Revision>(Revision.class).toScalarisJSON(bean).arity();
+            }
+        });
+        harness.add("JSON.bean.toJava.uncached", new MicroBenchmark.Operation() {
+            public int run() {
+                return new ErlangValueJSONToBean<Revision>(Revision.class)
+                        .toJava((OtpErlangList) beanJSON.elementAt(1)).getId();
+            }
+        });
+        harness.add("JSON.map.toScalarisJSON", new MicroBenchmark.Operation() {
+            public int run() { return mapCodec.toScalarisJSON(map).arity(); }
+        });
+        harness.add("JSON.map.toJava", new MicroBenchmark.Operation() {
+            public int run() { return mapCodec.toJava((OtpErlangList) mapJSON.elementAt(1)).size(); }
+        });
+        harness.add("BinaryBean.encode", new MicroBenchmark.Operation() {
+            public int run() { return new OtpOutputStream(new ErlangValueBinaryBean(bean).value()).size(); }
+        });
+        harness.add("BinaryBean.decode", new MicroBenchmark.Operation() {
+            public int run() {
+                try {
+                    return new ErlangValue(new OtpInputStream(binaryBeanBytes).read_any())
+                            .jsonValue(Revision.class).getId();
+                } catch (final OtpErlangDecodeException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+    }
+}
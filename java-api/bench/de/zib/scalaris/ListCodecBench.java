@@ -0,0 +1,75 @@
+/**
+ *  Copyright 2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.ericsson.otp.erlang.OtpErlangList;
+
+/**
+ * Compares the boxed list accessors of {@link ErlangValue} (e.g.
+ * {@link ErlangValue#longListValue()}) with the primitive array accessors
+ * (e.g. {@link ErlangValue#longArrayValue()}) and the corresponding
+ * {@link ErlangValue#convertToErlang(Object)} overloads on large lists.
+ * The conversions start with an already decoded erlang list, i.e. the
+ * objects created by the OTP library while decoding a message are not
+ * included.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ * @version 3.6
+ * @since 3.6
+ */
+public class ListCodecBench implements MicroBenchmark.Suite {
+    /**
+     * Number of elements of the lists.
+     */
+    private static final int LIST_SIZE = 10000;
+
+    public void register(final MicroBenchmark harness) {
+        final Random random = new Random(4711);
+        final long[] longs = new long[LIST_SIZE];
+        final double[] doubles = new double[LIST_SIZE];
+        final List<Long> longList = new ArrayList<Long>(LIST_SIZE);
+        for (int i = 0; i < LIST_SIZE; ++i) {
+            longs[i] = random.nextLong();
+            doubles[i] = random.nextDouble();
+            longList.add(longs[i]);
+        }
+        final ErlangValue longValue = new ErlangValue(longs);
+        final ErlangValue doubleValue = new ErlangValue(doubles);
+
+        harness.add("ListCodec.longListValue", new MicroBenchmark.Operation() {
+            public int run() { return longValue.longListValue().size(); }
+        });
+        harness.add("ListCodec.longArrayValue", new MicroBenchmark.Operation() {
+            public int run() { return longValue.longArrayValue().length; }
+        });
+        harness.add("ListCodec.doubleListValue", new MicroBenchmark.Operation() {
+            public int run() { return doubleValue.doubleListValue().size(); }
+        });
+        harness.add("ListCodec.doubleArrayValue", new MicroBenchmark.Operation() {
+            public int run() { return doubleValue.doubleArrayValue().length; }
+        });
+        harness.add("ListCodec.convertToErlang(List)", new MicroBenchmark.Operation() {
+            public int run() { return ((OtpErlangList) ErlangValue.convertToErlang(longList)).arity(); }
+        });
+        harness.add("ListCodec.convertToErlang(long[])", new MicroBenchmark.Operation() {
+            public int run() { return ErlangValue.convertToErlang(longs).arity(); }
+        });
+    }
+}
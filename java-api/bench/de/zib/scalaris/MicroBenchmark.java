@@ -0,0 +1,563 @@
+/**
+ *  Copyright 2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Minimal micro-benchmark harness for the local (client-side) hot paths of
+ * the Java API, modelled after JMH's throughput mode. No scalaris node is
+ * required.
+ *
+ * Each benchmark runs {@link #getWarmupIterations()} warm-up iterations and
+ * {@link #getIterations()} measurement iterations of
+ * {@link #getIterationTime()} milliseconds each in which one or more threads
+ * call the {@link Operation} as often as possible. The score is the number of
+ * operations per second (summed up over all threads), the score error the
+ * half-width of the 99.9% confidence interval over the measurement
+ * iterations. The allocated bytes per operation are measured with the
+ * <tt>com.sun.management.ThreadMXBean</tt> extension if available.
+ *
+ * Results are printed as a table and can be written in the JSON format of
+ * JMH (<tt>-rf json</tt>) so that existing tools can compare runs.
+ *
+ * <p>
+ * Run the benchmarks with <code>ant bench</code> or
+ * <code>java -cp scalaris.jar:bench-classes:lib/* de.zib.scalaris.MicroBenchmark [options] [suites]</code>
+ * where the options are
+ * </p>
+ * <ul>
+ * <li><tt>-o &lt;file&gt;</tt> - write the results as JSON to the given file</li>
+ * <li><tt>-wi &lt;n&gt;</tt> - number of warm-up iterations (default: 3)</li>
+ * <li><tt>-i &lt;n&gt;</tt> - number of measurement iterations (default: 5)</li>
+ * <li><tt>-t &lt;ms&gt;</tt> - duration of each iteration (default: 1000)</li>
+ * <li><tt>-f &lt;regex&gt;</tt> - only run benchmarks whose name contains a
+ * match of the regular expression</li>
+ * </ul>
+ * and the suites are fully qualified names of {@link Suite} classes
+ * (default: all suites of the Java API).
+ *
+ * @author Nico Kruber, kruber@zib.de
+ * @version 3.6
+ * @since 3.6
+ */
+public class MicroBenchmark {
+    /**
+     * An operation to benchmark.
+     */
+    public static interface Operation {
+        /**
+         * Runs the operation once.
+         *
+         * @return some value depending on the result (prevents dead code
+         *         elimination)
+         */
+        public abstract int run();
+    }
+
+    /**
+     * A set of benchmarks.
+     */
+    public static interface Suite {
+        /**
+         * Adds the benchmarks of this suite to the given harness.
+         *
+         * @param harness
+         *            the harness to add the benchmarks to
+         */
+        public abstract void register(MicroBenchmark harness);
+    }
+
+    /**
+     * The suites run by default.
+     */
+    private static final String[] DEFAULT_SUITES = {
+            "de.zib.scalaris.ErlangValueBench",
+            "de.zib.scalaris.JSONCodecBench",
+            "de.zib.scalaris.ListCodecBench",
+            "de.zib.scalaris.RequestListBench",
+            "de.zib.scalaris.ConnectionPolicyBench" };
+
+    /**
+     * Two-sided 99.9% quantiles of the Student's t distribution for 1 to 30
+     * degrees of freedom.
+     */
+    private static final double[] T_999 = { 636.619, 31.599, 12.924, 8.610,
+            6.869, 5.959, 5.408, 5.041, 4.781, 4.587, 4.437, 4.318, 4.221,
+            4.140, 4.073, 4.015, 3.965, 3.922, 3.883, 3.850, 3.819, 3.792,
+            3.768, 3.745, 3.725, 3.707, 3.690, 3.674, 3.659, 3.646 };
+
+    /**
+     * Signals the end of an iteration to the benchmark threads.
+     */
+    private static class StopFlag {
+        private volatile boolean stopped = false;
+    }
+
+    /**
+     * A registered benchmark.
+     */
+    private static class Entry {
+        private final String name;
+        private final int threads;
+        private final Operation operation;
+
+        Entry(final String name, final int threads, final Operation operation) {
+            this.name = name;
+            this.threads = threads;
+            this.operation = operation;
+        }
+    }
+
+    /**
+     * Result of a single benchmark (immutable).
+     *
+     * @author Nico Kruber, kruber@zib.de
+     * @version 3.6
+     * @since 3.6
+     */
+    public static class Result {
+        private final String name;
+        private final int threads;
+        private final double[] opsPerSecond;
+        private final double bytesPerOp;
+
+        Result(final String name, final int threads,
+                final double[] opsPerSecond, final double bytesPerOp) {
+            this.name = name;
+            this.threads = threads;
+            this.opsPerSecond = opsPerSecond;
+            this.bytesPerOp = bytesPerOp;
+        }
+
+        /**
+         * @return the name of the benchmark
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the number of threads
+         */
+        public int getThreads() {
+            return threads;
+        }
+
+        /**
+         * @return the operations per second of each measurement iteration
+         */
+        public double[] getRawData() {
+            return opsPerSecond.clone();
+        }
+
+        /**
+         * @return the mean number of operations per second
+         */
+        public double getScore() {
+            double sum = 0.0;
+            for (final double d : opsPerSecond) {
+                sum += d;
+            }
+            return sum / opsPerSecond.length;
+        }
+
+        /**
+         * @return the half-width of the 99.9% confidence interval of
+         *         {@link #getScore()} (<tt>NaN</tt> with less than two
+         *         iterations)
+         */
+        public double getScoreError() {
+            final int n = opsPerSecond.length;
+            if (n < 2) {
+                return Double.NaN;
+            }
+            final double mean = getScore();
+            double sq = 0.0;
+            for (final double d : opsPerSecond) {
+                sq += (d - mean) * (d - mean);
+            }
+            final double t = (n - 1 <= T_999.length) ? T_999[n - 2] : 3.291;
+            return t * Math.sqrt(sq / (n - 1)) / Math.sqrt(n);
+        }
+
+        /**
+         * @return the number of bytes allocated per operation (<tt>NaN</tt>
+         *         if unknown)
+         */
+        public double getBytesPerOp() {
+            return bytesPerOp;
+        }
+    }
+
+    private final List<Entry> benchmarks = new ArrayList<Entry>();
+    private int warmupIterations = 3;
+    private int iterations = 5;
+    private long iterationTime = 1000;
+    private Pattern filter = null;
+
+    /**
+     * Creates an empty harness.
+     */
+    public MicroBenchmark() {
+    }
+
+    /**
+     * Adds a single-threaded benchmark.
+     *
+     * @param name
+     *            the name of the benchmark
+     * @param operation
+     *            the operation to benchmark
+     */
+    public void add(final String name, final Operation operation) {
+        add(name, 1, operation);
+    }
+
+    /**
+     * Adds a benchmark in which the given number of threads call the same
+     * operation object concurrently.
+     *
+     * @param name
+     *            the name of the benchmark
+     * @param threads
+     *            the number of threads
+     * @param operation
+     *            the (thread-safe) operation to benchmark
+     */
+    public void add(final String name, final int threads, final Operation operation) {
+        benchmarks.add(new Entry(name, threads, operation));
+    }
+
+    /**
+     * Adds the benchmarks of the given suite.
+     *
+     * @param suite
+     *            the suite to add
+     */
+    public void add(final Suite suite) {
+        suite.register(this);
+    }
+
+    /**
+     * @return the number of warm-up iterations
+     */
+    public int getWarmupIterations() {
+        return warmupIterations;
+    }
+
+    /**
+     * @param warmupIterations
+     *            the number of warm-up iterations (default: 3)
+     */
+    public void setWarmupIterations(final int warmupIterations) {
+        this.warmupIterations = Math.max(0, warmupIterations);
+    }
+
+    /**
+     * @return the number of measurement iterations
+     */
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * @param iterations
+     *            the number of measurement iterations (default: 5)
+     */
+    public void setIterations(final int iterations) {
+        this.iterations = Math.max(1, iterations);
+    }
+
+    /**
+     * @return the duration of each iteration (in milliseconds)
+     */
+    public long getIterationTime() {
+        return iterationTime;
+    }
+
+    /**
+     * @param iterationTime
+     *            the duration of each iteration (in milliseconds, default:
+     *            1000)
+     */
+    public void setIterationTime(final long iterationTime) {
+        this.iterationTime = Math.max(1, iterationTime);
+    }
+
+    /**
+     * @param filter
+     *            only run benchmarks whose name contains a match of this
+     *            regular expression (<tt>null</tt> to run all)
+     */
+    public void setFilter(final String filter) {
+        this.filter = (filter == null) ? null : Pattern.compile(filter);
+    }
+
+    /**
+     * Runs all (matching) benchmarks and prints a summary of each to
+     * {@link System#out}.
+     *
+     * @return the results
+     *
+     * @throws InterruptedException
+     *             if interrupted while waiting for the benchmark threads
+     */
+    public List<Result> run() throws InterruptedException {
+        final List<Result> results = new ArrayList<Result>();
+        System.out.println(String.format(Locale.ENGLISH, "%-50s %3s %16s %14s %12s",
+                "Benchmark", "Thr", "Score (ops/s)", "Error", "B/op"));
+        for (final Entry entry : benchmarks) {
+            if ((filter != null) && !filter.matcher(entry.name).find()) {
+                continue;
+            }
+            for (int i = 0; i < warmupIterations; ++i) {
+                runIteration(entry);
+            }
+            final double[] opsPerSecond = new double[iterations];
+            long ops = 0;
+            long bytes = 0;
+            for (int i = 0; i < iterations; ++i) {
+                final long[] iteration = runIteration(entry);
+                opsPerSecond[i] = (iteration[0] * 1000000000.0) / Math.max(1, iteration[1]);
+                ops += iteration[0];
+                bytes = ((bytes < 0) || (iteration[2] < 0)) ? -1 : (bytes + iteration[2]);
+            }
+            final Result result = new Result(entry.name, entry.threads, opsPerSecond,
+                    (bytes < 0) ? Double.NaN : ((double) bytes / Math.max(1, ops)));
+            results.add(result);
+            System.out.println(String.format(Locale.ENGLISH, "%-50s %3d %16.1f %14.1f %12.1f",
+                    result.getName(), result.getThreads(), result.getScore(),
+                    result.getScoreError(), result.getBytesPerOp()));
+        }
+        return results;
+    }
+
+    /**
+     * Runs a single iteration of the given benchmark.
+     *
+     * @param entry
+     *            the benchmark
+     *
+     * @return the number of operations, the time taken (in nanoseconds) and
+     *         the number of allocated bytes (<tt>-1</tt> if unknown)
+     *
+     * @throws InterruptedException
+     *             if interrupted while waiting for the benchmark threads
+     */
+    private long[] runIteration(final Entry entry) throws InterruptedException {
+        final CountDownLatch ready = new CountDownLatch(entry.threads);
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(entry.threads);
+        final AtomicLong ops = new AtomicLong(0);
+        final AtomicLong bytes = new AtomicLong(0);
+        final AtomicLong sink = new AtomicLong(0);
+        final StopFlag stop = new StopFlag();
+        final Thread[] threads = new Thread[entry.threads];
+        for (int i = 0; i < threads.length; ++i) {
+            threads[i] = new Thread(new Runnable() {
+                public void run() {
+                    final Operation operation = entry.operation;
+                    ready.countDown();
+                    try {
+                        start.await();
+                    } catch (final InterruptedException e) {
+                        done.countDown();
+                        return;
+                    }
+                    final long allocStart = getAllocatedBytes();
+                    long count = 0;
+                    int hash = 0;
+                    while (true) {
+                        // check the stop flag only every few operations
+                        for (int j = 0; j < 16; ++j) {
+                            hash += operation.run();
+                        }
+                        count += 16;
+                        if (stop.stopped) {
+                            break;
+                        }
+                    }
+                    final long allocEnd = getAllocatedBytes();
+                    ops.addAndGet(count);
+                    sink.addAndGet(hash);
+                    if ((allocStart < 0) || (allocEnd < 0)) {
+                        bytes.set(Long.MIN_VALUE);
+                    } else {
+                        bytes.addAndGet(allocEnd - allocStart);
+                    }
+                    done.countDown();
+                }
+            }, "bench-" + entry.name + "-" + i);
+            threads[i].start();
+        }
+        ready.await();
+        final long begin = System.nanoTime();
+        start.countDown();
+        Thread.sleep(iterationTime);
+        stop.stopped = true;
+        done.await();
+        final long timeTaken = System.nanoTime() - begin;
+        if (sink.get() == 42) {
+            System.out.print("");
+        }
+        return new long[] { ops.get(), timeTaken, (bytes.get() < 0) ? -1 : bytes.get() };
+    }
+
+    /**
+     * Gets the number of bytes allocated by the current thread so far.
+     *
+     * @return the number of bytes or <tt>-1</tt> if unknown
+     */
+    private static long getAllocatedBytes() {
+        final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    /**
+     * Writes the given results in the JSON format of JMH.
+     *
+     * @param results
+     *            the results to write
+     * @param out
+     *            the writer to write to
+     *
+     * @throws IOException
+     *             if writing fails
+     */
+    public void writeJSON(final List<Result> results, final Writer out) throws IOException {
+        out.write("[\n");
+        for (int i = 0; i < results.size(); ++i) {
+            final Result r = results.get(i);
+            out.write("    {\n");
+            out.write("        \"benchmark\" : " + quote(r.getName()) + ",\n");
+            out.write("        \"mode\" : \"thrpt\",\n");
+            out.write("        \"threads\" : " + r.getThreads() + ",\n");
+            out.write("        \"forks\" : 1,\n");
+            out.write("        \"jvm\" : " + quote(System.getProperty("java.home")) + ",\n");
+            out.write("        \"jdkVersion\" : " + quote(System.getProperty("java.version")) + ",\n");
+            out.write("        \"warmupIterations\" : " + warmupIterations + ",\n");
+            out.write("        \"warmupTime\" : \"" + iterationTime + " ms\",\n");
+            out.write("        \"measurementIterations\" : " + iterations + ",\n");
+            out.write("        \"measurementTime\" : \"" + iterationTime + " ms\",\n");
+            out.write("        \"primaryMetric\" : {\n");
+            out.write("            \"score\" : " + number(r.getScore()) + ",\n");
+            out.write("            \"scoreError\" : " + number(r.getScoreError()) + ",\n");
+            out.write("            \"scoreUnit\" : \"ops/s\",\n");
+            out.write("            \"rawData\" : [\n                [\n");
+            final double[] raw = r.getRawData();
+            for (int j = 0; j < raw.length; ++j) {
+                out.write("                    " + number(raw[j])
+                        + ((j + 1 < raw.length) ? ",\n" : "\n"));
+            }
+            out.write("                ]\n            ]\n        },\n");
+            out.write("        \"secondaryMetrics\" : {\n");
+            if (!Double.isNaN(r.getBytesPerOp())) {
+                out.write("            \"gc.alloc.rate.norm\" : {\n");
+                out.write("                \"score\" : " + number(r.getBytesPerOp()) + ",\n");
+                out.write("                \"scoreUnit\" : \"B/op\"\n");
+                out.write("            }\n");
+            }
+            out.write("        }\n");
+            out.write("    }" + ((i + 1 < results.size()) ? ",\n" : "\n"));
+        }
+        out.write("]\n");
+        out.flush();
+    }
+
+    private static String number(final double d) {
+        return (Double.isNaN(d) || Double.isInfinite(d)) ? "\"NaN\""
+                : String.format(Locale.ENGLISH, "%.3f", d);
+    }
+
+    private static String quote(final String s) {
+        final StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); ++i) {
+            final char c = s.charAt(i);
+            if ((c == '"') || (c == '\\')) {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    /**
+     * Runs the benchmarks.
+     *
+     * @param args
+     *            command line arguments (see the class description)
+     *
+     * @throws Exception
+     *             if a suite cannot be loaded, writing the results fails or
+     *             the benchmark is interrupted
+     */
+    public static void main(final String[] args) throws Exception {
+        final MicroBenchmark harness = new MicroBenchmark();
+        String output = null;
+        final List<String> suites = new ArrayList<String>();
+        for (int i = 0; i < args.length; ++i) {
+            if (args[i].equals("-o") && (i + 1 < args.length)) {
+                output = args[++i];
+            } else if (args[i].equals("-wi") && (i + 1 < args.length)) {
+                harness.setWarmupIterations(Integer.parseInt(args[++i]));
+            } else if (args[i].equals("-i") && (i + 1 < args.length)) {
+                harness.setIterations(Integer.parseInt(args[++i]));
+            } else if (args[i].equals("-t") && (i + 1 < args.length)) {
+                harness.setIterationTime(Long.parseLong(args[++i]));
+            } else if (args[i].equals("-f") && (i + 1 < args.length)) {
+                harness.setFilter(args[++i]);
+            } else if (args[i].length() > 0) {
+                suites.add(args[i]);
+            }
+        }
+        if (suites.isEmpty()) {
+            for (final String suite : DEFAULT_SUITES) {
+                suites.add(suite);
+            }
+        }
+        for (final String suite : suites) {
+            harness.add((Suite) Class.forName(suite).getDeclaredConstructor().newInstance());
+        }
+        final List<Result> results = harness.run();
+        if (output != null) {
+            final Writer out = new OutputStreamWriter(new FileOutputStream(output), "UTF-8");
+            try {
+                harness.writeJSON(results, out);
+            } finally {
+                out.close();
+            }
+            System.out.println("Results written to " + output);
+        }
+    }
+}
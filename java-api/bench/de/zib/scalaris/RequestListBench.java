@@ -0,0 +1,112 @@
+/**
+ *  Copyright 2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import com.ericsson.otp.erlang.OtpErlangException;
+import com.ericsson.otp.erlang.OtpErlangList;
+import com.ericsson.otp.erlang.OtpErlangObject;
+import com.ericsson.otp.erlang.OtpErlangTuple;
+
+/**
+ * Benchmarks of building request lists ({@link TransactionSingleOp.RequestList},
+ * {@link Transaction.RequestList}) and of processing the corresponding result
+ * lists.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ * @version 3.6
+ * @since 3.6
+ */
+public class RequestListBench implements MicroBenchmark.Suite {
+    /**
+     * Number of reads and writes per request list.
+     */
+    private static final int OPS = 10;
+
+    public void register(final MicroBenchmark harness) {
+        final String[] keys = new String[OPS];
+        final String[] values = new String[OPS];
+        final OtpErlangObject[] results = new OtpErlangObject[2 * OPS];
+        for (int i = 0; i < OPS; ++i) {
+            keys[i] = "key" + i;
+            values[i] = "value" + i;
+            results[i] = new OtpErlangTuple(new OtpErlangObject[] {
+                    CommonErlangObjects.okAtom,
+                    ErlangValue.convertToErlang(values[i]) });
+            results[OPS + i] = CommonErlangObjects.okTupleAtom;
+        }
+        final OtpErlangList resultList = new OtpErlangList(results);
+
+        harness.add("TransactionSingleOp.RequestList.build", new MicroBenchmark.Operation() {
+            public int run() {
+                final TransactionSingleOp.RequestList req = new TransactionSingleOp.RequestList();
+                for (int i = 0; i < OPS; ++i) {
+                    req.addRead(keys[i]);
+                }
+                for (int i = 0; i < OPS; ++i) {
+                    req.addWrite(keys[i], values[i]);
+                }
+                return req.getErlangReqList().arity();
+            }
+        });
+        harness.add("Transaction.RequestList.build", new MicroBenchmark.Operation() {
+            public int run() {
+                final Transaction.RequestList req = new Transaction.RequestList();
+                for (int i = 0; i < OPS; ++i) {
+                    req.addRead(keys[i]);
+                }
+                for (int i = 0; i < OPS; ++i) {
+                    req.addWrite(keys[i], values[i]);
+                }
+                req.addCommit();
+                return req.getErlangReqList().arity();
+            }
+        });
+        harness.add("TransactionSingleOp.ResultList.process", new MicroBenchmark.Operation() {
+            public int run() {
+                final TransactionSingleOp.ResultList result = new TransactionSingleOp.ResultList(resultList);
+                int hash = 0;
+                try {
+                    for (int i = 0; i < OPS; ++i) {
+                        hash += result.processReadAt(i).stringValue().length();
+                    }
+                    for (int i = OPS; i < 2 * OPS; ++i) {
+                        result.processWriteAt(i);
+                    }
+                } catch (final OtpErlangException e) {
+                    throw new IllegalStateException(e);
+                }
+                return hash;
+            }
+        });
+        harness.add("Transaction.ResultList.process", new MicroBenchmark.Operation() {
+            public int run() {
+                final Transaction.ResultList result = new Transaction.ResultList(resultList);
+                int hash = 0;
+                try {
+                    for (int i = 0; i < OPS; ++i) {
+                        hash += result.processReadAt(i).stringValue().length();
+                    }
+                    for (int i = OPS; i < 2 * OPS; ++i) {
+                        result.processWriteAt(i);
+                    }
+                } catch (final OtpErlangException e) {
+                    throw new IllegalStateException(e);
+                }
+                return hash;
+            }
+        });
+    }
+}
@@ -0,0 +1,313 @@
+/**
+ *  Copyright 2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The (future) result of an asynchronous operation, e.g.
+ * {@link Connection#doRPCAsync(String, String, com.ericsson.otp.erlang.OtpErlangList)}
+ * or {@link TransactionSingleOp#readAsync(String)}.
+ *
+ * Results can either be waited for with {@link #get()} or processed by a
+ * {@link ResultCallback} registered with {@link #addCallback(ResultCallback)}.
+ * If the operation failed, {@link #get()} throws an {@link ExecutionException}
+ * whose cause is the exception the synchronous variant of the operation would
+ * have thrown.
+ *
+ * RPCs that have already been sent can not be cancelled, i.e.
+ * {@link #cancel(boolean)} always returns <tt>false</tt>.
+ *
+ * @param <T>
+ *            the type of the result
+ *
+ * @author Nico Kruber, kruber@zib.de
+ * @version 3.6
+ * @since 3.6
+ */
+public class AsyncResult<T> implements Future<T> {
+    /**
+     * Converts the result of one asynchronous operation into the result of
+     * another one.
+     *
+     * @param <S>
+     *            the type of the source value
+     * @param <T>
+     *            the type to convert to
+     *
+     * @author Nico Kruber, kruber@zib.de
+     * @version 3.6
+     * @since 3.6
+     */
+    static interface Converter<S, T> {
+        /**
+         * Conversion function.
+         *
+         * @param value
+         *            the value to convert
+         *
+         * @return the converted value
+         *
+         * @throws Exception
+         *             if the value indicates a failed operation
+         */
+        public abstract T convert(S value) throws Exception;
+    }
+
+    /**
+     * Signals the completion of the operation.
+     */
+    private final CountDownLatch done = new CountDownLatch(1);
+    /**
+     * The result of the operation (if successful).
+     */
+    private volatile T result = null;
+    /**
+     * The exception of the operation (if failed).
+     */
+    private volatile Exception error = null;
+    /**
+     * Callbacks to execute when the operation has finished (<tt>null</tt>
+     * after completion).
+     */
+    private List<ResultCallback<T>> callbacks = new ArrayList<ResultCallback<T>>(1);
+
+    /**
+     * Creates a new (not yet completed) result object.
+     */
+    AsyncResult() {
+    }
+
+    /**
+     * Sets the result of the operation and notifies waiting threads and
+     * callbacks. {@link RuntimeException}s thrown by callbacks are ignored.
+     *
+     * @param result
+     *            the result
+     *
+     * @return <tt>true</tt> if the result has been set, <tt>false</tt> if the
+     *         operation has already been completed before
+     */
+    boolean complete(final T result) {
+        final List<ResultCallback<T>> toCall;
+        synchronized (this) {
+            if (callbacks == null) {
+                return false;
+            }
+            this.result = result;
+            toCall = callbacks;
+            callbacks = null;
+        }
+        done.countDown();
+        for (final ResultCallback<T> callback : toCall) {
+            try {
+                callback.onSuccess(result);
+            } catch (final RuntimeException e) {
+                // must neither end the completing (receiver) thread nor
+                // keep the other callbacks from being called
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sets the operation to failed and notifies waiting threads and callbacks.
+     * {@link RuntimeException}s thrown by callbacks are ignored.
+     *
+     * @param e
+     *            the exception the operation failed with
+     *
+     * @return <tt>true</tt> if the exception has been set, <tt>false</tt> if
+     *         the operation has already been completed before
+     */
+    boolean fail(final Exception e) {
+        final List<ResultCallback<T>> toCall;
+        synchronized (this) {
+            if (callbacks == null) {
+                return false;
+            }
+            this.error = e;
+            toCall = callbacks;
+            callbacks = null;
+        }
+        done.countDown();
+        for (final ResultCallback<T> callback : toCall) {
+            try {
+                callback.onFailure(e);
+            } catch (final RuntimeException e2) {
+                // must neither end the completing (receiver) thread nor
+                // keep the other callbacks from being called
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds a callback which will be called when the operation has finished.
+     * If it has already finished, the callback will be executed immediately
+     * by the current thread.
+     *
+     * @param callback
+     *            the callback to add
+     *
+     * @return this object
+     */
+    public AsyncResult<T> addCallback(final ResultCallback<T> callback) {
+        synchronized (this) {
+            if (callbacks != null) {
+                callbacks.add(callback);
+                return this;
+            }
+        }
+        if (error == null) {
+            callback.onSuccess(result);
+        } else {
+            callback.onFailure(error);
+        }
+        return this;
+    }
+
+    /**
+     * Creates a new result object that is completed with the converted value
+     * of the <tt>source</tt> once it has been completed.
+     *
+     * @param <S>
+     *            the type of the source value
+     * @param <T>
+     *            the type to convert to
+     * @param source
+     *            the asynchronous result to convert
+     * @param converter
+     *            the converter to use
+     *
+     * @return a result object of the converted value
+     */
+    static <S, T> AsyncResult<T> convert(final AsyncResult<S> source,
+            final Converter<S, T> converter) {
+        final AsyncResult<T> target = new AsyncResult<T>();
+        source.addCallback(new ResultCallback<S>() {
+            public void onSuccess(final S value) {
+                final T converted;
+                try {
+                    converted = converter.convert(value);
+                } catch (final Exception e) {
+                    target.fail(e);
+                    return;
+                }
+                target.complete(converted);
+            }
+
+            public void onFailure(final Exception e) {
+                target.fail(e);
+            }
+        });
+        return target;
+    }
+
+    /**
+     * Operations that have already been sent can not be cancelled.
+     *
+     * @param mayInterruptIfRunning
+     *            ignored
+     *
+     * @return <tt>false</tt>
+     */
+    public boolean cancel(final boolean mayInterruptIfRunning) {
+        return false;
+    }
+
+    /**
+     * Operations can not be cancelled.
+     *
+     * @return <tt>false</tt>
+     */
+    public boolean isCancelled() {
+        return false;
+    }
+
+    /**
+     * Returns whether the operation has finished (successfully or not).
+     *
+     * @return <tt>true</tt> if the operation finished
+     */
+    public boolean isDone() {
+        return done.getCount() == 0;
+    }
+
+    /**
+     * Waits for the operation to finish and returns its result.
+     *
+     * @return the result of the operation
+     *
+     * @throws InterruptedException
+     *             if the current thread was interrupted while waiting
+     * @throws ExecutionException
+     *             if the operation failed (the cause is the exception the
+     *             synchronous variant of the operation would have thrown)
+     */
+    public T get() throws InterruptedException, ExecutionException {
+        done.await();
+        return getResult();
+    }
+
+    /**
+     * Waits at most the given time for the operation to finish and returns its
+     * result.
+     *
+     * @param timeout
+     *            the maximum time to wait
+     * @param unit
+     *            the time unit of the timeout argument
+     *
+     * @return the result of the operation
+     *
+     * @throws InterruptedException
+     *             if the current thread was interrupted while waiting
+     * @throws ExecutionException
+     *             if the operation failed (the cause is the exception the
+     *             synchronous variant of the operation would have thrown)
+     * @throws java.util.concurrent.TimeoutException
+     *             if the wait timed out
+     */
+    public T get(final long timeout, final TimeUnit unit)
+            throws InterruptedException, ExecutionException,
+            java.util.concurrent.TimeoutException {
+        if (!done.await(timeout, unit)) {
+            throw new java.util.concurrent.TimeoutException();
+        }
+        return getResult();
+    }
+
+    /**
+     * Returns the result of a completed operation.
+     *
+     * @return the result
+     *
+     * @throws ExecutionException
+     *             if the operation failed
+     */
+    private T getResult() throws ExecutionException {
+        if (error != null) {
+            throw new ExecutionException(error);
+        }
+        return result;
+    }
+}
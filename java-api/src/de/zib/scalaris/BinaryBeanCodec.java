@@ -0,0 +1,509 @@
+/**
+ *  Copyright 2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes Beans (and maps) to a compact binary format and back.
+ *
+ * Layout (all integers are unsigned variable-length integers with 7 bits per
+ * byte, least significant group first, unless noted otherwise):
+ * <pre>
+ *   binary := VERSION value
+ *   value  := TAG_NULL | TAG_FALSE | TAG_TRUE
+ *           | TAG_INT zigzag(long)
+ *           | TAG_BIGINT length bytes          (two's complement, big-endian)
+ *           | TAG_DOUBLE 8 bytes               (IEEE 754, big-endian)
+ *           | TAG_STRING length utf8
+ *           | TAG_LIST count value*
+ *           | TAG_OBJECT count (length utf8 value)*
+ *           | TAG_BEAN schema value*            (one value per property)
+ *   schema := id                               (a previous schema)
+ *           | id count (length utf8)*          (a new schema, id = #schemas)
+ * </pre>
+ *
+ * Maps are written as objects with their keys. Beans only refer to the
+ * schema of their class, i.e. the list of property names, and write the
+ * property values positionally. A schema is written once per binary with
+ * the next free id at the first Bean of its class; all further Beans of
+ * that class (e.g. in a list of Beans) only write the id. The schema is not
+ * registered outside the binary since values may be read by other
+ * processes whose classes differ, e.g. after adding a property. Readers
+ * thus still map properties by name (once per schema) just like with
+ * Scalaris-JSON. Binaries of the first version without schemas can still
+ * be read. The same types as in {@link ErlangValueJSONToBean} are
+ * supported.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ * @version 3.6
+ * @since 3.6
+ */
+final class BinaryBeanCodec {
+    /**
+     * Version of the format.
+     */
+    static final byte VERSION = 2;
+
+    /**
+     * Version of the format without Bean schemas (TAG_BEAN).
+     */
+    static final byte VERSION_1 = 1;
+
+    private static final byte TAG_NULL = 0;
+    private static final byte TAG_FALSE = 1;
+    private static final byte TAG_TRUE = 2;
+    private static final byte TAG_INT = 3;
+    private static final byte TAG_BIGINT = 4;
+    private static final byte TAG_DOUBLE = 5;
+    private static final byte TAG_STRING = 6;
+    private static final byte TAG_LIST = 7;
+    private static final byte TAG_OBJECT = 8;
+    private static final byte TAG_BEAN = 9;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private BinaryBeanCodec() {
+    }
+
+    /**
+     * Growable output buffer.
+     */
+    private static final class Output {
+        byte[] buf = new byte[256];
+        int len = 0;
+        /**
+         * Ids of the schemas written so far (by Bean class).
+         */
+        final Map<Class<?>, Integer> schemas = new HashMap<Class<?>, Integer>();
+
+        void ensure(final int extra) {
+            if ((len + extra) > buf.length) {
+                final byte[] newBuf = new byte[Math.max(buf.length * 2, len + extra)];
+                System.arraycopy(buf, 0, newBuf, 0, len);
+                buf = newBuf;
+            }
+        }
+
+        void writeByte(final int b) {
+            ensure(1);
+            buf[len++] = (byte) b;
+        }
+
+        void writeVarLong(long v) {
+            ensure(10);
+            while ((v & ~0x7FL) != 0) {
+                buf[len++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buf[len++] = (byte) v;
+        }
+
+        void writeString(final String value) {
+            // fast path for ASCII strings, i.e. length in bytes = length in chars
+            final int start = len;
+            final int length = value.length();
+            writeVarLong(length);
+            ensure(length);
+            for (int i = 0; i < length; ++i) {
+                final char ch = value.charAt(i);
+                if (ch >= 0x80) {
+                    len = start;
+                    writeBytes(value.getBytes(UTF8));
+                    return;
+                }
+                buf[len++] = (byte) ch;
+            }
+        }
+
+        void writeBytes(final byte[] b) {
+            writeVarLong(b.length);
+            ensure(b.length);
+            System.arraycopy(b, 0, buf, len, b.length);
+            len += b.length;
+        }
+
+        byte[] toByteArray() {
+            final byte[] result = new byte[len];
+            System.arraycopy(buf, 0, result, 0, len);
+            return result;
+        }
+    }
+
+    /**
+     * Property names of a Bean class as written by the encoder together
+     * with their types in the class the reader is decoding to.
+     */
+    private static final class Schema {
+        final String[] names;
+        Class<?> resolvedFor = null;
+        Type[] types = null;
+
+        Schema(final String[] names) {
+            this.names = names;
+        }
+    }
+
+    /**
+     * Input buffer.
+     */
+    private static final class Input {
+        final byte[] buf;
+        int pos = 0;
+        /**
+         * Schemas read so far (index = id).
+         */
+        final List<Schema> schemas = new ArrayList<Schema>();
+
+        Input(final byte[] buf) {
+            this.buf = buf;
+        }
+
+        byte readByte() throws ClassCastException {
+            if (pos >= buf.length) {
+                throw new ClassCastException("truncated binary bean");
+            }
+            return buf[pos++];
+        }
+
+        long readVarLong() throws ClassCastException {
+            long result = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                final byte b = readByte();
+                result |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+            }
+            throw new ClassCastException("malformed binary bean");
+        }
+
+        int readLength() throws ClassCastException {
+            final long length = readVarLong();
+            if ((length < 0) || (length > (buf.length - pos))) {
+                throw new ClassCastException("malformed binary bean");
+            }
+            return (int) length;
+        }
+
+        String readString() throws ClassCastException {
+            final int length = readLength();
+            final String result = new String(buf, pos, length, UTF8);
+            pos += length;
+            return result;
+        }
+    }
+
+    /**
+     * Encodes the given Bean or map.
+     *
+     * @param value
+     *            the object to encode
+     *
+     * @return the binary representation
+     *
+     * @throws ClassCastException
+     *             if the object (or one of its members) is not supported
+     */
+    static byte[] encode(final Object value) throws ClassCastException {
+        if ((value == null) || !isObject(value)) {
+            throw new ClassCastException("binary beans must be objects (value: " + value + ")");
+        }
+        final Output out = new Output();
+        out.writeByte(VERSION);
+        writeValue(out, value);
+        return out.toByteArray();
+    }
+
+    /**
+     * Determines whether the given (non-null) value is encoded as an object.
+     *
+     * @param value
+     *            the value
+     *
+     * @return <tt>true</tt> for maps and Beans
+     */
+    private static boolean isObject(final Object value) {
+        return !((value instanceof Boolean) || (value instanceof Integer)
+                || (value instanceof Long) || (value instanceof BigInteger)
+                || (value instanceof Double) || (value instanceof String)
+                || (value instanceof List<?>));
+    }
+
+    private static void writeValue(final Output out, final Object value)
+            throws ClassCastException {
+        if (value == null) {
+            out.writeByte(TAG_NULL);
+        } else if (value instanceof Boolean) {
+            out.writeByte(((Boolean) value) ? TAG_TRUE : TAG_FALSE);
+        } else if ((value instanceof Integer) || (value instanceof Long)) {
+            final long v = ((Number) value).longValue();
+            out.writeByte(TAG_INT);
+            out.writeVarLong((v << 1) ^ (v >> 63));
+        } else if (value instanceof BigInteger) {
+            out.writeByte(TAG_BIGINT);
+            out.writeBytes(((BigInteger) value).toByteArray());
+        } else if (value instanceof Double) {
+            final long v = Double.doubleToLongBits((Double) value);
+            out.writeByte(TAG_DOUBLE);
+            out.ensure(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                out.buf[out.len++] = (byte) (v >>> shift);
+            }
+        } else if (value instanceof String) {
+            out.writeByte(TAG_STRING);
+            out.writeString((String) value);
+        } else if (value instanceof List<?>) {
+            final List<?> list = (List<?>) value;
+            out.writeByte(TAG_LIST);
+            out.writeVarLong(list.size());
+            for (final Object element : list) {
+                writeValue(out, element);
+            }
+        } else if (value instanceof Map<?, ?>) {
+            final Map<?, ?> map = (Map<?, ?>) value;
+            out.writeByte(TAG_OBJECT);
+            out.writeVarLong(map.size());
+            for (final Map.Entry<?, ?> entry : map.entrySet()) {
+                out.writeString((String) entry.getKey());
+                writeValue(out, entry.getValue());
+            }
+        } else {
+            final ErlangValueJSONToBean<?> converter = ErlangValueJSONToBean.getInstance(value.getClass());
+            final int count = converter.getPropertyCount();
+            out.writeByte(TAG_BEAN);
+            final Integer id = out.schemas.get(value.getClass());
+            if (id != null) {
+                out.writeVarLong(id);
+            } else {
+                final int newId = out.schemas.size();
+                out.schemas.put(value.getClass(), newId);
+                out.writeVarLong(newId);
+                out.writeVarLong(count);
+                for (int i = 0; i < count; ++i) {
+                    out.writeString(converter.getPropertyName(i));
+                }
+            }
+            for (int i = 0; i < count; ++i) {
+                writeValue(out, converter.getPropertyValue(value, i));
+            }
+        }
+    }
+
+    /**
+     * Decodes the given binary to an object of the given type.
+     *
+     * @param <T>
+     *            the type of the object to create
+     * @param bin
+     *            the binary representation
+     * @param c
+     *            the class of the object to create (a Bean or {@link Map})
+     *
+     * @return the decoded object
+     *
+     * @throws ClassCastException
+     *             if the binary is malformed or can not be converted to the
+     *             given class
+     */
+    static <T> T decode(final byte[] bin, final Class<T> c) throws ClassCastException {
+        final Input in = new Input(bin);
+        final byte version = in.readByte();
+        if ((version != VERSION) && (version != VERSION_1)) {
+            throw new ClassCastException("unsupported binary bean version: " + version);
+        }
+        final byte tag = in.readByte();
+        final Object result;
+        if (tag == TAG_OBJECT) {
+            result = readObject(in, c);
+        } else if ((tag == TAG_BEAN) && (version == VERSION)) {
+            result = readBean(in, c);
+        } else {
+            throw new ClassCastException("binary bean is no object");
+        }
+        if (in.pos != bin.length) {
+            throw new ClassCastException("malformed binary bean");
+        }
+        return c.cast(result);
+    }
+
+    private static Object readValue(final Input in, final Type type)
+            throws ClassCastException {
+        final byte tag = in.readByte();
+        switch (tag) {
+            case TAG_NULL:
+                return null;
+            case TAG_FALSE:
+                return false;
+            case TAG_TRUE:
+                return true;
+            case TAG_INT: {
+                final long zigzag = in.readVarLong();
+                final long v = (zigzag >>> 1) ^ -(zigzag & 1);
+                if ((type == long.class) || (type == Long.class)) {
+                    return v;
+                } else if (type == BigInteger.class) {
+                    return BigInteger.valueOf(v);
+                } else if ((v >= Integer.MIN_VALUE) && (v <= Integer.MAX_VALUE)) {
+                    return (int) v;
+                }
+                return v;
+            }
+            case TAG_BIGINT: {
+                final int length = in.readLength();
+                final byte[] bytes = new byte[length];
+                System.arraycopy(in.buf, in.pos, bytes, 0, length);
+                in.pos += length;
+                return new BigInteger(bytes);
+            }
+            case TAG_DOUBLE: {
+                long v = 0;
+                for (int i = 0; i < 8; ++i) {
+                    v = (v << 8) | (in.readByte() & 0xFF);
+                }
+                return Double.longBitsToDouble(v);
+            }
+            case TAG_STRING:
+                return in.readString();
+            case TAG_LIST: {
+                Type elementType = Object.class;
+                if (type instanceof ParameterizedType) {
+                    final Type[] typeArguments = ((ParameterizedType) type).getActualTypeArguments();
+                    if (typeArguments.length == 1) {
+                        elementType = typeArguments[0];
+                    }
+                }
+                final int count = in.readLength();
+                final List<Object> result = new ArrayList<Object>(count);
+                for (int i = 0; i < count; ++i) {
+                    result.add(readValue(in, elementType));
+                }
+                return result;
+            }
+            case TAG_OBJECT:
+                return readObject(in, type);
+            case TAG_BEAN:
+                return readBean(in, type);
+            default:
+                throw new ClassCastException("unknown binary bean tag: " + tag);
+        }
+    }
+
+    private static Object readObject(final Input in, final Type type)
+            throws ClassCastException {
+        final Class<?> rawType = getRawType(type);
+        final int count = in.readLength();
+        if (rawType.equals(Object.class)) {
+            return readMap(in, count, Object.class);
+        }
+        final ErlangValueJSONToBean<?> converter = ErlangValueJSONToBean.getInstance(rawType);
+        if (converter.isMap()) {
+            Type elementType = Object.class;
+            if (type instanceof ParameterizedType) {
+                final Type[] typeArguments = ((ParameterizedType) type).getActualTypeArguments();
+                if (typeArguments.length == 2) {
+                    elementType = typeArguments[1];
+                }
+            }
+            return readMap(in, count, elementType);
+        }
+        final Object result = converter.newInstance();
+        for (int i = 0; i < count; ++i) {
+            final String key = in.readString();
+            final Object value = readValue(in, converter.getPropertyType(key));
+            converter.setPropertyValue(result, key, value);
+        }
+        return result;
+    }
+
+    private static Object readBean(final Input in, final Type type)
+            throws ClassCastException {
+        final int id = (int) Math.min(in.readVarLong(), Integer.MAX_VALUE);
+        final Schema schema;
+        if (id == in.schemas.size()) {
+            final int count = in.readLength();
+            final String[] names = new String[count];
+            for (int i = 0; i < count; ++i) {
+                names[i] = in.readString();
+            }
+            schema = new Schema(names);
+            in.schemas.add(schema);
+        } else if ((id >= 0) && (id < in.schemas.size())) {
+            schema = in.schemas.get(id);
+        } else {
+            throw new ClassCastException("malformed binary bean");
+        }
+        final String[] names = schema.names;
+        final Class<?> rawType = getRawType(type);
+        final ErlangValueJSONToBean<?> converter = rawType.equals(Object.class) ? null
+                : ErlangValueJSONToBean.getInstance(rawType);
+        if ((converter == null) || converter.isMap()) {
+            Type elementType = Object.class;
+            if ((converter != null) && (type instanceof ParameterizedType)) {
+                final Type[] typeArguments = ((ParameterizedType) type).getActualTypeArguments();
+                if (typeArguments.length == 2) {
+                    elementType = typeArguments[1];
+                }
+            }
+            final Map<String, Object> result = new LinkedHashMap<String, Object>(names.length);
+            for (int i = 0; i < names.length; ++i) {
+                result.put(names[i], readValue(in, elementType));
+            }
+            return result;
+        }
+        if (schema.resolvedFor != rawType) {
+            final Type[] types = new Type[names.length];
+            for (int i = 0; i < names.length; ++i) {
+                types[i] = converter.getPropertyType(names[i]);
+            }
+            schema.types = types;
+            schema.resolvedFor = rawType;
+        }
+        final Object result = converter.newInstance();
+        for (int i = 0; i < names.length; ++i) {
+            converter.setPropertyValue(result, names[i], readValue(in, schema.types[i]));
+        }
+        return result;
+    }
+
+    private static Map<String, Object> readMap(final Input in, final int count,
+            final Type elementType) throws ClassCastException {
+        final Map<String, Object> result = new LinkedHashMap<String, Object>(count);
+        for (int i = 0; i < count; ++i) {
+            final String key = in.readString();
+            result.put(key, readValue(in, elementType));
+        }
+        return result;
+    }
+
+    private static Class<?> getRawType(final Type type) {
+        if (type instanceof ParameterizedType) {
+            return (Class<?>) ((ParameterizedType) type).getRawType();
+        } else if (type instanceof Class<?>) {
+            return (Class<?>) type;
+        } else {
+            return Object.class;
+        }
+    }
+}
@@ -17,24 +17,77 @@ package de.zib.scalaris;
 
 import java.io.IOException;
 import java.net.UnknownHostException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.ericsson.otp.erlang.OtpAuthException;
 import com.ericsson.otp.erlang.OtpConnection;
+import com.ericsson.otp.erlang.OtpErlangAtom;
 import com.ericsson.otp.erlang.OtpErlangExit;
 import com.ericsson.otp.erlang.OtpErlangList;
+import com.ericsson.otp.erlang.OtpErlangLong;
 import com.ericsson.otp.erlang.OtpErlangObject;
+import com.ericsson.otp.erlang.OtpErlangTuple;
 import com.ericsson.otp.erlang.OtpSelf;
 
 /**
  * Wraps an {@link OtpConnection} and allows automatic re-connects using a
  * {@link ConnectionPolicy} object.
  *
+ * <h3>Asynchronous RPCs</h3>
+ *
+ * Besides the blocking {@link #doRPC(String, String, OtpErlangList)}, RPCs
+ * can be issued with {@link #doRPCAsync(String, String, OtpErlangList)} which
+ * returns immediately after the request has been sent. Any number of such
+ * calls can be in flight on a single connection. Each request is sent as a
+ * <tt>gen_server</tt> call to the remote node's <tt>rex</tt> server and
+ * tagged with a unique correlation id so that replies, which may arrive in
+ * any order, can be matched to their requests by a dedicated receiver thread.
+ * This thread is started with the first asynchronous call. From then on,
+ * synchronous calls are also sent through the receiver (and then waited for)
+ * and the wrapped {@link OtpConnection} must not be read from directly.
+ * Their semantics do not change though, i.e. they are re-sent as defined by
+ * the {@link #connectionPolicy} and have no timeout.
+ *
+ * Asynchronous RPCs are not automatically re-sent if the connection fails
+ * while they are in flight - they fail with a {@link ConnectionException}
+ * instead. The next call will then try to re-connect using the
+ * {@link #connectionPolicy}.
+ *
+ * <h3>Binary strings</h3>
+ *
+ * By default, Java {@link String} keys and values are sent as erlang strings,
+ * i.e. lists of integers, which take several bytes per character on the wire
+ * and are expensive to decode for long texts. With
+ * {@link #setBinaryStrings(boolean)}, {@link TransactionSingleOp},
+ * {@link Transaction} and {@link ReplicatedDHT} send them (and strings in
+ * lists) as UTF-8 encoded binaries instead. Scalaris hashes both
+ * representations of a key to the same position so existing keys can still
+ * be found and {@link ErlangValue#stringValue()} reads both representations.
+ * Note that a <tt>test_and_set</tt> compares the stored representations and
+ * that other APIs may not be able to read such values.
+ * {@link PubSub} always uses erlang strings since topics and URLs are passed
+ * on to JSON-RPC subscribers.
+ *
+ * <h3>Metrics</h3>
+ *
+ * The latency of each RPC as well as retries, re-connects and failovers are
+ * recorded in a {@link RpcMetrics} object, by default the global one which is
+ * also available via JMX (see {@link #setMetrics(RpcMetrics)}).
+ *
  * @author Nico Kruber, kruber@zib.de
  *
- * @version 3.4
+ * @version 3.6
  * @since 2.3
  */
 public class Connection {
+    private static final OtpErlangAtom genCallAtom = new OtpErlangAtom("$gen_call");
+    private static final OtpErlangAtom callAtom = new OtpErlangAtom("call");
+    private static final OtpErlangAtom userAtom = new OtpErlangAtom("user");
+
     /**
      * The connection this object wraps.
      */
@@ -52,6 +105,35 @@ public class Connection {
      * reconnect on failures.
      */
     ConnectionPolicy connectionPolicy;
+    /**
+     * Receiver thread for replies to asynchronous RPCs (<tt>null</tt> until
+     * the first asynchronous RPC and after closing the connection).
+     */
+    private AsyncReceiver receiver = null;
+    /**
+     * Source of the correlation ids of asynchronous RPCs.
+     */
+    private final AtomicLong nextTag = new AtomicLong(0);
+    /**
+     * Whether to send strings as UTF-8 binaries.
+     */
+    private volatile boolean binaryStrings = false;
+    /**
+     * Metrics of the RPCs of this connection.
+     */
+    private volatile RpcMetrics metrics = RpcMetrics.getInstance();
+    /**
+     * Time (in milliseconds) after which asynchronous RPCs without a reply
+     * fail, <tt>0</tt> to wait forever.
+     */
+    private volatile long rpcTimeout = DEFAULT_RPC_TIMEOUT;
+
+    /**
+     * Default value of {@link #getRpcTimeout()} (in milliseconds).
+     *
+     * @since 3.6
+     */
+    public static final long DEFAULT_RPC_TIMEOUT = 60000;
 
     /**
      * Creates a new connection using the given nodes and a default connection
@@ -107,6 +189,38 @@ public class Connection {
         connect();
     }
 
+    /**
+     * Creates a new connection between the a <tt>self</tt> node and the given
+     * <tt>remote</tt> node. If this node is not reachable, the
+     * <tt>connectionPolicy</tt> selects the nodes to try next.
+     *
+     * @param self
+     *            the local node
+     * @param connectionPolicy
+     *            the connection policy to use
+     * @param remote
+     *            the remote node to try first
+     *
+     * @throws UnknownHostException
+     *             if the remote host could not be found
+     * @throws IOException
+     *             if it was not possible to connect to the remote node
+     * @throws OtpAuthException
+     *             if the connection was refused by the remote node
+     *
+     * @since 3.6
+     */
+    Connection(final OtpSelf self, final ConnectionPolicy connectionPolicy,
+            final PeerNode remote) throws UnknownHostException, IOException,
+            OtpAuthException {
+        super();
+        this.self = self;
+        this.remote = remote;
+        this.connectionPolicy = connectionPolicy;
+
+        connect();
+    }
+
     /**
      * Tries connecting to the current {@link #remote} node. If this fails, it
      * will try re-connecting to a node the {@link #connectionPolicy} chooses as
@@ -131,20 +245,43 @@ public class Connection {
                 connectionPolicy.nodeConnectSuccess(remote);
                 success = true;
             } catch (final UnknownHostException e) {
-                connectionPolicy.nodeFailed(remote);
-                remote = connectionPolicy.selectNode(++retry, remote, e);
+                final PeerNode failed = remote;
+                connectionPolicy.nodeFailed(failed);
+                remote = connectionPolicy.selectNode(++retry, failed, e);
+                metrics.connectFailed(failed, remote);
             } catch (final OtpAuthException e) {
-                connectionPolicy.nodeFailed(remote);
-                remote = connectionPolicy.selectNode(++retry, remote, e);
+                final PeerNode failed = remote;
+                connectionPolicy.nodeFailed(failed);
+                remote = connectionPolicy.selectNode(++retry, failed, e);
+                metrics.connectFailed(failed, remote);
             } catch (final IOException e) {
-                connectionPolicy.nodeFailed(remote);
-                remote = connectionPolicy.selectNode(++retry, remote, e);
+                final PeerNode failed = remote;
+                connectionPolicy.nodeFailed(failed);
+                remote = connectionPolicy.selectNode(++retry, failed, e);
+                metrics.connectFailed(failed, remote);
             }
         }
     }
 
+    /**
+     * Converts a {@link NullPointerException} of jinterface into an
+     * {@link IOException}. jinterface closes a connection in its own thread
+     * once the peer closed the socket (e.g. because the node crashed) and
+     * requests racing with this fail with a {@link NullPointerException}
+     * instead of an {@link IOException}.
+     *
+     * @param e
+     *            the exception thrown by jinterface
+     *
+     * @return an exception to handle like other communication errors
+     */
+    private static IOException connectionClosed(final NullPointerException e) {
+        return new IOException("connection closed", e);
+    }
+
     private void reconnect() throws UnknownHostException, IOException,
             OtpAuthException {
+        metrics.reconnected();
         close();
         connect();
     }
@@ -152,6 +289,12 @@ public class Connection {
     /**
      * Sends the given RPC and waits for a result.
      *
+     * If the connection fails, re-connection attempts are made as defined by
+     * the {@link #connectionPolicy} and the RPC is re-sent. This is also the
+     * case if an asynchronous RPC has been issued before and the receiver
+     * thread collects the replies. There is no timeout for synchronous RPCs,
+     * i.e. {@link #getRpcTimeout()} does not apply.
+     *
      * @param mod
      *            the module of the function to call
      * @param fun
@@ -169,30 +312,57 @@ public class Connection {
      */
     public OtpErlangObject doRPC(final String mod, final String fun, final OtpErlangList args)
             throws ConnectionException {
+        if (getReceiver() != null) {
+            // replies are collected by the receiver thread - do not interfere
+            return doRPCViaReceiver(mod, fun, args);
+        }
         try {
+            final RpcFunctionMetrics function = metrics.getFunction(mod, fun);
             boolean success = false;
             while(!success) {
+                final PeerNode node = remote;
+                final long start = System.nanoTime();
+                connectionPolicy.rpcStarted(node);
                 try {
-                    connection.sendRPC(mod, fun, args);
-                    final OtpErlangObject result = connection.receiveRPC();
+                    final OtpErlangObject result;
+                    try {
+                        connection.sendRPC(mod, fun, args);
+                        result = connection.receiveRPC();
+                    } catch (final NullPointerException e) {
+                        throw connectionClosed(e);
+                    }
+                    final long latency = System.nanoTime() - start;
+                    connectionPolicy.rpcFinished(node, latency);
+                    function.success(latency);
+                    metrics.sent(args);
+                    metrics.received(result);
                     success = true;
                     return result;
                 } catch (final OtpErlangExit e) {
+                    connectionPolicy.rpcFailed(node);
+                    function.failure();
                     connectionPolicy.nodeFailed(remote);
                     // first re-try (connection was the first contact)
                     remote = connectionPolicy.selectNode(1, remote, e);
+                    metrics.retried(node, remote);
                     // reconnect (and then re-try the operation) if no exception was thrown:
                     reconnect();
                 } catch (final OtpAuthException e) {
+                    connectionPolicy.rpcFailed(node);
+                    function.failure();
                     connectionPolicy.nodeFailed(remote);
                     // first re-try (connection was the first contact)
                     remote = connectionPolicy.selectNode(1, remote, e);
+                    metrics.retried(node, remote);
                     // reconnect (and then re-try the operation) if no exception was thrown:
                     reconnect();
                 } catch (final IOException e) {
+                    connectionPolicy.rpcFailed(node);
+                    function.failure();
                     connectionPolicy.nodeFailed(remote);
                     // first re-try (connection was the first contact)
                     remote = connectionPolicy.selectNode(1, remote, e);
+                    metrics.retried(node, remote);
                     // reconnect (and then re-try the operation) if no exception was thrown:
                     reconnect();
                 }
@@ -212,6 +382,64 @@ public class Connection {
         }
     }
 
+    /**
+     * Sends the given RPC through the receiver thread and waits for a
+     * result. Like the blocking variant of
+     * {@link #doRPC(String, String, OtpErlangList)}, the RPC is re-sent after
+     * re-connecting if the connection fails while waiting for the reply.
+     *
+     * @param mod
+     *            the module of the function to call
+     * @param fun
+     *            the function to call
+     * @param args
+     *            the function's arguments
+     *
+     * @return the result of the call
+     *
+     * @throws ConnectionException
+     *             if the connection is not active, a communication error
+     *             occurs, the remote node sends a message containing an
+     *             invalid cookie or the current thread was interrupted
+     */
+    private OtpErlangObject doRPCViaReceiver(final String mod,
+            final String fun, final OtpErlangList args)
+            throws ConnectionException {
+        try {
+            while (true) {
+                final AsyncResult<OtpErlangObject> result = doRPCAsync(mod, fun, args, 0);
+                try {
+                    return result.get();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new ConnectionException(e);
+                } catch (final ExecutionException e) {
+                    final ConnectionException cause = (e.getCause() instanceof ConnectionException)
+                            ? (ConnectionException) e.getCause()
+                            : new ConnectionException(e.getCause());
+                    synchronized (this) {
+                        // only the first of several concurrent callers
+                        // re-connects, the others simply re-send their RPC
+                        // (the receiver already reported the failed node)
+                        if ((receiver != null) && receiver.isClosed()) {
+                            final PeerNode node = remote;
+                            // first re-try (connection was the first contact)
+                            remote = connectionPolicy.selectNode(1, node, cause);
+                            metrics.retried(node, remote);
+                            reconnect();
+                        }
+                    }
+                }
+            }
+        } catch (final OtpAuthException e) {
+            // e.printStackTrace();
+            throw new ConnectionException(e);
+        } catch (final IOException e) {
+            // e.printStackTrace();
+            throw new ConnectionException(e);
+        }
+    }
+
     /**
      * Sends the given RPC and waits for a result.
      *
@@ -258,14 +486,21 @@ public class Connection {
         try {
             boolean success = false;
             while(!success) {
+                final PeerNode node = remote;
                 try {
-                    connection.sendRPC(mod, fun, args);
+                    try {
+                        connection.sendRPC(mod, fun, args);
+                    } catch (final NullPointerException e) {
+                        throw connectionClosed(e);
+                    }
+                    metrics.sent(args);
                     success = true;
                     return;
                 } catch (final IOException e) {
                     connectionPolicy.nodeFailed(remote);
                     // first re-try (connection was the first contact)
                     remote = connectionPolicy.selectNode(1, remote, e);
+                    metrics.retried(node, remote);
                     // reconnect (and then re-try the operation) if no exception was thrown:
                     reconnect();
                 }
@@ -305,10 +540,446 @@ public class Connection {
         sendRPC(mod, fun, new OtpErlangList(args));
     }
 
+    /**
+     * Sends the given RPC and returns immediately without waiting for the
+     * result. In contrast to {@link #sendRPC(String, String, OtpErlangList)},
+     * the result will be delivered to the returned {@link AsyncResult}.
+     *
+     * If sending fails, re-connection attempts are made as defined by the
+     * {@link #connectionPolicy}. If the connection fails after the request has
+     * been sent or there is no reply within {@link #getRpcTimeout()}
+     * milliseconds, the result will fail with a {@link ConnectionException}.
+     *
+     * @param mod
+     *            the module of the function to call
+     * @param fun
+     *            the function to call
+     * @param args
+     *            the function's arguments
+     *
+     * @return the (future) result of the call
+     *
+     * @throws ConnectionException
+     *             if the connection is not active, a communication error
+     *             occurs while sending or the remote node sends a message
+     *             containing an invalid cookie
+     *
+     * @since 3.6
+     */
+    public AsyncResult<OtpErlangObject> doRPCAsync(final String mod,
+            final String fun, final OtpErlangList args)
+            throws ConnectionException {
+        return doRPCAsync(mod, fun, args, rpcTimeout);
+    }
+
+    /**
+     * Sends the given RPC and returns immediately without waiting for the
+     * result (see {@link #doRPCAsync(String, String, OtpErlangList)}).
+     *
+     * @param mod
+     *            the module of the function to call
+     * @param fun
+     *            the function to call
+     * @param args
+     *            the function's arguments
+     * @param timeout
+     *            time in milliseconds after which the RPC fails if there is
+     *            no reply, <tt>0</tt> to wait forever
+     *
+     * @return the (future) result of the call
+     *
+     * @throws ConnectionException
+     *             if the connection is not active, a communication error
+     *             occurs while sending or the remote node sends a message
+     *             containing an invalid cookie
+     */
+    private AsyncResult<OtpErlangObject> doRPCAsync(final String mod,
+            final String fun, final OtpErlangList args, final long timeout)
+            throws ConnectionException {
+        final AsyncResult<OtpErlangObject> result = new AsyncResult<OtpErlangObject>();
+        final Long tag = nextTag.getAndIncrement();
+        final RpcFunctionMetrics function = metrics.getFunction(mod, fun);
+        try {
+            boolean success = false;
+            while(!success) {
+                synchronized (this) {
+                    if (receiver == null) {
+                        receiver = new AsyncReceiver(connection);
+                        receiver.start();
+                    }
+                    final PeerNode node = remote;
+                    final long start = System.nanoTime();
+                    connectionPolicy.rpcStarted(node);
+                    // a failed attempt may already have been failed by the
+                    // receiver -> use a new result object for each attempt
+                    final AsyncResult<OtpErlangObject> attempt = new AsyncResult<OtpErlangObject>();
+                    try {
+                        if (!receiver.register(tag, new PendingRPC(attempt,
+                                timeout > 0 ? System.currentTimeMillis() + timeout
+                                        : Long.MAX_VALUE))) {
+                            // the receiver failed before the request was
+                            // registered -> re-connect
+                            throw new IOException("connection closed");
+                        }
+                        try {
+                            connection.send("rex", createGenCall(tag, mod, fun, args));
+                        } catch (final NullPointerException e) {
+                            throw connectionClosed(e);
+                        }
+                        metrics.sent(args);
+                        attempt.addCallback(new ResultCallback<OtpErlangObject>() {
+                            public void onSuccess(final OtpErlangObject value) {
+                                final long latency = System.nanoTime() - start;
+                                connectionPolicy.rpcFinished(node, latency);
+                                function.success(latency);
+                                metrics.received(value);
+                                result.complete(value);
+                            }
+
+                            public void onFailure(final Exception e) {
+                                connectionPolicy.rpcFailed(node);
+                                function.failure();
+                                result.fail(e);
+                            }
+                        });
+                        success = true;
+                    } catch (final IOException e) {
+                        receiver.pending.remove(tag);
+                        connectionPolicy.rpcFailed(node);
+                        function.failure();
+                        connectionPolicy.nodeFailed(remote);
+                        // first re-try (connection was the first contact)
+                        remote = connectionPolicy.selectNode(1, remote, e);
+                        metrics.retried(node, remote);
+                        // reconnect (and then re-try the operation) if no exception was thrown:
+                        reconnect();
+                    }
+                }
+            }
+            return result;
+        } catch (final OtpAuthException e) {
+            // e.printStackTrace();
+            throw new ConnectionException(e);
+        } catch (final IOException e) {
+            // e.printStackTrace();
+            throw new ConnectionException(e);
+        }
+    }
+
+    /**
+     * Sends the given RPC and returns immediately without waiting for the
+     * result.
+     *
+     * Provided for convenience.
+     *
+     * @param mod
+     *            the module of the function to call
+     * @param fun
+     *            the function to call
+     * @param args
+     *            the function's arguments
+     *
+     * @return the (future) result of the call
+     *
+     * @throws ConnectionException
+     *             if the connection is not active, a communication error
+     *             occurs while sending or the remote node sends a message
+     *             containing an invalid cookie
+     *
+     * @see #doRPCAsync(String, String, OtpErlangList)
+     * @since 3.6
+     */
+    public AsyncResult<OtpErlangObject> doRPCAsync(final String mod,
+            final String fun, final OtpErlangObject[] args)
+            throws ConnectionException {
+        return doRPCAsync(mod, fun, new OtpErlangList(args));
+    }
+
+    /**
+     * Creates the message for a <tt>gen_server</tt> call to <tt>rex</tt>, i.e.
+     * <tt>{'$gen_call', {Self, Tag}, {call, Mod, Fun, Args, user}}</tt>. The
+     * reply will be sent as <tt>{Tag, Result}</tt>.
+     *
+     * @param tag
+     *            the correlation id of the request
+     * @param mod
+     *            the module of the function to call
+     * @param fun
+     *            the function to call
+     * @param args
+     *            the function's arguments
+     *
+     * @return the message to send to <tt>rex</tt>
+     */
+    private OtpErlangTuple createGenCall(final long tag, final String mod,
+            final String fun, final OtpErlangList args) {
+        final OtpErlangTuple from = new OtpErlangTuple(new OtpErlangObject[] {
+                self.pid(), new OtpErlangLong(tag) });
+        final OtpErlangTuple call = new OtpErlangTuple(new OtpErlangObject[] {
+                callAtom, new OtpErlangAtom(mod), new OtpErlangAtom(fun),
+                args, userAtom });
+        return new OtpErlangTuple(new OtpErlangObject[] { genCallAtom, from, call });
+    }
+
+    /**
+     * Waits for the result of an asynchronous RPC.
+     *
+     * @param result
+     *            the (future) result of the RPC
+     *
+     * @return the result of the call
+     *
+     * @throws ConnectionException
+     *             if the RPC failed or the current thread was interrupted
+     */
+    static OtpErlangObject waitForRPC(final AsyncResult<OtpErlangObject> result)
+            throws ConnectionException {
+        try {
+            return result.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConnectionException(e);
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof ConnectionException) {
+                throw (ConnectionException) e.getCause();
+            }
+            throw new ConnectionException(e.getCause());
+        }
+    }
+
+    /**
+     * Gets the current receiver thread for asynchronous RPCs.
+     *
+     * @return the receiver or <tt>null</tt> if there is none
+     */
+    private synchronized AsyncReceiver getReceiver() {
+        return receiver;
+    }
+
+    /**
+     * An asynchronous RPC waiting for its reply.
+     *
+     * @author Nico Kruber, kruber@zib.de
+     * @version 3.6
+     * @since 3.6
+     */
+    private static final class PendingRPC {
+        /**
+         * The (future) result of the RPC.
+         */
+        final AsyncResult<OtpErlangObject> result;
+        /**
+         * Time (see {@link System#currentTimeMillis()}) at which the RPC
+         * fails if there is no reply.
+         */
+        final long deadline;
+
+        PendingRPC(final AsyncResult<OtpErlangObject> result, final long deadline) {
+            this.result = result;
+            this.deadline = deadline;
+        }
+    }
+
+    /**
+     * Receives replies to asynchronous RPCs and dispatches them to their
+     * {@link AsyncResult} objects.
+     *
+     * Each receiver is bound to a single {@link OtpConnection}. If this
+     * connection fails or is closed, all pending requests fail with a
+     * {@link ConnectionException} and the receiver terminates. Requests
+     * without a reply after their deadline fail individually.
+     *
+     * @author Nico Kruber, kruber@zib.de
+     * @version 3.6
+     * @since 3.6
+     */
+    private final class AsyncReceiver extends Thread {
+        /**
+         * The connection to receive replies from.
+         */
+        private final OtpConnection conn;
+        /**
+         * Requests in flight (by correlation id).
+         */
+        final Map<Long, PendingRPC> pending =
+                new ConcurrentHashMap<Long, PendingRPC>();
+        /**
+         * Whether the receiver does not accept new requests any more.
+         */
+        private volatile boolean closed = false;
+        /**
+         * Whether the receiver has been stopped intentionally.
+         */
+        private volatile boolean stopped = false;
+
+        /**
+         * Creates a (daemon) receiver thread for the given connection.
+         *
+         * @param conn
+         *            the connection to receive replies from
+         */
+        AsyncReceiver(final OtpConnection conn) {
+            super("scalaris-rpc-receiver-" + self.node());
+            this.conn = conn;
+            setDaemon(true);
+        }
+
+        /**
+         * Returns whether the receiver does not accept requests any more.
+         *
+         * @return <tt>true</tt> if the receiver is closed
+         */
+        boolean isClosed() {
+            return closed;
+        }
+
+        /**
+         * Registers a request to wait for a reply to unless the receiver is
+         * already closed.
+         *
+         * @param tag
+         *            the correlation id of the request
+         * @param rpc
+         *            the request
+         *
+         * @return <tt>true</tt> if the request has been registered,
+         *         <tt>false</tt> if the receiver is closed
+         */
+        synchronized boolean register(final Long tag, final PendingRPC rpc) {
+            if (closed) {
+                return false;
+            }
+            pending.put(tag, rpc);
+            return true;
+        }
+
+        /**
+         * Stops the receiver, i.e. fails all pending requests. Note that the
+         * thread only ends once the connection has been closed.
+         */
+        void stopReceiver() {
+            stopped = true;
+            failAll(new ConnectionException("connection closed"));
+        }
+
+        @Override
+        public void run() {
+            try {
+                long lastCheck = System.currentTimeMillis();
+                while (!closed) {
+                    try {
+                        dispatch(conn.receive(100));
+                    } catch (final InterruptedException e) {
+                        // no message within 100ms
+                    } catch (final NullPointerException e) {
+                        throw connectionClosed(e);
+                    }
+                    final long now = System.currentTimeMillis();
+                    if ((now - lastCheck) >= 100) {
+                        lastCheck = now;
+                        expire(now);
+                    }
+                }
+            } catch (final OtpErlangExit e) {
+                failed(e);
+            } catch (final OtpAuthException e) {
+                failed(e);
+            } catch (final IOException e) {
+                failed(e);
+            } catch (final RuntimeException e) {
+                failed(e);
+            } finally {
+                // no request may be left waiting once the thread ends
+                failAll(new ConnectionException("connection closed"));
+            }
+        }
+
+        /**
+         * Dispatches a reply (<tt>{Tag, Result}</tt>) to its request. Other
+         * messages are ignored.
+         *
+         * @param msg
+         *            the received message
+         */
+        private void dispatch(final OtpErlangObject msg) {
+            if (msg instanceof OtpErlangTuple) {
+                final OtpErlangTuple reply = (OtpErlangTuple) msg;
+                if ((reply.arity() == 2) && (reply.elementAt(0) instanceof OtpErlangLong)) {
+                    final PendingRPC rpc = pending
+                            .remove(((OtpErlangLong) reply.elementAt(0)).longValue());
+                    if (rpc != null) {
+                        rpc.result.complete(reply.elementAt(1));
+                    }
+                }
+            }
+        }
+
+        /**
+         * Fails all requests whose deadline has passed. A reply arriving
+         * afterwards is ignored.
+         *
+         * @param now
+         *            the current time (see {@link System#currentTimeMillis()})
+         */
+        private void expire(final long now) {
+            for (final Iterator<Map.Entry<Long, PendingRPC>> it = pending
+                    .entrySet().iterator(); it.hasNext();) {
+                final Map.Entry<Long, PendingRPC> entry = it.next();
+                if ((entry.getValue().deadline <= now)
+                        && (pending.remove(entry.getKey()) != null)) {
+                    entry.getValue().result.fail(new ConnectionException(
+                            "no reply to RPC " + entry.getKey() + " in time"));
+                }
+            }
+        }
+
+        /**
+         * Handles a failure of the connection.
+         *
+         * @param e
+         *            the exception that occurred
+         */
+        private void failed(final Exception e) {
+            if (!stopped) {
+                connectionPolicy.nodeFailed(remote);
+            }
+            failAll(new ConnectionException(e));
+        }
+
+        /**
+         * Closes the receiver and fails all pending requests.
+         *
+         * @param e
+         *            the exception to fail the requests with
+         */
+        private void failAll(final ConnectionException e) {
+            synchronized (this) {
+                // no request can be registered afterwards (see register())
+                closed = true;
+            }
+            for (final Iterator<PendingRPC> it = pending.values().iterator(); it
+                    .hasNext();) {
+                final PendingRPC rpc = it.next();
+                it.remove();
+                rpc.result.fail(e);
+            }
+        }
+    }
+
     /**
      * Closes the connection to the remote node.
+     *
+     * Pending asynchronous RPCs will fail with a {@link ConnectionException}.
      */
     public void close() {
+        final AsyncReceiver oldReceiver;
+        synchronized (this) {
+            oldReceiver = receiver;
+            receiver = null;
+        }
+        if (oldReceiver != null) {
+            oldReceiver.stopReceiver();
+        }
         connection.close();
     }
 
@@ -339,6 +1010,116 @@ public class Connection {
         return connection;
     }
 
+    /**
+     * Sets whether to send {@link String} keys and values as UTF-8 encoded
+     * binaries instead of erlang strings (see the class description).
+     *
+     * @param binaryStrings
+     *            <tt>true</tt> to use binaries, <tt>false</tt> to use erlang
+     *            strings (default)
+     *
+     * @since 3.6
+     */
+    public void setBinaryStrings(final boolean binaryStrings) {
+        this.binaryStrings = binaryStrings;
+    }
+
+    /**
+     * Gets whether {@link String} keys and values are sent as UTF-8 encoded
+     * binaries.
+     *
+     * @return <tt>true</tt> if binaries are used, <tt>false</tt> if erlang
+     *         strings are used
+     *
+     * @since 3.6
+     */
+    public boolean isBinaryStrings() {
+        return binaryStrings;
+    }
+
+    /**
+     * Sets the time after which asynchronous RPCs (see
+     * {@link #doRPCAsync(String, String, OtpErlangList)}) fail with a
+     * {@link ConnectionException} if no reply has been received (default:
+     * {@link #DEFAULT_RPC_TIMEOUT}). Only affects RPCs sent afterwards.
+     *
+     * @param rpcTimeout
+     *            the timeout in milliseconds, <tt>0</tt> to wait forever
+     *
+     * @since 3.6
+     */
+    public void setRpcTimeout(final long rpcTimeout) {
+        this.rpcTimeout = rpcTimeout;
+    }
+
+    /**
+     * Gets the time after which asynchronous RPCs fail if no reply has been
+     * received.
+     *
+     * @return the timeout in milliseconds, <tt>0</tt> if there is none
+     *
+     * @since 3.6
+     */
+    public long getRpcTimeout() {
+        return rpcTimeout;
+    }
+
+    /**
+     * Sets the object to record the metrics of this connection's RPCs in
+     * (default: {@link RpcMetrics#getInstance()}).
+     *
+     * @param metrics
+     *            the metrics object to use
+     *
+     * @since 3.6
+     */
+    public void setMetrics(final RpcMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Gets the object the metrics of this connection's RPCs are recorded in.
+     *
+     * @return the metrics object
+     *
+     * @since 3.6
+     */
+    public RpcMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Converts erlang strings in the given key or value to UTF-8 binaries if
+     * {@link #binaryStrings} is set.
+     *
+     * @param value
+     *            the key or value to send
+     *
+     * @return the value to send
+     *
+     * @since 3.6
+     */
+    OtpErlangObject encodeStrings(final OtpErlangObject value) {
+        if (binaryStrings) {
+            return ErlangValue.stringsToBinaries(value);
+        } else {
+            return value;
+        }
+    }
+
+    /**
+     * Checks whether the encapsulated OTP connection is (still) established.
+     *
+     * @return <tt>true</tt> if connected, <tt>false</tt> otherwise
+     *
+     * @since 3.6
+     */
+    public boolean isConnected() {
+        final AsyncReceiver curReceiver = getReceiver();
+        return connection.isConnected()
+                && ((curReceiver == null) || !curReceiver.isClosed());
+    }
+
     /**
      * Closes the connection when the object is destroyed.
      */
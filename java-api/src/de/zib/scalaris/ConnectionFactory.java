@@ -22,6 +22,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 import com.ericsson.otp.erlang.OtpSelf;
@@ -53,6 +54,12 @@ import de.zib.tools.PropertyLoader;
  * <li><tt>scalaris.cookie = "chocolate chip cookie"</tt></li>
  * <li><tt>scalaris.client.name = "java_client"</tt></li>
  * <li><tt>scalaris.client.appendUUID = "true"</tt></li>
+ * <li><tt>scalaris.pool.minSize = "0"</tt></li>
+ * <li><tt>scalaris.pool.maxSize = "16"</tt></li>
+ * <li><tt>scalaris.pool.maxIdleTime = "60000"</tt></li>
+ * <li><tt>scalaris.pool.borrowTimeout = "5000"</tt></li>
+ * <li><tt>scalaris.strings.binary = "false"</tt></li>
+ * <li><tt>scalaris.discovery.interval = "0"</tt></li>
  * </ul>
  *
  * Note: {@code scalaris.node} can be a whitespace, ',' or ';' separated list of
@@ -71,8 +78,19 @@ import de.zib.tools.PropertyLoader;
  * change previously created connections - they keep the old policy. By
  * default, {@link DefaultConnectionPolicy} is used.
  *
+ * Instead of creating a new connection for each (short) operation,
+ * connections can be borrowed from a pool with {@link #borrowConnection()}
+ * and given back with {@link #returnConnection(Connection)}. The
+ * <tt>scalaris.pool.*</tt> properties configure this pool (see
+ * {@link ConnectionPool}) which is created upon first use.
+ *
+ * If <tt>scalaris.discovery.interval</tt> is greater than <tt>0</tt>, a
+ * {@link NodeDiscovery} service is started together with the pool. It
+ * periodically adds further scalaris VMs to the list of available nodes (see
+ * {@link #getNodeDiscovery()}).
+ *
  * @author Nico Kruber, kruber@zib.de
- * @version 2.4
+ * @version 3.6
  * @since 2.0
  */
 public class ConnectionFactory {
@@ -111,6 +129,57 @@ public class ConnectionFactory {
      */
     private final AtomicLong clientNameUUID = new AtomicLong(0);
 
+    /**
+     * Minimum number of pooled connections per node.
+     *
+     * @since 3.6
+     */
+    private int poolMinSize;
+    /**
+     * Maximum number of pooled connections per node.
+     *
+     * @since 3.6
+     */
+    private int poolMaxSize;
+    /**
+     * Time (in milliseconds) after which idle pooled connections are closed.
+     *
+     * @since 3.6
+     */
+    private long poolMaxIdleTime;
+    /**
+     * Maximum time (in milliseconds) to wait for a pooled connection.
+     *
+     * @since 3.6
+     */
+    private long poolBorrowTimeout;
+    /**
+     * Whether created connections send strings as UTF-8 binaries (see
+     * {@link Connection#setBinaryStrings(boolean)}).
+     *
+     * @since 3.6
+     */
+    private boolean binaryStrings;
+    /**
+     * Interval (in milliseconds) of the node discovery, <tt>0</tt> to
+     * disable it.
+     *
+     * @since 3.6
+     */
+    private long discoveryInterval;
+    /**
+     * The node discovery service (created upon first use).
+     *
+     * @since 3.6
+     */
+    private NodeDiscovery nodeDiscovery = null;
+    /**
+     * The connection pool (created upon first use).
+     *
+     * @since 3.6
+     */
+    private ConnectionPool connectionPool = null;
+
     /**
      * Stores which config file was actually read into the object's properties.
      */
@@ -153,6 +222,12 @@ public class ConnectionFactory {
      * <li><tt>scalaris.cookie = "chocolate chip cookie"</tt></li>
      * <li><tt>scalaris.client.name = "java_client"</tt></li>
      * <li><tt>scalaris.client.appendUUID = "true"</tt></li>
+     * <li><tt>scalaris.pool.minSize = "0"</tt></li>
+     * <li><tt>scalaris.pool.maxSize = "16"</tt></li>
+     * <li><tt>scalaris.pool.maxIdleTime = "60000"</tt></li>
+     * <li><tt>scalaris.pool.borrowTimeout = "5000"</tt></li>
+     * <li><tt>scalaris.strings.binary = "false"</tt></li>
+     * <li><tt>scalaris.discovery.interval = "0"</tt></li>
      * </ul>
      *
      * These properties can be overridden by specifying (non-empty) system
@@ -166,7 +241,10 @@ public class ConnectionFactory {
         }
 //        System.out.println("loading config file: " + configFile);
         PropertyLoader.loadProperties(properties, configFile, true, false,
-                new String[] {"scalaris.node", "scalaris.cookie", "scalaris.client.name", "scalaris.client.appendUUID"});
+                new String[] {"scalaris.node", "scalaris.cookie", "scalaris.client.name", "scalaris.client.appendUUID",
+                        "scalaris.pool.minSize", "scalaris.pool.maxSize", "scalaris.pool.maxIdleTime",
+                        "scalaris.pool.borrowTimeout", "scalaris.strings.binary",
+                        "scalaris.discovery.interval"});
         setProperties(properties);
     }
 
@@ -182,6 +260,12 @@ public class ConnectionFactory {
      * <li><tt>scalaris.cookie = "chocolate chip cookie"</tt></li>
      * <li><tt>scalaris.client.name = "java_client"</tt></li>
      * <li><tt>scalaris.client.appendUUID = "true"</tt></li>
+     * <li><tt>scalaris.pool.minSize = "0"</tt></li>
+     * <li><tt>scalaris.pool.maxSize = "16"</tt></li>
+     * <li><tt>scalaris.pool.maxIdleTime = "60000"</tt></li>
+     * <li><tt>scalaris.pool.borrowTimeout = "5000"</tt></li>
+     * <li><tt>scalaris.strings.binary = "false"</tt></li>
+     * <li><tt>scalaris.discovery.interval = "0"</tt></li>
      * </ul>
      *
      * @param properties
@@ -201,6 +285,12 @@ public class ConnectionFactory {
      * <li><tt>scalaris.cookie = "chocolate chip cookie"</tt></li>
      * <li><tt>scalaris.client.name = "java_client"</tt></li>
      * <li><tt>scalaris.client.appendUUID = "true"</tt></li>
+     * <li><tt>scalaris.pool.minSize = "0"</tt></li>
+     * <li><tt>scalaris.pool.maxSize = "16"</tt></li>
+     * <li><tt>scalaris.pool.maxIdleTime = "60000"</tt></li>
+     * <li><tt>scalaris.pool.borrowTimeout = "5000"</tt></li>
+     * <li><tt>scalaris.strings.binary = "false"</tt></li>
+     * <li><tt>scalaris.discovery.interval = "0"</tt></li>
      * </ul>
      *
      * NOTE: Existing connections are not changed!
@@ -222,6 +312,12 @@ public class ConnectionFactory {
         } else {
             clientNameAppendUUID = false;
         }
+        poolMinSize = Integer.parseInt(properties.getProperty("scalaris.pool.minSize", "0"));
+        poolMaxSize = Integer.parseInt(properties.getProperty("scalaris.pool.maxSize", "16"));
+        poolMaxIdleTime = Long.parseLong(properties.getProperty("scalaris.pool.maxIdleTime", "60000"));
+        poolBorrowTimeout = Long.parseLong(properties.getProperty("scalaris.pool.borrowTimeout", "5000"));
+        binaryStrings = properties.getProperty("scalaris.strings.binary", "false").equals("true");
+        discoveryInterval = Long.parseLong(properties.getProperty("scalaris.discovery.interval", "0"));
         configFileUsed = properties.getProperty("PropertyLoader.loadedfile", "");
 
         //System.out.println("node: " + node);
@@ -259,7 +355,9 @@ public class ConnectionFactory {
         }
         try {
             final OtpSelf self = new OtpSelf(clientName, cookie);
-            return new Connection(self, connectionPolicy);
+            final Connection connection = new Connection(self, connectionPolicy);
+            connection.setBinaryStrings(binaryStrings);
+            return connection;
         } catch (final Exception e) {
 //                 e.printStackTrace();
             throw new ConnectionException(e);
@@ -324,6 +422,104 @@ public class ConnectionFactory {
         return createConnection(clientName);
     }
 
+    /**
+     * Creates a connection to the given node (falling back to other nodes
+     * chosen by the {@link #connectionPolicy} if this fails). A pseudo UUID is
+     * always appended to the client name.
+     *
+     * @param node
+     *            the node to connect to
+     *
+     * @return the created connection
+     *
+     * @throws ConnectionException
+     *             if the connection fails
+     *
+     * @since 3.6
+     */
+    Connection createConnection(final PeerNode node) throws ConnectionException {
+        try {
+            final OtpSelf self = new OtpSelf(
+                    clientName + "_" + clientNameUUID.getAndIncrement(), cookie);
+            final Connection connection = new Connection(self, connectionPolicy, node);
+            connection.setBinaryStrings(binaryStrings);
+            return connection;
+        } catch (final Exception e) {
+//                 e.printStackTrace();
+            throw new ConnectionException(e);
+        }
+    }
+
+    /**
+     * Gets the connection pool of this factory. It will be created with the
+     * current <tt>scalaris.pool.*</tt> settings upon the first call.
+     *
+     * @return the connection pool
+     *
+     * @since 3.6
+     */
+    public synchronized ConnectionPool getConnectionPool() {
+        if (connectionPool == null) {
+            connectionPool = new ConnectionPool(this, poolMinSize, poolMaxSize, poolMaxIdleTime);
+            if (discoveryInterval > 0) {
+                getNodeDiscovery().start();
+            }
+        }
+        return connectionPool;
+    }
+
+    /**
+     * Gets the node discovery service of this factory. It will be created
+     * with the current <tt>scalaris.discovery.interval</tt> upon the first
+     * call and is started together with the connection pool if this
+     * interval is greater than <tt>0</tt>.
+     *
+     * @return the node discovery service
+     *
+     * @since 3.6
+     */
+    public synchronized NodeDiscovery getNodeDiscovery() {
+        if (nodeDiscovery == null) {
+            nodeDiscovery = new NodeDiscovery(this);
+            if (discoveryInterval > 0) {
+                nodeDiscovery.setInterval(discoveryInterval);
+            }
+        }
+        return nodeDiscovery;
+    }
+
+    /**
+     * Borrows a connection from the connection pool, waiting at most
+     * <tt>scalaris.pool.borrowTimeout</tt> milliseconds for a connection to
+     * become available. Connections must be given back with
+     * {@link #returnConnection(Connection)} instead of being closed.
+     *
+     * @return a pooled connection
+     *
+     * @throws ConnectionException
+     *             if the connection fails or the timeout expired
+     *
+     * @see ConnectionPool#borrowConnection(long, TimeUnit)
+     * @since 3.6
+     */
+    public Connection borrowConnection() throws ConnectionException {
+        return getConnectionPool().borrowConnection(poolBorrowTimeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Gives a connection borrowed with {@link #borrowConnection()} back to
+     * the connection pool.
+     *
+     * @param connection
+     *            the connection to return (may be <tt>null</tt>)
+     *
+     * @see ConnectionPool#returnConnection(Connection)
+     * @since 3.6
+     */
+    public void returnConnection(final Connection connection) {
+        getConnectionPool().returnConnection(connection);
+    }
+
     /**
      * Replaces <tt>localhost</tt> in the node's name to the machine's real host
      * name.
@@ -394,6 +590,12 @@ public class ConnectionFactory {
         out.println("  scalaris.cookie            = " + cookie);
         out.println("  scalaris.client.name       = " + clientName);
         out.println("  scalaris.client.appendUUID = " + clientNameAppendUUID);
+        out.println("  scalaris.pool.minSize      = " + poolMinSize);
+        out.println("  scalaris.pool.maxSize      = " + poolMaxSize);
+        out.println("  scalaris.pool.maxIdleTime  = " + poolMaxIdleTime);
+        out.println("  scalaris.pool.borrowTimeout= " + poolBorrowTimeout);
+        out.println("  scalaris.strings.binary    = " + binaryStrings);
+        out.println("  scalaris.discovery.interval= " + discoveryInterval);
     }
 
     /**
@@ -541,6 +743,32 @@ public class ConnectionFactory {
         this.clientNameAppendUUID = clientNameAppendUUID;
     }
 
+    /**
+     * Returns whether new connections send strings as UTF-8 binaries.
+     *
+     * @return <tt>true</tt> if binaries are used, <tt>false</tt> otherwise
+     *
+     * @see Connection#setBinaryStrings(boolean)
+     * @since 3.6
+     */
+    public boolean isBinaryStrings() {
+        return binaryStrings;
+    }
+
+    /**
+     * Sets whether new connections send strings as UTF-8 binaries.
+     * Existing connections are not changed.
+     *
+     * @param binaryStrings
+     *            <tt>true</tt> if binaries are used, <tt>false</tt> otherwise
+     *
+     * @see Connection#setBinaryStrings(boolean)
+     * @since 3.6
+     */
+    public void setBinaryStrings(final boolean binaryStrings) {
+        this.binaryStrings = binaryStrings;
+    }
+
     /**
      * Sets the connection policy to use for new connections.
      *
@@ -26,7 +26,7 @@ import java.util.List;
  *
  * @see ConnectionFactory
  *
- * @version 2.3
+ * @version 3.6
  * @since 2.3
  */
 public abstract class ConnectionPolicy {
@@ -123,6 +123,47 @@ public abstract class ConnectionPolicy {
         }
     }
 
+    /**
+     * Signals the connection policy that an RPC has been sent to the given
+     * node.
+     *
+     * Every call is followed by a call to either
+     * {@link #rpcFinished(PeerNode, long)} or {@link #rpcFailed(PeerNode)}.
+     *
+     * @param node
+     *            the node the RPC has been sent to
+     *
+     * @since 3.6
+     */
+    public void rpcStarted(final PeerNode node) {
+    }
+
+    /**
+     * Signals the connection policy that an RPC to the given node returned a
+     * result.
+     *
+     * @param node
+     *            the node the RPC has been sent to
+     * @param latencyNs
+     *            the round-trip time of the RPC in nanoseconds
+     *
+     * @since 3.6
+     */
+    public void rpcFinished(final PeerNode node, final long latencyNs) {
+    }
+
+    /**
+     * Signals the connection policy that an RPC to the given node failed due
+     * to a connection error.
+     *
+     * @param node
+     *            the node the RPC has been sent to
+     *
+     * @since 3.6
+     */
+    public void rpcFailed(final PeerNode node) {
+    }
+
     /**
      * Selects the node to connect with when establishing a connection (no
      * failed node, no exception that has already been thrown).
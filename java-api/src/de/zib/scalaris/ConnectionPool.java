@@ -0,0 +1,801 @@
+/**
+ *  Copyright 2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Thread-safe, bounded pool of connections to scalaris nodes.
+ *
+ * Setting up a {@link Connection} requires a new {@link com.ericsson.otp.erlang.OtpSelf}
+ * and a full handshake with the remote node. Applications issuing many short
+ * operations, e.g. one per HTTP request, should therefore borrow connections
+ * from a pool and return them afterwards instead of creating a new connection
+ * each time:
+ *
+ * <pre>
+ * <code style="white-space:pre;">
+ *   ConnectionPool pool = ConnectionFactory.getInstance().getConnectionPool();
+ *   Connection conn = pool.borrowConnection(); // {@link #borrowConnection()}
+ *   try {
+ *     TransactionSingleOp sc = new TransactionSingleOp(conn);
+ *     ...
+ *   } finally {
+ *     pool.returnConnection(conn);             // {@link #returnConnection(Connection)}
+ *   }
+ * </code>
+ * </pre>
+ *
+ * The pool keeps a sub-pool for each {@link PeerNode}. On each borrow, the
+ * {@link ConnectionPolicy} of the {@link ConnectionFactory} selects the node
+ * and an idle connection to this node is re-used. If there is none, a new
+ * connection is created as long as the sub-pool holds less than
+ * {@link #getMaxSize()} connections. Otherwise the caller waits until a
+ * connection is returned or the given timeout expires.
+ *
+ * Idle connections are validated before they are handed out (see
+ * {@link #setValidateOnBorrow(boolean)}) and are closed after being idle for
+ * longer than {@link #getMaxIdleTime()} milliseconds as long as at least
+ * {@link #getMinSize()} connections remain in their sub-pool. Sub-pools are
+ * also filled up to {@link #getMinSize()} connections in the background.
+ *
+ * Note: Borrowed connections must not be closed by the application. Also
+ * transaction objects like {@link Transaction} must not be used after the
+ * connection has been returned.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ * @version 3.6
+ * @since 3.6
+ */
+public class ConnectionPool {
+    /**
+     * The factory to create connections with.
+     */
+    private final ConnectionFactory factory;
+    /**
+     * The sub-pools of each node.
+     */
+    private final Map<PeerNode, NodePool> pools = new ConcurrentHashMap<PeerNode, NodePool>();
+    /**
+     * The sub-pools of all currently borrowed connections.
+     */
+    private final Map<Connection, NodePool> borrowed = new ConcurrentHashMap<Connection, NodePool>();
+    /**
+     * Timer for the eviction of idle connections.
+     */
+    private final Timer evictor;
+
+    /**
+     * Minimum number of connections per node.
+     */
+    private volatile int minSize;
+    /**
+     * Maximum number of connections per node.
+     */
+    private volatile int maxSize;
+    /**
+     * Time (in milliseconds) after which idle connections are evicted.
+     */
+    private volatile long maxIdleTime;
+    /**
+     * Whether to check idle connections before handing them out.
+     */
+    private volatile boolean validateOnBorrow = true;
+    /**
+     * Whether the pool has been closed.
+     */
+    private volatile boolean closed = false;
+
+    private final AtomicLong borrows = new AtomicLong(0);
+    private final AtomicLong hits = new AtomicLong(0);
+    private final AtomicLong creations = new AtomicLong(0);
+    private final AtomicLong validationFailures = new AtomicLong(0);
+    private final AtomicLong evictions = new AtomicLong(0);
+    private final AtomicLong borrowTimeouts = new AtomicLong(0);
+    private final AtomicLong waitTimeNs = new AtomicLong(0);
+    private final AtomicLong maxWaitTimeNs = new AtomicLong(0);
+
+    /**
+     * Sub-pool of the connections to a single node.
+     *
+     * All members must only be accessed while holding the {@link #lock}.
+     */
+    private static final class NodePool {
+        /**
+         * The node this pool connects to.
+         */
+        final PeerNode node;
+        final ReentrantLock lock = new ReentrantLock();
+        /**
+         * Signalled when a connection is returned or a connection slot becomes
+         * available.
+         */
+        final Condition available = lock.newCondition();
+        /**
+         * Idle connections, most recently used first.
+         */
+        final LinkedList<IdleConnection> idle = new LinkedList<IdleConnection>();
+        /**
+         * Number of connections of this pool (idle, borrowed or currently
+         * being created).
+         */
+        int size = 0;
+
+        NodePool(final PeerNode node) {
+            this.node = node;
+        }
+    }
+
+    /**
+     * An idle connection and the time it has been returned.
+     */
+    private static final class IdleConnection {
+        final Connection connection;
+        final long returned;
+
+        IdleConnection(final Connection connection, final long returned) {
+            this.connection = connection;
+            this.returned = returned;
+        }
+    }
+
+    /**
+     * Creates a new connection pool.
+     *
+     * @param factory
+     *            the factory to create connections with (node selection is
+     *            done by its connection policy)
+     * @param minSize
+     *            the minimum number of connections per node
+     * @param maxSize
+     *            the maximum number of connections per node
+     * @param maxIdleTime
+     *            the time (in milliseconds) after which idle connections are
+     *            closed (<tt>0</tt> to keep them forever)
+     */
+    public ConnectionPool(final ConnectionFactory factory, final int minSize,
+            final int maxSize, final long maxIdleTime) {
+        if ((minSize < 0) || (maxSize < 1) || (minSize > maxSize)) {
+            throw new IllegalArgumentException("invalid pool size: min="
+                    + minSize + ", max=" + maxSize);
+        }
+        this.factory = factory;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.maxIdleTime = maxIdleTime;
+        evictor = new Timer("scalaris-connection-pool-evictor", true);
+        final long period = (maxIdleTime > 0) ? Math.max(maxIdleTime / 2, 100) : 10000;
+        evictor.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                evictIdleConnections();
+            }
+        }, period, period);
+    }
+
+    /**
+     * Borrows a connection from the pool waiting at most <tt>timeout</tt>
+     * units for a connection to become available.
+     *
+     * @param timeout
+     *            the maximum time to wait
+     * @param unit
+     *            the time unit of the timeout argument
+     *
+     * @return a connection (to be given back with
+     *         {@link #returnConnection(Connection)})
+     *
+     * @throws ConnectionException
+     *             if the pool is closed, no connection could be established
+     *             or the timeout expired
+     */
+    public Connection borrowConnection(final long timeout, final TimeUnit unit)
+            throws ConnectionException {
+        final PeerNode node;
+        try {
+            node = factory.getConnectionPolicy().selectNode();
+        } catch (final UnsupportedOperationException e) {
+            throw new ConnectionException(e);
+        }
+        return borrowConnection(node, timeout, unit);
+    }
+
+    /**
+     * Borrows a connection to the given node from the pool waiting at most
+     * <tt>timeout</tt> units for a connection to become available. The
+     * {@link ConnectionPolicy} is not asked for a node.
+     *
+     * @param node
+     *            the node to connect to
+     * @param timeout
+     *            the maximum time to wait
+     * @param unit
+     *            the time unit of the timeout argument
+     *
+     * @return a connection (to be given back with
+     *         {@link #returnConnection(Connection)})
+     *
+     * @throws ConnectionException
+     *             if the pool is closed, no connection could be established
+     *             or the timeout expired
+     *
+     * @see RingTopology
+     */
+    public Connection borrowConnection(final PeerNode node, final long timeout,
+            final TimeUnit unit) throws ConnectionException {
+        if (closed) {
+            throw new ConnectionException("connection pool closed");
+        }
+        final long start = System.nanoTime();
+        final long deadline = start + unit.toNanos(timeout);
+        final NodePool pool = getNodePool(node);
+        final List<Connection> invalid = new ArrayList<Connection>(0);
+        Connection conn = null;
+        borrows.incrementAndGet();
+        pool.lock.lock();
+        try {
+            while (conn == null) {
+                final IdleConnection idle = pool.idle.poll();
+                if (idle != null) {
+                    if (!validateOnBorrow || idle.connection.isConnected()) {
+                        hits.incrementAndGet();
+                        conn = idle.connection;
+                    } else {
+                        validationFailures.incrementAndGet();
+                        --pool.size;
+                        invalid.add(idle.connection);
+                    }
+                } else if (pool.size < maxSize) {
+                    // reserve a slot and create the connection without the lock
+                    ++pool.size;
+                    break;
+                } else {
+                    final long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        borrowTimeouts.incrementAndGet();
+                        throw new ConnectionException(
+                                "timeout waiting for a connection to " + node);
+                    }
+                    pool.available.awaitNanos(remaining);
+                }
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConnectionException(e);
+        } finally {
+            pool.lock.unlock();
+            closeAll(invalid);
+        }
+        if (conn == null) {
+            conn = createConnection(pool);
+        }
+        final long waited = System.nanoTime() - start;
+        waitTimeNs.addAndGet(waited);
+        long curMax;
+        while (waited > (curMax = maxWaitTimeNs.get())
+                && !maxWaitTimeNs.compareAndSet(curMax, waited)) {
+            // retry
+        }
+        borrowed.put(conn, pool);
+        return conn;
+    }
+
+    /**
+     * Borrows a connection from the pool waiting at most 5 seconds for a
+     * connection to become available.
+     *
+     * @return a connection (to be given back with
+     *         {@link #returnConnection(Connection)})
+     *
+     * @throws ConnectionException
+     *             if the pool is closed, no connection could be established
+     *             or the timeout expired
+     */
+    public Connection borrowConnection() throws ConnectionException {
+        return borrowConnection(5000, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Gives a borrowed connection back to the pool.
+     *
+     * Connections that are not connected any more, have been re-connected
+     * to a different node, exceed the node's {@link #getMaxSize()} or do not
+     * belong to this pool are closed. Settings changed by the borrower, i.e.
+     * {@link Connection#setBinaryStrings(boolean)},
+     * {@link Connection#setRpcTimeout(long)} and
+     * {@link Connection#setMetrics(RpcMetrics)}, are reset to their defaults
+     * (of the {@link ConnectionFactory}) before the connection is handed out
+     * again.
+     *
+     * @param conn
+     *            the connection to return (may be <tt>null</tt>)
+     */
+    public void returnConnection(final Connection conn) {
+        if (conn == null) {
+            return;
+        }
+        final NodePool pool = borrowed.remove(conn);
+        if (pool == null) {
+            conn.close();
+            return;
+        }
+        final boolean usable = !closed && (conn.getRemote() == pool.node)
+                && conn.isConnected();
+        if (usable) {
+            conn.setBinaryStrings(factory.isBinaryStrings());
+            conn.setRpcTimeout(Connection.DEFAULT_RPC_TIMEOUT);
+            conn.setMetrics(RpcMetrics.getInstance());
+        }
+        final boolean keep;
+        pool.lock.lock();
+        try {
+            keep = usable && (pool.size <= maxSize);
+            if (keep) {
+                pool.idle.addFirst(new IdleConnection(conn, System.currentTimeMillis()));
+            } else {
+                --pool.size;
+            }
+            pool.available.signal();
+        } finally {
+            pool.lock.unlock();
+        }
+        if (!keep) {
+            conn.close();
+        }
+    }
+
+    /**
+     * Closes the pool and all idle connections. Borrowed connections will be
+     * closed when they are returned.
+     */
+    public void close() {
+        closed = true;
+        evictor.cancel();
+        for (final NodePool pool : pools.values()) {
+            final List<Connection> toClose = new ArrayList<Connection>();
+            pool.lock.lock();
+            try {
+                for (final IdleConnection idle : pool.idle) {
+                    toClose.add(idle.connection);
+                }
+                pool.size -= pool.idle.size();
+                pool.idle.clear();
+                pool.available.signalAll();
+            } finally {
+                pool.lock.unlock();
+            }
+            closeAll(toClose);
+        }
+    }
+
+    /**
+     * Gets the sub-pool of the given node (creates it if necessary).
+     *
+     * @param node
+     *            the node
+     *
+     * @return the node's pool
+     */
+    private NodePool getNodePool(final PeerNode node) {
+        NodePool pool = pools.get(node);
+        if (pool == null) {
+            synchronized (pools) {
+                pool = pools.get(node);
+                if (pool == null) {
+                    pool = new NodePool(node);
+                    pools.put(node, pool);
+                }
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * Creates a new connection for the given pool whose size has already been
+     * increased (the slot is released if the connection fails).
+     *
+     * @param pool
+     *            the pool to create the connection for
+     *
+     * @return the new connection
+     *
+     * @throws ConnectionException
+     *             if the connection fails
+     */
+    private Connection createConnection(final NodePool pool)
+            throws ConnectionException {
+        try {
+            final Connection conn = factory.createConnection(pool.node);
+            creations.incrementAndGet();
+            return conn;
+        } catch (final ConnectionException e) {
+            pool.lock.lock();
+            try {
+                --pool.size;
+                pool.available.signal();
+            } finally {
+                pool.lock.unlock();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Closes idle connections which have not been used for more than
+     * {@link #maxIdleTime} milliseconds (keeping at least {@link #minSize}
+     * connections per available node) or exceed {@link #maxSize} and fills up
+     * the pools to {@link #minSize} connections.
+     */
+    void evictIdleConnections() {
+        final List<PeerNode> availableNodes = factory.getNodes();
+        final long now = System.currentTimeMillis();
+        for (final NodePool pool : pools.values()) {
+            final boolean nodeAvailable = availableNodes.contains(pool.node);
+            final List<Connection> toClose = new ArrayList<Connection>();
+            pool.lock.lock();
+            try {
+                // the oldest connections are at the end of the list
+                for (final Iterator<IdleConnection> it = pool.idle.descendingIterator(); it.hasNext();) {
+                    final IdleConnection idle = it.next();
+                    final boolean expired = (maxIdleTime > 0)
+                            && ((now - idle.returned) > maxIdleTime);
+                    if (!nodeAvailable || (pool.size > maxSize)
+                            || (expired && (pool.size > minSize))) {
+                        it.remove();
+                        --pool.size;
+                        toClose.add(idle.connection);
+                    } else if (!expired) {
+                        break;
+                    }
+                }
+            } finally {
+                pool.lock.unlock();
+            }
+            evictions.addAndGet(toClose.size());
+            closeAll(toClose);
+        }
+        if (!closed && (minSize > 0)) {
+            for (final PeerNode node : availableNodes) {
+                fillUp(getNodePool(node));
+            }
+        }
+    }
+
+    /**
+     * Creates idle connections to the given node until its sub-pool holds
+     * at least <tt>count</tt> connections (at most {@link #getMaxSize()}),
+     * e.g. to avoid the connection set-up for the first requests to a new
+     * node. Stops at the first failure.
+     *
+     * @param node
+     *            the node to connect to
+     * @param count
+     *            the number of connections
+     *
+     * @return the number of connections created
+     *
+     * @see NodeDiscovery
+     */
+    public int prewarm(final PeerNode node, final int count) {
+        return fillUp(getNodePool(node), Math.min(count, maxSize));
+    }
+
+    /**
+     * Creates connections until the given pool holds at least
+     * {@link #minSize} connections (stops at the first failure).
+     *
+     * @param pool
+     *            the pool to fill
+     */
+    private void fillUp(final NodePool pool) {
+        fillUp(pool, minSize);
+    }
+
+    /**
+     * Creates connections until the given pool holds at least
+     * <tt>target</tt> connections (stops at the first failure).
+     *
+     * @param pool
+     *            the pool to fill
+     * @param target
+     *            the number of connections
+     *
+     * @return the number of connections created
+     */
+    private int fillUp(final NodePool pool, final int target) {
+        int created = 0;
+        while (!closed) {
+            pool.lock.lock();
+            try {
+                if (pool.size >= target) {
+                    return created;
+                }
+                ++pool.size;
+            } finally {
+                pool.lock.unlock();
+            }
+            final Connection conn;
+            try {
+                conn = createConnection(pool);
+            } catch (final ConnectionException e) {
+                return created;
+            }
+            ++created;
+            pool.lock.lock();
+            try {
+                pool.idle.addLast(new IdleConnection(conn, System.currentTimeMillis()));
+                pool.available.signal();
+            } finally {
+                pool.lock.unlock();
+            }
+        }
+        return created;
+    }
+
+    /**
+     * Closes all the given connections.
+     *
+     * @param connections
+     *            the connections to close
+     */
+    private static void closeAll(final List<Connection> connections) {
+        for (final Connection conn : connections) {
+            conn.close();
+        }
+    }
+
+    /**
+     * Returns a snapshot of the pool's statistics.
+     *
+     * @return pool statistics
+     */
+    public Statistics getStatistics() {
+        int connections = 0;
+        int idleConnections = 0;
+        for (final NodePool pool : pools.values()) {
+            pool.lock.lock();
+            try {
+                connections += pool.size;
+                idleConnections += pool.idle.size();
+            } finally {
+                pool.lock.unlock();
+            }
+        }
+        return new Statistics(borrows.get(), hits.get(), creations.get(),
+                validationFailures.get(), evictions.get(),
+                borrowTimeouts.get(), waitTimeNs.get(), maxWaitTimeNs.get(),
+                connections, idleConnections);
+    }
+
+    /**
+     * Gets the minimum number of connections per node.
+     *
+     * @return the minimum pool size
+     */
+    public int getMinSize() {
+        return minSize;
+    }
+
+    /**
+     * Sets the minimum number of connections per node.
+     *
+     * @param minSize
+     *            the minimum pool size
+     */
+    public void setMinSize(final int minSize) {
+        this.minSize = minSize;
+    }
+
+    /**
+     * Gets the maximum number of connections per node.
+     *
+     * @return the maximum pool size
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Sets the maximum number of connections per node. Existing connections
+     * above this limit are closed when they are returned or, if idle, by the
+     * next eviction run.
+     *
+     * @param maxSize
+     *            the maximum pool size
+     */
+    public void setMaxSize(final int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Gets the time after which idle connections are closed.
+     *
+     * @return the maximum idle time (in milliseconds)
+     */
+    public long getMaxIdleTime() {
+        return maxIdleTime;
+    }
+
+    /**
+     * Sets the time after which idle connections are closed.
+     *
+     * Note: The connections are checked every <tt>maxIdleTime / 2</tt>
+     * milliseconds of the idle time set at construction.
+     *
+     * @param maxIdleTime
+     *            the maximum idle time (in milliseconds)
+     */
+    public void setMaxIdleTime(final long maxIdleTime) {
+        this.maxIdleTime = maxIdleTime;
+    }
+
+    /**
+     * Returns whether idle connections are checked before handing them out.
+     *
+     * @return <tt>true</tt> if validation is enabled
+     */
+    public boolean isValidateOnBorrow() {
+        return validateOnBorrow;
+    }
+
+    /**
+     * Sets whether idle connections are checked before handing them out
+     * (see {@link Connection#isConnected()}).
+     *
+     * @param validateOnBorrow
+     *            <tt>true</tt> to enable validation
+     */
+    public void setValidateOnBorrow(final boolean validateOnBorrow) {
+        this.validateOnBorrow = validateOnBorrow;
+    }
+
+    /**
+     * Statistics of a {@link ConnectionPool}.
+     *
+     * @author Nico Kruber, kruber@zib.de
+     * @version 3.6
+     * @since 3.6
+     */
+    public static class Statistics {
+        private final long borrows;
+        private final long hits;
+        private final long creations;
+        private final long validationFailures;
+        private final long evictions;
+        private final long borrowTimeouts;
+        private final long waitTimeNs;
+        private final long maxWaitTimeNs;
+        private final int connections;
+        private final int idleConnections;
+
+        Statistics(final long borrows, final long hits, final long creations,
+                final long validationFailures, final long evictions,
+                final long borrowTimeouts, final long waitTimeNs,
+                final long maxWaitTimeNs, final int connections,
+                final int idleConnections) {
+            this.borrows = borrows;
+            this.hits = hits;
+            this.creations = creations;
+            this.validationFailures = validationFailures;
+            this.evictions = evictions;
+            this.borrowTimeouts = borrowTimeouts;
+            this.waitTimeNs = waitTimeNs;
+            this.maxWaitTimeNs = maxWaitTimeNs;
+            this.connections = connections;
+            this.idleConnections = idleConnections;
+        }
+
+        /**
+         * @return the number of borrow attempts
+         */
+        public long getBorrows() {
+            return borrows;
+        }
+
+        /**
+         * @return the number of borrows served by an idle connection
+         */
+        public long getHits() {
+            return hits;
+        }
+
+        /**
+         * @return the number of created connections
+         */
+        public long getCreations() {
+            return creations;
+        }
+
+        /**
+         * @return the number of idle connections found to be disconnected
+         */
+        public long getValidationFailures() {
+            return validationFailures;
+        }
+
+        /**
+         * @return the number of connections closed due to being idle
+         */
+        public long getEvictions() {
+            return evictions;
+        }
+
+        /**
+         * @return the number of borrows that timed out
+         */
+        public long getBorrowTimeouts() {
+            return borrowTimeouts;
+        }
+
+        /**
+         * @return the accumulated time (in nanoseconds) spent in successful
+         *         borrows (including connection set-up)
+         */
+        public long getWaitTimeNs() {
+            return waitTimeNs;
+        }
+
+        /**
+         * @return the maximum time (in nanoseconds) a successful borrow took
+         */
+        public long getMaxWaitTimeNs() {
+            return maxWaitTimeNs;
+        }
+
+        /**
+         * @return the average time (in nanoseconds) a successful borrow took
+         */
+        public long getAvgWaitTimeNs() {
+            final long successful = borrows - borrowTimeouts;
+            return (successful == 0) ? 0 : (waitTimeNs / successful);
+        }
+
+        /**
+         * @return the number of pooled connections (idle and borrowed)
+         */
+        public int getConnections() {
+            return connections;
+        }
+
+        /**
+         * @return the number of idle connections
+         */
+        public int getIdleConnections() {
+            return idleConnections;
+        }
+
+        @Override
+        public String toString() {
+            return "borrows=" + borrows + ", hits=" + hits + ", creations="
+                    + creations + ", validationFailures=" + validationFailures
+                    + ", evictions=" + evictions + ", borrowTimeouts="
+                    + borrowTimeouts + ", avgWait=" + getAvgWaitTimeNs()
+                    + "ns, maxWait=" + maxWaitTimeNs + "ns, connections="
+                    + connections + ", idle=" + idleConnections;
+        }
+    }
+}
@@ -58,6 +58,8 @@ import com.ericsson.otp.erlang.OtpAuthException;
  * access to {@link PeerNode} objects are synchronised on themselves. It is
  * therefore important not to use any of this classes methods in blocks that
  * synchronise on any node object. Otherwise deadlocks might occur!!
+ * {@link LockFreeConnectionPolicy} provides the same semantics without locks
+ * for policies shared by a large number of threads.
  *
  * @author Nico Kruber, kruber@zib.de
  *
@@ -16,9 +16,12 @@
 package de.zib.scalaris;
 
 import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.RandomAccess;
 
 import com.ericsson.otp.erlang.OtpErlangAtom;
 import com.ericsson.otp.erlang.OtpErlangBinary;
@@ -37,7 +40,7 @@ import com.ericsson.otp.erlang.OtpErlangTuple;
  * See {@link #ErlangValue(Object)} for a list of compatible types.
  *
  * @author Nico Kruber, kruber@zib.de
- * @version 3.5
+ * @version 3.6
  * @since 3.0
  */
 public class ErlangValue {
@@ -46,6 +49,11 @@ public class ErlangValue {
      */
     private final OtpErlangObject value;
 
+    /**
+     * Charset of strings stored as binaries.
+     */
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
     /**
      * Creates a new object wrapping the given erlang value.
      *
@@ -70,6 +78,10 @@ public class ErlangValue {
      * </ul>
      * composite types:
      * <ul>
+     * <li><tt>long[]</tt>, <tt>int[]</tt> - {@link OtpErlangList} of
+     * {@link OtpErlangLong}</li>
+     * <li><tt>double[]</tt> - {@link OtpErlangList} of
+     * {@link OtpErlangDouble}</li>
      * <li>{@link List}&lt;Object&gt; with one of the native types -
      * {@link OtpErlangList}</li>
      * <li>{@link Map}&lt;String, Object&gt; representing a JSON object -
@@ -124,6 +136,12 @@ public class ErlangValue {
             return new OtpErlangString((String) value);
         } else if (value instanceof byte[]) {
             return new OtpErlangBinary((byte[]) value);
+        } else if (value instanceof long[]) {
+            return convertToErlang((long[]) value);
+        } else if (value instanceof int[]) {
+            return convertToErlang((int[]) value);
+        } else if (value instanceof double[]) {
+            return convertToErlang((double[]) value);
         } else if (value instanceof List<?>) {
             final List<?> list = (List<?>) value;
             final int listSize = list.size();
@@ -150,12 +168,66 @@ public class ErlangValue {
             // map to JSON object notation of Scalaris
             @SuppressWarnings("unchecked")
             final
-            ErlangValueJSONToBean<T> json_converter = new ErlangValueJSONToBean<T>((Class<T>) value.getClass());
+            ErlangValueJSONToBean<T> json_converter = ErlangValueJSONToBean.getInstance((Class<T>) value.getClass());
             return json_converter.toScalarisJSON(value);
 //            throw new ClassCastException("Unsupported type (value: " + value.toString() + ")");
         }
     }
 
+    /**
+     * Converts a <tt>long</tt> array to an {@link OtpErlangList}.
+     *
+     * @param value
+     *            the value to convert to an erlang type
+     *
+     * @return the converted value
+     *
+     * @since 3.6
+     */
+    public static OtpErlangList convertToErlang(final long[] value) {
+        final OtpErlangObject[] erlValue = new OtpErlangObject[value.length];
+        for (int i = 0; i < value.length; ++i) {
+            erlValue[i] = new OtpErlangLong(value[i]);
+        }
+        return new OtpErlangList(erlValue);
+    }
+
+    /**
+     * Converts an <tt>int</tt> array to an {@link OtpErlangList}.
+     *
+     * @param value
+     *            the value to convert to an erlang type
+     *
+     * @return the converted value
+     *
+     * @since 3.6
+     */
+    public static OtpErlangList convertToErlang(final int[] value) {
+        final OtpErlangObject[] erlValue = new OtpErlangObject[value.length];
+        for (int i = 0; i < value.length; ++i) {
+            erlValue[i] = new OtpErlangLong(value[i]);
+        }
+        return new OtpErlangList(erlValue);
+    }
+
+    /**
+     * Converts a <tt>double</tt> array to an {@link OtpErlangList}.
+     *
+     * @param value
+     *            the value to convert to an erlang type
+     *
+     * @return the converted value
+     *
+     * @since 3.6
+     */
+    public static OtpErlangList convertToErlang(final double[] value) {
+        final OtpErlangObject[] erlValue = new OtpErlangObject[value.length];
+        for (int i = 0; i < value.length; ++i) {
+            erlValue[i] = new OtpErlangDouble(value[i]);
+        }
+        return new OtpErlangList(erlValue);
+    }
+
     /**
      * Returns the Java int value of the wrapped erlang value.
      *
@@ -238,6 +310,19 @@ public class ErlangValue {
         return ((OtpErlangDouble) value).doubleValue();
     }
 
+    /**
+     * Returns the wrapped erlang value, decompressed if it has been stored
+     * by {@link ErlangValueCompressed}.
+     *
+     * @return the uncompressed value
+     *
+     * @throws ClassCastException
+     *             if the compressed value is corrupt
+     */
+    private OtpErlangObject uncompressed() throws ClassCastException {
+        return ErlangValueCompressed.decompress(value, null);
+    }
+
     /**
      * Converts an {@link OtpErlangObject} to a {@link String} taking special
      * care of empty lists which can not be converted to strings using the OTP
@@ -254,7 +339,10 @@ public class ErlangValue {
     static String otpObjectToString(final OtpErlangObject value)
             throws ClassCastException {
         // need special handling if OTP returned an empty list
-        if (value instanceof OtpErlangList) {
+        if (value instanceof OtpErlangBinary) {
+            // strings written with Connection#setBinaryStrings(boolean)
+            return new String(((OtpErlangBinary) value).binaryValue(), UTF8);
+        } else if (value instanceof OtpErlangList) {
             try {
                 return new OtpErlangString((OtpErlangList) value).stringValue();
             } catch (final OtpErlangException e) {
@@ -267,9 +355,47 @@ public class ErlangValue {
         }
     }
 
+    /**
+     * Replaces erlang strings with UTF-8 encoded binaries. Lists are
+     * converted recursively, any other value (including tuples, e.g. JSON
+     * objects) is returned as is.
+     *
+     * @param value
+     *            the value to convert
+     *
+     * @return the converted value
+     *
+     * @see Connection#setBinaryStrings(boolean)
+     */
+    static OtpErlangObject stringsToBinaries(final OtpErlangObject value) {
+        if (value instanceof OtpErlangString) {
+            return new OtpErlangBinary(((OtpErlangString) value).stringValue().getBytes(UTF8));
+        } else if ((value instanceof OtpErlangList)
+                && ((OtpErlangList) value).isProper()) {
+            final OtpErlangList list = (OtpErlangList) value;
+            OtpErlangObject[] elements = null;
+            for (int i = 0; i < list.arity(); ++i) {
+                final OtpErlangObject element = list.elementAt(i);
+                final OtpErlangObject converted = stringsToBinaries(element);
+                if ((elements == null) && (converted != element)) {
+                    elements = list.elements();
+                }
+                if (elements != null) {
+                    elements[i] = converted;
+                }
+            }
+            return (elements == null) ? value : new OtpErlangList(elements);
+        } else {
+            return value;
+        }
+    }
+
     /**
      * Returns the Java {@link String} value of the wrapped erlang value.
      *
+     * Strings stored as UTF-8 encoded binaries are supported, too (see
+     * {@link Connection#setBinaryStrings(boolean)}).
+     *
      * @return the converted value
      *
      * @throws ClassCastException
@@ -277,7 +403,7 @@ public class ErlangValue {
      *             not supported
      */
     public String stringValue() throws ClassCastException {
-        return otpObjectToString(value);
+        return otpObjectToString(uncompressed());
     }
 
     /**
@@ -290,13 +416,16 @@ public class ErlangValue {
      *             not supported
      */
     public byte[] binaryValue() throws ClassCastException {
-        return ((OtpErlangBinary) value).binaryValue();
+        return ((OtpErlangBinary) uncompressed()).binaryValue();
     }
 
     /**
      * Returns a JSON object (as {@link Map}&lt;String, Object&gt;) of the
      * wrapped erlang value.
      *
+     * Objects stored by {@link ErlangValueBinaryBean} and
+     * {@link ErlangValueCompressed} are supported, too.
+     *
      * @return the converted value
      *
      * @throws ClassCastException
@@ -311,6 +440,13 @@ public class ErlangValue {
          *
          * first term must be an object!
          */
+        final OtpErlangObject value = uncompressed();
+        final byte[] binaryBean = ErlangValueBinaryBean.getBinary(value);
+        if (binaryBean != null) {
+            @SuppressWarnings("unchecked")
+            final Map<String, Object> result = BinaryBeanCodec.decode(binaryBean, Map.class);
+            return result;
+        }
         final OtpErlangTuple value_tpl = (OtpErlangTuple) value;
         if ((value_tpl.arity() == 2)
                 && value_tpl.elementAt(0).equals(CommonErlangObjects.structAtom)) {
@@ -325,6 +461,9 @@ public class ErlangValue {
      * Returns a JSON object (as an instance of the given class) of the wrapped
      * erlang value.
      *
+     * Objects stored by {@link ErlangValueBinaryBean} and
+     * {@link ErlangValueCompressed} are supported, too.
+     *
      * @param <T>
      *            the type of the object to create
      *
@@ -345,10 +484,15 @@ public class ErlangValue {
          *
          * first term must be an object!
          */
+        final OtpErlangObject value = uncompressed();
+        final byte[] binaryBean = ErlangValueBinaryBean.getBinary(value);
+        if (binaryBean != null) {
+            return BinaryBeanCodec.decode(binaryBean, c);
+        }
         final OtpErlangTuple value_tpl = (OtpErlangTuple) value;
         if ((value_tpl.arity() == 2)
                 && value_tpl.elementAt(0).equals(CommonErlangObjects.structAtom)) {
-            final ErlangValueJSONToBean<T> json_converter = new ErlangValueJSONToBean<T>(c);
+            final ErlangValueJSONToBean<T> json_converter = ErlangValueJSONToBean.getInstance(c);
             return json_converter.toJava((OtpErlangList) value_tpl.elementAt(1));
         } else {
             throw new ClassCastException("wrong tuple arity");
@@ -418,7 +562,7 @@ public class ErlangValue {
      *             not supported
      */
     public <T> List<T> listValue(final ListElementConverter<T> converter) throws ClassCastException {
-        final OtpErlangList list = otpObjectToOtpList(value);
+        final OtpErlangList list = otpObjectToOtpList(uncompressed());
         final ArrayList<T> result = new ArrayList<T>(list.arity());
         for (int i = 0; i < list.arity(); ++i) {
             result.add(converter.convert(i, new ErlangValue(list.elementAt(i))));
@@ -539,6 +683,195 @@ public class ErlangValue {
         });
     }
 
+    /**
+     * Read-only list view of an erlang list converting elements on access.
+     *
+     * @param <T>
+     *            type of the elements in the list
+     *
+     * @since 3.6
+     */
+    private static class LazyList<T> extends AbstractList<T> implements RandomAccess {
+        private final OtpErlangList list;
+        private final ListElementConverter<T> converter;
+
+        LazyList(final OtpErlangList list, final ListElementConverter<T> converter) {
+            this.list = list;
+            this.converter = converter;
+        }
+
+        @Override
+        public T get(final int index) {
+            if ((index < 0) || (index >= list.arity())) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + list.arity());
+            }
+            return converter.convert(index, new ErlangValue(list.elementAt(index)));
+        }
+
+        @Override
+        public int size() {
+            return list.arity();
+        }
+    }
+
+    /**
+     * Returns a read-only view of the wrapped erlang list which converts
+     * elements only when they are accessed, i.e. {@link List#size()} and
+     * {@link List#get(int)} do not convert the whole list. Elements are
+     * converted on every access - use
+     * {@link #listValue(ListElementConverter)} if all elements are needed
+     * (multiple times).
+     *
+     * Note that the erlang list itself has already been received and decoded
+     * completely by the OTP library.
+     *
+     * @param <T>
+     *            type of the elements in the list
+     * @param converter
+     *            object that converts the list value to the desired type
+     *
+     * @return a lazy view of the list
+     *
+     * @throws ClassCastException
+     *             if thrown if the wrapped value is no list (conversion
+     *             errors of single elements are thrown on access)
+     *
+     * @since 3.6
+     */
+    public <T> List<T> lazyListValue(final ListElementConverter<T> converter) throws ClassCastException {
+        return new LazyList<T>(otpObjectToOtpList(uncompressed()), converter);
+    }
+
+    /**
+     * Returns a read-only view of the wrapped erlang list with
+     * {@link String} elements which are converted only when accessed.
+     * Provided for convenience.
+     *
+     * @return a lazy view of the list
+     *
+     * @throws ClassCastException
+     *             if thrown if the wrapped value is no list (conversion
+     *             errors of single elements are thrown on access)
+     *
+     * @see #lazyListValue(ListElementConverter)
+     * @since 3.6
+     */
+    public List<String> lazyStringListValue() throws ClassCastException {
+        return lazyListValue(new ListElementConverter<String>() {
+            public String convert(final int i, final ErlangValue v) { return v.stringValue(); }
+        });
+    }
+
+    /**
+     * Returns the elements of the wrapped erlang list as code points if OTP
+     * decoded it as a string, i.e. if all elements are integers between 0 and
+     * 255 (and the list has less than 65536 elements).
+     *
+     * @param value
+     *            the (uncompressed) wrapped value
+     *
+     * @return the elements or <tt>null</tt> if the value is no string
+     */
+    private static int[] stringListElements(final OtpErlangObject value) {
+        if (value instanceof OtpErlangString) {
+            return OtpErlangString.stringToCodePoints(((OtpErlangString) value).stringValue());
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Returns an array of <tt>long</tt> values of the wrapped erlang list.
+     *
+     * In contrast to {@link #longListValue()}, the list is traversed only
+     * once and no intermediate objects are created for its elements.
+     *
+     * @return the converted value
+     *
+     * @throws ClassCastException
+     *             if thrown if a conversion is not possible, i.e. the type is
+     *             not supported or a value is too big
+     *
+     * @since 3.6
+     */
+    public long[] longArrayValue() throws ClassCastException {
+        final OtpErlangObject value = uncompressed();
+        final int[] chars = stringListElements(value);
+        if (chars != null) {
+            final long[] result = new long[chars.length];
+            for (int i = 0; i < chars.length; ++i) {
+                result[i] = chars[i];
+            }
+            return result;
+        }
+        final OtpErlangList list = (OtpErlangList) value;
+        final long[] result = new long[list.arity()];
+        for (int i = 0; i < result.length; ++i) {
+            final OtpErlangLong element = (OtpErlangLong) list.elementAt(i);
+            if (!element.isLong()) {
+                throw new ClassCastException("Cannot cast to long - value is too big (use bigIntValue() instead).");
+            }
+            result[i] = element.longValue();
+        }
+        return result;
+    }
+
+    /**
+     * Returns an array of <tt>int</tt> values of the wrapped erlang list.
+     *
+     * In contrast to {@link #listValue(ListElementConverter)}, the list is
+     * traversed only once and no intermediate objects are created for its
+     * elements.
+     *
+     * @return the converted value
+     *
+     * @throws ClassCastException
+     *             if thrown if a conversion is not possible, i.e. the type is
+     *             not supported or a value is too big
+     *
+     * @since 3.6
+     */
+    public int[] intArrayValue() throws ClassCastException {
+        final OtpErlangObject value = uncompressed();
+        final int[] chars = stringListElements(value);
+        if (chars != null) {
+            return chars;
+        }
+        final OtpErlangList list = (OtpErlangList) value;
+        final int[] result = new int[list.arity()];
+        try {
+            for (int i = 0; i < result.length; ++i) {
+                result[i] = ((OtpErlangLong) list.elementAt(i)).intValue();
+            }
+        } catch (final OtpErlangRangeException e) {
+            throw new ClassCastException("Cannot cast to int - value is too big (use longArrayValue() instead).");
+        }
+        return result;
+    }
+
+    /**
+     * Returns an array of <tt>double</tt> values of the wrapped erlang list.
+     *
+     * In contrast to {@link #doubleListValue()}, the list is traversed only
+     * once and no intermediate objects are created for its elements.
+     *
+     * @return the converted value
+     *
+     * @throws ClassCastException
+     *             if thrown if a conversion is not possible, i.e. the type is
+     *             not supported
+     *
+     * @since 3.6
+     */
+    public double[] doubleArrayValue() throws ClassCastException {
+        final OtpErlangList list = otpObjectToOtpList(uncompressed());
+        final double[] result = new double[list.arity()];
+        for (int i = 0; i < result.length; ++i) {
+            result[i] = ((OtpErlangDouble) list.elementAt(i)).doubleValue();
+        }
+        return result;
+    }
+
     /**
      * Gets the original erlang value.
      *
@@ -0,0 +1,123 @@
+/**
+ *  Copyright 2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import com.ericsson.otp.erlang.OtpErlangAtom;
+import com.ericsson.otp.erlang.OtpErlangBinary;
+import com.ericsson.otp.erlang.OtpErlangObject;
+import com.ericsson.otp.erlang.OtpErlangTuple;
+
+/**
+ * Implements a compact binary storage format for Beans if only Java access
+ * to scalaris is used.
+ *
+ * <p>
+ * Instead of a Scalaris-JSON object (<tt>{struct, [{Key, Value}]}</tt> with
+ * each key and string value being an erlang string), the Bean is encoded
+ * into a single {@link OtpErlangBinary} wrapped into a
+ * <tt>{'$bb', Binary}</tt> tuple. The layout is self-describing with type
+ * tags and the property names of each Bean class written once per value,
+ * see {@link BinaryBeanCodec}.
+ * {@link ErlangValue#jsonValue(Class)} and {@link ErlangValue#jsonValue()}
+ * read both formats transparently.
+ * </p>
+ *
+ * <pre>
+ * <code style="white-space:pre;">
+ *   TransactionSingleOp sc = new TransactionSingleOp();
+ *   sc.write(key, new ErlangValueBinaryBean(page));
+ *   Page page = sc.read(key).jsonValue(Page.class);
+ * </code>
+ * </pre>
+ *
+ * <p>
+ * Note: Values written in this format can not be read as JSON by other
+ * Scalaris APIs. Run
+ * <code>ant bench -Dbench.args="-f JSON.bean|BinaryBean"</code> for a
+ * comparison of both formats.
+ * </p>
+ *
+ * @author Nico Kruber, kruber@zib.de
+ * @version 3.6
+ * @since 3.6
+ */
+public class ErlangValueBinaryBean extends ErlangValue {
+    /**
+     * Identifies the tuple of the stored erlang object.
+     */
+    static final OtpErlangAtom identifier = new OtpErlangAtom("$bb");
+
+    /**
+     * Creates an object with the given Bean (or map).
+     *
+     * @param <T>
+     *            the type of the Bean
+     * @param bean
+     *            the value to use
+     *
+     * @throws ClassCastException
+     *             if the Bean (or one of its members) is not supported
+     */
+    public <T> ErlangValueBinaryBean(final T bean) throws ClassCastException {
+        super(new OtpErlangTuple(new OtpErlangObject[] {
+                identifier,
+                new OtpErlangBinary(BinaryBeanCodec.encode(bean)) }));
+    }
+
+    /**
+     * Creates an object with the given (erlang) value.
+     *
+     * @param otpValue
+     *            the value to use
+     */
+    public ErlangValueBinaryBean(final OtpErlangObject otpValue) {
+        super(otpValue);
+    }
+
+    /**
+     * Creates an object with the given (erlang) value.
+     * Provided for convenience.
+     *
+     * @param value
+     *            the value to use
+     *
+     * @see ErlangValue
+     */
+    public ErlangValueBinaryBean(final ErlangValue value) {
+        super(value.value());
+    }
+
+    /**
+     * Checks whether the given erlang value is a binary Bean.
+     *
+     * @param value
+     *            the value to check
+     *
+     * @return the binary of the Bean or <tt>null</tt> if the value is no
+     *         binary Bean
+     */
+    static byte[] getBinary(final OtpErlangObject value) {
+        if (value instanceof OtpErlangTuple) {
+            final OtpErlangTuple value_tpl = (OtpErlangTuple) value;
+            if ((value_tpl.arity() == 2)
+                    && value_tpl.elementAt(0).equals(identifier)
+                    && (value_tpl.elementAt(1) instanceof OtpErlangBinary)) {
+                return ((OtpErlangBinary) value_tpl.elementAt(1)).binaryValue();
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,529 @@
+/**
+ *  Copyright 2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.ericsson.otp.erlang.OtpErlangAtom;
+import com.ericsson.otp.erlang.OtpErlangBinary;
+import com.ericsson.otp.erlang.OtpErlangDecodeException;
+import com.ericsson.otp.erlang.OtpErlangObject;
+import com.ericsson.otp.erlang.OtpErlangString;
+import com.ericsson.otp.erlang.OtpErlangTuple;
+import com.ericsson.otp.erlang.OtpExternal;
+import com.ericsson.otp.erlang.OtpInputStream;
+import com.ericsson.otp.erlang.OtpOutputStream;
+
+/**
+ * Stores large values compressed in order to reduce the bandwidth to the
+ * scalaris node and the memory needed in the DHT.
+ *
+ * <p>
+ * Values whose erlang external term format is at least
+ * {@link #getThreshold()} bytes large (default: 1024) are stored as a
+ * <tt>{'$cz', deflate, Binary}</tt> tuple with <tt>Binary</tt> being the
+ * zlib-compressed external term format of the original value, i.e. erlang
+ * can restore it with <tt>binary_to_term(zlib:uncompress(Binary))</tt>.
+ * Smaller values and values which do not get smaller are stored as they
+ * are. {@link ErlangValue#stringValue()}, {@link ErlangValue#binaryValue()},
+ * the list and the JSON readers of {@link ErlangValue} decompress values
+ * transparently.
+ * </p>
+ *
+ * <pre>
+ * <code style="white-space:pre;">
+ *   TransactionSingleOp sc = new TransactionSingleOp();
+ *   sc.write(key, new ErlangValueCompressed(text, "wiki-page"));
+ *   String text = sc.read(key).stringValue();
+ * </code>
+ * </pre>
+ *
+ * <p>
+ * The number of (un)compressed bytes and the time spent for compression and
+ * decompression is collected per call site, i.e. the name given to the
+ * constructor, see {@link #getStatistics()}. Decompressions by the readers
+ * of {@link ErlangValue} are accounted to {@link #DEFAULT_CALL_SITE}; use
+ * {@link #decompress(ErlangValue, String)} to account them to a specific
+ * call site instead.
+ * </p>
+ *
+ * <p>
+ * Note: Values written in this format can only be read by other Scalaris
+ * APIs if they support this format, too.
+ * </p>
+ *
+ * @author Nico Kruber, kruber@zib.de
+ * @version 3.6
+ * @since 3.6
+ */
+public class ErlangValueCompressed extends ErlangValue {
+    /**
+     * Identifies the tuple of the stored erlang object.
+     */
+    static final OtpErlangAtom identifier = new OtpErlangAtom("$cz");
+
+    /**
+     * Identifies the codec used for the compressed binary.
+     */
+    static final OtpErlangAtom deflateAtom = new OtpErlangAtom("deflate");
+
+    /**
+     * Call site for values without an explicit call site.
+     */
+    public static final String DEFAULT_CALL_SITE = "default";
+
+    /**
+     * Minimum size of a value (in bytes) to be compressed.
+     */
+    private static volatile int threshold = 1024;
+
+    /**
+     * Statistics per call site.
+     */
+    private static final ConcurrentMap<String, CallSite> callSites =
+            new ConcurrentHashMap<String, CallSite>();
+
+    /**
+     * Deflater per thread (creating a new one allocates native memory).
+     */
+    private static final ThreadLocal<Deflater> deflater = new ThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater(Deflater.BEST_SPEED);
+        }
+    };
+
+    /**
+     * Inflater per thread (creating a new one allocates native memory).
+     */
+    private static final ThreadLocal<Inflater> inflater = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater();
+        }
+    };
+
+    /**
+     * Creates an object with the given value which is compressed if it is
+     * large enough. Statistics are accounted to {@link #DEFAULT_CALL_SITE}.
+     *
+     * @param <T>
+     *            the type of the value
+     * @param value
+     *            the value to use (any type supported by
+     *            {@link ErlangValue#ErlangValue(Object)})
+     *
+     * @throws ClassCastException
+     *             if the value is not supported
+     */
+    public <T> ErlangValueCompressed(final T value) throws ClassCastException {
+        this(value, DEFAULT_CALL_SITE);
+    }
+
+    /**
+     * Creates an object with the given value which is compressed if it is
+     * large enough.
+     *
+     * @param <T>
+     *            the type of the value
+     * @param value
+     *            the value to use (any type supported by
+     *            {@link ErlangValue#ErlangValue(Object)})
+     * @param callSite
+     *            name of the call site to account the statistics to
+     *
+     * @throws ClassCastException
+     *             if the value is not supported
+     */
+    public <T> ErlangValueCompressed(final T value, final String callSite)
+            throws ClassCastException {
+        super(compress(convertToErlang(value), callSite));
+    }
+
+    /**
+     * Compresses the given value if it is at least {@link #threshold} bytes
+     * large and gets smaller.
+     *
+     * @param value
+     *            the value to compress
+     * @param callSite
+     *            name of the call site to account the statistics to
+     *
+     * @return the compressed value or <tt>value</tt>
+     */
+    static OtpErlangObject compress(final OtpErlangObject value,
+            final String callSite) {
+        final CallSite stats = getCallSite(callSite);
+        final int minSize = threshold;
+        // avoid encoding small values only to find out that they are too small
+        if (((value instanceof OtpErlangString) && (((OtpErlangString) value)
+                .stringValue().length() < minSize))
+                || ((value instanceof OtpErlangBinary) && (((OtpErlangBinary) value)
+                        .size() < minSize))) {
+            stats.skipped.incrementAndGet();
+            return value;
+        }
+        final long start = System.nanoTime();
+        final OtpOutputStream term = new OtpOutputStream();
+        term.write1(OtpExternal.versionTag);
+        term.write_any(value);
+        final int size = term.size();
+        if (size < minSize) {
+            stats.skipped.incrementAndGet();
+            return value;
+        }
+        final byte[] compressed = deflate(term.toByteArray());
+        stats.compressNs.addAndGet(System.nanoTime() - start);
+        if (compressed.length >= size) {
+            stats.skipped.incrementAndGet();
+            return value;
+        }
+        stats.compressed.incrementAndGet();
+        stats.originalBytes.addAndGet(size);
+        stats.compressedBytes.addAndGet(compressed.length);
+        return new OtpErlangTuple(new OtpErlangObject[] { identifier,
+                deflateAtom, new OtpErlangBinary(compressed) });
+    }
+
+    /**
+     * Decompresses the given value if it has been compressed by this class.
+     *
+     * @param value
+     *            the value to decompress
+     * @param callSite
+     *            name of the call site to account the statistics to
+     *
+     * @return the decompressed value or <tt>value</tt>
+     *
+     * @throws ClassCastException
+     *             if the compressed value is corrupt
+     */
+    static OtpErlangObject decompress(final OtpErlangObject value,
+            final String callSite) throws ClassCastException {
+        if (!(value instanceof OtpErlangTuple)) {
+            return value;
+        }
+        final OtpErlangTuple value_tpl = (OtpErlangTuple) value;
+        if ((value_tpl.arity() != 3)
+                || !value_tpl.elementAt(0).equals(identifier)) {
+            return value;
+        }
+        if (!value_tpl.elementAt(1).equals(deflateAtom)
+                || !(value_tpl.elementAt(2) instanceof OtpErlangBinary)) {
+            throw new ClassCastException("unsupported compressed value: "
+                    + value_tpl.elementAt(1));
+        }
+        final long start = System.nanoTime();
+        final byte[] compressed = ((OtpErlangBinary) value_tpl.elementAt(2)).binaryValue();
+        try {
+            final OtpErlangObject result = new OtpInputStream(inflate(compressed)).read_any();
+            final CallSite stats = getCallSite(callSite);
+            stats.decompressed.incrementAndGet();
+            stats.decompressNs.addAndGet(System.nanoTime() - start);
+            return result;
+        } catch (final OtpErlangDecodeException e) {
+            throw new ClassCastException("corrupt compressed value: " + e.getMessage());
+        } catch (final DataFormatException e) {
+            throw new ClassCastException("corrupt compressed value: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Decompresses the given value (if it is compressed) and accounts the
+     * statistics to the given call site. Note that the readers of
+     * {@link ErlangValue} decompress values themselves - use this method
+     * to only decompress once if the value is read multiple times.
+     *
+     * @param value
+     *            the value to decompress
+     * @param callSite
+     *            name of the call site to account the statistics to
+     *
+     * @return the decompressed value
+     *
+     * @throws ClassCastException
+     *             if the compressed value is corrupt
+     */
+    public static ErlangValue decompress(final ErlangValue value,
+            final String callSite) throws ClassCastException {
+        final OtpErlangObject otpValue = value.value();
+        final OtpErlangObject result = decompress(otpValue, callSite);
+        return (result == otpValue) ? value : new ErlangValue(result);
+    }
+
+    /**
+     * Deflates the given data.
+     *
+     * @param data
+     *            the data to compress
+     *
+     * @return the compressed data
+     */
+    private static byte[] deflate(final byte[] data) {
+        final Deflater d = deflater.get();
+        d.reset();
+        d.setInput(data);
+        d.finish();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 16);
+        final byte[] buf = new byte[Math.min(data.length + 16, 8192)];
+        while (!d.finished()) {
+            final int len = d.deflate(buf);
+            out.write(buf, 0, len);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Inflates the given data.
+     *
+     * @param data
+     *            the data to decompress
+     *
+     * @return the uncompressed data
+     *
+     * @throws DataFormatException
+     *             if the data is corrupt
+     */
+    private static byte[] inflate(final byte[] data) throws DataFormatException {
+        final Inflater i = inflater.get();
+        i.reset();
+        i.setInput(data);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+        final byte[] buf = new byte[8192];
+        while (!i.finished()) {
+            final int len = i.inflate(buf);
+            if ((len == 0) && (i.needsInput() || i.needsDictionary())) {
+                throw new DataFormatException("truncated data");
+            }
+            out.write(buf, 0, len);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Gets the minimum size of a value (in bytes of its erlang external term
+     * format) to be compressed.
+     *
+     * @return the threshold
+     */
+    public static int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Sets the minimum size of a value (in bytes of its erlang external term
+     * format) to be compressed.
+     *
+     * @param threshold
+     *            the threshold to set
+     */
+    public static void setThreshold(final int threshold) {
+        ErlangValueCompressed.threshold = threshold;
+    }
+
+    /**
+     * Gets the (mutable) statistics of the given call site.
+     *
+     * @param callSite
+     *            name of the call site
+     *
+     * @return the statistics object
+     */
+    private static CallSite getCallSite(final String callSite) {
+        final String name = (callSite == null) ? DEFAULT_CALL_SITE : callSite;
+        CallSite result = callSites.get(name);
+        if (result == null) {
+            final CallSite newCallSite = new CallSite();
+            result = callSites.putIfAbsent(name, newCallSite);
+            if (result == null) {
+                result = newCallSite;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns a snapshot of the statistics of all call sites.
+     *
+     * @return statistics per call site (sorted by name)
+     */
+    public static Map<String, Statistics> getStatistics() {
+        final Map<String, Statistics> result = new TreeMap<String, Statistics>();
+        for (final Map.Entry<String, CallSite> entry : callSites.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return result;
+    }
+
+    /**
+     * Returns a snapshot of the statistics of the given call site.
+     *
+     * @param callSite
+     *            name of the call site
+     *
+     * @return the statistics
+     */
+    public static Statistics getStatistics(final String callSite) {
+        return getCallSite(callSite).snapshot();
+    }
+
+    /**
+     * Resets the statistics of all call sites.
+     */
+    public static void resetStatistics() {
+        callSites.clear();
+    }
+
+    /**
+     * Mutable statistics of a call site.
+     */
+    private static class CallSite {
+        final AtomicLong compressed = new AtomicLong(0);
+        final AtomicLong skipped = new AtomicLong(0);
+        final AtomicLong decompressed = new AtomicLong(0);
+        final AtomicLong originalBytes = new AtomicLong(0);
+        final AtomicLong compressedBytes = new AtomicLong(0);
+        final AtomicLong compressNs = new AtomicLong(0);
+        final AtomicLong decompressNs = new AtomicLong(0);
+
+        Statistics snapshot() {
+            return new Statistics(compressed.get(), skipped.get(),
+                    decompressed.get(), originalBytes.get(),
+                    compressedBytes.get(), compressNs.get(),
+                    decompressNs.get());
+        }
+    }
+
+    /**
+     * Compression statistics of a call site.
+     *
+     * @author Nico Kruber, kruber@zib.de
+     * @version 3.6
+     * @since 3.6
+     */
+    public static class Statistics {
+        private final long compressed;
+        private final long skipped;
+        private final long decompressed;
+        private final long originalBytes;
+        private final long compressedBytes;
+        private final long compressNs;
+        private final long decompressNs;
+
+        Statistics(final long compressed, final long skipped,
+                final long decompressed, final long originalBytes,
+                final long compressedBytes, final long compressNs,
+                final long decompressNs) {
+            this.compressed = compressed;
+            this.skipped = skipped;
+            this.decompressed = decompressed;
+            this.originalBytes = originalBytes;
+            this.compressedBytes = compressedBytes;
+            this.compressNs = compressNs;
+            this.decompressNs = decompressNs;
+        }
+
+        /**
+         * @return the number of values stored compressed
+         */
+        public long getCompressed() {
+            return compressed;
+        }
+
+        /**
+         * @return the number of values stored uncompressed (too small or
+         *         not compressible)
+         */
+        public long getSkipped() {
+            return skipped;
+        }
+
+        /**
+         * @return the number of decompressed values
+         */
+        public long getDecompressed() {
+            return decompressed;
+        }
+
+        /**
+         * @return the size of all compressed values before compression (in
+         *         bytes)
+         */
+        public long getOriginalBytes() {
+            return originalBytes;
+        }
+
+        /**
+         * @return the size of all compressed values after compression (in
+         *         bytes)
+         */
+        public long getCompressedBytes() {
+            return compressedBytes;
+        }
+
+        /**
+         * @return the compression ratio, i.e. original size / compressed
+         *         size (1.0 if nothing was compressed)
+         */
+        public double getRatio() {
+            return (compressedBytes == 0) ? 1.0
+                    : ((double) originalBytes / compressedBytes);
+        }
+
+        /**
+         * @return the total time spent compressing values (in nanoseconds,
+         *         including values which did not get smaller)
+         */
+        public long getCompressNs() {
+            return compressNs;
+        }
+
+        /**
+         * @return the total time spent decompressing values (in
+         *         nanoseconds)
+         */
+        public long getDecompressNs() {
+            return decompressNs;
+        }
+
+        /**
+         * @return the compression throughput (in MB of uncompressed data per
+         *         second)
+         */
+        public double getCompressMBps() {
+            return (compressNs == 0) ? 0.0
+                    : ((originalBytes * 1000.0) / compressNs);
+        }
+
+        @Override
+        public String toString() {
+            return "compressed: " + compressed + ", skipped: " + skipped
+                    + ", decompressed: " + decompressed + ", ratio: "
+                    + String.format("%.2f", getRatio()) + " ("
+                    + originalBytes + " -> " + compressedBytes
+                    + " bytes), compress: " + (compressNs / 1000)
+                    + "us, decompress: " + (decompressNs / 1000) + "us";
+        }
+    }
+}
@@ -15,18 +15,19 @@
  */
 package de.zib.scalaris;
 
+import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.ericsson.otp.erlang.OtpErlangAtom;
 import com.ericsson.otp.erlang.OtpErlangList;
@@ -57,24 +58,101 @@ import com.ericsson.otp.erlang.OtpErlangTuple;
  * Setter methods must be of the form setKey(xxx),
  * getter methods of the form getKey() or isKey().
  *
+ * The getters, setters and the default constructor of a Bean class are
+ * looked up only once per class: instances returned by
+ * {@link #getInstance(Class)} are cached and re-used for all conversions
+ * of the same class (setters are resolved on first use of a key).
+ *
  * @param <T> the Bean to convert to/from
  *
  * @author Nico Kruber, kruber@zib.de
  */
 class ErlangValueJSONToBean<T> extends ErlangValueJSONBase implements ErlangValueJSONInterface<T> {
+    /**
+     * A getter of the Bean together with the JSON key it provides.
+     */
+    private static final class Getter {
+        final String name;
+        final OtpErlangString key;
+        final Method method;
+
+        Getter(final String name, final Method method) {
+            this.name = name;
+            this.key = new OtpErlangString(name);
+            this.method = method;
+        }
+    }
+
+    /**
+     * A setter of the Bean together with the (generic) type of its value.
+     */
+    private static final class Setter {
+        final Method method;
+        final Type type;
+
+        Setter(final Method method, final Type type) {
+            this.method = method;
+            this.type = type;
+        }
+    }
+
+    /**
+     * Converters of all classes used so far (see {@link #getInstance(Class)}).
+     */
+    private static final ConcurrentHashMap<Class<?>, ErlangValueJSONToBean<?>> instances =
+            new ConcurrentHashMap<Class<?>, ErlangValueJSONToBean<?>>();
+
     /**
      * The class to convert the object to.
      */
     private final Class<T> c;
 
+    /**
+     * Whether {@link #c} is a {@link Map}.
+     */
+    private final boolean isMap;
+
+    /**
+     * All getters declared by {@link #c} (empty for maps).
+     */
+    private final Getter[] getters;
+
+    /**
+     * Setters of {@link #c} which have been used so far.
+     */
+    private final ConcurrentHashMap<String, Setter> setters = new ConcurrentHashMap<String, Setter>();
+
+    /**
+     * The default constructor of {@link #c} (<tt>null</tt> if there is no
+     * public default constructor).
+     */
+    private final Constructor<T> constructor;
+
     /**
      * Creates a new object converting to the given class.
      *
+     * Note: Use {@link #getInstance(Class)} to get a (cached) converter
+     * instead of analysing the class again.
+     *
      * @param c
      *            the class to convert JSON to
      */
     public ErlangValueJSONToBean(final Class<T> c) {
         this.c = c;
+        this.isMap = c.equals(Map.class) || Arrays.asList(c.getInterfaces()).contains(Map.class);
+        if (isMap) {
+            this.getters = new Getter[0];
+            this.constructor = null;
+        } else {
+            this.getters = findGetters(c);
+            Constructor<T> constructor0;
+            try {
+                constructor0 = c.getConstructor();
+            } catch (final Exception e) {
+                constructor0 = null;
+            }
+            this.constructor = constructor0;
+        }
     }
 
     /**
@@ -89,8 +167,53 @@ class ErlangValueJSONToBean<T> extends ErlangValueJSONBase implements ErlangValu
      *
      * @return an {@link ErlangValueJSONToBean}<U>
      */
+    @SuppressWarnings("unchecked")
     public static <U> ErlangValueJSONToBean<U> getInstance(final Class<U> c) {
-        return new ErlangValueJSONToBean<U>(c);
+        ErlangValueJSONToBean<?> json_converter = instances.get(c);
+        if (json_converter == null) {
+            final ErlangValueJSONToBean<U> newConverter = new ErlangValueJSONToBean<U>(c);
+            json_converter = instances.putIfAbsent(c, newConverter);
+            if (json_converter == null) {
+                json_converter = newConverter;
+            }
+        }
+        return (ErlangValueJSONToBean<U>) json_converter;
+    }
+
+    /**
+     * Finds all getters declared by the given class, i.e. all methods
+     * starting with <tt>get</tt> or <tt>is</tt>.
+     *
+     * @param c
+     *            the class to analyse
+     *
+     * @return the getters
+     */
+    private static Getter[] findGetters(final Class<?> c) {
+        final Method[] methods = c.getDeclaredMethods();
+        final List<Getter> result = new ArrayList<Getter>(methods.length);
+        for (final Method method : methods) {
+            final String methodName = method.getName();
+            final String key;
+            if (methodName.startsWith("get")) {
+                key = decapFirst(methodName.substring(3));
+            } else if (methodName.startsWith("is")) {
+                key = decapFirst(methodName.substring(2));
+            } else {
+                continue;
+            }
+            if (Modifier.isPublic(method.getModifiers())
+                    && Modifier.isPublic(c.getModifiers())) {
+                try {
+                    // avoids the access check on each invocation
+                    method.setAccessible(true);
+                } catch (final SecurityException e) {
+                    // access will be checked on each invocation
+                }
+            }
+            result.add(new Getter(key, method));
+        }
+        return result.toArray(new Getter[result.size()]);
     }
 
     /**
@@ -122,6 +245,118 @@ class ErlangValueJSONToBean<T> extends ErlangValueJSONBase implements ErlangValu
         return (T) convertScalarisJSONtoJava_object2(value, null);
     }
 
+    /**
+     * Determines whether the converted class is a {@link Map} (no Bean).
+     *
+     * @return <tt>true</tt> for maps, <tt>false</tt> otherwise
+     */
+    boolean isMap() {
+        return isMap;
+    }
+
+    /**
+     * Gets the number of properties (getters) of the Bean.
+     *
+     * @return the number of properties
+     */
+    int getPropertyCount() {
+        return getters.length;
+    }
+
+    /**
+     * Gets the name (JSON key) of a property of the Bean.
+     *
+     * @param i
+     *            the index of the property
+     *
+     * @return the property's name
+     */
+    String getPropertyName(final int i) {
+        return getters[i].name;
+    }
+
+    /**
+     * Gets the value of a property of the given Bean.
+     *
+     * @param bean
+     *            the Bean to read
+     * @param i
+     *            the index of the property
+     *
+     * @return the property's value
+     *
+     * @throws ClassCastException
+     *             if the getter can not be invoked
+     */
+    Object getPropertyValue(final Object bean, final int i) throws ClassCastException {
+        final Method method = getters[i].method;
+        try {
+            return method.invoke(bean);
+        } catch (final Exception e) {
+            throw new ClassCastException("cannot access getter " + method.getName() + "() of class " + c.getSimpleName() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Gets the (generic) type of a property which is going to be set.
+     *
+     * @param key
+     *            the name of the property
+     *
+     * @return the type of the setter's parameter
+     *
+     * @throws ClassCastException
+     *             if there is no public getter or setter method for
+     *             <tt>key</tt>
+     */
+    Type getPropertyType(final String key) throws ClassCastException {
+        return getSetter(key).type;
+    }
+
+    /**
+     * Sets the value of a property of the given Bean.
+     *
+     * @param bean
+     *            the Bean to modify
+     * @param key
+     *            the name of the property
+     * @param value
+     *            the new value
+     *
+     * @throws ClassCastException
+     *             if there is no public getter or setter method for
+     *             <tt>key</tt> or the setter can not be invoked
+     */
+    void setPropertyValue(final Object bean, final String key, final Object value)
+            throws ClassCastException {
+        try {
+            getSetter(key).method.invoke(bean, value);
+        } catch (final ClassCastException e) {
+            throw e;
+        } catch (final Exception e) {
+            throw new ClassCastException("Cannot store value to Bean (key: " + key + ", value: "  + value + "): " + e.getMessage());
+        }
+    }
+
+    /**
+     * Creates a new Bean with its default constructor.
+     *
+     * @return a new instance of the Bean
+     *
+     * @throws ClassCastException
+     *             if there is no public default constructor
+     */
+    T newInstance() throws ClassCastException {
+        try {
+            if (constructor == null) {
+                throw new NoSuchMethodException(c.getName() + ".<init>()");
+            }
+            return constructor.newInstance();
+        } catch (final Exception e) {
+            throw new ClassCastException("Cannot create " + c.getName() + ": " + e.getMessage());
+        }
+    }
+
     /**
      * Capitalize the first letter of the given string.
      *
@@ -183,7 +418,7 @@ class ErlangValueJSONToBean<T> extends ErlangValueJSONBase implements ErlangValu
      * @throws ClassCastException
      *             if there is no public setter method for <tt>key</tt>
      */
-    private Method getSetterFor(final String key, final Type type) {
+    private Method getSetterFor(final String key, final Type type) throws ClassCastException {
         final String keyCap1st = capFirst(key);
         final String setMethod = "set" + keyCap1st;
         final Class<?> class_ = getRawType(type);
@@ -219,7 +454,28 @@ class ErlangValueJSONToBean<T> extends ErlangValueJSONBase implements ErlangValu
         }
     }
 
-    private final Pattern getMatcher = java.util.regex.Pattern.compile("^get|is");
+    /**
+     * Gets the setter and its value type for the given key of class
+     * {@link #c}.
+     *
+     * @param key
+     *            the key to get the setter for
+     *
+     * @return the setter (cached after the first look-up)
+     *
+     * @throws ClassCastException
+     *             if there is no public getter or setter method for
+     *             <tt>key</tt>
+     */
+    private Setter getSetter(final String key) throws ClassCastException {
+        Setter setter = setters.get(key);
+        if (setter == null) {
+            final Type elementType = getTypeOf(key);
+            setter = new Setter(getSetterFor(key, elementType), elementType);
+            setters.put(key, setter);
+        }
+        return setter;
+    }
 
     /**
      * Converts a Java Map to a JSON object as expected by Scalaris.
@@ -276,30 +532,25 @@ class ErlangValueJSONToBean<T> extends ErlangValueJSONBase implements ErlangValu
                 final
                 T value = (T) value_;
 
-                // get all getters:
-                final Method[] methods = c.getDeclaredMethods();
-                final List<OtpErlangObject> resultList = new LinkedList<OtpErlangObject>();
+                final OtpErlangObject[] resultList = new OtpErlangObject[getters.length];
 
-                for (int j = 0; j < methods.length; ++j) {
-                    final String methodName = methods[j].getName();
-                    if (getMatcher.matcher(methodName).lookingAt()) {
-                        final String key_j = decapFirst(getMatcher.matcher(methodName).replaceFirst(""));
-                        try {
-                            final OtpErlangObject value_j = convertJavaToScalarisJSON_value(methods[j].invoke(value));
-                            resultList.add(new OtpErlangTuple(new OtpErlangObject[] {new OtpErlangString(key_j), value_j}));
-                        } catch (final IllegalArgumentException e) {
-                            e.printStackTrace();
-                            throw new ClassCastException("cannot access getter " + methodName + "() of class " + c.getSimpleName() + ": " + e.getMessage());
-                        } catch (final IllegalAccessException e) {
-                            throw new ClassCastException("cannot access getter " + methodName + "() of class " + c.getSimpleName() + ": " + e.getMessage());
-                        } catch (final InvocationTargetException e) {
-                            throw new ClassCastException("cannot access getter " + methodName + "() of class " + c.getSimpleName() + ": " + e.getMessage());
-                        }
+                for (int j = 0; j < getters.length; ++j) {
+                    final Method method = getters[j].method;
+                    try {
+                        final OtpErlangObject value_j = convertJavaToScalarisJSON_value(method.invoke(value));
+                        resultList[j] = new OtpErlangTuple(new OtpErlangObject[] {getters[j].key, value_j});
+                    } catch (final IllegalArgumentException e) {
+                        e.printStackTrace();
+                        throw new ClassCastException("cannot access getter " + method.getName() + "() of class " + c.getSimpleName() + ": " + e.getMessage());
+                    } catch (final IllegalAccessException e) {
+                        throw new ClassCastException("cannot access getter " + method.getName() + "() of class " + c.getSimpleName() + ": " + e.getMessage());
+                    } catch (final InvocationTargetException e) {
+                        throw new ClassCastException("cannot access getter " + method.getName() + "() of class " + c.getSimpleName() + ": " + e.getMessage());
                     }
                 }
                 final OtpErlangTuple resultTpl = new OtpErlangTuple(new OtpErlangObject[] {
                         CommonErlangObjects.structAtom,
-                        new OtpErlangList(resultList.toArray(new OtpErlangObject[0])) });
+                        new OtpErlangList(resultList) });
                 return resultTpl;
             }
         } catch (final ClassCastException e) {
@@ -323,7 +574,7 @@ class ErlangValueJSONToBean<T> extends ErlangValueJSONBase implements ErlangValu
      */
     protected Object convertScalarisJSONtoJava_object2(
             final OtpErlangList value, final Type type_) throws ClassCastException {
-        if (c.equals(Map.class) || Arrays.asList(c.getInterfaces()).contains(Map.class)) {
+        if (isMap) {
             // target type is a map:
             Type elementType = Object.class;
 
@@ -353,7 +604,10 @@ class ErlangValueJSONToBean<T> extends ErlangValueJSONBase implements ErlangValu
             // target type is a bean:
             T result;
             try {
-                result = c.getConstructor().newInstance();
+                if (constructor == null) {
+                    throw new NoSuchMethodException(c.getName() + ".<init>()");
+                }
+                result = constructor.newInstance();
             } catch (final Exception e) {
                 throw new ClassCastException("Cannot store value to JSON object (value: " + value.toString() + "): " + e.getMessage());
             }
@@ -371,11 +625,10 @@ class ErlangValueJSONToBean<T> extends ErlangValueJSONBase implements ErlangValu
                             throw new ClassCastException("Unsupported JSON type (value: " + value.toString() + ")");
                         }
                     }
-                    final Type elementType = getTypeOf(key);
-                    final Method setter = getSetterFor(key, elementType);
-                    final Object myValue = convertScalarisJSONtoJava_value2(iter_tpl.elementAt(1), elementType);
+                    final Setter setter = getSetter(key);
+                    final Object myValue = convertScalarisJSONtoJava_value2(iter_tpl.elementAt(1), setter.type);
                     try {
-                        setter.invoke(result, myValue);
+                        setter.method.invoke(result, myValue);
                     } catch (final Exception e) {
                         throw new ClassCastException("Cannot store value to JSON object (key: " + key + ", value: "  + myValue + ", complete object: "+ value.toString() + "): " + e.getMessage());
                     }
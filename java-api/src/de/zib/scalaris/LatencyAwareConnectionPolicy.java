@@ -0,0 +1,389 @@
+/**
+ *  Copyright 2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Implements a {@link ConnectionPolicy} which prefers fast nodes.
+ *
+ * This implementation is based on {@link LockFreeConnectionPolicy} and thus
+ * also differentiates good and bad nodes. Among the good nodes, it uses the
+ * "power of two choices": two random nodes are compared and the one with the
+ * lower expected cost, i.e. <tt>latency * (in-flight RPCs + 1)</tt>, is
+ * chosen.
+ *
+ * The latency of a node is an exponentially weighted moving average (EWMA) of
+ * the round-trip times reported by {@link Connection} via
+ * {@link #rpcFinished(PeerNode, long)}. While a node receives no traffic, it
+ * decays towards the mean latency of all nodes with a configurable half-life
+ * so that nodes which were slow once are probed again later without becoming
+ * preferred over nodes known to be fast. Nodes without any samples are
+ * preferred.
+ *
+ * Note: like any {@link ConnectionPolicy}, this policy only chooses the node
+ * a {@link Connection} is (re-)established to. A connection stays with its
+ * node until it fails, i.e. the RPCs of a long-lived connection are not
+ * moved to faster nodes. Use a {@link ConnectionPool} which asks the policy
+ * for a node on each {@link ConnectionPool#borrowConnection()} to choose a
+ * node per request (or batch of requests).
+ *
+ * @author Nico Kruber, kruber@zib.de
+ * @version 3.6
+ * @since 3.6
+ *
+ * @see LockFreeConnectionPolicy
+ */
+public class LatencyAwareConnectionPolicy extends LockFreeConnectionPolicy {
+    /**
+     * Decayed latency of a node (immutable).
+     */
+    private static final class Latency {
+        /**
+         * The moving average of the latency in nanoseconds.
+         */
+        final double ewmaNs;
+        /**
+         * The time of the last sample (see {@link System#nanoTime()}).
+         */
+        final long lastSample;
+
+        Latency(final double ewmaNs, final long lastSample) {
+            this.ewmaNs = ewmaNs;
+            this.lastSample = lastSample;
+        }
+    }
+
+    /**
+     * Latency statistics of a single node.
+     */
+    private static final class NodeStats {
+        /**
+         * The node's latency (<tt>null</tt> before the first sample).
+         */
+        final AtomicReference<Latency> latency = new AtomicReference<Latency>(null);
+        /**
+         * The number of RPCs currently in flight.
+         */
+        final AtomicInteger inFlight = new AtomicInteger(0);
+    }
+
+    /**
+     * Statistics of all nodes an RPC has been sent to.
+     */
+    private final ConcurrentHashMap<PeerNode, NodeStats> stats = new ConcurrentHashMap<PeerNode, NodeStats>();
+
+    /**
+     * Weight of a new sample in the moving average.
+     */
+    private volatile double alpha = 0.2;
+
+    /**
+     * Half-life (in nanoseconds) of the latency of a node without new samples.
+     */
+    private volatile long decayHalfLifeNs = 10L * 1000 * 1000 * 1000;
+
+    /**
+     * Creates a new connection policy working with the given remote node.
+     *
+     * Provided for convenience.
+     *
+     * @param remoteNode
+     *            the (only) available remote node
+     */
+    public LatencyAwareConnectionPolicy(final PeerNode remoteNode) {
+        super(remoteNode);
+    }
+
+    /**
+     * Creates a new connection policy with the given remote nodes.
+     *
+     * Attention: This method synchronises on {@code availableRemoteNodes}.
+     *
+     * Any time this list is changed, the according methods in this class should
+     * be called, i.e. {@link #availableNodeAdded(PeerNode)},
+     * {@link #availableNodeRemoved(PeerNode)}, {@link #availableNodesReset()}
+     * to update the good and bad nodes.
+     *
+     * @param availableRemoteNodes
+     *            the remote nodes available for connections
+     */
+    public LatencyAwareConnectionPolicy(final List<PeerNode> availableRemoteNodes) {
+        super(availableRemoteNodes);
+    }
+
+    /**
+     * Gets the statistics object of the given node (creates it if necessary).
+     *
+     * @param node
+     *            the node
+     *
+     * @return the node's statistics
+     */
+    private NodeStats getStats(final PeerNode node) {
+        NodeStats nodeStats = stats.get(node);
+        if (nodeStats == null) {
+            final NodeStats newStats = new NodeStats();
+            nodeStats = stats.putIfAbsent(node, newStats);
+            if (nodeStats == null) {
+                nodeStats = newStats;
+            }
+        }
+        return nodeStats;
+    }
+
+    @Override
+    public void availableNodeRemoved(final PeerNode removedNode) {
+        super.availableNodeRemoved(removedNode);
+        stats.remove(removedNode);
+    }
+
+    @Override
+    public void availableNodesReset() {
+        super.availableNodesReset();
+        stats.clear();
+    }
+
+    @Override
+    public void rpcStarted(final PeerNode node) {
+        getStats(node).inFlight.incrementAndGet();
+    }
+
+    /**
+     * Counts an RPC to the given node as finished.
+     *
+     * RPCs sent before the node was removed (see
+     * {@link #availableNodeRemoved(PeerNode)}) may finish afterwards - they
+     * are ignored and never decrease the counter below zero if the node has
+     * been added again in the meantime.
+     *
+     * @param node
+     *            the node
+     *
+     * @return the node's statistics or <tt>null</tt> if there are none
+     */
+    private NodeStats rpcDone(final PeerNode node) {
+        final NodeStats nodeStats = stats.get(node);
+        if (nodeStats != null) {
+            while (true) {
+                final int inFlight = nodeStats.inFlight.get();
+                if ((inFlight <= 0)
+                        || nodeStats.inFlight.compareAndSet(inFlight, inFlight - 1)) {
+                    break;
+                }
+            }
+        }
+        return nodeStats;
+    }
+
+    @Override
+    public void rpcFinished(final PeerNode node, final long latencyNs) {
+        final NodeStats nodeStats = rpcDone(node);
+        if (nodeStats == null) {
+            return;
+        }
+        final long now = System.nanoTime();
+        while (true) {
+            final Latency old = nodeStats.latency.get();
+            final double ewma;
+            if (old == null) {
+                ewma = latencyNs;
+            } else {
+                final double decayed = decay(old, now, getMeanLatency(old.ewmaNs));
+                ewma = decayed + (alpha * (latencyNs - decayed));
+            }
+            if (nodeStats.latency.compareAndSet(old, new Latency(ewma, now))) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void rpcFailed(final PeerNode node) {
+        rpcDone(node);
+    }
+
+    /**
+     * Gets the mean of the (not decayed) latencies of all nodes with samples.
+     *
+     * @param defaultNs
+     *            the value to return if no node has a sample
+     *
+     * @return the mean latency in nanoseconds
+     */
+    private double getMeanLatency(final double defaultNs) {
+        double sum = 0.0;
+        int count = 0;
+        for (final NodeStats nodeStats : stats.values()) {
+            final Latency latency = nodeStats.latency.get();
+            if (latency != null) {
+                sum += latency.ewmaNs;
+                ++count;
+            }
+        }
+        return (count == 0) ? defaultNs : (sum / count);
+    }
+
+    /**
+     * Gets the latency of the given node decayed to the given time.
+     *
+     * @param latency
+     *            the latency
+     * @param now
+     *            the current time (see {@link System#nanoTime()})
+     * @param meanNs
+     *            the mean latency of all nodes to decay towards
+     *
+     * @return the decayed moving average in nanoseconds
+     */
+    private double decay(final Latency latency, final long now, final double meanNs) {
+        final long age = now - latency.lastSample;
+        if ((age <= 0) || (decayHalfLifeNs <= 0)) {
+            return latency.ewmaNs;
+        }
+        return meanNs + ((latency.ewmaNs - meanNs)
+                * Math.pow(0.5, (double) age / decayHalfLifeNs));
+    }
+
+    /**
+     * Calculates the expected cost of sending an RPC to the given node.
+     *
+     * @param node
+     *            the node
+     * @param now
+     *            the current time (see {@link System#nanoTime()})
+     * @param meanNs
+     *            the mean latency of all nodes
+     *
+     * @return the decayed latency times the number of RPCs in flight plus one
+     */
+    private double getCost(final PeerNode node, final long now, final double meanNs) {
+        final NodeStats nodeStats = stats.get(node);
+        if (nodeStats == null) {
+            return 0.0;
+        }
+        final Latency latency = nodeStats.latency.get();
+        if (latency == null) {
+            return 0.0;
+        }
+        return decay(latency, now, meanNs) * (Math.max(nodeStats.inFlight.get(), 0) + 1);
+    }
+
+    /**
+     * Chooses the cheaper of two random good nodes.
+     *
+     * @param goodNodes
+     *            the current good nodes (at least one)
+     *
+     * @return a good node
+     */
+    @Override
+    protected PeerNode getGoodNode(final PeerNode[] goodNodes) {
+        if (goodNodes.length == 1) {
+            return goodNodes[0];
+        }
+        final Random random = getRandom();
+        final int i = random.nextInt(goodNodes.length);
+        int j = random.nextInt(goodNodes.length - 1);
+        if (j >= i) {
+            ++j;
+        }
+        final long now = System.nanoTime();
+        final double meanNs = getMeanLatency(0.0);
+        if (getCost(goodNodes[j], now, meanNs) < getCost(goodNodes[i], now, meanNs)) {
+            return goodNodes[j];
+        }
+        return goodNodes[i];
+    }
+
+    /**
+     * Gets the (decayed) latency of the given node.
+     *
+     * @param node
+     *            the node
+     *
+     * @return the latency in nanoseconds or <tt>-1</tt> if there is no sample
+     */
+    public long getLatencyNs(final PeerNode node) {
+        final NodeStats nodeStats = stats.get(node);
+        if (nodeStats == null) {
+            return -1;
+        }
+        final Latency latency = nodeStats.latency.get();
+        if (latency == null) {
+            return -1;
+        }
+        return (long) decay(latency, System.nanoTime(), getMeanLatency(latency.ewmaNs));
+    }
+
+    /**
+     * Gets the number of RPCs currently in flight to the given node.
+     *
+     * @param node
+     *            the node
+     *
+     * @return the number of RPCs
+     */
+    public int getInFlight(final PeerNode node) {
+        final NodeStats nodeStats = stats.get(node);
+        return (nodeStats == null) ? 0 : nodeStats.inFlight.get();
+    }
+
+    /**
+     * Gets the weight of a new sample in the moving average.
+     *
+     * @return the weight (0 &lt; alpha &lt;= 1)
+     */
+    public double getAlpha() {
+        return alpha;
+    }
+
+    /**
+     * Sets the weight of a new sample in the moving average.
+     *
+     * @param alpha
+     *            the weight (0 &lt; alpha &lt;= 1)
+     */
+    public void setAlpha(final double alpha) {
+        if ((alpha <= 0.0) || (alpha > 1.0)) {
+            throw new IllegalArgumentException("alpha must be in (0, 1]: " + alpha);
+        }
+        this.alpha = alpha;
+    }
+
+    /**
+     * Gets the half-life of the latency of a node without new samples.
+     *
+     * @return the half-life in milliseconds
+     */
+    public long getDecayHalfLife() {
+        return decayHalfLifeNs / 1000000;
+    }
+
+    /**
+     * Sets the half-life of the latency of a node without new samples.
+     *
+     * @param decayHalfLife
+     *            the half-life in milliseconds (<tt>0</tt> to disable decay)
+     */
+    public void setDecayHalfLife(final long decayHalfLife) {
+        this.decayHalfLifeNs = decayHalfLife * 1000000;
+    }
+}
@@ -0,0 +1,340 @@
+/**
+ *  Copyright 2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of (latency) values in nanoseconds with logarithmic
+ * buckets.
+ *
+ * Each power of two is split into {@value #SUB_BUCKETS} linear sub-buckets,
+ * i.e. the relative error of a reported value is below 12.5% for any value
+ * from <tt>0</tt> to {@link Long#MAX_VALUE}. Recording a value is a few
+ * bit operations and atomic increments without any locks or allocations.
+ * Histograms can be merged, e.g. the histograms of several threads or runs.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ * @version 3.6
+ * @since 3.6
+ */
+public class LatencyHistogram {
+    /**
+     * Number of sub-buckets per power of two (log2).
+     */
+    private static final int SUB_BITS = 3;
+
+    /**
+     * Number of sub-buckets per power of two.
+     */
+    public static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    /**
+     * Total number of buckets.
+     */
+    static final int BUCKETS = ((63 - SUB_BITS) << SUB_BITS) + SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong sum = new AtomicLong(0);
+    private final AtomicLong max = new AtomicLong(0);
+
+    /**
+     * Creates an empty histogram.
+     */
+    public LatencyHistogram() {
+    }
+
+    /**
+     * Gets the index of the bucket of the given value.
+     *
+     * @param value
+     *            a non-negative value
+     *
+     * @return the bucket index
+     */
+    static int getBucket(final long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        final int exp = 63 - Long.numberOfLeadingZeros(value);
+        return ((exp - SUB_BITS + 1) << SUB_BITS)
+                + (int) ((value >>> (exp - SUB_BITS)) & (SUB_BUCKETS - 1));
+    }
+
+    /**
+     * Gets the smallest value of the given bucket.
+     *
+     * @param bucket
+     *            the bucket index
+     *
+     * @return the lower bound of the bucket (inclusive)
+     */
+    static long getLowerBound(final int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        final int shift = (bucket >>> SUB_BITS) - 1;
+        return ((long) (SUB_BUCKETS + (bucket & (SUB_BUCKETS - 1)))) << shift;
+    }
+
+    /**
+     * Gets the largest value of the given bucket.
+     *
+     * @param bucket
+     *            the bucket index
+     *
+     * @return the upper bound of the bucket (inclusive)
+     */
+    static long getUpperBound(final int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        final int shift = (bucket >>> SUB_BITS) - 1;
+        return getLowerBound(bucket) + ((1L << shift) - 1);
+    }
+
+    /**
+     * Records a value.
+     *
+     * @param value
+     *            the value (in nanoseconds), negative values are recorded as
+     *            <tt>0</tt>
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(getBucket(value));
+        sum.addAndGet(value);
+        long curMax;
+        while (value > (curMax = max.get()) && !max.compareAndSet(curMax, value)) {
+            // retry
+        }
+    }
+
+    /**
+     * Records a value <tt>count</tt> times.
+     *
+     * @param value
+     *            the value (in nanoseconds)
+     * @param count
+     *            the number of occurrences
+     */
+    public void record(long value, final long count) {
+        if (count <= 0) {
+            return;
+        }
+        if (value < 0) {
+            value = 0;
+        }
+        counts.addAndGet(getBucket(value), count);
+        sum.addAndGet(value * count);
+        long curMax;
+        while (value > (curMax = max.get()) && !max.compareAndSet(curMax, value)) {
+            // retry
+        }
+    }
+
+    /**
+     * Adds all values of the given histogram to this histogram.
+     *
+     * @param other
+     *            the histogram to add
+     */
+    public void add(final LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; ++i) {
+            final long c = other.counts.get(i);
+            if (c != 0) {
+                counts.addAndGet(i, c);
+            }
+        }
+        sum.addAndGet(other.sum.get());
+        final long otherMax = other.max.get();
+        long curMax;
+        while (otherMax > (curMax = max.get()) && !max.compareAndSet(curMax, otherMax)) {
+            // retry
+        }
+    }
+
+    /**
+     * Removes all values.
+     *
+     * Note: Values recorded concurrently may partially be lost.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; ++i) {
+            counts.set(i, 0);
+        }
+        sum.set(0);
+        max.set(0);
+    }
+
+    /**
+     * Gets the number of values in the given bucket.
+     *
+     * @param bucket
+     *            the bucket index
+     *
+     * @return the number of values
+     */
+    long getBucketCount(final int bucket) {
+        return counts.get(bucket);
+    }
+
+    /**
+     * Gets the number of recorded values.
+     *
+     * @return the number of values
+     */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; ++i) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * Gets the sum of all recorded values.
+     *
+     * @return the sum (in nanoseconds)
+     */
+    public long getSum() {
+        return sum.get();
+    }
+
+    /**
+     * Gets the mean of all recorded values.
+     *
+     * @return the mean (in nanoseconds), <tt>0</tt> if empty
+     */
+    public double getMean() {
+        final long count = getCount();
+        return (count == 0) ? 0.0 : ((double) sum.get() / count);
+    }
+
+    /**
+     * Gets the largest recorded value.
+     *
+     * @return the maximum (in nanoseconds), <tt>0</tt> if empty
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Gets the value below or at which the given fraction of all values
+     * lies. The upper bound of the bucket is returned, i.e. the real value
+     * may be up to 12.5% smaller.
+     *
+     * @param quantile
+     *            the quantile, e.g. <tt>0.99</tt> for the 99th percentile
+     *
+     * @return the value (in nanoseconds), <tt>0</tt> if empty
+     */
+    public long getPercentile(final double quantile) {
+        final long[] snapshot = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; ++i) {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+        if (count == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(quantile * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; ++i) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(getUpperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Encodes the non-empty buckets as a space-separated list of
+     * <tt>bucket:count</tt> pairs.
+     *
+     * @return the encoded buckets
+     *
+     * @see #decode(String, long, long)
+     */
+    String encodeBuckets() {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < BUCKETS; ++i) {
+            final long c = counts.get(i);
+            if (c != 0) {
+                if (sb.length() > 0) {
+                    sb.append(' ');
+                }
+                sb.append(i).append(':').append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Creates a histogram from buckets encoded by {@link #encodeBuckets()}.
+     *
+     * @param buckets
+     *            the encoded buckets
+     * @param sum
+     *            the sum of all values
+     * @param max
+     *            the largest value
+     *
+     * @return the histogram
+     *
+     * @throws IllegalArgumentException
+     *             if the buckets are malformed
+     */
+    static LatencyHistogram decode(final String buckets, final long sum,
+            final long max) throws IllegalArgumentException {
+        final LatencyHistogram result = new LatencyHistogram();
+        final String trimmed = buckets.trim();
+        if (trimmed.length() > 0) {
+            for (final String pair : trimmed.split(" +")) {
+                final int sep = pair.indexOf(':');
+                try {
+                    final int bucket = Integer.parseInt(pair.substring(0, sep));
+                    final long count = Long.parseLong(pair.substring(sep + 1));
+                    if ((bucket < 0) || (bucket >= BUCKETS) || (count < 0)) {
+                        throw new IllegalArgumentException("invalid bucket: " + pair);
+                    }
+                    result.counts.addAndGet(bucket, count);
+                } catch (final NumberFormatException e) {
+                    throw new IllegalArgumentException("invalid bucket: " + pair, e);
+                } catch (final StringIndexOutOfBoundsException e) {
+                    throw new IllegalArgumentException("invalid bucket: " + pair, e);
+                }
+            }
+        }
+        result.sum.set(sum);
+        result.max.set(max);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "count: " + getCount() + ", mean: " + Math.round(getMean())
+                + "ns, p50: " + getPercentile(0.5) + "ns, p99: "
+                + getPercentile(0.99) + "ns, p99.9: " + getPercentile(0.999)
+                + "ns, max: " + getMax() + "ns";
+    }
+}
@@ -0,0 +1,182 @@
+/**
+ *  Copyright 2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Interval log of {@link LatencyHistogram} objects in the style of the
+ * HdrHistogram log format.
+ *
+ * Each line contains the histogram of one tag (e.g. an operation type) for
+ * one interval:
+ *
+ * <pre>
+ * <code style="white-space:pre;">
+ *   #[Scalaris latency histogram log, version 1]
+ *   #[StartTime: 1318939200.000 (seconds since epoch)]
+ *   "Tag","StartTimestamp","Interval_Length","Interval_Max","Interval_Sum","Interval_Buckets"
+ *   Tag=read,0.000,1.000,12.345678,1234567890,76:3 77:12 ...
+ * </code>
+ * </pre>
+ *
+ * Timestamps and interval lengths are in seconds relative to the start time,
+ * the maximum in milliseconds and the sum of all values in nanoseconds. The
+ * buckets are the non-empty buckets of the histogram as
+ * <tt>bucket:count</tt> pairs. Since all histograms use the same buckets,
+ * logs of several threads, runs or machines can be merged by adding up the
+ * histograms of each tag (see {@link #read(File[])}).
+ *
+ * @author Nico Kruber, kruber@zib.de
+ * @version 3.6
+ * @since 3.6
+ */
+public class LatencyHistogramLog {
+    private static final String HEADER = "#[Scalaris latency histogram log, version 1]";
+    private static final String TAG_PREFIX = "Tag=";
+
+    private final Writer out;
+
+    /**
+     * Creates a new log and writes its header.
+     *
+     * @param out
+     *            the writer to write the log to
+     * @param startTime
+     *            the start time of the log (milliseconds since epoch)
+     *
+     * @throws IOException
+     *             if writing fails
+     */
+    public LatencyHistogramLog(final Writer out, final long startTime) throws IOException {
+        this.out = out;
+        out.write(HEADER + "\n");
+        out.write(String.format(Locale.ENGLISH,
+                "#[StartTime: %.3f (seconds since epoch)]\n", startTime / 1000.0));
+        out.write("\"Tag\",\"StartTimestamp\",\"Interval_Length\",\"Interval_Max\",\"Interval_Sum\",\"Interval_Buckets\"\n");
+        out.flush();
+    }
+
+    /**
+     * Writes the histogram of an interval.
+     *
+     * @param tag
+     *            the tag of the histogram, e.g. the operation type (must not
+     *            contain <tt>,</tt>)
+     * @param start
+     *            the start of the interval relative to the start time (in
+     *            nanoseconds)
+     * @param length
+     *            the length of the interval (in nanoseconds)
+     * @param histogram
+     *            the histogram to write
+     *
+     * @throws IOException
+     *             if writing fails
+     */
+    public synchronized void write(final String tag, final long start,
+            final long length, final LatencyHistogram histogram) throws IOException {
+        out.write(String.format(Locale.ENGLISH, "%s%s,%.3f,%.3f,%.6f,%d,%s\n",
+                TAG_PREFIX, tag, start / 1000000000.0, length / 1000000000.0,
+                histogram.getMax() / 1000000.0, histogram.getSum(),
+                histogram.encodeBuckets()));
+        out.flush();
+    }
+
+    /**
+     * Reads a log and adds the histograms of all intervals to the histograms
+     * of their tags.
+     *
+     * @param in
+     *            the reader to read the log from
+     * @param result
+     *            the histograms to add to (by tag)
+     *
+     * @return <tt>result</tt>
+     *
+     * @throws IOException
+     *             if reading fails or the log is malformed
+     */
+    public static SortedMap<String, LatencyHistogram> read(final Reader in,
+            final SortedMap<String, LatencyHistogram> result) throws IOException {
+        final BufferedReader reader = new BufferedReader(in);
+        String line;
+        int lineNo = 0;
+        while ((line = reader.readLine()) != null) {
+            ++lineNo;
+            if ((lineNo == 1) && !line.equals(HEADER)) {
+                throw new IOException("not a latency histogram log");
+            }
+            if (!line.startsWith(TAG_PREFIX)) {
+                continue;
+            }
+            final String[] fields = line.substring(TAG_PREFIX.length()).split(",", 6);
+            if (fields.length != 6) {
+                throw new IOException("malformed line " + lineNo + ": " + line);
+            }
+            try {
+                final long max = Math.round(Double.parseDouble(fields[3]) * 1000000.0);
+                final long sum = Long.parseLong(fields[4]);
+                final LatencyHistogram histogram = LatencyHistogram.decode(fields[5], sum, max);
+                final LatencyHistogram total = result.get(fields[0]);
+                if (total == null) {
+                    result.put(fields[0], histogram);
+                } else {
+                    total.add(histogram);
+                }
+            } catch (final IllegalArgumentException e) {
+                // includes NumberFormatException
+                final IOException ex = new IOException("malformed line " + lineNo + ": " + line);
+                ex.initCause(e);
+                throw ex;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reads and merges the given logs.
+     *
+     * @param files
+     *            the log files
+     *
+     * @return the merged histogram of each tag
+     *
+     * @throws IOException
+     *             if reading fails or a log is malformed
+     */
+    public static SortedMap<String, LatencyHistogram> read(final File[] files) throws IOException {
+        final SortedMap<String, LatencyHistogram> result = new TreeMap<String, LatencyHistogram>();
+        for (final File file : files) {
+            final Reader in = new InputStreamReader(new FileInputStream(file), "UTF-8");
+            try {
+                read(in, result);
+            } finally {
+                in.close();
+            }
+        }
+        return result;
+    }
+}
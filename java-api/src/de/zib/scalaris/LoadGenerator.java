@@ -0,0 +1,837 @@
+/**
+ *  Copyright 2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-loop load generator with a fixed target arrival rate.
+ *
+ * In contrast to the closed-loop threads of {@link Benchmark} which only
+ * issue a new request after the previous one returned, operations are
+ * scheduled at fixed times, i.e. operation <tt>k</tt> is due
+ * <tt>k / rate</tt> seconds after the start, no matter how long previous
+ * operations took. The latency of an operation is measured (with
+ * {@link System#nanoTime()}) from this <em>intended</em> start time to its
+ * end. If the system stalls, the operations which should have been issued
+ * in the meantime are thus recorded with the time they had to wait, too, and
+ * tail latencies are not hidden by coordinated omission. The service time,
+ * i.e. the time from the actual start of an operation, is recorded
+ * separately.
+ *
+ * Operations are executed by {@link #getThreads()} worker threads, each
+ * taking every <tt>threads</tt>'th scheduled operation, and chosen randomly
+ * by their weights. Each operation type keeps its own
+ * {@link LatencyHistogram}s of successful operations. If a
+ * {@link LatencyHistogramLog} is set, the histograms of every
+ * {@link #getLogInterval()} milliseconds are written to it so that runs (or
+ * several load generators) can be merged later (see
+ * {@link LatencyHistogramLog#read(java.io.File[])}).
+ *
+ * <pre>
+ * <code style="white-space:pre;">
+ *   LoadGenerator gen = new LoadGenerator();
+ *   gen.setRate(5000);
+ *   gen.add(LoadGenerator.readOperation("key", 1000, 9));
+ *   gen.add(LoadGenerator.writeOperation("key", 1000, 100, 1));
+ *   System.out.println(gen.run());
+ * </code>
+ * </pre>
+ *
+ * Note: If all worker threads are busy, scheduled operations are delayed
+ * (and their latency grows accordingly). Use enough threads for the target
+ * rate and the expected latencies.
+ *
+ * With a rate of <tt>0</tt>, the load is closed-loop instead, i.e. each
+ * thread starts the next operation as soon as the previous one finished, and
+ * latency and service time are the same.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ * @version 3.6
+ * @since 3.6
+ */
+public class LoadGenerator {
+    /**
+     * An operation type of the load.
+     *
+     * @param <S>
+     *            the type of the per-thread state, e.g. a
+     *            {@link TransactionSingleOp} object
+     *
+     * @author Nico Kruber, kruber@zib.de
+     * @version 3.6
+     * @since 3.6
+     */
+    public static abstract class Operation<S> {
+        private final String name;
+        private final int weight;
+
+        /**
+         * Creates a new operation type.
+         *
+         * @param name
+         *            the name of the operation (must not contain <tt>,</tt>)
+         * @param weight
+         *            the relative frequency of the operation
+         */
+        protected Operation(final String name, final int weight) {
+            this.name = name;
+            this.weight = Math.max(1, weight);
+        }
+
+        /**
+         * @return the name of the operation
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the relative frequency of the operation
+         */
+        public int getWeight() {
+            return weight;
+        }
+
+        /**
+         * Creates the state of a worker thread (called once per thread
+         * before the load starts).
+         *
+         * @return the state
+         *
+         * @throws Exception
+         *             if the state cannot be created (stops the run)
+         */
+        protected abstract S init() throws Exception;
+
+        /**
+         * Executes the operation once.
+         *
+         * @param state
+         *            the state of the current worker thread
+         * @param seq
+         *            the sequence number of the operation
+         *
+         * @throws Exception
+         *             if the operation fails (counted as an error)
+         */
+        protected abstract void execute(S state, long seq) throws Exception;
+
+        /**
+         * Releases the state of a worker thread.
+         *
+         * @param state
+         *            the state created by {@link #init()}
+         */
+        protected void cleanup(final S state) {
+        }
+    }
+
+    /**
+     * Statistics of a single operation type (immutable).
+     *
+     * @author Nico Kruber, kruber@zib.de
+     * @version 3.6
+     * @since 3.6
+     */
+    public static class OperationStatistics {
+        private final String name;
+        private final long errors;
+        private final LatencyHistogram latency;
+        private final LatencyHistogram serviceTime;
+
+        OperationStatistics(final String name, final long errors,
+                final LatencyHistogram latency, final LatencyHistogram serviceTime) {
+            this.name = name;
+            this.errors = errors;
+            this.latency = latency;
+            this.serviceTime = serviceTime;
+        }
+
+        /**
+         * @return the name of the operation
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the number of successful operations
+         */
+        public long getCount() {
+            return latency.getCount();
+        }
+
+        /**
+         * @return the number of failed operations
+         */
+        public long getErrors() {
+            return errors;
+        }
+
+        /**
+         * @return the latencies (from the intended start) of the successful
+         *         operations (in nanoseconds)
+         */
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        /**
+         * @return the service times (from the actual start) of the
+         *         successful operations (in nanoseconds)
+         */
+        public LatencyHistogram getServiceTime() {
+            return serviceTime;
+        }
+
+        @Override
+        public String toString() {
+            return formatRow(name, latency, errors);
+        }
+    }
+
+    /**
+     * Statistics of a run (immutable).
+     *
+     * @author Nico Kruber, kruber@zib.de
+     * @version 3.6
+     * @since 3.6
+     */
+    public static class Statistics {
+        private final double targetRate;
+        private final long executed;
+        private final long durationNs;
+        private final List<OperationStatistics> operations;
+
+        Statistics(final double targetRate, final long executed,
+                final long durationNs, final List<OperationStatistics> operations) {
+            this.targetRate = targetRate;
+            this.executed = executed;
+            this.durationNs = durationNs;
+            this.operations = operations;
+        }
+
+        /**
+         * @return the target rate (operations per second), <tt>0</tt> for a
+         *         closed-loop load
+         */
+        public double getTargetRate() {
+            return targetRate;
+        }
+
+        /**
+         * @return the number of executed operations (successful or not)
+         */
+        public long getExecuted() {
+            return executed;
+        }
+
+        /**
+         * @return the duration from the start until the last operation
+         *         finished (in nanoseconds)
+         */
+        public long getDuration() {
+            return durationNs;
+        }
+
+        /**
+         * @return the achieved rate of operations (successful or not) per
+         *         second
+         */
+        public double getAchievedRate() {
+            return (executed * 1000000000.0) / Math.max(1, durationNs);
+        }
+
+        /**
+         * @return the statistics of each operation type
+         */
+        public List<OperationStatistics> getOperations() {
+            return operations;
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder();
+            if (targetRate > 0.0) {
+                sb.append(String.format(Locale.ENGLISH, "target rate: %.1f ops/s, ",
+                        targetRate));
+            } else {
+                sb.append("closed loop, ");
+            }
+            sb.append(String.format(Locale.ENGLISH,
+                    "achieved: %.1f ops/s, executed: %d\n", getAchievedRate(),
+                    executed));
+            sb.append(formatHeader());
+            for (final OperationStatistics op : operations) {
+                sb.append('\n').append(op);
+            }
+            return sb.toString();
+        }
+    }
+
+    private final List<Operation<?>> operations = new ArrayList<Operation<?>>();
+    private double rate = 1000.0;
+    private long count = 0;
+    private long duration = 10000;
+    private int threads = 16;
+    private long logInterval = 1000;
+    private long seed = System.nanoTime();
+    private LatencyHistogramLog log = null;
+
+    /**
+     * Creates a new load generator without any operations.
+     */
+    public LoadGenerator() {
+    }
+
+    /**
+     * Adds an operation type.
+     *
+     * @param operation
+     *            the operation type
+     */
+    public void add(final Operation<?> operation) {
+        operations.add(operation);
+    }
+
+    /**
+     * @return the operations of the load (read-only)
+     */
+    public List<Operation<?>> getOperations() {
+        return Collections.unmodifiableList(operations);
+    }
+
+    /**
+     * @return the target rate (operations per second)
+     */
+    public double getRate() {
+        return rate;
+    }
+
+    /**
+     * Sets the target rate of all operations together (default: 1000).
+     *
+     * @param rate
+     *            the rate (operations per second), <tt>0</tt> for a
+     *            closed-loop load
+     */
+    public void setRate(final double rate) {
+        if (!(rate >= 0.0)) {
+            throw new IllegalArgumentException("rate must not be negative: " + rate);
+        }
+        this.rate = rate;
+    }
+
+    /**
+     * @return the number of operations of a run (<tt>0</tt> if defined by
+     *         the duration)
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Sets the number of operations of a run (default: 0, i.e.
+     * <tt>rate * duration</tt> operations or, for a closed-loop load, as
+     * many operations as possible within the duration).
+     *
+     * @param count
+     *            the number of operations
+     */
+    public void setCount(final long count) {
+        this.count = Math.max(0, count);
+    }
+
+    /**
+     * @return the duration of a run (in milliseconds)
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    /**
+     * Sets the time in which operations are scheduled (default: 10000ms).
+     * Ignored if {@link #getCount()} is set.
+     *
+     * @param duration
+     *            the duration (in milliseconds)
+     */
+    public void setDuration(final long duration) {
+        this.duration = Math.max(1, duration);
+    }
+
+    /**
+     * @return the number of worker threads
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Sets the number of worker threads (default: 16).
+     *
+     * @param threads
+     *            the number of threads
+     */
+    public void setThreads(final int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * @return the length of the logged intervals (in milliseconds)
+     */
+    public long getLogInterval() {
+        return logInterval;
+    }
+
+    /**
+     * Sets the length of the logged intervals (default: 1000ms).
+     *
+     * @param logInterval
+     *            the interval (in milliseconds)
+     */
+    public void setLogInterval(final long logInterval) {
+        this.logInterval = Math.max(1, logInterval);
+    }
+
+    /**
+     * Sets the seed of the random choice of operations (worker <tt>i</tt>
+     * uses <tt>seed + i</tt>).
+     *
+     * @param seed
+     *            the seed
+     */
+    public void setSeed(final long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Sets the log to write the histograms of each interval to.
+     *
+     * @param log
+     *            the log (<tt>null</tt> to disable)
+     */
+    public void setLog(final LatencyHistogramLog log) {
+        this.log = log;
+    }
+
+    /**
+     * Runs the load and waits until all scheduled operations have finished.
+     *
+     * @return the statistics of the run
+     *
+     * @throws InterruptedException
+     *             if interrupted while waiting for the workers
+     * @throws IOException
+     *             if writing the log fails
+     * @throws IllegalStateException
+     *             if there are no operations or initialising a worker
+     *             failed
+     */
+    public Statistics run() throws InterruptedException, IOException,
+            IllegalStateException {
+        if (operations.isEmpty()) {
+            throw new IllegalStateException("no operations");
+        }
+        final Run run = new Run();
+        return run.execute();
+    }
+
+    /**
+     * State of a single run.
+     */
+    private class Run {
+        private final Operation<?>[] ops = operations.toArray(new Operation<?>[operations.size()]);
+        private final int[] cumulativeWeights = new int[ops.length];
+        private final double runRate = rate;
+        /**
+         * The number of operations to schedule (upper limit for a closed
+         * loop).
+         */
+        private final long scheduled = (count > 0) ? count : ((rate > 0.0) ? Math
+                .max(1, (long) ((rate * duration) / 1000.0)) : Long.MAX_VALUE);
+        /**
+         * End of a closed-loop run (relative to {@link #start}).
+         */
+        private final long deadline = ((count > 0) || (rate > 0.0)) ? Long.MAX_VALUE
+                : (duration * 1000000L);
+        /**
+         * Sequence number of the next operation of a closed-loop run.
+         */
+        private final AtomicLong next = new AtomicLong(0);
+        private final int workerCount = threads;
+        private final long intervalNs = logInterval * 1000000L;
+        private final LatencyHistogramLog runLog = log;
+        private final LatencyHistogram[] latency = new LatencyHistogram[ops.length];
+        private final LatencyHistogram[] serviceTime = new LatencyHistogram[ops.length];
+        private final AtomicLong[] errors = new AtomicLong[ops.length];
+        /**
+         * Histograms of the intervals not logged yet (by interval index).
+         */
+        private final ConcurrentHashMap<Long, LatencyHistogram[]> intervals =
+                new ConcurrentHashMap<Long, LatencyHistogram[]>();
+        /**
+         * Intended start (relative to {@link #start}) of the next operation
+         * of each worker which has not been recorded yet.
+         */
+        private final AtomicLongArray progress = new AtomicLongArray(workerCount);
+        private final CountDownLatch ready = new CountDownLatch(workerCount);
+        private final CountDownLatch go = new CountDownLatch(1);
+        private volatile long start = 0;
+        private volatile Exception initError = null;
+
+        Run() {
+            int sum = 0;
+            for (int i = 0; i < ops.length; ++i) {
+                sum += ops[i].getWeight();
+                cumulativeWeights[i] = sum;
+                latency[i] = new LatencyHistogram();
+                serviceTime[i] = new LatencyHistogram();
+                errors[i] = new AtomicLong(0);
+            }
+        }
+
+        Statistics execute() throws InterruptedException, IOException {
+            final Thread[] workers = new Thread[workerCount];
+            for (int w = 0; w < workerCount; ++w) {
+                final int worker = w;
+                workers[w] = new Thread(new Runnable() {
+                    public void run() {
+                        work(worker);
+                    }
+                }, "LoadGenerator-" + w);
+                workers[w].start();
+            }
+            ready.await();
+            if (initError != null) {
+                go.countDown();
+                for (final Thread worker : workers) {
+                    worker.join();
+                }
+                final IllegalStateException e = new IllegalStateException(
+                        "initialising a worker failed: " + initError);
+                e.initCause(initError);
+                throw e;
+            }
+            start = System.nanoTime();
+            go.countDown();
+            for (final Thread worker : workers) {
+                while (worker.isAlive()) {
+                    worker.join(Math.max(1, logInterval));
+                    if (runLog != null) {
+                        flushIntervals(minProgress());
+                    }
+                }
+            }
+            final long durationNs = System.nanoTime() - start;
+            if (runLog != null) {
+                flushIntervals(Long.MAX_VALUE);
+            }
+            final List<OperationStatistics> result = new ArrayList<OperationStatistics>(ops.length);
+            long executed = 0;
+            for (int i = 0; i < ops.length; ++i) {
+                result.add(new OperationStatistics(ops[i].getName(),
+                        errors[i].get(), latency[i], serviceTime[i]));
+                executed += latency[i].getCount() + errors[i].get();
+            }
+            return new Statistics(runRate, executed, durationNs,
+                    Collections.unmodifiableList(result));
+        }
+
+        private void work(final int worker) {
+            final Object[] states = new Object[ops.length];
+            try {
+                for (int i = 0; i < ops.length; ++i) {
+                    states[i] = ops[i].init();
+                }
+            } catch (final Exception e) {
+                initError = e;
+            }
+            ready.countDown();
+            try {
+                go.await();
+            } catch (final InterruptedException e) {
+                initError = e;
+            }
+            try {
+                if (initError == null) {
+                    work(worker, states);
+                }
+            } finally {
+                progress.set(worker, Long.MAX_VALUE);
+                for (int i = 0; i < ops.length; ++i) {
+                    if (states[i] != null) {
+                        cleanupOperation(ops[i], states[i]);
+                    }
+                }
+            }
+        }
+
+        private void work(final int worker, final Object[] states) {
+            final Random random = new Random(seed + worker);
+            if (runRate > 0.0) {
+                for (long k = worker; k < scheduled; k += workerCount) {
+                    final long intended = (long) ((k * 1000000000.0) / runRate);
+                    progress.set(worker, intended);
+                    long now;
+                    while ((now = System.nanoTime() - start) < intended) {
+                        LockSupport.parkNanos(intended - now);
+                    }
+                    issue(states, random, k, intended);
+                }
+            } else {
+                // closed loop: the next operation starts when the previous ended
+                long k;
+                while ((k = next.getAndIncrement()) < scheduled) {
+                    final long now = System.nanoTime() - start;
+                    if (now >= deadline) {
+                        break;
+                    }
+                    progress.set(worker, now);
+                    issue(states, random, k, now);
+                }
+            }
+        }
+
+        /**
+         * Executes a randomly chosen operation and records its latency.
+         *
+         * @param states
+         *            the states of the operations of the current worker
+         * @param random
+         *            the random number generator of the current worker
+         * @param k
+         *            the sequence number of the operation
+         * @param intended
+         *            the intended start (relative to {@link #start})
+         */
+        private void issue(final Object[] states, final Random random,
+            final long k, final long intended) {
+            final int r = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+            int op = 0;
+            while (cumulativeWeights[op] <= r) {
+                ++op;
+            }
+            final long actualStart = System.nanoTime();
+            boolean success = false;
+            try {
+                executeOperation(ops[op], states[op], k);
+                success = true;
+            } catch (final Exception e) {
+                errors[op].incrementAndGet();
+            }
+            final long end = System.nanoTime();
+            if (success) {
+                final long opLatency = end - start - intended;
+                latency[op].record(opLatency);
+                serviceTime[op].record(end - actualStart);
+                if (runLog != null) {
+                    getInterval(intended / intervalNs)[op].record(opLatency);
+                }
+            }
+        }
+
+        private LatencyHistogram[] getInterval(final long index) {
+            LatencyHistogram[] result = intervals.get(index);
+            if (result == null) {
+                final LatencyHistogram[] newInterval = new LatencyHistogram[ops.length];
+                for (int i = 0; i < ops.length; ++i) {
+                    newInterval[i] = new LatencyHistogram();
+                }
+                result = intervals.putIfAbsent(index, newInterval);
+                if (result == null) {
+                    result = newInterval;
+                }
+            }
+            return result;
+        }
+
+        private long minProgress() {
+            long result = Long.MAX_VALUE;
+            for (int w = 0; w < workerCount; ++w) {
+                result = Math.min(result, progress.get(w));
+            }
+            return result;
+        }
+
+        /**
+         * Writes (and removes) all intervals which end before the given time,
+         * i.e. whose operations have all been recorded.
+         *
+         * @param limit
+         *            the time relative to the start (in nanoseconds)
+         *
+         * @throws IOException
+         *             if writing the log fails
+         */
+        private void flushIntervals(final long limit) throws IOException {
+            final Long[] indices = intervals.keySet().toArray(new Long[0]);
+            Arrays.sort(indices);
+            for (final Long index : indices) {
+                final long intervalStart = index * intervalNs;
+                if ((limit != Long.MAX_VALUE) && (intervalStart + intervalNs > limit)) {
+                    break;
+                }
+                final LatencyHistogram[] interval = intervals.remove(index);
+                for (int i = 0; i < ops.length; ++i) {
+                    if (interval[i].getCount() > 0) {
+                        runLog.write(ops[i].getName(), intervalStart, intervalNs, interval[i]);
+                    }
+                }
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <S> void executeOperation(final Operation<S> op, final Object state,
+            final long seq) throws Exception {
+        op.execute((S) state, seq);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <S> void cleanupOperation(final Operation<S> op, final Object state) {
+        op.cleanup((S) state);
+    }
+
+    /**
+     * Formats the header of a result table.
+     *
+     * @return the header
+     */
+    static String formatHeader() {
+        return String.format(Locale.ENGLISH, "%-20s %10s %8s %10s %10s %10s %10s",
+                "operation", "count", "errors", "p50 (ms)", "p99 (ms)", "p99.9 (ms)", "max (ms)");
+    }
+
+    /**
+     * Formats a row of a result table.
+     *
+     * @param name
+     *            the name of the row
+     * @param latency
+     *            the latencies (in nanoseconds)
+     * @param errors
+     *            the number of errors
+     *
+     * @return the row
+     */
+    static String formatRow(final String name, final LatencyHistogram latency,
+            final long errors) {
+        return String.format(Locale.ENGLISH, "%-20s %10d %8d %10.3f %10.3f %10.3f %10.3f",
+                name, latency.getCount(), errors,
+                latency.getPercentile(0.5) / 1000000.0,
+                latency.getPercentile(0.99) / 1000000.0,
+                latency.getPercentile(0.999) / 1000000.0,
+                latency.getMax() / 1000000.0);
+    }
+
+    /**
+     * Creates an operation which reads a random key of
+     * <tt>keyPrefix0</tt> to <tt>keyPrefix{keys-1}</tt> with a
+     * {@link TransactionSingleOp} object per worker thread. Non-existing
+     * keys do not count as errors.
+     *
+     * @param keyPrefix
+     *            the prefix of the keys
+     * @param keys
+     *            the number of keys
+     * @param weight
+     *            the relative frequency of the operation
+     *
+     * @return the operation
+     */
+    public static Operation<TransactionSingleOp> readOperation(
+            final String keyPrefix, final int keys, final int weight) {
+        return new Operation<TransactionSingleOp>("read", weight) {
+            @Override
+            protected TransactionSingleOp init() throws ConnectionException {
+                return new TransactionSingleOp();
+            }
+
+            @Override
+            protected void execute(final TransactionSingleOp sc, final long seq)
+                    throws Exception {
+                try {
+                    sc.read(keyPrefix + (seq % keys));
+                } catch (final NotFoundException e) {
+                    // a valid result
+                }
+            }
+
+            @Override
+            protected void cleanup(final TransactionSingleOp sc) {
+                sc.closeConnection();
+            }
+        };
+    }
+
+    /**
+     * Creates an operation which writes a random value of
+     * <tt>valueSize</tt> characters to a key of <tt>keyPrefix0</tt> to
+     * <tt>keyPrefix{keys-1}</tt> with a {@link TransactionSingleOp} object per
+     * worker thread.
+     *
+     * @param keyPrefix
+     *            the prefix of the keys
+     * @param keys
+     *            the number of keys
+     * @param valueSize
+     *            the number of characters of the values
+     * @param weight
+     *            the relative frequency of the operation
+     *
+     * @return the operation
+     */
+    public static Operation<TransactionSingleOp> writeOperation(
+            final String keyPrefix, final int keys, final int valueSize,
+            final int weight) {
+        final char[] chars = new char[valueSize];
+        final Random random = new Random();
+        for (int i = 0; i < valueSize; ++i) {
+            chars[i] = (char) ('a' + random.nextInt(26));
+        }
+        final String value = new String(chars);
+        return new Operation<TransactionSingleOp>("write", weight) {
+            @Override
+            protected TransactionSingleOp init() throws ConnectionException {
+                return new TransactionSingleOp();
+            }
+
+            @Override
+            protected void execute(final TransactionSingleOp sc, final long seq)
+                    throws Exception {
+                sc.write(keyPrefix + (seq % keys), value);
+            }
+
+            @Override
+            protected void cleanup(final TransactionSingleOp sc) {
+                sc.closeConnection();
+            }
+        };
+    }
+}
@@ -0,0 +1,413 @@
+/**
+ *  Copyright 2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.ericsson.otp.erlang.OtpAuthException;
+
+/**
+ * Implements a {@link ConnectionPolicy} by choosing nodes randomly with the
+ * same semantics as {@link DefaultConnectionPolicy} but without any locks.
+ *
+ * Nodes are sorted into good nodes (nodes without failures) and bad nodes
+ * (ordered by their last failure, least recently failed first). A new
+ * connection (or reconnect) uses a random good node or, if there is none, the
+ * least recently failed bad node. At most {@link #getMaxRetries()} retries
+ * are attempted per operation.
+ *
+ * Instead of synchronising all methods, the per-node failure statistics are
+ * kept in atomic variables of the {@link PeerNode} objects and the good and
+ * bad nodes are stored in an immutable snapshot. Any change of a
+ * node's state creates a new snapshot which is installed with a
+ * compare-and-set operation, i.e. {@link #selectNode(int, PeerNode, Exception)}
+ * only reads the current snapshot and never blocks. This suits scenarios where
+ * a single policy object is shared by many threads, e.g. the policy of a
+ * {@link ConnectionFactory} used by a large number of client threads.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ * @version 3.6
+ * @since 3.6
+ */
+public class LockFreeConnectionPolicy extends ConnectionPolicy {
+    /**
+     * A bad node and its last failure time (fixed while sorting).
+     */
+    private static final class BadNode {
+        final PeerNode node;
+        final long failTime;
+
+        BadNode(final PeerNode node) {
+            this.node = node;
+            final Date d = node.getLastFailedConnect();
+            this.failTime = ((d == null) ? 0 : d.getTime());
+        }
+    }
+
+    /**
+     * Defines the order of the bad nodes: least recently failed = first.
+     */
+    private static final Comparator<BadNode> badNodesComparator = new Comparator<BadNode>() {
+        public int compare(final BadNode o1, final BadNode o2) {
+            if (o1.failTime < o2.failTime) {
+                return -1;
+            } else if (o1.failTime > o2.failTime) {
+                return 1;
+            } else {
+                return o1.node.getNode().node().compareTo(o2.node.getNode().node());
+            }
+        }
+    };
+
+    /**
+     * Immutable view on the available nodes and their classification.
+     *
+     * @author Nico Kruber, kruber@zib.de
+     * @version 3.6
+     * @since 3.6
+     */
+    private static final class Snapshot {
+        /**
+         * All available nodes.
+         */
+        final PeerNode[] nodes;
+        /**
+         * Nodes without failures.
+         */
+        final PeerNode[] goodNodes;
+        /**
+         * Nodes with failures, least recently failed first.
+         */
+        final PeerNode[] badNodes;
+
+        /**
+         * Creates a snapshot of the given nodes classifying them by their
+         * current failure statistics.
+         *
+         * @param nodes
+         *            all available nodes
+         */
+        Snapshot(final PeerNode[] nodes) {
+            this.nodes = nodes;
+            final List<PeerNode> good = new ArrayList<PeerNode>(nodes.length);
+            final List<BadNode> bad = new ArrayList<BadNode>(nodes.length);
+            for (final PeerNode node : nodes) {
+                if (node.getFailureCount() == 0) {
+                    good.add(node);
+                } else {
+                    bad.add(new BadNode(node));
+                }
+            }
+            goodNodes = good.toArray(new PeerNode[good.size()]);
+            Collections.sort(bad, badNodesComparator);
+            badNodes = new PeerNode[bad.size()];
+            for (int i = 0; i < badNodes.length; ++i) {
+                badNodes[i] = bad.get(i).node;
+            }
+        }
+    }
+
+    /**
+     * The current snapshot of the available nodes.
+     */
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<Snapshot>(
+            new Snapshot(new PeerNode[0]));
+
+    /**
+     * Random number generators (one per thread to prevent contention).
+     */
+    private static final ThreadLocal<Random> random = new ThreadLocal<Random>() {
+        @Override
+        protected Random initialValue() {
+            return new Random();
+        }
+    };
+
+    /**
+     * The maximal number of connection retries.
+     */
+    private volatile int maxRetries = 3;
+
+    /**
+     * Creates a new connection policy working with the given remote node.
+     *
+     * Provided for convenience.
+     *
+     * @param remoteNode
+     *            the (only) available remote node
+     */
+    public LockFreeConnectionPolicy(final PeerNode remoteNode) {
+        super(remoteNode);
+        availableNodeAdded(remoteNode);
+    }
+
+    /**
+     * Creates a new connection policy with the given remote nodes.
+     *
+     * Attention: This method synchronises on {@code availableRemoteNodes}.
+     *
+     * Any time this list is changed, the according methods in this class should
+     * be called, i.e. {@link #availableNodeAdded(PeerNode)},
+     * {@link #availableNodeRemoved(PeerNode)}, {@link #availableNodesReset()}
+     * to update the good and bad nodes.
+     *
+     * @param availableRemoteNodes
+     *            the remote nodes available for connections
+     */
+    public LockFreeConnectionPolicy(final List<PeerNode> availableRemoteNodes) {
+        super(availableRemoteNodes);
+        synchronized (availableRemoteNodes) {
+            for (final PeerNode remoteNode : availableRemoteNodes) {
+                availableNodeAdded(remoteNode);
+            }
+        }
+    }
+
+    /**
+     * Installs a new snapshot of the current nodes (including/excluding the
+     * given nodes), re-classifying all nodes by their current state.
+     *
+     * @param added
+     *            a node to add (or <tt>null</tt>)
+     * @param removed
+     *            a node to remove (or <tt>null</tt>)
+     */
+    private void update(final PeerNode added, final PeerNode removed) {
+        while (true) {
+            final Snapshot old = snapshot.get();
+            PeerNode[] nodes = old.nodes;
+            if (removed != null) {
+                final List<PeerNode> newNodes = new ArrayList<PeerNode>(Arrays.asList(nodes));
+                newNodes.remove(removed);
+                nodes = newNodes.toArray(new PeerNode[newNodes.size()]);
+            }
+            if (added != null) {
+                nodes = Arrays.copyOf(nodes, nodes.length + 1);
+                nodes[nodes.length - 1] = added;
+            }
+            if (snapshot.compareAndSet(old, new Snapshot(nodes))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Adds the given node to the good nodes if it has no failures, otherwise
+     * it will be added to the bad nodes.
+     *
+     * @param newNode
+     *            the new node
+     */
+    @Override
+    public void availableNodeAdded(final PeerNode newNode) {
+        update(newNode, null);
+    }
+
+    /**
+     * Removes the node from the good and bad nodes.
+     *
+     * @param removedNode
+     *            the removed node
+     */
+    @Override
+    public void availableNodeRemoved(final PeerNode removedNode) {
+        update(null, removedNode);
+    }
+
+    /**
+     * Removes all nodes as the list of available nodes has been reset.
+     */
+    @Override
+    public void availableNodesReset() {
+        snapshot.set(new Snapshot(new PeerNode[0]));
+    }
+
+    /**
+     * Sets the given node's last failed connect time stamp and moves it to the
+     * bad nodes.
+     *
+     * @param node
+     *            the failed node
+     */
+    @Override
+    public void nodeFailed(final PeerNode node) {
+        node.setLastFailedConnect();
+        // the order of the bad nodes changes with every failure
+        update(null, null);
+    }
+
+    /**
+     * Resets the node's last failure state and moves it to the good nodes.
+     *
+     * @param node
+     *            the node
+     */
+    @Override
+    public void nodeFailReset(final PeerNode node) {
+        if (node.resetFailureCount() > 0) {
+            update(null, null);
+        }
+    }
+
+    /**
+     * Sets the node's last successful connect time stamp, resets its failure
+     * statistics and moves it to the good nodes.
+     *
+     * @param node
+     *            the node
+     */
+    @Override
+    public void nodeConnectSuccess(final PeerNode node) {
+        node.setLastConnectSuccess();
+        if (node.resetFailureCount() > 0) {
+            update(null, null);
+        }
+    }
+
+    /**
+     * Returns a random node from the given good nodes.
+     *
+     * Subclasses may override this to implement a different strategy. The
+     * array must not be modified.
+     *
+     * @param goodNodes
+     *            the current good nodes (at least one)
+     *
+     * @return a good node
+     */
+    protected PeerNode getGoodNode(final PeerNode[] goodNodes) {
+        if (goodNodes.length == 1) {
+            return goodNodes[0];
+        }
+        return goodNodes[getRandom().nextInt(goodNodes.length)];
+    }
+
+    /**
+     * Gets the random number generator of the current thread.
+     *
+     * @return a random number generator
+     */
+    protected static Random getRandom() {
+        return random.get();
+    }
+
+    /**
+     * Selects the node to (re-)connect with until the maximal number of
+     * {@link #getMaxRetries()} has been reached.
+     *
+     * Throws an exception if {@code retry > maxRetries} and thus stops further
+     * node connection attempts. Otherwise chooses a random good node or (if
+     * there are no good nodes) the least recently failed bad node.
+     *
+     * @param <E>
+     *            the type of the exception that came from the failed connection
+     *            and may be re-thrown
+     *
+     * @param retry
+     *            the n'th retry (initial connect = 0, 1st reconnect = 1,...)
+     * @param failedNode
+     *            the node from the previous connection attempt or {@code null}
+     * @param e
+     *            the exception that came back from the previous connection
+     *            attempt or {@code null}
+     *
+     * @return the new node to connect with
+     *
+     * @throws E
+     *             if thrown, automatic re-connection attempts will stop
+     * @throws UnsupportedOperationException
+     *             is thrown if the operation can not be performed, e.g. the
+     *             list is empty
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public <E extends Exception> PeerNode selectNode(final int retry,
+            final PeerNode failedNode, final E e) throws E {
+        final Snapshot cur = snapshot.get();
+        if (retry <= maxRetries) {
+            if (cur.goodNodes.length > 0) {
+                return getGoodNode(cur.goodNodes);
+            } else if (cur.badNodes.length > 0) {
+                return cur.badNodes[0];
+            } else {
+                throw new UnsupportedOperationException(
+                        "Can not choose a node from an empty list.");
+            }
+        } else {
+            final String newMessage = e.getMessage() + ", bad nodes: "
+                    + Arrays.toString(cur.badNodes) + ", good nodes: "
+                    + Arrays.toString(cur.goodNodes) + ", retries: " + (retry - 1);
+            if (e instanceof OtpAuthException) {
+                final OtpAuthException e1 = new OtpAuthException(newMessage);
+                e1.setStackTrace(e.getStackTrace());
+                throw (E) e1;
+            } else if (e instanceof IOException) {
+                final IOException e1 = new IOException(newMessage);
+                e1.setStackTrace(e.getStackTrace());
+                throw (E) e1;
+            } else {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Gets the maximal number of automatic connection retries.
+     *
+     * @return the maxRetries
+     */
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * Sets the maximal number of automatic connection retries.
+     *
+     * @param maxRetries
+     *            the maxRetries to set
+     */
+    public void setMaxRetries(final int maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    /**
+     * Gets a copy of the list of good nodes (contains references to the
+     * {@link PeerNode} objects).
+     *
+     * @return the list of good nodes
+     */
+    public List<PeerNode> getGoodNodes() {
+        return new ArrayList<PeerNode>(Arrays.asList(snapshot.get().goodNodes));
+    }
+
+    /**
+     * Gets a copy of the list of bad nodes (contains references to the
+     * {@link PeerNode} objects), least recently failed first.
+     *
+     * @return the list of bad nodes
+     */
+    public List<PeerNode> getBadNodes() {
+        return new ArrayList<PeerNode>(Arrays.asList(snapshot.get().badNodes));
+    }
+}
@@ -15,8 +15,15 @@
  */
 package de.zib.scalaris;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -48,7 +55,11 @@ public class Main {
      *                                   properties read
      *  -lh,--localhost                  gets the local host's name as known to
      *                                   Java (for debugging purposes)
-     *  -b,--minibench                   run mini benchmark
+     *  -b,--minibench <runs> <benchmarks>|<workload>
+     *                                   run selected mini benchmark(s)
+     *                                   [1|...|9|all] (default: all
+     *                                   benchmarks, 100 test runs) or the
+     *                                   workload defined in the given file
      *  -r,--read <key>                  read an item
      *  -w,--write <key> <value>         write an item
      *  -d,--delete <key> <[timeout]>    delete an item (default timeout: 2000ms)
@@ -62,6 +73,20 @@ public class Main {
      *  -s,--subscribe <topic> <url>     subscribe to a topic
      *  -g,--getsubscribers <topic>      get subscribers of a topic
      *  -u,--unsubscribe <topic> <url>   unsubscribe from a topic
+     *  -ex,--export <dir> <[keyfile]>   export all items to a snapshot
+     *                                   directory (keys of the keyfile are
+     *                                   stored with the items)
+     *  -im,--import <dir> <[keyfile]>   import a snapshot directory (keys of
+     *                                   the keyfile are used for items
+     *                                   without a stored key)
+     *  -lg,--loadgen <rate> <[seconds]> <[threads]> <[logfile]>
+     *                                   run an open-loop load of reads and
+     *                                   writes with the given rate (ops/s,
+     *                                   default: 10 seconds, 16 threads)
+     *                                   and report latency percentiles
+     *  -lm,--logmerge <logfile> <[logfile...]>
+     *                                   merge latency histogram logs and
+     *                                   report latency percentiles
      * </code>
      * </pre>
      *
@@ -93,7 +118,10 @@ public class Main {
             final String[] optionValues = line.getOptionValues("minibench");
             int testruns = 100;
             final HashSet<Integer> benchmarks = new HashSet<Integer>(10);
-            if (optionValues != null) {
+            if ((optionValues != null) && !optionValues[0].matches("[0-9]+")) {
+                runWorkload(optionValues[0], verbose);
+                return;
+            } else if (optionValues != null) {
                 checkArguments(optionValues, 2, options, "b");
                 testruns = Integer.parseInt(optionValues[0]);
                 for (int i = 1; i < Math.min(10, optionValues.length); ++i) {
@@ -246,6 +274,80 @@ public class Main {
             } catch (final UnknownException e) {
                 printException("delete failed with unknown error", e, verbose);
             }
+        } else if (line.hasOption("ex") || line.hasOption("im")) { // snapshot
+            final String option = line.hasOption("ex") ? "ex" : "im";
+            final String[] optionValues = line.getOptionValues(option);
+            checkArguments(optionValues, 1, options, option);
+            final Snapshot snapshot = new Snapshot(ConnectionFactory.getInstance().getConnectionPool());
+            try {
+                if (optionValues.length >= 2) {
+                    snapshot.setKeys(Snapshot.readKeys(new File(optionValues[1])));
+                }
+                final File dir = new File(optionValues[0]);
+                final Snapshot.Statistics stats = option.equals("ex") ? snapshot
+                        .exportTo(dir) : snapshot.importFrom(dir);
+                System.out.println((option.equals("ex") ? "export(" : "import(")
+                        + dir + "): " + stats);
+            } catch (final IOException e) {
+                printException("snapshot failed with I/O error", e, verbose);
+            } catch (final ConnectionException e) {
+                printException("snapshot failed with connection error", e, verbose);
+            } catch (final TimeoutException e) {
+                printException("snapshot failed with timeout", e, verbose);
+            } catch (final UnknownException e) {
+                printException("snapshot failed with unknown error", e, verbose);
+            }
+        } else if (line.hasOption("lg")) { // load generator
+            final String[] optionValues = line.getOptionValues("loadgen");
+            checkArguments(optionValues, 1, options, "lg");
+            final LoadGenerator generator = new LoadGenerator();
+            generator.setRate(Double.parseDouble(optionValues[0]));
+            if (optionValues.length >= 2) {
+                generator.setDuration(Long.parseLong(optionValues[1]) * 1000);
+            }
+            if (optionValues.length >= 3) {
+                generator.setThreads(Integer.parseInt(optionValues[2]));
+            }
+            generator.add(LoadGenerator.readOperation("loadgen_", 1000, 1));
+            generator.add(LoadGenerator.writeOperation("loadgen_", 1000, Benchmark.BENCH_DATA_SIZE, 1));
+            Writer logWriter = null;
+            try {
+                if (optionValues.length >= 4) {
+                    logWriter = new OutputStreamWriter(new FileOutputStream(optionValues[3]), "UTF-8");
+                    generator.setLog(new LatencyHistogramLog(logWriter, System.currentTimeMillis()));
+                }
+                System.out.println(generator.run());
+            } catch (final IOException e) {
+                printException("load generator failed with I/O error", e, verbose);
+            } catch (final IllegalStateException e) {
+                printException("load generator failed", e, verbose, 2);
+            } catch (final InterruptedException e) {
+                printException("load generator was interrupted", e, verbose, 5);
+            } finally {
+                if (logWriter != null) {
+                    try {
+                        logWriter.close();
+                    } catch (final IOException e) {
+                        printException("load generator failed with I/O error", e, verbose);
+                    }
+                }
+            }
+        } else if (line.hasOption("lm")) { // merge latency logs
+            final String[] optionValues = line.getOptionValues("logmerge");
+            checkArguments(optionValues, 1, options, "lm");
+            final File[] files = new File[optionValues.length];
+            for (int i = 0; i < optionValues.length; ++i) {
+                files[i] = new File(optionValues[i]);
+            }
+            try {
+                final SortedMap<String, LatencyHistogram> histograms = LatencyHistogramLog.read(files);
+                System.out.println(LoadGenerator.formatHeader());
+                for (final Map.Entry<String, LatencyHistogram> e : histograms.entrySet()) {
+                    System.out.println(LoadGenerator.formatRow(e.getKey(), e.getValue(), 0));
+                }
+            } catch (final IOException e) {
+                printException("merging logs failed with I/O error", e, verbose);
+            }
         } else if (line.hasOption("lh")) { // get local host name
             System.out.println(ConnectionFactory.getLocalhostName());
         } else {
@@ -256,6 +358,36 @@ public class Main {
         }
     }
 
+    /**
+     * Runs the workload defined in the given file (see {@link Workload}) and
+     * prints the statistics of each phase.
+     *
+     * @param file
+     *            the workload file
+     * @param verbose
+     *            whether to print verbose information on errors
+     */
+    private static void runWorkload(final String file, final boolean verbose) {
+        try {
+            final Workload workload = Workload.read(new File(file));
+            if (workload.isLoadPhase()) {
+                System.out.println("load phase (" + workload.getRecordCount() + " records):");
+                System.out.println(workload.runLoadPhase());
+                System.out.println();
+            }
+            System.out.println("run phase:");
+            System.out.println(workload.runTransactionPhase());
+        } catch (final IOException e) {
+            printException("workload failed with I/O error", e, verbose);
+        } catch (final IllegalArgumentException e) {
+            printException("invalid workload", e, verbose, 1);
+        } catch (final IllegalStateException e) {
+            printException("workload failed", e, verbose, 2);
+        } catch (final InterruptedException e) {
+            printException("workload was interrupted", e, verbose, 5);
+        }
+    }
+
     /**
      * Creates the options the command line should understand.
      *
@@ -320,12 +452,40 @@ public class Main {
         delete.setOptionalArg(true);
         group.addOption(delete);
 
-        final Option bench = new Option("b", "minibench", true, "run selected mini benchmark(s) [1|...|9|all] (default: all benchmarks, 100 test runs)");
-        bench.setArgName("runs> <benchmarks");
+        final Option bench = new Option("b", "minibench", true, "run selected mini benchmark(s) [1|...|9|all] (default: all benchmarks, 100 test runs) or the workload defined in the given file");
+        bench.setArgName("runs> <benchmarks>|<workload");
         bench.setArgs(10);
         bench.setOptionalArg(true);
         group.addOption(bench);
 
+        final Option export = new Option("ex", "export", true,
+                "export all items to a snapshot directory (keys of the keyfile are stored with the items)");
+        export.setArgName("dir> <[keyfile]");
+        export.setArgs(2);
+        export.setOptionalArg(true);
+        group.addOption(export);
+
+        final Option imp = new Option("im", "import", true,
+                "import a snapshot directory (keys of the keyfile are used for items without a stored key)");
+        imp.setArgName("dir> <[keyfile]");
+        imp.setArgs(2);
+        imp.setOptionalArg(true);
+        group.addOption(imp);
+
+        final Option loadgen = new Option("lg", "loadgen", true,
+                "run an open-loop load of reads and writes with the given rate (ops/s, default: 10 seconds, 16 threads) and report latency percentiles");
+        loadgen.setArgName("rate> <[seconds]> <[threads]> <[logfile]");
+        loadgen.setArgs(4);
+        loadgen.setOptionalArg(true);
+        group.addOption(loadgen);
+
+        final Option logmerge = new Option("lm", "logmerge", true,
+                "merge latency histogram logs and report latency percentiles");
+        logmerge.setArgName("logfile> <[logfile...]");
+        logmerge.setArgs(Option.UNLIMITED_VALUES);
+        logmerge.setOptionalArg(true);
+        group.addOption(logmerge);
+
         options.addOptionGroup(group);
 
         options.addOption(new Option("lh", "localhost", false, "gets the local host's name as known to Java (for debugging purposes)"));
@@ -405,6 +565,18 @@ public class Main {
         printException(description, e, verbose, 7);
     }
 
+    /**
+     * Prints the given exception with the given description and terminates the
+     * JVM.
+     *
+     * @param description  will be prepended to the error message
+     * @param e            the exception to print
+     * @param verbose      specifies whether to include the stack trace or not
+     */
+    final static void printException(final String description, final IOException e, final boolean verbose) {
+        printException(description, e, verbose, 8);
+    }
+
     /**
      * Prints the given exception with the given description and terminates the
      * JVM.
@@ -0,0 +1,486 @@
+/**
+ *  Copyright 2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Size- and TTL-bounded client-side cache of values read by
+ * {@link TransactionSingleOp}.
+ *
+ * If set via {@link TransactionSingleOp#setNearCache(NearCache)},
+ * {@link TransactionSingleOp#read(String)} consults the cache first and only
+ * issues an RPC on a miss. Entries are evicted in least-recently-used order
+ * once more than {@link #getMaxSize()} keys are cached and expire
+ * {@link #getTtl()} milliseconds after they have been read from scalaris.
+ *
+ * <pre>
+ * <code style="white-space:pre;">
+ *   NearCache cache = new NearCache(10000, 5000);
+ *   cache.setPublisher(new PubSub(), "wiki_cache"); // {@link #setPublisher(PubSub, String)}
+ *   TransactionSingleOp sc = new TransactionSingleOp();
+ *   sc.setNearCache(cache);
+ *   String value = sc.read(key).stringValue();
+ * </code>
+ * </pre>
+ *
+ * <h3>Invalidation</h3>
+ *
+ * Writes issued through a {@link TransactionSingleOp} with this cache,
+ * including request lists and thus a {@link TransactionSingleOpBatcher}, as
+ * well as the writes committed by a {@link Transaction} with this cache
+ * (including failed ones as they may have been committed nevertheless) and
+ * the deletes of a {@link ReplicatedDHT} with this cache remove the key from
+ * the cache and, if a publisher is set, publish the key to the invalidation
+ * topic with {@link PubSub#publishAsync(String, String)}. Other clients subscribed to this topic should call
+ * {@link #invalidate(String)} with the published content. Writes issued by
+ * other means, e.g. by other APIs, are not seen by the cache, so the TTL
+ * bounds the time a stale value may be served.
+ *
+ * A single cache may be shared among several {@link TransactionSingleOp}
+ * objects and threads.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ * @version 3.6
+ * @since 3.6
+ */
+public class NearCache {
+    /**
+     * A cached value.
+     */
+    private static final class Entry {
+        final ErlangValue value;
+        /**
+         * The time the value has been read at (see {@link System#nanoTime()}).
+         */
+        final long created;
+
+        Entry(final ErlangValue value, final long created) {
+            this.value = value;
+            this.created = created;
+        }
+    }
+
+    /**
+     * The cached values in least-recently-used order (guarded by
+     * <tt>this</tt>).
+     */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    /**
+     * Number of invalidations so far (guarded by <tt>this</tt>), used to
+     * detect invalidations during a read.
+     */
+    private long generation = 0;
+
+    /**
+     * Maximum number of cached keys.
+     */
+    private volatile int maxSize;
+    /**
+     * Time to live of an entry (in nanoseconds).
+     */
+    private volatile long ttlNs;
+
+    /**
+     * Object used to publish invalidations (<tt>null</tt> if disabled).
+     */
+    private volatile PubSub publisher = null;
+    /**
+     * Topic to publish invalidations to.
+     */
+    private volatile String topic = null;
+
+    private final AtomicLong hits = new AtomicLong(0);
+    private final AtomicLong misses = new AtomicLong(0);
+    private final AtomicLong evictions = new AtomicLong(0);
+    private final AtomicLong expirations = new AtomicLong(0);
+    private final AtomicLong invalidations = new AtomicLong(0);
+    private final AtomicLong published = new AtomicLong(0);
+    private final AtomicLong publishFailures = new AtomicLong(0);
+    private final AtomicLong hitAgeNs = new AtomicLong(0);
+    private final AtomicLong maxHitAgeNs = new AtomicLong(0);
+
+    /**
+     * Creates a new cache.
+     *
+     * @param maxSize
+     *            maximum number of cached keys
+     * @param ttl
+     *            time to live of an entry in milliseconds
+     */
+    public NearCache(final int maxSize, final long ttl) {
+        setMaxSize(maxSize);
+        setTtl(ttl);
+    }
+
+    /**
+     * Gets the cached value of the given key.
+     *
+     * @param key
+     *            the key to look up
+     *
+     * @return the value or <tt>null</tt> if there is no valid entry
+     */
+    ErlangValue get(final String key) {
+        final long now = System.nanoTime();
+        final Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+            if ((entry != null) && ((now - entry.created) > ttlNs)) {
+                entries.remove(key);
+                expirations.incrementAndGet();
+                misses.incrementAndGet();
+                return null;
+            }
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        final long age = now - entry.created;
+        hitAgeNs.addAndGet(age);
+        long max;
+        while ((max = maxHitAgeNs.get()) < age && !maxHitAgeNs.compareAndSet(max, age)) {
+            // retry
+        }
+        return entry.value;
+    }
+
+    /**
+     * Gets the current invalidation generation. Pass this to
+     * {@link #put(String, ErlangValue, long, long)} to avoid caching values
+     * which may have been overwritten during the read.
+     *
+     * @return the generation
+     */
+    synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Adds a value to the cache unless any key has been invalidated since
+     * <tt>generation</tt>.
+     *
+     * @param key
+     *            the key
+     * @param value
+     *            the value read from scalaris
+     * @param generation
+     *            the result of {@link #getGeneration()} before the read
+     * @param readStart
+     *            the time the read has been started at (see
+     *            {@link System#nanoTime()})
+     */
+    void put(final String key, final ErlangValue value, final long generation,
+            final long readStart) {
+        synchronized (this) {
+            if (this.generation != generation) {
+                return;
+            }
+            entries.put(key, new Entry(value, readStart));
+            final int max = maxSize;
+            if (entries.size() > max) {
+                final Iterator<Map.Entry<String, Entry>> iter = entries.entrySet().iterator();
+                while ((entries.size() > max) && iter.hasNext()) {
+                    iter.next();
+                    iter.remove();
+                    evictions.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the given key from the cache (without publishing an
+     * invalidation message).
+     *
+     * Call this method when receiving an invalidation message from the topic
+     * set with {@link #setPublisher(PubSub, String)}.
+     *
+     * @param key
+     *            the key to remove
+     */
+    public void invalidate(final String key) {
+        synchronized (this) {
+            ++generation;
+            entries.remove(key);
+        }
+        invalidations.incrementAndGet();
+    }
+
+    /**
+     * Removes all entries from the cache.
+     */
+    public void invalidateAll() {
+        synchronized (this) {
+            ++generation;
+            entries.clear();
+        }
+        invalidations.incrementAndGet();
+    }
+
+    /**
+     * Removes the given key from the cache after a write and publishes an
+     * invalidation message if a publisher is set.
+     *
+     * @param key
+     *            the written key
+     */
+    void written(final String key) {
+        invalidate(key);
+        final PubSub publisher0 = publisher;
+        final String topic0 = topic;
+        if (publisher0 == null) {
+            return;
+        }
+        try {
+            publisher0.publishAsync(topic0, key).addCallback(new ResultCallback<Void>() {
+                public void onSuccess(final Void result) {
+                    published.incrementAndGet();
+                }
+
+                public void onFailure(final Exception e) {
+                    publishFailures.incrementAndGet();
+                }
+            });
+        } catch (final ConnectionException e) {
+            publishFailures.incrementAndGet();
+        }
+    }
+
+    /**
+     * Sets the object used to publish the keys of written values.
+     *
+     * @param publisher
+     *            the publisher (<tt>null</tt> to disable publishing)
+     * @param topic
+     *            the topic to publish to
+     */
+    public void setPublisher(final PubSub publisher, final String topic) {
+        this.topic = topic;
+        this.publisher = publisher;
+    }
+
+    /**
+     * Gets the topic invalidations are published to.
+     *
+     * @return the topic or <tt>null</tt> if none is set
+     */
+    public String getTopic() {
+        return topic;
+    }
+
+    /**
+     * Gets the number of cached keys.
+     *
+     * @return the number of entries (including expired ones)
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Gets the maximum number of cached keys.
+     *
+     * @return the maximum size
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Sets the maximum number of cached keys. Excess entries are evicted
+     * with the next insertion.
+     *
+     * @param maxSize
+     *            the maximum size
+     */
+    public void setMaxSize(final int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+        }
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Gets the time to live of an entry.
+     *
+     * @return the TTL in milliseconds
+     */
+    public long getTtl() {
+        return TimeUnit.NANOSECONDS.toMillis(ttlNs);
+    }
+
+    /**
+     * Sets the time to live of an entry.
+     *
+     * @param ttl
+     *            the TTL in milliseconds
+     */
+    public void setTtl(final long ttl) {
+        if (ttl < 0) {
+            throw new IllegalArgumentException("ttl must not be negative: " + ttl);
+        }
+        this.ttlNs = TimeUnit.MILLISECONDS.toNanos(ttl);
+    }
+
+    /**
+     * Gets a snapshot of the cache's statistics.
+     *
+     * @return the statistics
+     */
+    public Statistics getStatistics() {
+        return new Statistics(hits.get(), misses.get(), evictions.get(),
+                expirations.get(), invalidations.get(), published.get(),
+                publishFailures.get(), hitAgeNs.get(), maxHitAgeNs.get(),
+                size());
+    }
+
+    /**
+     * Statistics of a {@link NearCache} (immutable).
+     *
+     * The staleness window is measured as the age of a cached value, i.e.
+     * the time since it has been read from scalaris, when it is returned.
+     *
+     * @author Nico Kruber, kruber@zib.de
+     * @version 3.6
+     * @since 3.6
+     */
+    public static class Statistics {
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+        private final long expirations;
+        private final long invalidations;
+        private final long published;
+        private final long publishFailures;
+        private final long hitAgeNs;
+        private final long maxHitAgeNs;
+        private final int size;
+
+        Statistics(final long hits, final long misses, final long evictions,
+                final long expirations, final long invalidations,
+                final long published, final long publishFailures,
+                final long hitAgeNs, final long maxHitAgeNs, final int size) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.expirations = expirations;
+            this.invalidations = invalidations;
+            this.published = published;
+            this.publishFailures = publishFailures;
+            this.hitAgeNs = hitAgeNs;
+            this.maxHitAgeNs = maxHitAgeNs;
+            this.size = size;
+        }
+
+        /**
+         * @return the number of reads served from the cache
+         */
+        public long getHits() {
+            return hits;
+        }
+
+        /**
+         * @return the number of reads not served from the cache
+         */
+        public long getMisses() {
+            return misses;
+        }
+
+        /**
+         * @return the fraction of reads served from the cache
+         */
+        public double getHitRatio() {
+            final long total = hits + misses;
+            return (total == 0) ? 0.0 : ((double) hits / total);
+        }
+
+        /**
+         * @return the number of entries evicted due to the size limit
+         */
+        public long getEvictions() {
+            return evictions;
+        }
+
+        /**
+         * @return the number of entries removed due to their TTL
+         */
+        public long getExpirations() {
+            return expirations;
+        }
+
+        /**
+         * @return the number of (local and remote) invalidations
+         */
+        public long getInvalidations() {
+            return invalidations;
+        }
+
+        /**
+         * @return the number of published invalidation messages
+         */
+        public long getPublished() {
+            return published;
+        }
+
+        /**
+         * @return the number of invalidation messages which could not be
+         *         published
+         */
+        public long getPublishFailures() {
+            return publishFailures;
+        }
+
+        /**
+         * @return the average age of a returned value in milliseconds
+         */
+        public double getAvgStaleness() {
+            return (hits == 0) ? 0.0 : ((double) hitAgeNs / hits / 1000000.0);
+        }
+
+        /**
+         * @return the maximum age of a returned value in milliseconds
+         */
+        public double getMaxStaleness() {
+            return maxHitAgeNs / 1000000.0;
+        }
+
+        /**
+         * @return the number of cached keys
+         */
+        public int getSize() {
+            return size;
+        }
+
+        @Override
+        public String toString() {
+            return "hits=" + hits + ", misses=" + misses + ", hitRatio="
+                    + getHitRatio() + ", evictions=" + evictions
+                    + ", expirations=" + expirations + ", invalidations="
+                    + invalidations + ", published=" + published
+                    + ", publishFailures=" + publishFailures
+                    + ", avgStaleness=" + getAvgStaleness() + "ms"
+                    + ", maxStaleness=" + getMaxStaleness() + "ms"
+                    + ", size=" + size;
+        }
+    }
+}
@@ -0,0 +1,474 @@
+/**
+ *  Copyright 2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Background service which adds further scalaris VMs to the nodes of a
+ * {@link ConnectionFactory}.
+ *
+ * Every {@link #getInterval()} milliseconds, a pooled connection is used to
+ * ask a scalaris VM for other VMs (see {@link ScalarisVM#getOtherVMs(int)}).
+ * New VMs are added with {@link ConnectionFactory#addNode(String)} which
+ * informs the {@link ConnectionPolicy} (see
+ * {@link ConnectionPolicy#availableNodeAdded(PeerNode)}) and
+ * {@link #getPrewarmConnections()} connections to them are created in the
+ * {@link ConnectionPool} (see {@link ConnectionPool#prewarm(PeerNode, int)}).
+ * Discovered VMs which have not been reported for
+ * {@link #getRemoveAfter()} consecutive polls are checked directly (see
+ * {@link ScalarisVM#getVersion()}) and only removed again with
+ * {@link ConnectionFactory#removeNode(PeerNode)} if they do not reply. The
+ * VM which answered a poll and nodes which have not been added by the
+ * discovery, e.g. the ones of <tt>scalaris.node</tt>, are never removed.
+ *
+ * <pre>
+ * <code style="white-space:pre;">
+ *   ConnectionFactory.getInstance().getNodeDiscovery().start();
+ * </code>
+ * </pre>
+ *
+ * The service is also started automatically with the connection pool if the
+ * <tt>scalaris.discovery.interval</tt> property is greater than <tt>0</tt>
+ * (see {@link ConnectionFactory}).
+ *
+ * @author Nico Kruber, kruber@zib.de
+ * @version 3.6
+ * @since 3.6
+ */
+public class NodeDiscovery {
+    /**
+     * Statistics of the node discovery.
+     *
+     * @author Nico Kruber, kruber@zib.de
+     * @version 3.6
+     * @since 3.6
+     */
+    public static class Statistics {
+        private final long polls;
+        private final long pollFailures;
+        private final long nodesAdded;
+        private final long nodesRemoved;
+        private final long connectionsPrewarmed;
+        private final List<String> discoveredNodes;
+
+        /**
+         * Creates a new statistics object.
+         *
+         * @param polls
+         *            number of successful polls
+         * @param pollFailures
+         *            number of failed polls
+         * @param nodesAdded
+         *            number of nodes added
+         * @param nodesRemoved
+         *            number of nodes removed
+         * @param connectionsPrewarmed
+         *            number of connections created in advance
+         * @param discoveredNodes
+         *            names of the currently discovered nodes
+         */
+        Statistics(final long polls, final long pollFailures,
+                final long nodesAdded, final long nodesRemoved,
+                final long connectionsPrewarmed,
+                final List<String> discoveredNodes) {
+            this.polls = polls;
+            this.pollFailures = pollFailures;
+            this.nodesAdded = nodesAdded;
+            this.nodesRemoved = nodesRemoved;
+            this.connectionsPrewarmed = connectionsPrewarmed;
+            this.discoveredNodes = discoveredNodes;
+        }
+
+        /**
+         * @return the number of successful polls
+         */
+        public long getPolls() {
+            return polls;
+        }
+
+        /**
+         * @return the number of failed polls
+         */
+        public long getPollFailures() {
+            return pollFailures;
+        }
+
+        /**
+         * @return the number of nodes added
+         */
+        public long getNodesAdded() {
+            return nodesAdded;
+        }
+
+        /**
+         * @return the number of nodes removed
+         */
+        public long getNodesRemoved() {
+            return nodesRemoved;
+        }
+
+        /**
+         * @return the number of connections created in advance
+         */
+        public long getConnectionsPrewarmed() {
+            return connectionsPrewarmed;
+        }
+
+        /**
+         * @return the names of the nodes currently added by the discovery
+         */
+        public List<String> getDiscoveredNodes() {
+            return discoveredNodes;
+        }
+
+        @Override
+        public String toString() {
+            return "polls: " + polls + " (" + pollFailures + " failed), added: "
+                    + nodesAdded + ", removed: " + nodesRemoved
+                    + ", prewarmed connections: " + connectionsPrewarmed
+                    + ", discovered nodes: " + discoveredNodes;
+        }
+    }
+
+    private final ConnectionFactory factory;
+    private volatile long interval = 30000;
+    private volatile int maxVMs = 100;
+    private volatile int removeAfter = 3;
+    private volatile int prewarmConnections = 1;
+    private Timer poller = null;
+
+    /**
+     * Nodes added by the discovery mapped to the number of consecutive polls
+     * they have not been reported in.
+     */
+    private final Map<String, Integer> discovered = new HashMap<String, Integer>();
+
+    private final AtomicLong polls = new AtomicLong(0);
+    private final AtomicLong pollFailures = new AtomicLong(0);
+    private final AtomicLong nodesAdded = new AtomicLong(0);
+    private final AtomicLong nodesRemoved = new AtomicLong(0);
+    private final AtomicLong connectionsPrewarmed = new AtomicLong(0);
+
+    /**
+     * Creates a new (stopped) discovery service for the given factory.
+     *
+     * @param factory
+     *            the factory to add nodes to
+     *
+     * @see ConnectionFactory#getNodeDiscovery()
+     */
+    public NodeDiscovery(final ConnectionFactory factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * Gets the interval between two polls.
+     *
+     * @return the interval (in milliseconds)
+     */
+    public long getInterval() {
+        return interval;
+    }
+
+    /**
+     * Sets the interval between two polls (default: 30000ms). Takes effect
+     * with the next call of {@link #start()}.
+     *
+     * @param interval
+     *            the interval (in milliseconds)
+     */
+    public void setInterval(final long interval) {
+        this.interval = Math.max(1, interval);
+    }
+
+    /**
+     * Gets the maximum number of VMs requested per poll.
+     *
+     * @return the maximum number of VMs
+     */
+    public int getMaxVMs() {
+        return maxVMs;
+    }
+
+    /**
+     * Sets the maximum number of VMs requested per poll (default: 100). If
+     * the cluster has more VMs, a random subset is returned each time.
+     *
+     * @param maxVMs
+     *            the maximum number of VMs
+     */
+    public void setMaxVMs(final int maxVMs) {
+        this.maxVMs = Math.max(1, maxVMs);
+    }
+
+    /**
+     * Gets the number of consecutive polls after which a discovered node
+     * which has not been reported again is removed.
+     *
+     * @return the number of polls
+     */
+    public int getRemoveAfter() {
+        return removeAfter;
+    }
+
+    /**
+     * Sets the number of consecutive polls after which a discovered node
+     * which has not been reported again is removed (default: 3).
+     *
+     * @param removeAfter
+     *            the number of polls (at least <tt>1</tt>)
+     */
+    public void setRemoveAfter(final int removeAfter) {
+        this.removeAfter = Math.max(1, removeAfter);
+    }
+
+    /**
+     * Gets the number of connections created in advance for each new node.
+     *
+     * @return the number of connections
+     */
+    public int getPrewarmConnections() {
+        return prewarmConnections;
+    }
+
+    /**
+     * Sets the number of connections created in advance for each new node
+     * (default: 1, at most {@link ConnectionPool#getMaxSize()}). Idle
+     * connections exceeding {@link ConnectionPool#getMinSize()} are closed by
+     * the pool after its maximum idle time.
+     *
+     * @param prewarmConnections
+     *            the number of connections (<tt>0</tt> to disable)
+     */
+    public void setPrewarmConnections(final int prewarmConnections) {
+        this.prewarmConnections = Math.max(0, prewarmConnections);
+    }
+
+    /**
+     * Polls for new nodes now and then every {@link #getInterval()}
+     * milliseconds in a background thread. Failures are counted in
+     * {@link #getStatistics()}.
+     */
+    public synchronized void start() {
+        close();
+        poller = new Timer("scalaris-node-discovery", true);
+        poller.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                try {
+                    poll();
+                } catch (final ConnectionException e) {
+                    // counted, retried with the next run
+                } catch (final UnknownException e) {
+                    // counted, retried with the next run
+                }
+            }
+        }, 0, interval);
+    }
+
+    /**
+     * Stops polling for new nodes. Nodes added so far are kept.
+     */
+    public synchronized void close() {
+        if (poller != null) {
+            poller.cancel();
+            poller = null;
+        }
+    }
+
+    /**
+     * Asks a scalaris VM for other VMs and updates the nodes of the
+     * factory.
+     *
+     * @throws ConnectionException
+     *             if the connection fails
+     * @throws UnknownException
+     *             if any other error occurs
+     */
+    public void poll() throws ConnectionException, UnknownException {
+        final ConnectionPool pool = factory.getConnectionPool();
+        final List<String> vms;
+        final String polled;
+        Connection conn = null;
+        try {
+            conn = pool.borrowConnection();
+            polled = conn.getRemote().getNode().node();
+            vms = new ScalarisVM(conn).getOtherVMs(maxVMs);
+        } catch (final ConnectionException e) {
+            pollFailures.incrementAndGet();
+            throw e;
+        } catch (final UnknownException e) {
+            pollFailures.incrementAndGet();
+            throw e;
+        } finally {
+            pool.returnConnection(conn);
+        }
+        polls.incrementAndGet();
+        for (final PeerNode node : update(vms, polled)) {
+            connectionsPrewarmed.addAndGet(pool.prewarm(node, prewarmConnections));
+        }
+    }
+
+    /**
+     * Adds the reported nodes unknown to the factory and removes discovered
+     * nodes which have not been reported for {@link #getRemoveAfter()}
+     * consecutive calls and do not reply to a direct check (see
+     * {@link #isAlive(PeerNode)}).
+     *
+     * @param reported
+     *            the names of the reported nodes
+     * @param polled
+     *            the name of the node which reported them (never removed,
+     *            may be <tt>null</tt>)
+     *
+     * @return the nodes added to the factory
+     */
+    List<PeerNode> update(final Collection<String> reported, final String polled) {
+        final Map<String, PeerNode> known = new HashMap<String, PeerNode>();
+        for (final PeerNode node : factory.getNodes()) {
+            known.put(node.getNode().node(), node);
+        }
+        final Set<String> reportedSet = new HashSet<String>(reported);
+        if (polled != null) {
+            reportedSet.add(polled);
+        }
+        final List<PeerNode> added = new ArrayList<PeerNode>();
+        final List<PeerNode> suspects = new ArrayList<PeerNode>();
+        synchronized (this) {
+            addReported(reportedSet, known, added);
+            for (final Iterator<Map.Entry<String, Integer>> it = discovered.entrySet().iterator(); it.hasNext();) {
+                final Map.Entry<String, Integer> e = it.next();
+                if (reportedSet.contains(e.getKey())) {
+                    continue;
+                }
+                final int missed = e.getValue() + 1;
+                e.setValue(missed);
+                if (missed >= removeAfter) {
+                    final PeerNode node = known.get(e.getKey());
+                    if (node != null) {
+                        suspects.add(node);
+                    } else {
+                        it.remove();
+                    }
+                }
+            }
+        }
+        // check outside the lock - this involves a (possibly slow) RPC
+        for (final PeerNode node : suspects) {
+            final boolean alive = isAlive(node);
+            synchronized (this) {
+                final String name = node.getNode().node();
+                if (!discovered.containsKey(name)) {
+                    continue;
+                } else if (alive) {
+                    discovered.put(name, 0);
+                } else {
+                    discovered.remove(name);
+                    factory.removeNode(node);
+                    nodesRemoved.incrementAndGet();
+                }
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Adds the reported nodes unknown to the factory and resets the number
+     * of missed polls of the reported discovered nodes.
+     *
+     * @param reportedSet
+     *            the names of the reported nodes
+     * @param known
+     *            the nodes of the factory (by name)
+     * @param added
+     *            list to add the nodes added to the factory to
+     */
+    private void addReported(final Set<String> reportedSet,
+            final Map<String, PeerNode> known, final List<PeerNode> added) {
+        for (final String name : reportedSet) {
+            if (discovered.containsKey(name)) {
+                discovered.put(name, 0);
+            } else if (!known.containsKey(name)) {
+                factory.addNode(name);
+                discovered.put(name, 0);
+                nodesAdded.incrementAndGet();
+                for (final PeerNode node : factory.getNodes()) {
+                    if (node.getNode().node().equals(name)) {
+                        added.add(node);
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks whether the given node replies to a direct request (see
+     * {@link ScalarisVM#getVersion()}) using a new connection to this node
+     * only.
+     *
+     * @param node
+     *            the node to check
+     *
+     * @return <tt>false</tt> if no connection could be established or the
+     *         request failed, <tt>true</tt> otherwise
+     */
+    boolean isAlive(final PeerNode node) {
+        final DefaultConnectionPolicy policy = new DefaultConnectionPolicy(node);
+        policy.setMaxRetries(0);
+        Connection conn = null;
+        try {
+            conn = factory.createConnection(factory.getClientName(), true, policy);
+            new ScalarisVM(conn).getVersion();
+            return true;
+        } catch (final ConnectionException e) {
+            return false;
+        } catch (final UnknownException e) {
+            // the node replied
+            return true;
+        } finally {
+            if (conn != null) {
+                conn.close();
+            }
+        }
+    }
+
+    /**
+     * Gets a snapshot of the discovery statistics.
+     *
+     * @return the statistics
+     */
+    public Statistics getStatistics() {
+        final List<String> nodes;
+        synchronized (this) {
+            nodes = new ArrayList<String>(discovered.keySet());
+        }
+        return new Statistics(polls.get(), pollFailures.get(),
+                nodesAdded.get(), nodesRemoved.get(),
+                connectionsPrewarmed.get(), nodes);
+    }
+}
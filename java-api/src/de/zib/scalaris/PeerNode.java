@@ -17,6 +17,7 @@ package de.zib.scalaris;
 
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 
 import com.ericsson.otp.erlang.OtpPeer;
 
@@ -24,27 +25,51 @@ import com.ericsson.otp.erlang.OtpPeer;
  * Wrapper class to the {@link OtpPeer} class, adding some additional
  * information.
  *
+ * The connection statistics are kept in atomic variables, i.e. none of the
+ * methods locks the object.
+ *
  * @author Nico Kruber, kruber@zib.de
+ * @version 3.6
  */
 public class PeerNode {
     /**
-     * The node this object wraps.
+     * Immutable failure statistics of a node.
      */
-    private final OtpPeer node;
+    private static final class FailureState {
+        /**
+         * Date of the last failed connection.
+         */
+        final Date lastFailedConnection;
+        /**
+         * Total number of connection failures.
+         */
+        final int failureCount;
+
+        FailureState(final Date lastFailedConnection, final int failureCount) {
+            this.lastFailedConnection = lastFailedConnection;
+            this.failureCount = failureCount;
+        }
+    }
+
     /**
-     * Date of the last failed connection.
+     * State of a node without any failure.
      */
-    private Date lastFailedConnection = null;
+    private static final FailureState noFailures = new FailureState(null, 0);
 
     /**
-     * Total number of connection failures.
+     * The node this object wraps.
+     */
+    private final OtpPeer node;
+    /**
+     * Date of the last failed connection and total number of connection
+     * failures.
      */
-    private int failureCount = 0;
+    private final AtomicReference<FailureState> failures = new AtomicReference<FailureState>(noFailures);
 
     /**
      * Date of the last successful connection attempt.
      */
-    private Date lastConnectSuccess = null;
+    private volatile Date lastConnectSuccess = null;
 
     /**
      * Creates a new object using the given node.
@@ -85,10 +110,18 @@ public class PeerNode {
      *
      * Note: Only call this from a connection policy since it might set up
      * additional data structures based on this time.
+     *
+     * @return the new number of failed connections
      */
-    synchronized void setLastFailedConnect() {
-        lastFailedConnection = new Date();
-        ++failureCount;
+    int setLastFailedConnect() {
+        final Date now = new Date();
+        while (true) {
+            final FailureState old = failures.get();
+            final FailureState updated = new FailureState(now, old.failureCount + 1);
+            if (failures.compareAndSet(old, updated)) {
+                return updated.failureCount;
+            }
+        }
     }
 
     /**
@@ -96,8 +129,8 @@ public class PeerNode {
      *
      * @return the date of the last connection failure (or {@code null})
      */
-    synchronized public Date getLastFailedConnect() {
-        return lastFailedConnection;
+    public Date getLastFailedConnect() {
+        return failures.get().lastFailedConnection;
     }
 
     /**
@@ -109,7 +142,7 @@ public class PeerNode {
      * @return the number of failed connections (dates and times)
      */
     public int getFailureCount() {
-        return failureCount;
+        return failures.get().failureCount;
     }
 
     /**
@@ -117,10 +150,11 @@ public class PeerNode {
      *
      * Note: Only call this from a connection policy since it might set up
      * additional data structures based on this time.
+     *
+     * @return the number of failed connections before the reset
      */
-    synchronized void resetFailureCount() {
-        failureCount = 0;
-        lastFailedConnection = null;
+    int resetFailureCount() {
+        return failures.getAndSet(noFailures).failureCount;
     }
 
     /**
@@ -128,7 +162,7 @@ public class PeerNode {
      *
      * @return the last connection success
      */
-    synchronized public Date getLastConnectSuccess() {
+    public Date getLastConnectSuccess() {
         return lastConnectSuccess;
     }
 
@@ -138,7 +172,7 @@ public class PeerNode {
      * Note: Only call this from a connection policy since it might set up
      * additional data structures based on this time.
      */
-    synchronized void setLastConnectSuccess() {
+    void setLastConnectSuccess() {
         this.lastConnectSuccess = new Date();
     }
 
@@ -15,8 +15,12 @@
  */
 package de.zib.scalaris;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import com.ericsson.otp.erlang.OtpErlangList;
 import com.ericsson.otp.erlang.OtpErlangObject;
+import com.ericsson.otp.erlang.OtpErlangPid;
 import com.ericsson.otp.erlang.OtpErlangString;
 import com.ericsson.otp.erlang.OtpErlangTuple;
 
@@ -46,6 +50,19 @@ import com.ericsson.otp.erlang.OtpErlangTuple;
  *
  * <p>For the full example, see {@link de.zib.scalaris.examples.PubSubPublishExample}</p>
  *
+ * <p>Many events can be published with a single request
+ * ({@link #publishAll(PublishList)}) which is also used by
+ * {@link PubSubBatcher} to combine the events of many threads:</p>
+ * <pre>
+ * <code style="white-space:pre;">
+ *   PubSub.PublishList events = new PubSub.PublishList();
+ *   events.addPublish(topic1, content1).addPublish(topic2, content2);
+ *   PubSub.PublishResultList results = sc.publishAll(events);
+ *   results.processPublishAt(0);
+ *   results.processPublishAt(1);
+ * </code>
+ * </pre>
+ *
  * <h3>Subscribing to topics</h3>
  * <pre>
  * <code style="white-space:pre;">
@@ -62,6 +79,21 @@ import com.ericsson.otp.erlang.OtpErlangTuple;
  *
  * <p>For the full example, see {@link de.zib.scalaris.examples.PubSubSubscribeExample}</p>
  *
+ * <p>Instead of a URL which is notified by JSON-RPC calls, a process can be
+ * subscribed ({@link #subscribe(OtpErlangString, OtpErlangPid)}) which then
+ * receives the events as erlang messages. {@link PubSubReceiver} uses this
+ * to deliver events to {@link PubSubListener} objects:</p>
+ * <pre>
+ * <code style="white-space:pre;">
+ *   PubSubReceiver receiver = new PubSubReceiver();
+ *   receiver.subscribe(topic, new PubSubListener() {
+ *       public void onNotify(String topic, String content) {
+ *           // ...
+ *       }
+ *   });
+ * </code>
+ * </pre>
+ *
  * <h3>Unsubscribing from topics</h3>
  *
  * Unsubscribing from topics works like subscribing to topics with the exception
@@ -97,6 +129,10 @@ import com.ericsson.otp.erlang.OtpErlangTuple;
  * </code>
  * </pre>
  *
+ * <p>{@link #getSubscribers(OtpErlangString)} only returns the subscribed
+ * URLs. Subscribed processes can be retrieved with
+ * {@link #getSubscriberPids(OtpErlangString)}.</p>
+ *
  * <p>For the full example, see {@link de.zib.scalaris.examples.PubSubGetSubscribersExample}</p>
  *
  * <h3>Connection errors</h3>
@@ -108,8 +144,15 @@ import com.ericsson.otp.erlang.OtpErlangTuple;
  * by classifying nodes as good or bad depending on their previous state. The
  * number of automatic retries is adjustable (default: 3).
  *
+ * <h3>Asynchronous operations</h3>
+ *
+ * All operations are also available as asynchronous variants, e.g.
+ * {@link #publishAsync(String, String)}, which return an {@link AsyncResult}
+ * right after the request has been sent, see
+ * {@link Connection#doRPCAsync(String, String, OtpErlangList)}.
+ *
  * @author Nico Kruber, kruber@zib.de
- * @version 3.4
+ * @version 3.6
  * @since 2.5
  */
 public class PubSub {
@@ -139,6 +182,139 @@ public class PubSub {
         connection = conn;
     }
 
+    /**
+     * Encapsulates events to publish with a single request (see
+     * {@link PubSub#publishAll(PublishList)}).
+     *
+     * @author Nico Kruber, kruber@zib.de
+     * @version 3.6
+     * @since 3.6
+     */
+    public static class PublishList {
+        private final List<OtpErlangObject> events;
+
+        /**
+         * Default constructor.
+         */
+        public PublishList() {
+            events = new ArrayList<OtpErlangObject>();
+        }
+
+        /**
+         * Copy constructor.
+         *
+         * @param other the publish list to copy from
+         */
+        public PublishList(final PublishList other) {
+            events = new ArrayList<OtpErlangObject>(other.events);
+        }
+
+        /**
+         * Adds an event to publish.
+         *
+         * @param topic
+         *            the topic to publish the content under
+         * @param content
+         *            the content to publish
+         *
+         * @return this {@link PublishList} object
+         */
+        public PublishList addPublish(final OtpErlangString topic,
+                final OtpErlangString content) {
+            events.add(new OtpErlangTuple(new OtpErlangObject[] { topic, content }));
+            return this;
+        }
+
+        /**
+         * Adds an event to publish.
+         *
+         * @param topic
+         *            the topic to publish the content under
+         * @param content
+         *            the content to publish
+         *
+         * @return this {@link PublishList} object
+         */
+        public PublishList addPublish(final String topic, final String content) {
+            return addPublish(new OtpErlangString(topic), new OtpErlangString(content));
+        }
+
+        /**
+         * Adds all events of the other publish list to the end of this list.
+         *
+         * @param other another publish list
+         *
+         * @return this {@link PublishList} object
+         */
+        public PublishList addAll(final PublishList other) {
+            events.addAll(other.events);
+            return this;
+        }
+
+        /**
+         * Gets the number of events in the list.
+         *
+         * @return number of events
+         */
+        public int size() {
+            return events.size();
+        }
+
+        /**
+         * Returns whether the list is empty.
+         *
+         * @return <tt>true</tt> if there are no events
+         */
+        public boolean isEmpty() {
+            return events.isEmpty();
+        }
+
+        /**
+         * Gets the erlang representation of the events.
+         *
+         * @return a list of <tt>{Topic, Content}</tt> tuples
+         */
+        OtpErlangList getErlangValue() {
+            return new OtpErlangList(events.toArray(new OtpErlangObject[events.size()]));
+        }
+    }
+
+    /**
+     * Encapsulates a list of results as returned by
+     * {@link PubSub#publishAll(PublishList)}.
+     *
+     * @author Nico Kruber, kruber@zib.de
+     * @version 3.6
+     * @since 3.6
+     */
+    public static class PublishResultList extends ResultList {
+        /**
+         * Default constructor.
+         *
+         * @param results  the raw results list as returned by scalaris.
+         */
+        PublishResultList(final OtpErlangList results) {
+            super(results);
+        }
+
+        /**
+         * Processes the result of the event at the given position.
+         *
+         * @param pos
+         *            the position in the result list
+         *
+         * @throws TimeoutException
+         *             if a timeout occurred while trying to read the
+         *             subscribers of the event's topic
+         * @throws UnknownException
+         *             if any other error occurs
+         */
+        public void processPublishAt(final int pos) throws TimeoutException,
+                UnknownException {
+            super.processWriteAt_(pos);
+        }
+    }
+
     // /////////////////////////////
     // publish methods
     // /////////////////////////////
@@ -166,6 +342,20 @@ public class PubSub {
          */
         final OtpErlangObject received_raw = connection.doRPC("api_pubsub", "publish",
                 new OtpErlangObject[] { topic, content });
+        processResult_publish(received_raw);
+    }
+
+    /**
+     * Processes the result of a <tt>api_pubsub:publish/2</tt> call.
+     *
+     * @param received_raw
+     *            the raw result from erlang
+     *
+     * @throws UnknownException
+     *             if the result is not <tt>{ok}</tt>
+     */
+    private static void processResult_publish(final OtpErlangObject received_raw)
+            throws UnknownException {
         if (!received_raw.equals(CommonErlangObjects.okTupleAtom)) {
             throw new UnknownException(received_raw);
         }
@@ -191,6 +381,153 @@ public class PubSub {
         publish(new OtpErlangString(topic), new OtpErlangString(content));
     }
 
+    /**
+     * Publishes an event under a given <tt>topic</tt> asynchronously.
+     *
+     * @param topic
+     *            the topic to publish the content under
+     * @param content
+     *            the content to publish
+     *
+     * @return the (future) result of the operation (<tt>null</tt> on success)
+     *
+     * @throws ConnectionException
+     *             if the connection is not active or a communication error
+     *             occurs while sending or the remote node sends a message
+     *             containing an invalid cookie
+     *
+     * @see #publish(OtpErlangString, OtpErlangString)
+     * @since 3.6
+     */
+    public AsyncResult<Void> publishAsync(final OtpErlangString topic,
+            final OtpErlangString content) throws ConnectionException {
+        return AsyncResult.convert(
+                connection.doRPCAsync("api_pubsub", "publish",
+                        new OtpErlangObject[] { topic, content }),
+                new AsyncResult.Converter<OtpErlangObject, Void>() {
+                    public Void convert(final OtpErlangObject received_raw)
+                            throws UnknownException {
+                        processResult_publish(received_raw);
+                        return null;
+                    }
+                });
+    }
+
+    /**
+     * Publishes an event under a given <tt>topic</tt> asynchronously.
+     *
+     * @param topic
+     *            the topic to publish the content under
+     * @param content
+     *            the content to publish
+     *
+     * @return the (future) result of the operation (<tt>null</tt> on success)
+     *
+     * @throws ConnectionException
+     *             if the connection is not active or a communication error
+     *             occurs while sending or the remote node sends a message
+     *             containing an invalid cookie
+     *
+     * @see #publishAsync(OtpErlangString, OtpErlangString)
+     * @since 3.6
+     */
+    public AsyncResult<Void> publishAsync(final String topic, final String content)
+            throws ConnectionException {
+        return publishAsync(new OtpErlangString(topic), new OtpErlangString(content));
+    }
+
+    /**
+     * Publishes several events with a single request. The subscribers of
+     * all topics are read at once and each event gets its own result.
+     *
+     * @param events
+     *            the events to publish
+     *
+     * @return results of all events in the same order as they appear in
+     *         <code>events</code>
+     *
+     * @throws ConnectionException
+     *             if the connection is not active or a communication error
+     *             occurs or an exit signal was received or the remote node
+     *             sends a message containing an invalid cookie
+     * @throws UnknownException
+     *             if any other error occurs
+     *
+     * @see PubSubBatcher
+     * @since 3.6
+     */
+    public PublishResultList publishAll(final PublishList events)
+            throws ConnectionException, UnknownException {
+        final OtpErlangObject received_raw = connection.doRPC("api_pubsub", "publish_list",
+                new OtpErlangObject[] { events.getErlangValue() });
+        return processResult_publishAll(received_raw, events.size());
+    }
+
+    /**
+     * Publishes several events with a single request asynchronously.
+     *
+     * The result fails with the exceptions described in
+     * {@link #publishAll(PublishList)}.
+     *
+     * @param events
+     *            the events to publish
+     *
+     * @return the (future) results of all events
+     *
+     * @throws ConnectionException
+     *             if the connection is not active or a communication error
+     *             occurs while sending or the remote node sends a message
+     *             containing an invalid cookie
+     *
+     * @see #publishAll(PublishList)
+     * @since 3.6
+     */
+    public AsyncResult<PublishResultList> publishAllAsync(final PublishList events)
+            throws ConnectionException {
+        final int size = events.size();
+        return AsyncResult.convert(
+                connection.doRPCAsync("api_pubsub", "publish_list",
+                        new OtpErlangObject[] { events.getErlangValue() }),
+                new AsyncResult.Converter<OtpErlangObject, PublishResultList>() {
+                    public PublishResultList convert(final OtpErlangObject received_raw)
+                            throws UnknownException {
+                        return processResult_publishAll(received_raw, size);
+                    }
+                });
+    }
+
+    /**
+     * Processes the result of a <tt>api_pubsub:publish_list/1</tt> call.
+     *
+     * @param received_raw
+     *            the raw result from erlang
+     * @param size
+     *            the number of published events
+     *
+     * @return the results of the events
+     *
+     * @throws UnknownException
+     *             if the result is no list of the expected size
+     */
+    private static PublishResultList processResult_publishAll(
+            final OtpErlangObject received_raw, final int size)
+            throws UnknownException {
+        /*
+         * possible return values:
+         *  [{ok} | {fail, timeout}]
+         */
+        try {
+            final OtpErlangList results = ErlangValue.otpObjectToOtpList(received_raw);
+            if (results.arity() != size) {
+                throw new UnknownException(received_raw);
+            }
+            return new PublishResultList(results);
+        } catch (final ClassCastException e) {
+            // e.printStackTrace();
+            throw new UnknownException(e, received_raw);
+        }
+    }
+
     // /////////////////////////////
     // subscribe methods
     // /////////////////////////////
@@ -247,6 +584,99 @@ public class PubSub {
         subscribe(new OtpErlangString(topic), new OtpErlangString(url));
     }
 
+    /**
+     * Subscribes a process, e.g. the mailbox of a {@link PubSubReceiver}, to
+     * a <tt>topic</tt>. Instead of JSON-RPC calls, the process receives
+     * <tt>{notify, Topic, Content}</tt> messages over the erlang
+     * distribution.
+     *
+     * @param topic
+     *            the topic to subscribe the process to
+     * @param subscriber
+     *            the pid of the subscriber (this is where the events are send
+     *            to)
+     *
+     * @throws ConnectionException
+     *             if the connection is not active or a communication error
+     *             occurs or an exit signal was received or the remote node
+     *             sends a message containing an invalid cookie
+     * @throws TimeoutException
+     *             if a timeout occurred while trying to write the value
+     * @throws AbortException
+     *             if the commit of the subscribe failed
+     * @throws UnknownException
+     *             if any other error occurs
+     *
+     * @since 3.6
+     */
+    public void subscribe(final OtpErlangString topic, final OtpErlangPid subscriber)
+            throws ConnectionException, TimeoutException, AbortException,
+            UnknownException {
+        final OtpErlangObject received_raw = connection.doRPC("api_pubsub", "subscribe",
+                new OtpErlangObject[] { topic, subscriber });
+        CommonErlangObjects.processResult_commit(received_raw);
+    }
+
+    /**
+     * Subscribes a url to a <tt>topic</tt> asynchronously.
+     *
+     * The result fails with the exceptions described in
+     * {@link #subscribe(OtpErlangString, OtpErlangString)}.
+     *
+     * @param topic
+     *            the topic to subscribe the url to
+     * @param url
+     *            the url of the subscriber (this is where the events are send
+     *            to)
+     *
+     * @return the (future) result of the operation (<tt>null</tt> on success)
+     *
+     * @throws ConnectionException
+     *             if the connection is not active or a communication error
+     *             occurs while sending or the remote node sends a message
+     *             containing an invalid cookie
+     *
+     * @see #subscribe(OtpErlangString, OtpErlangString)
+     * @since 3.6
+     */
+    public AsyncResult<Void> subscribeAsync(final OtpErlangString topic,
+            final OtpErlangString url) throws ConnectionException {
+        return AsyncResult.convert(
+                connection.doRPCAsync("api_pubsub", "subscribe",
+                        new OtpErlangObject[] { topic, url }),
+                new AsyncResult.Converter<OtpErlangObject, Void>() {
+                    public Void convert(final OtpErlangObject received_raw)
+                            throws TimeoutException, AbortException, UnknownException {
+                        CommonErlangObjects.processResult_commit(received_raw);
+                        return null;
+                    }
+                });
+    }
+
+    /**
+     * Subscribes a url to a <tt>topic</tt> asynchronously.
+     *
+     * @param topic
+     *            the topic to subscribe the url to
+     * @param url
+     *            the url of the subscriber (this is where the events are send
+     *            to)
+     *
+     * @return the (future) result of the operation (<tt>null</tt> on success)
+     *
+     * @throws ConnectionException
+     *             if the connection is not active or a communication error
+     *             occurs while sending or the remote node sends a message
+     *             containing an invalid cookie
+     *
+     * @see #subscribeAsync(OtpErlangString, OtpErlangString)
+     * @since 3.6
+     */
+    public AsyncResult<Void> subscribeAsync(final String topic, final String url)
+            throws ConnectionException {
+        return subscribeAsync(new OtpErlangString(topic), new OtpErlangString(url));
+    }
+
     // /////////////////////////////
     // unsubscribe methods
     // /////////////////////////////
@@ -278,6 +708,28 @@ public class PubSub {
             AbortException, UnknownException {
         final OtpErlangObject received_raw = connection.doRPC("api_pubsub", "unsubscribe",
                 new OtpErlangObject[] { topic, url });
+        processResult_unsubscribe(received_raw);
+    }
+
+    /**
+     * Processes the result of a <tt>api_pubsub:unsubscribe/2</tt> call.
+     *
+     * @param received_raw
+     *            the raw result from erlang
+     *
+     * @throws TimeoutException
+     *             if a timeout occurred while trying to write the value
+     * @throws NotFoundException
+     *             if the topic does not exist or the given subscriber is not
+     *             subscribed to the given topic
+     * @throws AbortException
+     *             if the commit of the subscribe failed
+     * @throws UnknownException
+     *             if any other error occurs
+     */
+    private static void processResult_unsubscribe(final OtpErlangObject received_raw)
+            throws TimeoutException, NotFoundException, AbortException,
+            UnknownException {
         try {
             /*
              * possible return values:
@@ -332,6 +784,98 @@ public class PubSub {
         unsubscribe(new OtpErlangString(topic), new OtpErlangString(url));
     }
 
+    /**
+     * Unsubscribes a process from a <tt>topic</tt>.
+     *
+     * @param topic
+     *            the topic to unsubscribe the process from
+     * @param subscriber
+     *            the pid of the subscriber
+     *
+     * @throws ConnectionException
+     *             if the connection is not active or a communication error
+     *             occurs or an exit signal was received or the remote node
+     *             sends a message containing an invalid cookie
+     * @throws TimeoutException
+     *             if a timeout occurred while trying to write the value
+     * @throws NotFoundException
+     *             if the topic does not exist or the given subscriber is not
+     *             subscribed to the given topic
+     * @throws AbortException
+     *             if the commit of the subscribe failed
+     * @throws UnknownException
+     *             if any other error occurs
+     *
+     * @see #subscribe(OtpErlangString, OtpErlangPid)
+     * @since 3.6
+     */
+    public void unsubscribe(final OtpErlangString topic, final OtpErlangPid subscriber)
+            throws ConnectionException, TimeoutException, NotFoundException,
+            AbortException, UnknownException {
+        final OtpErlangObject received_raw = connection.doRPC("api_pubsub", "unsubscribe",
+                new OtpErlangObject[] { topic, subscriber });
+        processResult_unsubscribe(received_raw);
+    }
+
+    /**
+     * Unsubscribes a url from a <tt>topic</tt> asynchronously.
+     *
+     * The result fails with the exceptions described in
+     * {@link #unsubscribe(OtpErlangString, OtpErlangString)}.
+     *
+     * @param topic
+     *            the topic to unsubscribe the url from
+     * @param url
+     *            the url of the subscriber
+     *
+     * @return the (future) result of the operation (<tt>null</tt> on success)
+     *
+     * @throws ConnectionException
+     *             if the connection is not active or a communication error
+     *             occurs while sending or the remote node sends a message
+     *             containing an invalid cookie
+     *
+     * @see #unsubscribe(OtpErlangString, OtpErlangString)
+     * @since 3.6
+     */
+    public AsyncResult<Void> unsubscribeAsync(final OtpErlangString topic,
+            final OtpErlangString url) throws ConnectionException {
+        return AsyncResult.convert(
+                connection.doRPCAsync("api_pubsub", "unsubscribe",
+                        new OtpErlangObject[] { topic, url }),
+                new AsyncResult.Converter<OtpErlangObject, Void>() {
+                    public Void convert(final OtpErlangObject received_raw)
+                            throws TimeoutException, NotFoundException,
+                            AbortException, UnknownException {
+                        processResult_unsubscribe(received_raw);
+                        return null;
+                    }
+                });
+    }
+
+    /**
+     * Unsubscribes a url from a <tt>topic</tt> asynchronously.
+     *
+     * @param topic
+     *            the topic to unsubscribe the url from
+     * @param url
+     *            the url of the subscriber
+     *
+     * @return the (future) result of the operation (<tt>null</tt> on success)
+     *
+     * @throws ConnectionException
+     *             if the connection is not active or a communication error
+     *             occurs while sending or the remote node sends a message
+     *             containing an invalid cookie
+     *
+     * @see #unsubscribeAsync(OtpErlangString, OtpErlangString)
+     * @since 3.6
+     */
+    public AsyncResult<Void> unsubscribeAsync(final String topic, final String url)
+            throws ConnectionException {
+        return unsubscribeAsync(new OtpErlangString(topic), new OtpErlangString(url));
+    }
+
     // /////////////////////////////
     // get subscribers methods
     // /////////////////////////////
@@ -342,7 +886,8 @@ public class PubSub {
      * @param topic
      *            the topic to get the subscribers for
      *
-     * @return the subscriber URLs
+     * @return the subscriber URLs (without subscribed processes, see
+     *         {@link #getSubscriberPids(OtpErlangString)})
      *
      * @throws ConnectionException
      *             if the connection is not active or a communication error
@@ -351,21 +896,114 @@ public class PubSub {
      * @throws UnknownException
      *             is thrown if the return type of the erlang method does not
      *             match the expected one
+     *
+     * @see #subscribe(OtpErlangString, OtpErlangPid)
      */
     public ErlangValue getSubscribers(
             final OtpErlangString topic) throws ConnectionException, UnknownException {
         final OtpErlangObject received_raw = connection.doRPC("api_pubsub", "get_subscribers",
                 new OtpErlangList(topic));
+        return processResult_getSubscribers(received_raw);
+    }
+
+    /**
+     * Processes the result of a <tt>api_pubsub:get_subscribers/1</tt> call.
+     *
+     * @param received_raw
+     *            the raw result from erlang
+     *
+     * @return the subscriber URLs
+     *
+     * @throws UnknownException
+     *             is thrown if the return type of the erlang method does not
+     *             match the expected one
+     */
+    private static ErlangValue processResult_getSubscribers(
+            final OtpErlangObject received_raw) throws UnknownException {
+        try {
+            // return value: [string() | pid()]
+            final OtpErlangList received = (OtpErlangList) received_raw;
+            final List<OtpErlangObject> urls = new ArrayList<OtpErlangObject>(received.arity());
+            for (final OtpErlangObject subscriber : received) {
+                if (!(subscriber instanceof OtpErlangPid)) {
+                    urls.add(subscriber);
+                }
+            }
+            if (urls.size() == received.arity()) {
+                return new ErlangValue(received);
+            }
+            return new ErlangValue(new OtpErlangList(urls.toArray(new OtpErlangObject[urls.size()])));
+        } catch (final ClassCastException e) {
+            // e.printStackTrace();
+            throw new UnknownException(e, received_raw);
+        }
+    }
+
+    /**
+     * Gets the processes subscribed to a <tt>topic</tt>, e.g. by
+     * {@link PubSubReceiver}.
+     *
+     * @param topic
+     *            the topic to get the subscribers for
+     *
+     * @return the pids of the subscribed processes
+     *
+     * @throws ConnectionException
+     *             if the connection is not active or a communication error
+     *             occurs or an exit signal was received or the remote node
+     *             sends a message containing an invalid cookie
+     * @throws UnknownException
+     *             is thrown if the return type of the erlang method does not
+     *             match the expected one
+     *
+     * @see #subscribe(OtpErlangString, OtpErlangPid)
+     * @since 3.6
+     */
+    public List<OtpErlangPid> getSubscriberPids(
+            final OtpErlangString topic) throws ConnectionException, UnknownException {
+        final OtpErlangObject received_raw = connection.doRPC("api_pubsub", "get_subscribers",
+                new OtpErlangList(topic));
         try {
-            // return value: [string()]
+            // return value: [string() | pid()]
             final OtpErlangList received = (OtpErlangList) received_raw;
-            return new ErlangValue(received);
+            final List<OtpErlangPid> pids = new ArrayList<OtpErlangPid>();
+            for (final OtpErlangObject subscriber : received) {
+                if (subscriber instanceof OtpErlangPid) {
+                    pids.add((OtpErlangPid) subscriber);
+                }
+            }
+            return pids;
         } catch (final ClassCastException e) {
             // e.printStackTrace();
             throw new UnknownException(e, received_raw);
         }
     }
 
+    /**
+     * Gets the processes subscribed to a <tt>topic</tt>, e.g. by
+     * {@link PubSubReceiver}.
+     *
+     * @param topic
+     *            the topic to get the subscribers for
+     *
+     * @return the pids of the subscribed processes
+     *
+     * @throws ConnectionException
+     *             if the connection is not active or a communication error
+     *             occurs or an exit signal was received or the remote node
+     *             sends a message containing an invalid cookie
+     * @throws UnknownException
+     *             is thrown if the return type of the erlang method does not
+     *             match the expected one
+     *
+     * @see #getSubscriberPids(OtpErlangString)
+     * @since 3.6
+     */
+    public List<OtpErlangPid> getSubscriberPids(
+            final String topic) throws ConnectionException, UnknownException {
+        return getSubscriberPids(new OtpErlangString(topic));
+    }
+
     /**
      * Gets a list of subscribers to a <tt>topic</tt>.
      *
@@ -387,6 +1025,56 @@ public class PubSub {
         return getSubscribers(new OtpErlangString(topic));
     }
 
+    /**
+     * Gets a list of subscribers to a <tt>topic</tt> asynchronously.
+     *
+     * @param topic
+     *            the topic to get the subscribers for
+     *
+     * @return the (future) subscriber URLs
+     *
+     * @throws ConnectionException
+     *             if the connection is not active or a communication error
+     *             occurs while sending or the remote node sends a message
+     *             containing an invalid cookie
+     *
+     * @see #getSubscribers(OtpErlangString)
+     * @since 3.6
+     */
+    public AsyncResult<ErlangValue> getSubscribersAsync(
+            final OtpErlangString topic) throws ConnectionException {
+        return AsyncResult.convert(
+                connection.doRPCAsync("api_pubsub", "get_subscribers",
+                        new OtpErlangList(topic)),
+                new AsyncResult.Converter<OtpErlangObject, ErlangValue>() {
+                    public ErlangValue convert(final OtpErlangObject received_raw)
+                            throws UnknownException {
+                        return processResult_getSubscribers(received_raw);
+                    }
+                });
+    }
+
+    /**
+     * Gets a list of subscribers to a <tt>topic</tt> asynchronously.
+     *
+     * @param topic
+     *            the topic to get the subscribers for
+     *
+     * @return the (future) subscriber URLs
+     *
+     * @throws ConnectionException
+     *             if the connection is not active or a communication error
+     *             occurs while sending or the remote node sends a message
+     *             containing an invalid cookie
+     *
+     * @see #getSubscribersAsync(OtpErlangString)
+     * @since 3.6
+     */
+    public AsyncResult<ErlangValue> getSubscribersAsync(final String topic)
+            throws ConnectionException {
+        return getSubscribersAsync(new OtpErlangString(topic));
+    }
+
     /**
      * Closes the transaction's connection to a scalaris node.
      *
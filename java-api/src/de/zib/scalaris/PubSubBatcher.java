@@ -0,0 +1,620 @@
+/**
+ *  Copyright 2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.ericsson.otp.erlang.OtpErlangString;
+
+/**
+ * Thread-safe front-end to {@link PubSub} which combines published events
+ * into batches.
+ *
+ * Events from all threads are collected until either
+ * {@link #getMaxBatchSize()} events are pending, the oldest pending event has
+ * waited for {@link #getMaxDelay()} microseconds or {@link #flush()} is
+ * called. They are then sent as a single {@link PubSub.PublishList} via
+ * {@link PubSub#publishAllAsync(PubSub.PublishList)}, i.e.
+ * <tt>api_pubsub:publish_list/1</tt>, and each caller receives the result
+ * of its event from the {@link PubSub.PublishResultList}.
+ *
+ * <pre>
+ * <code style="white-space:pre;">
+ *   PubSubBatcher batcher = new PubSubBatcher(conn);
+ *   // called concurrently from many threads:
+ *   batcher.publishAsync(topic, content); // {@link #publishAsync(String, String)}
+ *   batcher.publish(topic, content);      // {@link #publish(String, String)}
+ *   ...
+ *   batcher.close();                      // {@link #close()}
+ * </code>
+ * </pre>
+ *
+ * Batches are pipelined over the connection, i.e. a new batch may be sent
+ * before the results of the previous one have arrived.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ * @version 3.6
+ * @since 3.6
+ */
+public class PubSubBatcher {
+    /**
+     * A single pending event.
+     */
+    private static final class Request {
+        final OtpErlangString topic;
+        final OtpErlangString content;
+        final AsyncResult<Void> result = new AsyncResult<Void>();
+        /**
+         * The time the event has been queued at (see
+         * {@link System#nanoTime()}).
+         */
+        final long created = System.nanoTime();
+
+        Request(final OtpErlangString topic, final OtpErlangString content) {
+            this.topic = topic;
+            this.content = content;
+        }
+    }
+
+    /**
+     * The object to send the batches with.
+     */
+    private final PubSub pubSub;
+    /**
+     * Lock protecting {@link #pending}, {@link #flushRequested},
+     * {@link #inFlight} and {@link #closed}.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+    /**
+     * Signalled when the first event is queued, the batch is full, a flush
+     * is requested or the batcher is closed.
+     */
+    private final Condition changed = lock.newCondition();
+    /**
+     * Events waiting to be sent.
+     */
+    private final LinkedList<Request> pending = new LinkedList<Request>();
+    /**
+     * Whether all pending events should be sent without further delay.
+     */
+    private boolean flushRequested = false;
+    /**
+     * Number of sent batches without a result.
+     */
+    private int inFlight = 0;
+    /**
+     * Whether the batcher has been closed.
+     */
+    private boolean closed = false;
+    /**
+     * The thread sending the batches.
+     */
+    private final Thread flusher;
+
+    /**
+     * Maximum time (in nanoseconds) an event waits for other events.
+     */
+    private volatile long maxDelayNs;
+    /**
+     * Maximum number of events per batch.
+     */
+    private volatile int maxBatchSize;
+
+    private final AtomicLong requests = new AtomicLong(0);
+    private final AtomicLong batches = new AtomicLong(0);
+    private final AtomicLong sentRequests = new AtomicLong(0);
+    private final AtomicLong failedRequests = new AtomicLong(0);
+    private final AtomicLong maxBatch = new AtomicLong(0);
+
+    /**
+     * Creates a batcher using a new connection created by
+     * {@link ConnectionFactory#createConnection()} with a maximum delay of
+     * 1000 microseconds and up to 256 events per batch.
+     *
+     * @throws ConnectionException
+     *             if the connection fails
+     */
+    public PubSubBatcher() throws ConnectionException {
+        this(ConnectionFactory.getInstance().createConnection());
+    }
+
+    /**
+     * Creates a batcher using the given connection with a maximum delay of
+     * 1000 microseconds and up to 256 events per batch.
+     *
+     * @param conn
+     *            connection to use for the batches
+     */
+    public PubSubBatcher(final Connection conn) {
+        this(conn, 1000, 256);
+    }
+
+    /**
+     * Creates a batcher using the given connection.
+     *
+     * @param conn
+     *            connection to use for the batches
+     * @param maxDelay
+     *            maximum time (in microseconds) an event waits for other
+     *            events
+     * @param maxBatchSize
+     *            maximum number of events per batch
+     */
+    public PubSubBatcher(final Connection conn, final long maxDelay,
+            final int maxBatchSize) {
+        this.pubSub = new PubSub(conn);
+        setMaxDelay(maxDelay);
+        setMaxBatchSize(maxBatchSize);
+        flusher = new Thread("PubSubBatcher") {
+            @Override
+            public void run() {
+                flushLoop();
+            }
+        };
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Queues the given event.
+     *
+     * @param request
+     *            the event
+     *
+     * @throws ConnectionException
+     *             if the batcher has been closed
+     */
+    private void enqueue(final Request request) throws ConnectionException {
+        requests.incrementAndGet();
+        lock.lock();
+        try {
+            if (closed) {
+                throw new ConnectionException("batcher closed");
+            }
+            pending.add(request);
+            if ((pending.size() == 1) || (pending.size() >= maxBatchSize)) {
+                changed.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Main loop of the {@link #flusher} thread.
+     */
+    private void flushLoop() {
+        while (true) {
+            final List<Request> batch;
+            lock.lock();
+            try {
+                while (!closed) {
+                    if (pending.isEmpty()) {
+                        flushRequested = false;
+                        changed.awaitUninterruptibly();
+                        continue;
+                    }
+                    if (flushRequested || (pending.size() >= maxBatchSize)) {
+                        break;
+                    }
+                    final long waitNs = (pending.getFirst().created + maxDelayNs)
+                            - System.nanoTime();
+                    if (waitNs <= 0) {
+                        break;
+                    }
+                    try {
+                        changed.awaitNanos(waitNs);
+                    } catch (final InterruptedException e) {
+                        // check again
+                    }
+                }
+                if (closed && pending.isEmpty()) {
+                    return;
+                }
+                final int size = Math.min(pending.size(), maxBatchSize);
+                batch = new ArrayList<Request>(size);
+                for (int i = 0; i < size; ++i) {
+                    batch.add(pending.removeFirst());
+                }
+            } finally {
+                lock.unlock();
+            }
+            send(batch);
+        }
+    }
+
+    /**
+     * Sends the given batch and dispatches the results to the callers.
+     *
+     * @param batch
+     *            the events to send
+     */
+    private void send(final List<Request> batch) {
+        final int size = batch.size();
+        batches.incrementAndGet();
+        sentRequests.addAndGet(size);
+        long max;
+        while ((max = maxBatch.get()) < size && !maxBatch.compareAndSet(max, size)) {
+            // retry
+        }
+
+        final PubSub.PublishList events = new PubSub.PublishList();
+        for (final Request request : batch) {
+            events.addPublish(request.topic, request.content);
+        }
+        final AsyncResult<PubSub.PublishResultList> result;
+        try {
+            result = pubSub.publishAllAsync(events);
+        } catch (final ConnectionException e) {
+            failedRequests.addAndGet(size);
+            for (final Request request : batch) {
+                request.result.fail(e);
+            }
+            return;
+        } catch (final RuntimeException e) {
+            // e.g. no node to connect to - must not end the flusher thread
+            failedRequests.addAndGet(size);
+            for (final Request request : batch) {
+                request.result.fail(e);
+            }
+            return;
+        }
+        batchStarted();
+        result.addCallback(new ResultCallback<PubSub.PublishResultList>() {
+            public void onSuccess(final PubSub.PublishResultList results) {
+                for (int i = 0; i < size; ++i) {
+                    final Request request = batch.get(i);
+                    try {
+                        results.processPublishAt(i);
+                        request.result.complete(null);
+                    } catch (final Exception e) {
+                        failedRequests.incrementAndGet();
+                        request.result.fail(e);
+                    }
+                }
+                // results are available when close() returns
+                batchFinished();
+            }
+
+            public void onFailure(final Exception e) {
+                failedRequests.addAndGet(size);
+                for (final Request request : batch) {
+                    request.result.fail(e);
+                }
+                batchFinished();
+            }
+        });
+    }
+
+    /**
+     * Increases the number of batches in flight.
+     */
+    private void batchStarted() {
+        lock.lock();
+        try {
+            ++inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Decreases the number of batches in flight.
+     */
+    private void batchFinished() {
+        lock.lock();
+        try {
+            if (--inFlight == 0) {
+                changed.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Queues an event under the given <tt>topic</tt>.
+     *
+     * @param topic
+     *            the topic to publish the content under
+     * @param content
+     *            the content to publish
+     *
+     * @return the (future) result of the event (<tt>null</tt> on success)
+     *
+     * @throws ConnectionException
+     *             if the batcher has been closed
+     *
+     * @see PubSub#publish(OtpErlangString, OtpErlangString)
+     */
+    public AsyncResult<Void> publishAsync(final OtpErlangString topic,
+            final OtpErlangString content) throws ConnectionException {
+        final Request request = new Request(topic, content);
+        enqueue(request);
+        return request.result;
+    }
+
+    /**
+     * Queues an event under the given <tt>topic</tt>.
+     *
+     * @param topic
+     *            the topic to publish the content under
+     * @param content
+     *            the content to publish
+     *
+     * @return the (future) result of the event (<tt>null</tt> on success)
+     *
+     * @throws ConnectionException
+     *             if the batcher has been closed
+     *
+     * @see #publishAsync(OtpErlangString, OtpErlangString)
+     */
+    public AsyncResult<Void> publishAsync(final String topic, final String content)
+            throws ConnectionException {
+        return publishAsync(new OtpErlangString(topic), new OtpErlangString(content));
+    }
+
+    /**
+     * Publishes an event under the given <tt>topic</tt> (as part of the next
+     * batch).
+     *
+     * @param topic
+     *            the topic to publish the content under
+     * @param content
+     *            the content to publish
+     *
+     * @throws ConnectionException
+     *             if the connection is not active or a communication error
+     *             occurs or an exit signal was received or the remote node
+     *             sends a message containing an invalid cookie
+     * @throws TimeoutException
+     *             if a timeout occurred while trying to read the subscribers
+     *             of the topic
+     * @throws UnknownException
+     *             if any other error occurs
+     *
+     * @see PubSub#publish(OtpErlangString, OtpErlangString)
+     */
+    public void publish(final OtpErlangString topic, final OtpErlangString content)
+            throws ConnectionException, TimeoutException, UnknownException {
+        try {
+            publishAsync(topic, content).get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConnectionException(e);
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof ConnectionException) {
+                throw (ConnectionException) cause;
+            } else if (cause instanceof TimeoutException) {
+                throw (TimeoutException) cause;
+            } else if (cause instanceof UnknownException) {
+                throw (UnknownException) cause;
+            }
+            throw new UnknownException(cause);
+        }
+    }
+
+    /**
+     * Publishes an event under the given <tt>topic</tt> (as part of the next
+     * batch).
+     *
+     * @param topic
+     *            the topic to publish the content under
+     * @param content
+     *            the content to publish
+     *
+     * @throws ConnectionException
+     *             if the connection is not active or a communication error
+     *             occurs or an exit signal was received or the remote node
+     *             sends a message containing an invalid cookie
+     * @throws TimeoutException
+     *             if a timeout occurred while trying to read the subscribers
+     *             of the topic
+     * @throws UnknownException
+     *             if any other error occurs
+     *
+     * @see #publish(OtpErlangString, OtpErlangString)
+     */
+    public void publish(final String topic, final String content)
+            throws ConnectionException, TimeoutException, UnknownException {
+        publish(new OtpErlangString(topic), new OtpErlangString(content));
+    }
+
+    /**
+     * Sends all pending events without waiting for further events (does not
+     * wait for their results).
+     */
+    public void flush() {
+        lock.lock();
+        try {
+            if (!pending.isEmpty()) {
+                flushRequested = true;
+                changed.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sends all pending events, stops the batching thread and closes the
+     * connection after the results of all sent events are available.
+     *
+     * Note: Subsequent calls to the other methods will throw
+     * {@link ConnectionException}s!
+     */
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            flusher.join();
+            lock.lock();
+            try {
+                while (inFlight > 0) {
+                    changed.await();
+                }
+            } finally {
+                lock.unlock();
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        pubSub.closeConnection();
+    }
+
+    /**
+     * Gets the maximum time an event waits for other events.
+     *
+     * @return the maximum delay in microseconds
+     */
+    public long getMaxDelay() {
+        return TimeUnit.NANOSECONDS.toMicros(maxDelayNs);
+    }
+
+    /**
+     * Sets the maximum time an event waits for other events.
+     *
+     * @param maxDelay
+     *            the maximum delay in microseconds (<tt>0</tt> to send
+     *            events as soon as the previous batch is sent)
+     */
+    public void setMaxDelay(final long maxDelay) {
+        if (maxDelay < 0) {
+            throw new IllegalArgumentException("maxDelay must not be negative: " + maxDelay);
+        }
+        this.maxDelayNs = TimeUnit.MICROSECONDS.toNanos(maxDelay);
+    }
+
+    /**
+     * Gets the maximum number of events per batch.
+     *
+     * @return the maximum batch size
+     */
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * Sets the maximum number of events per batch.
+     *
+     * @param maxBatchSize
+     *            the maximum batch size
+     */
+    public void setMaxBatchSize(final int maxBatchSize) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize must be positive: " + maxBatchSize);
+        }
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Gets a snapshot of the batcher's statistics.
+     *
+     * @return the statistics
+     */
+    public Statistics getStatistics() {
+        return new Statistics(requests.get(), batches.get(),
+                sentRequests.get(), failedRequests.get(), maxBatch.get());
+    }
+
+    /**
+     * Statistics of a {@link PubSubBatcher} (immutable).
+     *
+     * @author Nico Kruber, kruber@zib.de
+     * @version 3.6
+     * @since 3.6
+     */
+    public static class Statistics {
+        private final long requests;
+        private final long batches;
+        private final long sentRequests;
+        private final long failedRequests;
+        private final long maxBatchSize;
+
+        Statistics(final long requests, final long batches,
+                final long sentRequests, final long failedRequests,
+                final long maxBatchSize) {
+            this.requests = requests;
+            this.batches = batches;
+            this.sentRequests = sentRequests;
+            this.failedRequests = failedRequests;
+            this.maxBatchSize = maxBatchSize;
+        }
+
+        /**
+         * @return the number of queued events
+         */
+        public long getRequests() {
+            return requests;
+        }
+
+        /**
+         * @return the number of sent batches
+         */
+        public long getBatches() {
+            return batches;
+        }
+
+        /**
+         * @return the number of events in all sent batches
+         */
+        public long getSentRequests() {
+            return sentRequests;
+        }
+
+        /**
+         * @return the number of events which failed
+         */
+        public long getFailedRequests() {
+            return failedRequests;
+        }
+
+        /**
+         * @return the size of the largest batch
+         */
+        public long getMaxBatchSize() {
+            return maxBatchSize;
+        }
+
+        /**
+         * @return the average number of events per batch
+         */
+        public double getAvgBatchSize() {
+            return (batches == 0) ? 0.0 : ((double) sentRequests / batches);
+        }
+
+        @Override
+        public String toString() {
+            return "requests=" + requests + ", batches=" + batches
+                    + ", avgBatchSize=" + getAvgBatchSize()
+                    + ", maxBatchSize=" + maxBatchSize + ", failed="
+                    + failedRequests;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+/**
+ *  Copyright 2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+/**
+ * Listener that is notified about events published to a topic it has been
+ * subscribed to with a {@link PubSubReceiver}.
+ *
+ * Note: listeners are executed by the executor of the
+ * {@link PubSubReceiver}, i.e. if it has more than one thread, events may be
+ * delivered concurrently and out of order.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ * @version 3.6
+ * @since 3.6
+ *
+ * @see PubSubReceiver#subscribe(String, PubSubListener)
+ */
+public interface PubSubListener {
+    /**
+     * Will be called for each event published to a subscribed topic.
+     *
+     * @param topic
+     *            the topic the event was published under
+     * @param content
+     *            the published content
+     */
+    public abstract void onNotify(String topic, String content);
+}
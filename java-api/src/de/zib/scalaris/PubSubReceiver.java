@@ -0,0 +1,496 @@
+/**
+ *  Copyright 2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ericsson.otp.erlang.OtpErlangAtom;
+import com.ericsson.otp.erlang.OtpErlangException;
+import com.ericsson.otp.erlang.OtpErlangObject;
+import com.ericsson.otp.erlang.OtpErlangPid;
+import com.ericsson.otp.erlang.OtpErlangString;
+import com.ericsson.otp.erlang.OtpErlangTuple;
+import com.ericsson.otp.erlang.OtpMbox;
+import com.ericsson.otp.erlang.OtpNode;
+
+/**
+ * Receives PubSub events as erlang messages and delivers them to
+ * {@link PubSubListener} objects.
+ *
+ * Instead of a URL which needs a web server and an HTTP request per event,
+ * the receiver subscribes the pid of its own {@link OtpMbox} (see
+ * {@link PubSub#subscribe(OtpErlangString, OtpErlangPid)}). Scalaris then
+ * sends each event as a <tt>{notify, Topic, Content}</tt> message over the
+ * erlang distribution. For this, the receiver runs an {@link OtpNode} which is
+ * registered at the local <tt>epmd</tt> so that any scalaris VM of the ring
+ * can connect to it.
+ *
+ * Events are dispatched to the listeners of their topic on the given
+ * {@link Executor}. With a bounded executor, e.g. one created by
+ * {@link #createExecutor(int, int)}, events which do not fit into its queue
+ * are dropped (see {@link Statistics#getDropped()}) instead of piling up in
+ * memory if the listeners are too slow.
+ *
+ * <pre>
+ * <code style="white-space:pre;">
+ *   PubSubReceiver receiver = new PubSubReceiver();
+ *   receiver.subscribe("topic", new PubSubListener() {
+ *       public void onNotify(String topic, String content) {
+ *           System.out.println(topic + ": " + content);
+ *       }
+ *   });
+ *   // ...
+ *   receiver.close();
+ * </code>
+ * </pre>
+ *
+ * Note: subscriptions are stored in scalaris. If the receiver is not closed,
+ * e.g. because the JVM crashed, scalaris keeps sending events to the (dead)
+ * pid until it is unsubscribed.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ * @version 3.6
+ * @since 3.6
+ */
+public class PubSubReceiver {
+    /**
+     * Statistics of a PubSub receiver.
+     *
+     * @author Nico Kruber, kruber@zib.de
+     * @version 3.6
+     * @since 3.6
+     */
+    public static class Statistics {
+        private final long received;
+        private final long delivered;
+        private final long dropped;
+        private final long failed;
+        private final int queued;
+        private final int topics;
+
+        /**
+         * Creates a new statistics object.
+         *
+         * @param received
+         *            number of received events
+         * @param delivered
+         *            number of events delivered to listeners
+         * @param dropped
+         *            number of events dropped
+         * @param failed
+         *            number of listener calls which threw an exception
+         * @param queued
+         *            number of events waiting in the executor's queue
+         * @param topics
+         *            number of subscribed topics
+         */
+        Statistics(final long received, final long delivered,
+                final long dropped, final long failed, final int queued,
+                final int topics) {
+            this.received = received;
+            this.delivered = delivered;
+            this.dropped = dropped;
+            this.failed = failed;
+            this.queued = queued;
+            this.topics = topics;
+        }
+
+        /**
+         * @return the number of received events
+         */
+        public long getReceived() {
+            return received;
+        }
+
+        /**
+         * @return the number of events delivered to (all) listeners of their
+         *         topic
+         */
+        public long getDelivered() {
+            return delivered;
+        }
+
+        /**
+         * @return the number of events dropped because the executor rejected
+         *         them, e.g. because its queue was full
+         */
+        public long getDropped() {
+            return dropped;
+        }
+
+        /**
+         * @return the number of listener calls which threw an exception
+         */
+        public long getFailed() {
+            return failed;
+        }
+
+        /**
+         * @return the number of events waiting in the executor's queue (
+         *         <tt>-1</tt> if the executor is no {@link ThreadPoolExecutor})
+         */
+        public int getQueued() {
+            return queued;
+        }
+
+        /**
+         * @return the number of subscribed topics
+         */
+        public int getTopics() {
+            return topics;
+        }
+
+        @Override
+        public String toString() {
+            return "received: " + received + ", delivered: " + delivered
+                    + ", dropped: " + dropped + ", failed: " + failed
+                    + ", queued: " + queued + ", topics: " + topics;
+        }
+    }
+
+    private static final OtpErlangAtom notifyAtom = new OtpErlangAtom("notify");
+    private static final AtomicInteger nextId = new AtomicInteger(0);
+
+    private final ConnectionFactory factory;
+    private final Executor executor;
+    private final boolean ownExecutor;
+    private final OtpNode node;
+    private final OtpMbox mbox;
+    private final Thread receiver;
+    private volatile boolean running = true;
+
+    /**
+     * Listeners of each subscribed topic.
+     */
+    private final Map<String, List<PubSubListener>> listeners =
+            new ConcurrentHashMap<String, List<PubSubListener>>();
+    /**
+     * Connection used to (un)subscribe, created upon the first subscribe.
+     * Guarded by {@link #listeners} (changes to the subscribed topics are
+     * serialised).
+     */
+    private PubSub pubSub = null;
+
+    private final AtomicLong received = new AtomicLong(0);
+    private final AtomicLong delivered = new AtomicLong(0);
+    private final AtomicLong dropped = new AtomicLong(0);
+    private final AtomicLong failed = new AtomicLong(0);
+
+    /**
+     * Creates a receiver for the nodes of
+     * {@link ConnectionFactory#getInstance()} delivering events in a single
+     * thread with a queue of up to <tt>10000</tt> events.
+     *
+     * @throws IOException
+     *             if the receiver's erlang node could not be started
+     */
+    public PubSubReceiver() throws IOException {
+        this(ConnectionFactory.getInstance(), createExecutor(1, 10000), true);
+    }
+
+    /**
+     * Creates a receiver using the given connection factory to (un)subscribe
+     * and the given executor to deliver events.
+     *
+     * @param factory
+     *            the connection factory (its client name and cookie are also
+     *            used for the receiver's erlang node)
+     * @param executor
+     *            the executor calling the listeners (will not be shut down
+     *            by {@link #close()})
+     *
+     * @throws IOException
+     *             if the receiver's erlang node could not be started
+     */
+    public PubSubReceiver(final ConnectionFactory factory,
+            final Executor executor) throws IOException {
+        this(factory, executor, false);
+    }
+
+    private PubSubReceiver(final ConnectionFactory factory,
+            final Executor executor, final boolean ownExecutor)
+            throws IOException {
+        this.factory = factory;
+        this.executor = executor;
+        this.ownExecutor = ownExecutor;
+        // node names must be unique at the local epmd, also among JVMs
+        final String name = factory.getClientName() + "_pubsub_"
+                + nextId.getAndIncrement() + "_"
+                + Integer.toHexString(new Random().nextInt());
+        node = new OtpNode(name, factory.getCookie());
+        mbox = node.createMbox();
+        receiver = new Thread(new Runnable() {
+            public void run() {
+                receive();
+            }
+        }, "scalaris-pubsub-" + name);
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+
+    /**
+     * Creates a thread pool with a bounded queue for delivering events.
+     * Events which do not fit into the queue are dropped.
+     *
+     * @param threads
+     *            the number of threads (with more than one thread, events
+     *            may be delivered out of order)
+     * @param capacity
+     *            the maximum number of events waiting for a thread
+     *
+     * @return a thread pool with daemon threads
+     */
+    public static ThreadPoolExecutor createExecutor(final int threads,
+            final int capacity) {
+        return new ThreadPoolExecutor(threads, threads, 0L,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(capacity),
+                new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger(0);
+
+                    public Thread newThread(final Runnable r) {
+                        final Thread thread = new Thread(r,
+                                "scalaris-pubsub-listener-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    /**
+     * Gets the pid events are sent to.
+     *
+     * @return the pid of the receiver's mailbox
+     */
+    public OtpErlangPid getPid() {
+        return mbox.self();
+    }
+
+    /**
+     * Adds a listener to a topic. The receiver is subscribed to the topic
+     * (see {@link PubSub#subscribe(OtpErlangString, OtpErlangPid)}) if it is
+     * the first listener of this topic.
+     *
+     * @param topic
+     *            the topic to listen to
+     * @param listener
+     *            the listener to notify about the events of the topic
+     *
+     * @throws ConnectionException
+     *             if the connection is not active or a communication error
+     *             occurs or an exit signal was received or the remote node
+     *             sends a message containing an invalid cookie
+     * @throws TimeoutException
+     *             if a timeout occurred while trying to write the value
+     * @throws AbortException
+     *             if the commit of the subscribe failed
+     * @throws UnknownException
+     *             if any other error occurs
+     */
+    public void subscribe(final String topic, final PubSubListener listener)
+            throws ConnectionException, TimeoutException, AbortException,
+            UnknownException {
+        synchronized (listeners) {
+            List<PubSubListener> topicListeners = listeners.get(topic);
+            if (topicListeners == null) {
+                topicListeners = new CopyOnWriteArrayList<PubSubListener>();
+                topicListeners.add(listener);
+                // listen before subscribing in order not to miss any event
+                listeners.put(topic, topicListeners);
+                try {
+                    getPubSub().subscribe(new OtpErlangString(topic), getPid());
+                } catch (final ConnectionException e) {
+                    listeners.remove(topic);
+                    throw e;
+                } catch (final TimeoutException e) {
+                    listeners.remove(topic);
+                    throw e;
+                } catch (final AbortException e) {
+                    listeners.remove(topic);
+                    throw e;
+                } catch (final UnknownException e) {
+                    listeners.remove(topic);
+                    throw e;
+                }
+            } else {
+                topicListeners.add(listener);
+            }
+        }
+    }
+
+    /**
+     * Removes a listener from a topic. The receiver is unsubscribed from the
+     * topic (see {@link PubSub#unsubscribe(OtpErlangString, OtpErlangPid)})
+     * if it was the last listener of this topic.
+     *
+     * @param topic
+     *            the topic to stop listening to
+     * @param listener
+     *            the listener to remove
+     *
+     * @throws ConnectionException
+     *             if the connection is not active or a communication error
+     *             occurs or an exit signal was received or the remote node
+     *             sends a message containing an invalid cookie
+     * @throws TimeoutException
+     *             if a timeout occurred while trying to write the value
+     * @throws NotFoundException
+     *             if the listener was not subscribed to the topic (or the
+     *             receiver was not subscribed in scalaris)
+     * @throws AbortException
+     *             if the commit of the unsubscribe failed
+     * @throws UnknownException
+     *             if any other error occurs
+     */
+    public void unsubscribe(final String topic, final PubSubListener listener)
+            throws ConnectionException, TimeoutException, NotFoundException,
+            AbortException, UnknownException {
+        synchronized (listeners) {
+            final List<PubSubListener> topicListeners = listeners.get(topic);
+            if ((topicListeners == null) || !topicListeners.remove(listener)) {
+                throw new NotFoundException("listener not subscribed to " + topic);
+            }
+            if (topicListeners.isEmpty()) {
+                listeners.remove(topic);
+                getPubSub().unsubscribe(new OtpErlangString(topic), getPid());
+            }
+        }
+    }
+
+    private PubSub getPubSub() throws ConnectionException {
+        if (pubSub == null) {
+            pubSub = new PubSub(factory.createConnection());
+        }
+        return pubSub;
+    }
+
+    /**
+     * Unsubscribes from all topics (ignoring errors), stops the receiver's
+     * erlang node and, if it was created by {@link #PubSubReceiver()}, the
+     * executor.
+     */
+    public void close() {
+        synchronized (listeners) {
+            for (final String topic : new ArrayList<String>(listeners.keySet())) {
+                try {
+                    getPubSub().unsubscribe(new OtpErlangString(topic), getPid());
+                } catch (final Exception e) {
+                    // the subscription may remain in scalaris
+                }
+            }
+            listeners.clear();
+            if (pubSub != null) {
+                pubSub.closeConnection();
+                pubSub = null;
+            }
+        }
+        running = false;
+        node.closeMbox(mbox);
+        node.close();
+        if (ownExecutor) {
+            ((ThreadPoolExecutor) executor).shutdown();
+        }
+    }
+
+    /**
+     * Gets a snapshot of the receiver's statistics.
+     *
+     * @return the statistics
+     */
+    public Statistics getStatistics() {
+        final int queued = (executor instanceof ThreadPoolExecutor)
+                ? ((ThreadPoolExecutor) executor).getQueue().size() : -1;
+        return new Statistics(received.get(), delivered.get(), dropped.get(),
+                failed.get(), queued, listeners.size());
+    }
+
+    /**
+     * Receives events until the receiver is closed.
+     */
+    private void receive() {
+        while (running) {
+            final OtpErlangObject msg;
+            try {
+                msg = mbox.receive(100);
+            } catch (final OtpErlangException e) {
+                // exit signal or undecodable message
+                continue;
+            }
+            if (msg != null) {
+                handle(msg);
+            }
+        }
+    }
+
+    /**
+     * Dispatches a <tt>{notify, Topic, Content}</tt> message to the
+     * listeners of its topic. Other messages are ignored.
+     *
+     * @param msg
+     *            the received message
+     */
+    private void handle(final OtpErlangObject msg) {
+        final String topic;
+        final String content;
+        try {
+            final OtpErlangTuple tuple = (OtpErlangTuple) msg;
+            if ((tuple.arity() != 3) || !tuple.elementAt(0).equals(notifyAtom)) {
+                return;
+            }
+            topic = new ErlangValue(tuple.elementAt(1)).stringValue();
+            content = new ErlangValue(tuple.elementAt(2)).stringValue();
+        } catch (final ClassCastException e) {
+            return;
+        }
+        received.incrementAndGet();
+        final List<PubSubListener> topicListeners = listeners.get(topic);
+        if (topicListeners == null) {
+            // unsubscribed in the meantime
+            dropped.incrementAndGet();
+            return;
+        }
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    for (final PubSubListener listener : topicListeners) {
+                        try {
+                            listener.onNotify(topic, content);
+                        } catch (final RuntimeException e) {
+                            failed.incrementAndGet();
+                        }
+                    }
+                    delivered.incrementAndGet();
+                }
+            });
+        } catch (final RejectedExecutionException e) {
+            dropped.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,1093 @@
+/**
+ *  Copyright 2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ericsson.otp.erlang.OtpErlangString;
+
+/**
+ * Receives PubSub events as JSON-RPC <tt>notify</tt> calls and delivers them
+ * to {@link PubSubListener} objects.
+ *
+ * This is an embedded HTTP/1.1 server for URL subscriptions (see
+ * {@link PubSub#subscribe(String, String)}) which does not need a servlet
+ * container or any other library. A single thread multiplexes all
+ * connections with a {@link Selector}; connections are kept alive so that
+ * a scalaris node can re-use its connection for subsequent events. Each
+ * request must be a <tt>POST</tt> with a body like
+ * <tt>{"jsonrpc":"2.0","method":"notify","params":[Topic,Content],"id":Id}</tt>
+ * which is answered with <tt>{"jsonrpc":"2.0","result":"ok","id":Id}</tt>.
+ *
+ * Events are dispatched to the listeners of their topic on the given
+ * {@link Executor}. With a bounded executor, e.g. one created by
+ * {@link PubSubReceiver#createExecutor(int, int)}, events which do not fit
+ * into its queue are dropped (see {@link Statistics#getDropped()}) and
+ * answered with a JSON-RPC error instead of piling up in memory if the
+ * listeners are too slow.
+ *
+ * <pre>
+ * <code style="white-space:pre;">
+ *   PubSubServer server = new PubSubServer();
+ *   server.subscribe("topic", new PubSubListener() {
+ *       public void onNotify(String topic, String content) {
+ *           System.out.println(topic + ": " + content);
+ *       }
+ *   });
+ *   // ...
+ *   server.close();
+ * </code>
+ * </pre>
+ *
+ * Note: subscriptions are stored in scalaris. If the server is not closed,
+ * e.g. because the JVM crashed, scalaris keeps sending events to its URL
+ * until it is unsubscribed.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ * @version 3.6
+ * @since 3.6
+ * @see PubSubReceiver
+ */
+public class PubSubServer {
+    /**
+     * Statistics of a PubSub server.
+     *
+     * @author Nico Kruber, kruber@zib.de
+     * @version 3.6
+     * @since 3.6
+     */
+    public static class Statistics {
+        private final long received;
+        private final long delivered;
+        private final long dropped;
+        private final long failed;
+        private final long invalid;
+        private final int queued;
+        private final int connections;
+        private final int topics;
+
+        /**
+         * Creates a new statistics object.
+         *
+         * @param received
+         *            number of received events
+         * @param delivered
+         *            number of events delivered to listeners
+         * @param dropped
+         *            number of events dropped
+         * @param failed
+         *            number of listener calls which threw an exception
+         * @param invalid
+         *            number of requests which were no valid <tt>notify</tt>
+         *            calls
+         * @param queued
+         *            number of events waiting in the executor's queue
+         * @param connections
+         *            number of open connections
+         * @param topics
+         *            number of subscribed topics
+         */
+        Statistics(final long received, final long delivered,
+                final long dropped, final long failed, final long invalid,
+                final int queued, final int connections, final int topics) {
+            this.received = received;
+            this.delivered = delivered;
+            this.dropped = dropped;
+            this.failed = failed;
+            this.invalid = invalid;
+            this.queued = queued;
+            this.connections = connections;
+            this.topics = topics;
+        }
+
+        /**
+         * @return the number of received events
+         */
+        public long getReceived() {
+            return received;
+        }
+
+        /**
+         * @return the number of events delivered to (all) listeners of their
+         *         topic
+         */
+        public long getDelivered() {
+            return delivered;
+        }
+
+        /**
+         * @return the number of events dropped because the executor rejected
+         *         them, e.g. because its queue was full
+         */
+        public long getDropped() {
+            return dropped;
+        }
+
+        /**
+         * @return the number of listener calls which threw an exception
+         */
+        public long getFailed() {
+            return failed;
+        }
+
+        /**
+         * @return the number of requests which were no valid <tt>notify</tt>
+         *         calls, e.g. malformed HTTP or JSON
+         */
+        public long getInvalid() {
+            return invalid;
+        }
+
+        /**
+         * @return the number of events waiting in the executor's queue (
+         *         <tt>-1</tt> if the executor is no {@link ThreadPoolExecutor})
+         */
+        public int getQueued() {
+            return queued;
+        }
+
+        /**
+         * @return the number of open (keep-alive) connections
+         */
+        public int getConnections() {
+            return connections;
+        }
+
+        /**
+         * @return the number of subscribed topics
+         */
+        public int getTopics() {
+            return topics;
+        }
+
+        @Override
+        public String toString() {
+            return "received: " + received + ", delivered: " + delivered
+                    + ", dropped: " + dropped + ", failed: " + failed
+                    + ", invalid: " + invalid + ", queued: " + queued
+                    + ", connections: " + connections + ", topics: " + topics;
+        }
+    }
+
+    /**
+     * State of a client connection (only accessed by the selector thread).
+     */
+    private static class Connection {
+        private ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+        private final LinkedList<ByteBuffer> out = new LinkedList<ByteBuffer>();
+        private long lastActive = System.currentTimeMillis();
+        private boolean closeAfterWrite = false;
+    }
+
+    /**
+     * Initial size of a connection's read buffer.
+     */
+    private static final int BUFFER_SIZE = 4096;
+    /**
+     * Maximum size of the request line and headers.
+     */
+    private static final int MAX_HEADER_SIZE = 8192;
+    /**
+     * Maximum size of a request including its body.
+     */
+    private static final int MAX_REQUEST_SIZE = 16 * 1024 * 1024;
+    /**
+     * Time after which idle connections are closed (in milliseconds).
+     */
+    private static final long IDLE_TIMEOUT = 60000;
+
+    private static final AtomicInteger nextId = new AtomicInteger(0);
+
+    private final ConnectionFactory factory;
+    private final Executor executor;
+    private final boolean ownExecutor;
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    private final String url;
+    private final Thread server;
+    private volatile boolean running = true;
+
+    /**
+     * Listeners of each subscribed topic.
+     */
+    private final Map<String, List<PubSubListener>> listeners =
+            new ConcurrentHashMap<String, List<PubSubListener>>();
+    /**
+     * Connection used to (un)subscribe, created upon the first subscribe.
+     * Guarded by {@link #listeners} (changes to the subscribed topics are
+     * serialised).
+     */
+    private PubSub pubSub = null;
+
+    private final AtomicLong received = new AtomicLong(0);
+    private final AtomicLong delivered = new AtomicLong(0);
+    private final AtomicLong dropped = new AtomicLong(0);
+    private final AtomicLong failed = new AtomicLong(0);
+    private final AtomicLong invalid = new AtomicLong(0);
+    private final AtomicInteger connections = new AtomicInteger(0);
+
+    /**
+     * Creates a server for the nodes of
+     * {@link ConnectionFactory#getInstance()} listening at a free port of
+     * <tt>127.0.0.1</tt> (i.e. only for nodes on the same host) and
+     * delivering events in a single thread with a queue of up to
+     * <tt>10000</tt> events.
+     *
+     * @throws IOException
+     *             if the server could not be started
+     */
+    public PubSubServer() throws IOException {
+        this(ConnectionFactory.getInstance(),
+                PubSubReceiver.createExecutor(1, 10000), true,
+                new InetSocketAddress("127.0.0.1", 0));
+    }
+
+    /**
+     * Creates a server using the given connection factory to (un)subscribe
+     * and the given executor to deliver events.
+     *
+     * @param factory
+     *            the connection factory
+     * @param executor
+     *            the executor calling the listeners (will not be shut down
+     *            by {@link #close()})
+     * @param address
+     *            the address to listen at (port <tt>0</tt> chooses a free
+     *            port) - it must be reachable by the scalaris nodes
+     *
+     * @throws IOException
+     *             if the server could not be started
+     */
+    public PubSubServer(final ConnectionFactory factory,
+            final Executor executor, final InetSocketAddress address)
+            throws IOException {
+        this(factory, executor, false, address);
+    }
+
+    private PubSubServer(final ConnectionFactory factory,
+            final Executor executor, final boolean ownExecutor,
+            final InetSocketAddress address) throws IOException {
+        this.factory = factory;
+        this.executor = executor;
+        this.ownExecutor = ownExecutor;
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        try {
+            serverChannel.socket().setReuseAddress(true);
+            serverChannel.socket().bind(address);
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (final IOException e) {
+            serverChannel.close();
+            selector.close();
+            throw e;
+        }
+        final InetAddress host = serverChannel.socket().getInetAddress();
+        url = "http://"
+                + (host.isAnyLocalAddress() ? InetAddress.getLocalHost()
+                        .getCanonicalHostName() : host.getHostAddress()) + ":"
+                + serverChannel.socket().getLocalPort() + "/";
+        server = new Thread(new Runnable() {
+            public void run() {
+                serve();
+            }
+        }, "scalaris-pubsub-http-" + nextId.getAndIncrement());
+        server.setDaemon(true);
+        server.start();
+    }
+
+    /**
+     * Gets the URL events are sent to.
+     *
+     * @return the server's URL
+     */
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * Adds a listener to a topic. The server's URL is subscribed to the
+     * topic (see {@link PubSub#subscribe(String, String)}) if it is the
+     * first listener of this topic.
+     *
+     * @param topic
+     *            the topic to listen to
+     * @param listener
+     *            the listener to notify about the events of the topic
+     *
+     * @throws ConnectionException
+     *             if the connection is not active or a communication error
+     *             occurs or an exit signal was received or the remote node
+     *             sends a message containing an invalid cookie
+     * @throws TimeoutException
+     *             if a timeout occurred while trying to write the value
+     * @throws AbortException
+     *             if the commit of the subscribe failed
+     * @throws UnknownException
+     *             if any other error occurs
+     */
+    public void subscribe(final String topic, final PubSubListener listener)
+            throws ConnectionException, TimeoutException, AbortException,
+            UnknownException {
+        synchronized (listeners) {
+            List<PubSubListener> topicListeners = listeners.get(topic);
+            if (topicListeners == null) {
+                topicListeners = new CopyOnWriteArrayList<PubSubListener>();
+                topicListeners.add(listener);
+                // listen before subscribing in order not to miss any event
+                listeners.put(topic, topicListeners);
+                try {
+                    getPubSub().subscribe(new OtpErlangString(topic),
+                            new OtpErlangString(url));
+                } catch (final ConnectionException e) {
+                    listeners.remove(topic);
+                    throw e;
+                } catch (final TimeoutException e) {
+                    listeners.remove(topic);
+                    throw e;
+                } catch (final AbortException e) {
+                    listeners.remove(topic);
+                    throw e;
+                } catch (final UnknownException e) {
+                    listeners.remove(topic);
+                    throw e;
+                }
+            } else {
+                topicListeners.add(listener);
+            }
+        }
+    }
+
+    /**
+     * Removes a listener from a topic. The server's URL is unsubscribed from
+     * the topic (see {@link PubSub#unsubscribe(String, String)}) if it was
+     * the last listener of this topic.
+     *
+     * @param topic
+     *            the topic to stop listening to
+     * @param listener
+     *            the listener to remove
+     *
+     * @throws ConnectionException
+     *             if the connection is not active or a communication error
+     *             occurs or an exit signal was received or the remote node
+     *             sends a message containing an invalid cookie
+     * @throws TimeoutException
+     *             if a timeout occurred while trying to write the value
+     * @throws NotFoundException
+     *             if the listener was not subscribed to the topic (or the
+     *             server was not subscribed in scalaris)
+     * @throws AbortException
+     *             if the commit of the unsubscribe failed
+     * @throws UnknownException
+     *             if any other error occurs
+     */
+    public void unsubscribe(final String topic, final PubSubListener listener)
+            throws ConnectionException, TimeoutException, NotFoundException,
+            AbortException, UnknownException {
+        synchronized (listeners) {
+            final List<PubSubListener> topicListeners = listeners.get(topic);
+            if ((topicListeners == null) || !topicListeners.remove(listener)) {
+                throw new NotFoundException("listener not subscribed to " + topic);
+            }
+            if (topicListeners.isEmpty()) {
+                listeners.remove(topic);
+                getPubSub().unsubscribe(new OtpErlangString(topic),
+                        new OtpErlangString(url));
+            }
+        }
+    }
+
+    private PubSub getPubSub() throws ConnectionException {
+        if (pubSub == null) {
+            pubSub = new PubSub(factory.createConnection());
+        }
+        return pubSub;
+    }
+
+    /**
+     * Unsubscribes from all topics (ignoring errors), stops the server and,
+     * if it was created by {@link #PubSubServer()}, the executor.
+     */
+    public void close() {
+        synchronized (listeners) {
+            for (final String topic : new ArrayList<String>(listeners.keySet())) {
+                try {
+                    getPubSub().unsubscribe(new OtpErlangString(topic),
+                            new OtpErlangString(url));
+                } catch (final Exception e) {
+                    // the subscription may remain in scalaris
+                }
+            }
+            listeners.clear();
+            if (pubSub != null) {
+                pubSub.closeConnection();
+                pubSub = null;
+            }
+        }
+        running = false;
+        selector.wakeup();
+        try {
+            server.join();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (ownExecutor) {
+            ((ThreadPoolExecutor) executor).shutdown();
+        }
+    }
+
+    /**
+     * Gets a snapshot of the server's statistics.
+     *
+     * @return the statistics
+     */
+    public Statistics getStatistics() {
+        final int queued = (executor instanceof ThreadPoolExecutor)
+                ? ((ThreadPoolExecutor) executor).getQueue().size() : -1;
+        return new Statistics(received.get(), delivered.get(), dropped.get(),
+                failed.get(), invalid.get(), queued, connections.get(),
+                listeners.size());
+    }
+
+    /**
+     * Serves requests until the server is closed.
+     */
+    private void serve() {
+        long lastIdleCheck = System.currentTimeMillis();
+        try {
+            while (running) {
+                selector.select(1000);
+                final Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    final SelectionKey key = it.next();
+                    it.remove();
+                    try {
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept();
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            read(key);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            write(key);
+                        }
+                    } catch (final IOException e) {
+                        close(key);
+                    } catch (final RuntimeException e) {
+                        // a single bad request must not stop the server
+                        close(key);
+                    } catch (final Error e) {
+                        // e.g. no memory for a large request
+                        close(key);
+                    }
+                }
+                final long now = System.currentTimeMillis();
+                if ((now - lastIdleCheck) > 1000) {
+                    lastIdleCheck = now;
+                    for (final SelectionKey key : selector.keys()) {
+                        final Connection conn = (Connection) key.attachment();
+                        if ((conn != null) && ((now - conn.lastActive) > IDLE_TIMEOUT)) {
+                            close(key);
+                        }
+                    }
+                }
+            }
+        } catch (final IOException e) {
+            // selector failed - nothing we can do
+        } finally {
+            for (final SelectionKey key : selector.keys()) {
+                if (key.attachment() != null) {
+                    close(key);
+                }
+            }
+            try {
+                serverChannel.close();
+                selector.close();
+            } catch (final IOException e) {
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        final SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        channel.register(selector, SelectionKey.OP_READ, new Connection());
+        connections.incrementAndGet();
+    }
+
+    private void close(final SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (final IOException e) {
+        }
+        if (key.attachment() != null) {
+            key.attach(null);
+            connections.decrementAndGet();
+        }
+    }
+
+    private void read(final SelectionKey key) throws IOException {
+        final Connection conn = (Connection) key.attachment();
+        final int read = ((SocketChannel) key.channel()).read(conn.in);
+        if (read < 0) {
+            close(key);
+            return;
+        }
+        conn.lastActive = System.currentTimeMillis();
+        conn.in.flip();
+        // handle all complete (pipelined) requests in the buffer
+        while (!conn.closeAfterWrite && processRequest(conn)) {
+        }
+        conn.in.compact();
+        flush(key, conn);
+    }
+
+    /**
+     * Handles the request at the start of the connection's read buffer (in
+     * read mode) if it is complete.
+     *
+     * @param conn
+     *            the connection
+     *
+     * @return <tt>true</tt> if a request has been handled, <tt>false</tt>
+     *         if more data is needed
+     */
+    private boolean processRequest(final Connection conn) {
+        final ByteBuffer in = conn.in;
+        final int start = in.position();
+        final int headerEnd = indexOfHeaderEnd(in);
+        if (headerEnd < 0) {
+            if (in.remaining() >= MAX_HEADER_SIZE) {
+                reply(conn, 431, "Request Header Fields Too Large", null, false);
+            } else {
+                ensureCapacity(conn, MAX_HEADER_SIZE);
+            }
+            return false;
+        }
+        final String header = decode(in, start, headerEnd - start, "ISO-8859-1");
+        final String[] lines = header.split("\r\n");
+        final String[] requestLine = lines[0].split(" ");
+        if (requestLine.length != 3 || !requestLine[2].startsWith("HTTP/1.")) {
+            reply(conn, 400, "Bad Request", null, false);
+            return false;
+        }
+        final Map<String, String> headers = new HashMap<String, String>();
+        for (int i = 1; i < lines.length; ++i) {
+            final int colon = lines[i].indexOf(':');
+            if (colon > 0) {
+                headers.put(lines[i].substring(0, colon).trim().toLowerCase(),
+                        lines[i].substring(colon + 1).trim());
+            }
+        }
+        final String connection = headers.get("connection");
+        final boolean keepAlive = requestLine[2].equals("HTTP/1.0")
+                ? "keep-alive".equalsIgnoreCase(connection)
+                : !"close".equalsIgnoreCase(connection);
+        if (headers.containsKey("transfer-encoding")) {
+            reply(conn, 501, "Not Implemented", null, false);
+            return false;
+        }
+        final int length;
+        try {
+            length = headers.containsKey("content-length") ? Integer
+                    .parseInt(headers.get("content-length")) : 0;
+        } catch (final NumberFormatException e) {
+            reply(conn, 400, "Bad Request", null, false);
+            return false;
+        }
+        final int bodyStart = headerEnd + 4;
+        if ((length < 0) || ((bodyStart - start + length) > MAX_REQUEST_SIZE)) {
+            reply(conn, 413, "Request Entity Too Large", null, false);
+            return false;
+        }
+        if ((in.limit() - bodyStart) < length) {
+            ensureCapacity(conn, bodyStart - start + length);
+            return false;
+        }
+        if (!requestLine[0].equals("POST")) {
+            in.position(bodyStart + length);
+            reply(conn, 405, "Method Not Allowed", null, keepAlive);
+            return true;
+        }
+        final String body = decode(in, bodyStart, length, "UTF-8");
+        in.position(bodyStart + length);
+        reply(conn, 200, "OK", handleCall(body), keepAlive);
+        return true;
+    }
+
+    /**
+     * Finds the empty line ending the headers of the request at the
+     * buffer's position.
+     *
+     * @return the index of the <tt>"\r\n\r\n"</tt> sequence or <tt>-1</tt>
+     */
+    private static int indexOfHeaderEnd(final ByteBuffer in) {
+        for (int i = in.position(); (i + 3) < in.limit(); ++i) {
+            if ((in.get(i) == '\r') && (in.get(i + 1) == '\n')
+                    && (in.get(i + 2) == '\r') && (in.get(i + 3) == '\n')) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String decode(final ByteBuffer in, final int offset,
+            final int length, final String charset) {
+        final byte[] bytes = new byte[length];
+        for (int i = 0; i < length; ++i) {
+            bytes[i] = in.get(offset + i);
+        }
+        try {
+            return new String(bytes, charset);
+        } catch (final UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Grows the connection's read buffer (in read mode) so that it can hold
+     * a request of the given size starting at its position.
+     */
+    private static void ensureCapacity(final Connection conn, final int size) {
+        if (conn.in.capacity() < size) {
+            final ByteBuffer in = ByteBuffer.allocate(Math.max(size,
+                    Math.min(2 * conn.in.capacity(), MAX_REQUEST_SIZE)));
+            in.put(conn.in);
+            in.flip();
+            conn.in = in;
+        }
+    }
+
+    /**
+     * Queues a response. After an error, no further request of the
+     * connection is handled and the connection is closed once the response
+     * has been sent.
+     */
+    private void reply(final Connection conn, final int status,
+            final String reason, final String body, final boolean keepAlive) {
+        if (status != 200) {
+            invalid.incrementAndGet();
+        }
+        final byte[] content;
+        try {
+            content = (body == null ? "" : body).getBytes("UTF-8");
+            final String header = "HTTP/1.1 " + status + " " + reason + "\r\n"
+                    + "Content-Type: application/json\r\n"
+                    + "Content-Length: " + content.length + "\r\n"
+                    + (keepAlive ? "" : "Connection: close\r\n")
+                    + (status == 405 ? "Allow: POST\r\n" : "") + "\r\n";
+            conn.out.add(ByteBuffer.wrap(header.getBytes("ISO-8859-1")));
+        } catch (final UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        conn.out.add(ByteBuffer.wrap(content));
+        if (!keepAlive) {
+            conn.closeAfterWrite = true;
+        }
+    }
+
+    private void write(final SelectionKey key) throws IOException {
+        final Connection conn = (Connection) key.attachment();
+        flush(key, conn);
+    }
+
+    /**
+     * Writes as much of the queued responses as possible and waits for the
+     * channel to become writable if there is more.
+     */
+    private void flush(final SelectionKey key, final Connection conn)
+            throws IOException {
+        final SocketChannel channel = (SocketChannel) key.channel();
+        while (!conn.out.isEmpty()) {
+            final ByteBuffer buffer = conn.out.getFirst();
+            channel.write(buffer);
+            if (buffer.hasRemaining()) {
+                key.interestOps(SelectionKey.OP_WRITE);
+                return;
+            }
+            conn.out.removeFirst();
+        }
+        if (conn.closeAfterWrite) {
+            close(key);
+        } else {
+            key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    /**
+     * Decodes a JSON-RPC call and dispatches it if it is a
+     * <tt>notify</tt> call.
+     *
+     * @param body
+     *            the request body
+     *
+     * @return the JSON-RPC response
+     */
+    private String handleCall(final String body) {
+        final Object call;
+        try {
+            call = new JSONParser(body).parse();
+        } catch (final IllegalArgumentException e) {
+            invalid.incrementAndGet();
+            return error(-32700, "Parse error", null);
+        }
+        if (!(call instanceof Map<?, ?>)) {
+            invalid.incrementAndGet();
+            return error(-32600, "Invalid Request", null);
+        }
+        final Map<?, ?> callMap = (Map<?, ?>) call;
+        final Object id = callMap.get("id");
+        if (!"notify".equals(callMap.get("method"))) {
+            invalid.incrementAndGet();
+            return error(-32601, "Method not found", id);
+        }
+        final Object params = callMap.get("params");
+        if (!(params instanceof List<?>) || (((List<?>) params).size() != 2)
+                || !(((List<?>) params).get(0) instanceof String)
+                || !(((List<?>) params).get(1) instanceof String)) {
+            invalid.incrementAndGet();
+            return error(-32602, "Invalid params", id);
+        }
+        if (!dispatch((String) ((List<?>) params).get(0),
+                (String) ((List<?>) params).get(1))) {
+            return error(-32000, "Event dropped", id);
+        }
+        return "{\"jsonrpc\":\"2.0\",\"result\":\"ok\",\"id\":" + toJSON(id) + "}";
+    }
+
+    private static String error(final int code, final String message,
+            final Object id) {
+        return "{\"jsonrpc\":\"2.0\",\"error\":{\"code\":" + code
+                + ",\"message\":" + toJSON(message) + "},\"id\":" + toJSON(id)
+                + "}";
+    }
+
+    /**
+     * Dispatches an event to the listeners of its topic.
+     *
+     * @return <tt>false</tt> if the event was dropped
+     */
+    private boolean dispatch(final String topic, final String content) {
+        received.incrementAndGet();
+        final List<PubSubListener> topicListeners = listeners.get(topic);
+        if (topicListeners == null) {
+            // unsubscribed in the meantime
+            dropped.incrementAndGet();
+            return false;
+        }
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    for (final PubSubListener listener : topicListeners) {
+                        try {
+                            listener.onNotify(topic, content);
+                        } catch (final RuntimeException e) {
+                            failed.incrementAndGet();
+                        }
+                    }
+                    delivered.incrementAndGet();
+                }
+            });
+            return true;
+        } catch (final RejectedExecutionException e) {
+            dropped.incrementAndGet();
+            return false;
+        }
+    }
+
+    /**
+     * Converts a (decoded) JSON value back to JSON.
+     *
+     * @param value
+     *            a {@link String}, {@link Number}, {@link Boolean} or
+     *            <tt>null</tt>
+     *
+     * @return the JSON representation
+     */
+    static String toJSON(final Object value) {
+        if (!(value instanceof String)) {
+            return String.valueOf(value);
+        }
+        final String string = (String) value;
+        final StringBuilder sb = new StringBuilder(string.length() + 2);
+        sb.append('"');
+        for (int i = 0; i < string.length(); ++i) {
+            final char c = string.charAt(i);
+            if ((c == '"') || (c == '\\')) {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    /**
+     * Minimal JSON parser decoding objects to {@link Map}s, arrays to
+     * {@link List}s, strings to {@link String}s, numbers to {@link Long}s
+     * or {@link Double}s and <tt>true</tt>, <tt>false</tt> and
+     * <tt>null</tt> to {@link Boolean}s and <tt>null</tt>. Objects and arrays
+     * may be nested at most {@link #MAX_DEPTH} levels deep.
+     *
+     * @author Nico Kruber, kruber@zib.de
+     * @version 3.6
+     * @since 3.6
+     */
+    static class JSONParser {
+        /**
+         * Maximum nesting depth of objects and arrays.
+         */
+        static final int MAX_DEPTH = 32;
+        private final String json;
+        private int pos = 0;
+        private int depth = 0;
+
+        /**
+         * Creates a parser for the given JSON text.
+         *
+         * @param json
+         *            the text to parse
+         */
+        JSONParser(final String json) {
+            this.json = json;
+        }
+
+        /**
+         * Parses the (complete) text.
+         *
+         * @return the decoded value
+         *
+         * @throws IllegalArgumentException
+         *             if the text is no valid JSON
+         */
+        Object parse() throws IllegalArgumentException {
+            final Object value = parseValue();
+            skipWhitespace();
+            if (pos != json.length()) {
+                throw new IllegalArgumentException("unexpected data at " + pos);
+            }
+            return value;
+        }
+
+        private Object parseValue() {
+            skipWhitespace();
+            if (pos >= json.length()) {
+                throw new IllegalArgumentException("unexpected end");
+            }
+            final char c = json.charAt(pos);
+            switch (c) {
+                case '{':
+                case '[':
+                    if (++depth > MAX_DEPTH) {
+                        throw new IllegalArgumentException("nested too deeply at " + pos);
+                    }
+                    final Object nested = (c == '{') ? parseObject() : parseArray();
+                    --depth;
+                    return nested;
+                case '"':
+                    return parseString();
+                case 't':
+                    return parseLiteral("true", Boolean.TRUE);
+                case 'f':
+                    return parseLiteral("false", Boolean.FALSE);
+                case 'n':
+                    return parseLiteral("null", null);
+                default:
+                    return parseNumber();
+            }
+        }
+
+        private Map<String, Object> parseObject() {
+            final Map<String, Object> result = new HashMap<String, Object>();
+            ++pos;
+            skipWhitespace();
+            if (peek() == '}') {
+                ++pos;
+                return result;
+            }
+            while (true) {
+                skipWhitespace();
+                if (peek() != '"') {
+                    throw new IllegalArgumentException("expected key at " + pos);
+                }
+                final String key = parseString();
+                skipWhitespace();
+                expect(':');
+                result.put(key, parseValue());
+                skipWhitespace();
+                if (peek() == '}') {
+                    ++pos;
+                    return result;
+                }
+                expect(',');
+            }
+        }
+
+        private List<Object> parseArray() {
+            final List<Object> result = new ArrayList<Object>();
+            ++pos;
+            skipWhitespace();
+            if (peek() == ']') {
+                ++pos;
+                return result;
+            }
+            while (true) {
+                result.add(parseValue());
+                skipWhitespace();
+                if (peek() == ']') {
+                    ++pos;
+                    return result;
+                }
+                expect(',');
+            }
+        }
+
+        private String parseString() {
+            final StringBuilder sb = new StringBuilder();
+            ++pos;
+            while (true) {
+                final char c = next();
+                if (c == '"') {
+                    return sb.toString();
+                } else if (c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+                final char escaped = next();
+                switch (escaped) {
+                    case '"':
+                    case '\\':
+                    case '/':
+                        sb.append(escaped);
+                        break;
+                    case 'b':
+                        sb.append('\b');
+                        break;
+                    case 'f':
+                        sb.append('\f');
+                        break;
+                    case 'n':
+                        sb.append('\n');
+                        break;
+                    case 'r':
+                        sb.append('\r');
+                        break;
+                    case 't':
+                        sb.append('\t');
+                        break;
+                    case 'u':
+                        if ((pos + 4) > json.length()) {
+                            throw new IllegalArgumentException("unexpected end");
+                        }
+                        try {
+                            sb.append((char) Integer.parseInt(
+                                    json.substring(pos, pos + 4), 16));
+                        } catch (final NumberFormatException e) {
+                            throw new IllegalArgumentException("invalid escape at " + pos);
+                        }
+                        pos += 4;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("invalid escape at " + pos);
+                }
+            }
+        }
+
+        private Object parseLiteral(final String literal, final Object value) {
+            if (!json.startsWith(literal, pos)) {
+                throw new IllegalArgumentException("unexpected data at " + pos);
+            }
+            pos += literal.length();
+            return value;
+        }
+
+        private Number parseNumber() {
+            final int start = pos;
+            while ((pos < json.length())
+                    && ("+-0123456789.eE".indexOf(json.charAt(pos)) >= 0)) {
+                ++pos;
+            }
+            final String number = json.substring(start, pos);
+            try {
+                if ((number.indexOf('.') >= 0) || (number.indexOf('e') >= 0)
+                        || (number.indexOf('E') >= 0)) {
+                    return Double.valueOf(number);
+                }
+                return Long.valueOf(number);
+            } catch (final NumberFormatException e) {
+                throw new IllegalArgumentException("invalid number at " + start);
+            }
+        }
+
+        private void skipWhitespace() {
+            while ((pos < json.length())
+                    && Character.isWhitespace(json.charAt(pos))) {
+                ++pos;
+            }
+        }
+
+        private char peek() {
+            if (pos >= json.length()) {
+                throw new IllegalArgumentException("unexpected end");
+            }
+            return json.charAt(pos);
+        }
+
+        private char next() {
+            final char c = peek();
+            ++pos;
+            return c;
+        }
+
+        private void expect(final char c) {
+            if (next() != c) {
+                throw new IllegalArgumentException("expected '" + c + "' at " + (pos - 1));
+            }
+        }
+    }
+}
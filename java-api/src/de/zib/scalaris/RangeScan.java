@@ -0,0 +1,826 @@
+/**
+ *  Copyright 2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import com.ericsson.otp.erlang.OtpErlangAtom;
+import com.ericsson.otp.erlang.OtpErlangBinary;
+import com.ericsson.otp.erlang.OtpErlangException;
+import com.ericsson.otp.erlang.OtpErlangList;
+import com.ericsson.otp.erlang.OtpErlangLong;
+import com.ericsson.otp.erlang.OtpErlangObject;
+import com.ericsson.otp.erlang.OtpErlangTuple;
+import com.ericsson.otp.erlang.OtpInputStream;
+
+/**
+ * Reads all key-value pairs stored in scalaris using
+ * <tt>api_dht_raw:range_read/2</tt>.
+ *
+ * The key space is split into {@link #getSegments()} ranges which are read
+ * in parallel by {@link #getParallelism()} worker threads, each with a
+ * connection borrowed from the given {@link ConnectionPool}. The entries are
+ * handed to the application via this {@link Iterator} in no particular
+ * order. At most {@link #getBufferSize()} entries are buffered - workers
+ * wait until the application consumes them.
+ *
+ * Note: <tt>range_read</tt> has no limit on the number of entries it
+ * returns, i.e. each segment is read with a single RPC and its whole reply
+ * and decoded entries are held in memory until they have been handed to the
+ * buffer. The memory used by a scan is therefore bounded by the size of
+ * {@link #getParallelism()} segments plus the buffer, not by the buffer
+ * alone. Use more segments (see {@link #setSegments(int)}) to scan large
+ * data sets with less memory.
+ *
+ * <pre>
+ * <code style="white-space:pre;">
+ *   RangeScan scan = new RangeScan(ConnectionFactory.getInstance().getConnectionPool());
+ *   try {
+ *     while (scan.hasNext()) {
+ *       RangeScan.Entry e = scan.next();
+ *       ...
+ *     }
+ *   } finally {
+ *     scan.close();
+ *   }
+ *   System.out.println(scan.getStatistics());
+ * </code>
+ * </pre>
+ *
+ * <p>
+ * Note: Scalaris only stores the hashed keys (see <tt>rt_chord</tt>), i.e.
+ * the entries contain the position of each item in the key space instead of
+ * the key used by the application. Each item is stored in four replicas, one
+ * in each quarter of the key space. By default, only the first quarter is
+ * read which returns the item of a single replica, see
+ * {@link #setReadAllReplicas(boolean)}. Also note that range reads do not
+ * take part in transactions, i.e. there is no consistent snapshot of the
+ * whole key space.
+ * </p>
+ *
+ * <p>
+ * Errors, e.g. a failed connection or a segment which could not be read
+ * completely, are reported by {@link #hasNext()} and {@link #next()} as an
+ * {@link UnknownException}. Segments timing out are tried again
+ * {@link #getRetries()} times.
+ * </p>
+ *
+ * @author Nico Kruber, kruber@zib.de
+ * @version 3.6
+ * @since 3.6
+ */
+public class RangeScan implements Iterator<RangeScan.Entry> {
+    /**
+     * Size of the key space of <tt>rt_chord</tt> (<tt>2^128</tt>).
+     */
+    public static final BigInteger KEY_SPACE = BigInteger.ONE.shiftLeft(128);
+
+    /**
+     * Size of each of the four replica quarters of the key space.
+     */
+    static final BigInteger QUARTER = BigInteger.ONE.shiftLeft(126);
+
+    private static final OtpErlangAtom emptyValAtom = new OtpErlangAtom("empty_val");
+    private static final OtpErlangAtom trueAtom = new OtpErlangAtom("true");
+
+    /**
+     * Marks the end of a segment in the buffer.
+     */
+    private static final Object segmentDone = new Object();
+
+    /**
+     * A single key-value pair of the scan.
+     *
+     * @author Nico Kruber, kruber@zib.de
+     * @version 3.6
+     * @since 3.6
+     */
+    public static class Entry {
+        private final BigInteger key;
+        private final ErlangValue value;
+        private final long version;
+        private final boolean writeLocked;
+        private final int readLocks;
+
+        /**
+         * Creates a new entry.
+         *
+         * @param key
+         *            the (hashed) key
+         * @param value
+         *            the value
+         * @param version
+         *            the version of the value
+         * @param writeLocked
+         *            whether the entry is write-locked
+         * @param readLocks
+         *            number of read locks
+         */
+        Entry(final BigInteger key, final ErlangValue value,
+                final long version, final boolean writeLocked,
+                final int readLocks) {
+            this.key = key;
+            this.value = value;
+            this.version = version;
+            this.writeLocked = writeLocked;
+            this.readLocks = readLocks;
+        }
+
+        /**
+         * Gets the position of the entry in the key space, i.e. the hashed
+         * key. If all replicas are read, this is the position in the first
+         * quarter of the key space.
+         *
+         * @return the hashed key
+         */
+        public BigInteger getKey() {
+            return key;
+        }
+
+        /**
+         * Gets the value of the entry.
+         *
+         * @return the value
+         */
+        public ErlangValue getValue() {
+            return value;
+        }
+
+        /**
+         * Gets the version of the value.
+         *
+         * @return the version
+         */
+        public long getVersion() {
+            return version;
+        }
+
+        /**
+         * Gets whether the entry was write-locked when it was read.
+         *
+         * @return <tt>true</tt> if a write lock was set
+         */
+        public boolean isWriteLocked() {
+            return writeLocked;
+        }
+
+        /**
+         * Gets the number of read locks set when the entry was read.
+         *
+         * @return the number of read locks
+         */
+        public int getReadLocks() {
+            return readLocks;
+        }
+
+        @Override
+        public String toString() {
+            return key.toString(16) + " (version " + version + "): " + value.value();
+        }
+    }
+
+    /**
+     * Statistics of a single segment of the scan.
+     *
+     * @author Nico Kruber, kruber@zib.de
+     * @version 3.6
+     * @since 3.6
+     */
+    public static class SegmentStatistics {
+        private final int segment;
+        private final BigInteger from;
+        private final BigInteger to;
+        private final int entries;
+        private final int attempts;
+        private final long durationNs;
+
+        /**
+         * Creates a new statistics object.
+         *
+         * @param segment
+         *            index of the segment
+         * @param from
+         *            first key of the segment (inclusive)
+         * @param to
+         *            last key of the segment (inclusive)
+         * @param entries
+         *            number of (non-empty) entries read
+         * @param attempts
+         *            number of range reads (including re-tries)
+         * @param durationNs
+         *            time needed to read the segment (in nanoseconds)
+         */
+        SegmentStatistics(final int segment, final BigInteger from,
+                final BigInteger to, final int entries, final int attempts,
+                final long durationNs) {
+            this.segment = segment;
+            this.from = from;
+            this.to = to;
+            this.entries = entries;
+            this.attempts = attempts;
+            this.durationNs = durationNs;
+        }
+
+        /**
+         * @return the index of the segment
+         */
+        public int getSegment() {
+            return segment;
+        }
+
+        /**
+         * @return the first key of the segment (inclusive)
+         */
+        public BigInteger getFrom() {
+            return from;
+        }
+
+        /**
+         * @return the last key of the segment (inclusive)
+         */
+        public BigInteger getTo() {
+            return to;
+        }
+
+        /**
+         * @return the number of (non-empty) entries read
+         */
+        public int getEntries() {
+            return entries;
+        }
+
+        /**
+         * @return the number of range reads including re-tries (per replica
+         *         quarter)
+         */
+        public int getAttempts() {
+            return attempts;
+        }
+
+        /**
+         * @return the time needed to read the segment (in nanoseconds),
+         *         excluding the time waiting for the application to consume
+         *         the entries
+         */
+        public long getDurationNs() {
+            return durationNs;
+        }
+
+        /**
+         * @return the number of entries read per second
+         */
+        public double getEntriesPerSecond() {
+            return (entries * 1000000000.0) / Math.max(1, durationNs);
+        }
+
+        @Override
+        public String toString() {
+            return "segment " + segment + ": " + entries + " entries in "
+                    + (durationNs / 1000000) + "ms ("
+                    + Math.round(getEntriesPerSecond()) + " entries/s, "
+                    + attempts + " attempts)";
+        }
+    }
+
+    /**
+     * A failed segment in the buffer.
+     */
+    private static class Failure {
+        private final Exception cause;
+
+        Failure(final Exception cause) {
+            this.cause = cause;
+        }
+    }
+
+    private final ConnectionPool pool;
+    private int segments = 16;
+    private int parallelism = 4;
+    private int bufferSize = 1000;
+    private int retries = 2;
+    private boolean readAllReplicas = false;
+
+    private BlockingQueue<Object> buffer = null;
+    private ExecutorService workers = null;
+    private volatile boolean closed = false;
+    private int segmentsDone = 0;
+    private Entry nextEntry = null;
+    private final List<SegmentStatistics> statistics =
+            Collections.synchronizedList(new ArrayList<SegmentStatistics>());
+
+    /**
+     * Creates a new scan using connections of the given pool. The scan
+     * starts with the first call to {@link #hasNext()} or {@link #next()}.
+     *
+     * @param pool
+     *            the pool to borrow connections from
+     */
+    public RangeScan(final ConnectionPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Gets the number of segments the key space is split into.
+     *
+     * @return the number of segments
+     */
+    public int getSegments() {
+        return segments;
+    }
+
+    /**
+     * Sets the number of segments the key space is split into (default:
+     * 16). Each segment is read with a single RPC, i.e. all of its entries
+     * are held in memory at once. Up to {@link #getParallelism()} segments
+     * are read at the same time.
+     *
+     * @param segments
+     *            the number of segments (at least <tt>1</tt>)
+     */
+    public void setSegments(final int segments) {
+        checkNotStarted();
+        this.segments = Math.max(1, segments);
+    }
+
+    /**
+     * Gets the number of segments read in parallel.
+     *
+     * @return the number of worker threads
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Sets the number of segments read in parallel (default: 4). Each worker
+     * thread borrows its own connection from the pool.
+     *
+     * @param parallelism
+     *            the number of worker threads (at least <tt>1</tt>)
+     */
+    public void setParallelism(final int parallelism) {
+        checkNotStarted();
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Gets the maximum number of entries buffered for the application.
+     *
+     * @return the buffer size
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Sets the maximum number of entries buffered for the application
+     * (default: 1000).
+     *
+     * @param bufferSize
+     *            the buffer size (at least <tt>1</tt>)
+     */
+    public void setBufferSize(final int bufferSize) {
+        checkNotStarted();
+        this.bufferSize = Math.max(1, bufferSize);
+    }
+
+    /**
+     * Gets the number of re-tries for segments timing out.
+     *
+     * @return the number of re-tries
+     */
+    public int getRetries() {
+        return retries;
+    }
+
+    /**
+     * Sets the number of re-tries for segments timing out (default: 2).
+     *
+     * @param retries
+     *            the number of re-tries
+     */
+    public void setRetries(final int retries) {
+        checkNotStarted();
+        this.retries = Math.max(0, retries);
+    }
+
+    /**
+     * Gets whether all four replicas of each item are read.
+     *
+     * @return <tt>true</tt> if all replicas are read
+     */
+    public boolean isReadAllReplicas() {
+        return readAllReplicas;
+    }
+
+    /**
+     * Sets whether all four replicas of each item are read (default:
+     * <tt>false</tt>). If set, each segment is read in all four quarters of
+     * the key space and only the replica with the highest version is
+     * returned. This needs four times as many range reads but also returns
+     * items whose first replica is outdated or missing.
+     *
+     * @param readAllReplicas
+     *            whether to read all replicas
+     */
+    public void setReadAllReplicas(final boolean readAllReplicas) {
+        checkNotStarted();
+        this.readAllReplicas = readAllReplicas;
+    }
+
+    /**
+     * Gets the statistics of all segments read completely so far (sorted by
+     * the segment index).
+     *
+     * @return a list of segment statistics
+     */
+    public List<SegmentStatistics> getStatistics() {
+        final List<SegmentStatistics> result;
+        synchronized (statistics) {
+            result = new ArrayList<SegmentStatistics>(statistics);
+        }
+        Collections.sort(result, new Comparator<SegmentStatistics>() {
+            public int compare(final SegmentStatistics o1, final SegmentStatistics o2) {
+                return (o1.segment < o2.segment) ? -1 : ((o1.segment == o2.segment) ? 0 : 1);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Throws an {@link IllegalStateException} if the scan has already been
+     * started.
+     */
+    private void checkNotStarted() {
+        if (buffer != null) {
+            throw new IllegalStateException("scan already started");
+        }
+    }
+
+    /**
+     * Starts the worker threads (if not already done).
+     */
+    private void start() {
+        if (buffer != null) {
+            return;
+        }
+        buffer = new ArrayBlockingQueue<Object>(bufferSize);
+        workers = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+            private int count = 0;
+            public synchronized Thread newThread(final Runnable r) {
+                final Thread t = new Thread(r, "RangeScan-" + (++count));
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        final BigInteger[][] ranges = getSegmentRanges(segments);
+        for (int i = 0; i < ranges.length; ++i) {
+            final int segment = i;
+            final BigInteger from = ranges[i][0];
+            final BigInteger to = ranges[i][1];
+            workers.execute(new Runnable() {
+                public void run() {
+                    readSegment(segment, from, to);
+                }
+            });
+        }
+        workers.shutdown();
+    }
+
+    /**
+     * Reads a single segment and puts its entries into the buffer. Runs in
+     * a worker thread.
+     *
+     * @param segment
+     *            index of the segment
+     * @param from
+     *            first key of the segment (inclusive)
+     * @param to
+     *            last key of the segment (inclusive)
+     */
+    private void readSegment(final int segment, final BigInteger from,
+            final BigInteger to) {
+        try {
+            if (closed) {
+                return;
+            }
+            final long start = System.nanoTime();
+            final List<Entry> entries = new ArrayList<Entry>();
+            int attempts = 0;
+            final int quarters = readAllReplicas ? 4 : 1;
+            Connection conn = null;
+            try {
+                conn = pool.borrowConnection();
+                for (int q = 0; q < quarters; ++q) {
+                    final BigInteger offset = QUARTER.multiply(BigInteger.valueOf(q));
+                    attempts += rangeRead(conn, from.add(offset), to.add(offset), retries, entries);
+                }
+            } finally {
+                pool.returnConnection(conn);
+            }
+            final Collection<Entry> result = readAllReplicas ? mergeReplicas(entries) : entries;
+            statistics.add(new SegmentStatistics(segment, from, to,
+                    result.size(), attempts, System.nanoTime() - start));
+            for (final Entry entry : result) {
+                buffer.put(entry);
+            }
+            buffer.put(segmentDone);
+        } catch (final InterruptedException e) {
+            // scan closed
+        } catch (final Exception e) {
+            try {
+                buffer.put(new Failure(e));
+            } catch (final InterruptedException e1) {
+                // scan closed
+            }
+        }
+    }
+
+    /**
+     * Reads all entries between <tt>from</tt> and <tt>to</tt> (inclusive)
+     * re-trying the range read on time-outs.
+     *
+     * @param conn
+     *            the connection to use
+     * @param from
+     *            first key (inclusive)
+     * @param to
+     *            last key (inclusive)
+     * @param retries
+     *            number of re-tries on time-outs
+     * @param entries
+     *            list to add the (non-empty) entries to
+     *
+     * @return the number of range reads
+     *
+     * @throws ConnectionException
+     *             if the connection fails
+     * @throws TimeoutException
+     *             if the range read timed out in all attempts
+     * @throws UnknownException
+     *             if any other error occurs
+     */
+    static int rangeRead(final Connection conn, final BigInteger from,
+            final BigInteger to, final int retries, final List<Entry> entries)
+            throws ConnectionException, TimeoutException, UnknownException {
+        int attempt = 0;
+        while (true) {
+            ++attempt;
+            final OtpErlangObject received_raw = conn.doRPC("api_dht_raw", "range_read",
+                    new OtpErlangObject[] { new OtpErlangLong(from), new OtpErlangLong(to) });
+            try {
+                final OtpErlangTuple received = (OtpErlangTuple) received_raw;
+                if (received.arity() != 2) {
+                    throw new UnknownException(received_raw);
+                }
+                if (received.elementAt(0).equals(CommonErlangObjects.timeoutAtom)) {
+                    if (attempt > retries) {
+                        throw new TimeoutException(received_raw);
+                    }
+                    continue;
+                }
+                if (!received.elementAt(0).equals(CommonErlangObjects.okAtom)) {
+                    throw new UnknownException(received_raw);
+                }
+                final OtpErlangList list = (OtpErlangList) received.elementAt(1);
+                for (final OtpErlangObject o : list) {
+                    final Entry entry = toEntry(o);
+                    if (entry != null) {
+                        entries.add(entry);
+                    }
+                }
+                return attempt;
+            } catch (final ClassCastException e) {
+                throw new UnknownException(e, received_raw);
+            } catch (final OtpErlangException e) {
+                throw new UnknownException(e, received_raw);
+            }
+        }
+    }
+
+    /**
+     * Converts a <tt>db_entry</tt> to an {@link Entry}.
+     *
+     * The value is stored the way <tt>api_tx:encode_value/1</tt> encoded
+     * it and is decoded like <tt>api_tx:decode_value/1</tt>, see
+     * {@link #decodeValue(OtpErlangObject)}.
+     *
+     * @param dbEntry
+     *            the erlang tuple <tt>{Key, Value, WriteLock, ReadLock,
+     *            Version}</tt>
+     *
+     * @return the entry or <tt>null</tt> if the entry is empty
+     *
+     * @throws ClassCastException
+     *             if the erlang object is no valid <tt>db_entry</tt>
+     * @throws OtpErlangException
+     *             if a number is out of range or the value can not be
+     *             decoded
+     */
+    static Entry toEntry(final OtpErlangObject dbEntry)
+            throws ClassCastException, OtpErlangException {
+        final OtpErlangTuple tuple = (OtpErlangTuple) dbEntry;
+        if (tuple.arity() != 5) {
+            throw new ClassCastException("no db_entry: " + dbEntry);
+        }
+        final long version = ((OtpErlangLong) tuple.elementAt(4)).longValue();
+        final OtpErlangObject value = tuple.elementAt(1);
+        if ((version < 0) || value.equals(emptyValAtom)) {
+            return null;
+        }
+        return new Entry(((OtpErlangLong) tuple.elementAt(0)).bigIntegerValue(),
+                new ErlangValue(decodeValue(value)), version,
+                tuple.elementAt(2).equals(trueAtom),
+                ((OtpErlangLong) tuple.elementAt(3)).intValue());
+    }
+
+    /**
+     * Decodes a value as stored in the database, i.e. reverses
+     * <tt>api_tx:encode_value/1</tt>: atoms and numbers are stored as they
+     * are, any other value in the erlang external term format.
+     *
+     * @param value
+     *            the stored value
+     *
+     * @return the value as written by the client
+     *
+     * @throws OtpErlangException
+     *             if the value can not be decoded
+     */
+    static OtpErlangObject decodeValue(final OtpErlangObject value)
+            throws OtpErlangException {
+        if (value instanceof OtpErlangBinary) {
+            return new OtpInputStream(((OtpErlangBinary) value).binaryValue()).read_any();
+        }
+        return value;
+    }
+
+    /**
+     * Gets the position of the given key in the first quarter of the key
+     * space as returned by {@link Entry#getKey()}, i.e.
+     * {@link RingTopology#hashKey(String)} without its two highest bits.
+     *
+     * @param key
+     *            the key used by the application
+     *
+     * @return the position in the first quarter of the key space
+     */
+    public static BigInteger hashKey(final String key) {
+        return RingTopology.hashKey(key).mod(QUARTER);
+    }
+
+    /**
+     * Splits the first quarter of the key space into <tt>segments</tt>
+     * contiguous ranges.
+     *
+     * @param segments
+     *            number of segments
+     *
+     * @return the first and last key (inclusive) of each segment
+     */
+    static BigInteger[][] getSegmentRanges(final int segments) {
+        final BigInteger[][] result = new BigInteger[segments][];
+        final BigInteger n = BigInteger.valueOf(segments);
+        BigInteger from = BigInteger.ZERO;
+        for (int i = 0; i < segments; ++i) {
+            final BigInteger next = QUARTER.multiply(BigInteger.valueOf(i + 1)).divide(n);
+            result[i] = new BigInteger[] { from, next.subtract(BigInteger.ONE) };
+            from = next;
+        }
+        return result;
+    }
+
+    /**
+     * Merges the replicas of all items, i.e. maps the keys to the first
+     * quarter of the key space and keeps the entry with the highest version
+     * for each key.
+     *
+     * @param entries
+     *            entries read from (any of) the four quarters
+     *
+     * @return the entries with the highest version per key
+     */
+    static Collection<Entry> mergeReplicas(final List<Entry> entries) {
+        final Map<BigInteger, Entry> result = new HashMap<BigInteger, Entry>(entries.size());
+        for (final Entry entry : entries) {
+            final BigInteger key = entry.key.mod(QUARTER);
+            final Entry old = result.get(key);
+            if ((old == null) || (old.version < entry.version)) {
+                result.put(key, new Entry(key, entry.value, entry.version,
+                        entry.writeLocked, entry.readLocks));
+            }
+        }
+        return result.values();
+    }
+
+    /**
+     * Checks whether there are more entries, waiting for the workers if
+     * necessary.
+     *
+     * @return <tt>true</tt> if {@link #next()} will return an entry
+     *
+     * @throws UnknownException
+     *             if reading a segment failed or the scan was interrupted
+     */
+    public boolean hasNext() throws UnknownException {
+        if (nextEntry != null) {
+            return true;
+        }
+        if (closed) {
+            return false;
+        }
+        start();
+        while (segmentsDone < segments) {
+            final Object o;
+            try {
+                o = buffer.take();
+            } catch (final InterruptedException e) {
+                close();
+                throw new UnknownException(e);
+            }
+            if (o == segmentDone) {
+                ++segmentsDone;
+            } else if (o instanceof Failure) {
+                close();
+                final Exception cause = ((Failure) o).cause;
+                final UnknownException e = new UnknownException(cause);
+                e.initCause(cause);
+                throw e;
+            } else {
+                nextEntry = (Entry) o;
+                return true;
+            }
+        }
+        close();
+        return false;
+    }
+
+    /**
+     * Gets the next entry of the scan.
+     *
+     * @return the next entry
+     *
+     * @throws NoSuchElementException
+     *             if there are no more entries
+     * @throws UnknownException
+     *             if reading a segment failed or the scan was interrupted
+     */
+    public Entry next() throws NoSuchElementException, UnknownException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        final Entry result = nextEntry;
+        nextEntry = null;
+        return result;
+    }
+
+    /**
+     * Not supported.
+     *
+     * @throws UnsupportedOperationException
+     *             always
+     */
+    public void remove() throws UnsupportedOperationException {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Stops the scan and the worker threads. Entries not consumed yet are
+     * discarded.
+     */
+    public void close() {
+        closed = true;
+        nextEntry = null;
+        if (workers != null) {
+            workers.shutdownNow();
+            buffer.clear();
+        }
+    }
+}
@@ -0,0 +1,369 @@
+/**
+ *  Copyright 2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.ericsson.otp.erlang.OtpErlangList;
+import com.ericsson.otp.erlang.OtpErlangObject;
+
+/**
+ * Settings and statistics of hedged (speculative) reads.
+ *
+ * If a read has not returned within a given percentile of the recent read
+ * latencies, the same request is sent over a second connection to a different
+ * node. The first reply wins, the other one is discarded. This is safe since
+ * reads are idempotent and cuts the tail latency caused by a single slow node.
+ *
+ * <pre>
+ * <code style="white-space:pre;">
+ *   ReadHedging hedging = new ReadHedging(0.95);
+ *   TransactionSingleOp sc = new TransactionSingleOp(conn1);
+ *   sc.setReadHedging(hedging, conn2); // {@link TransactionSingleOp#setReadHedging(ReadHedging, Connection)}
+ *   String value = sc.read(key).stringValue();
+ *   double rate = hedging.getHedgeRate();
+ * </code>
+ * </pre>
+ *
+ * A single object may be shared by several {@link TransactionSingleOp}
+ * objects (and threads) in which case their latencies and statistics are
+ * combined.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ * @version 3.6
+ * @since 3.6
+ */
+public class ReadHedging {
+    /**
+     * Recent latencies of the primary requests (ring buffer).
+     */
+    private final AtomicLongArray samples;
+    /**
+     * Total number of latency samples.
+     */
+    private final AtomicLong sampleCount = new AtomicLong(0);
+    /**
+     * The percentile of the recent latencies after which a read is hedged.
+     */
+    private volatile double percentile;
+    /**
+     * Minimum delay (in nanoseconds) before a read is hedged.
+     */
+    private volatile long minDelayNs = TimeUnit.MILLISECONDS.toNanos(1);
+    /**
+     * Delay (in nanoseconds) before a read is hedged as long as there are too
+     * few samples.
+     */
+    private volatile long initialDelayNs = TimeUnit.MILLISECONDS.toNanos(50);
+    /**
+     * The current delay before a read is hedged (in nanoseconds).
+     */
+    private volatile long thresholdNs;
+
+    private final AtomicLong reads = new AtomicLong(0);
+    private final AtomicLong hedgedReads = new AtomicLong(0);
+    private final AtomicLong hedgeWins = new AtomicLong(0);
+
+    /**
+     * Creates a new hedging object using the last 1024 read latencies.
+     *
+     * @param percentile
+     *            the percentile of the recent latencies after which a read
+     *            is hedged (<tt>0 &lt; percentile &lt; 1</tt>, e.g. 0.95)
+     */
+    public ReadHedging(final double percentile) {
+        this(percentile, 1024);
+    }
+
+    /**
+     * Creates a new hedging object.
+     *
+     * @param percentile
+     *            the percentile of the recent latencies after which a read
+     *            is hedged (<tt>0 &lt; percentile &lt; 1</tt>, e.g. 0.95)
+     * @param window
+     *            the number of recent latencies to consider
+     */
+    public ReadHedging(final double percentile, final int window) {
+        setPercentile(percentile);
+        if (window < 1) {
+            throw new IllegalArgumentException("window must be positive: " + window);
+        }
+        samples = new AtomicLongArray(window);
+        thresholdNs = initialDelayNs;
+    }
+
+    /**
+     * Sends the given RPC over the primary connection and, if it does not
+     * return in time, also over the secondary connection (if connected to a
+     * different node). Returns the first reply.
+     *
+     * @param primary
+     *            the connection to use first
+     * @param secondary
+     *            the connection to use for the hedged request (may be
+     *            <tt>null</tt>)
+     * @param mod
+     *            the module of the function to call
+     * @param fun
+     *            the function to call
+     * @param args
+     *            the function's arguments
+     *
+     * @return the result of the call
+     *
+     * @throws ConnectionException
+     *             if the connection is not active, a communication error
+     *             occurs, an exit signal is received from a process on the
+     *             peer node or the remote node sends a message containing an
+     *             invalid cookie
+     */
+    OtpErlangObject doRPC(final Connection primary, final Connection secondary,
+            final String mod, final String fun, final OtpErlangList args)
+            throws ConnectionException {
+        reads.incrementAndGet();
+        final long start = System.nanoTime();
+        final AsyncResult<OtpErlangObject> primaryResult = primary.doRPCAsync(mod, fun, args);
+        primaryResult.addCallback(new ResultCallback<OtpErlangObject>() {
+            public void onSuccess(final OtpErlangObject result) {
+                addSample(System.nanoTime() - start);
+            }
+
+            public void onFailure(final Exception e) {
+            }
+        });
+        try {
+            return primaryResult.get(thresholdNs, TimeUnit.NANOSECONDS);
+        } catch (final java.util.concurrent.TimeoutException e) {
+            // hedge the request (see below)
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConnectionException(e);
+        } catch (final ExecutionException e) {
+            return Connection.waitForRPC(primaryResult);
+        }
+
+        if ((secondary == null) || (secondary.getRemote() == primary.getRemote())) {
+            return Connection.waitForRPC(primaryResult);
+        }
+        final AsyncResult<OtpErlangObject> secondaryResult;
+        try {
+            secondaryResult = secondary.doRPCAsync(mod, fun, args);
+        } catch (final ConnectionException e) {
+            return Connection.waitForRPC(primaryResult);
+        }
+        hedgedReads.incrementAndGet();
+
+        final AsyncResult<OtpErlangObject> first = new AsyncResult<OtpErlangObject>();
+        final AtomicInteger failures = new AtomicInteger(0);
+        primaryResult.addCallback(new ResultCallback<OtpErlangObject>() {
+            public void onSuccess(final OtpErlangObject result) {
+                first.complete(result);
+            }
+
+            public void onFailure(final Exception e) {
+                if (failures.incrementAndGet() == 2) {
+                    first.fail(e);
+                }
+            }
+        });
+        secondaryResult.addCallback(new ResultCallback<OtpErlangObject>() {
+            public void onSuccess(final OtpErlangObject result) {
+                if (first.complete(result)) {
+                    hedgeWins.incrementAndGet();
+                }
+            }
+
+            public void onFailure(final Exception e) {
+                if (failures.incrementAndGet() == 2) {
+                    first.fail(e);
+                }
+            }
+        });
+        return Connection.waitForRPC(first);
+    }
+
+    /**
+     * Adds a latency sample of a primary request and updates the threshold
+     * from time to time.
+     *
+     * @param latencyNs
+     *            the latency in nanoseconds
+     */
+    void addSample(final long latencyNs) {
+        final long count = sampleCount.getAndIncrement();
+        samples.set((int) (count % samples.length()), latencyNs);
+        final int recomputeEvery = Math.max(1, samples.length() / 16);
+        if (((count + 1) % recomputeEvery) == 0) {
+            updateThreshold();
+        }
+    }
+
+    /**
+     * Re-calculates the threshold from the current samples.
+     */
+    private void updateThreshold() {
+        final int count = (int) Math.min(sampleCount.get(), samples.length());
+        if (count < Math.min(20, samples.length())) {
+            thresholdNs = initialDelayNs;
+            return;
+        }
+        final long[] sorted = new long[count];
+        for (int i = 0; i < count; ++i) {
+            sorted[i] = samples.get(i);
+        }
+        Arrays.sort(sorted);
+        final int index = Math.min(count - 1, (int) Math.ceil(percentile * count) - 1);
+        thresholdNs = Math.max(minDelayNs, sorted[Math.max(0, index)]);
+    }
+
+    /**
+     * Gets the delay after which reads are currently hedged.
+     *
+     * @return the delay in nanoseconds
+     */
+    public long getThresholdNs() {
+        return thresholdNs;
+    }
+
+    /**
+     * Gets the percentile of the recent latencies after which a read is
+     * hedged.
+     *
+     * @return the percentile
+     */
+    public double getPercentile() {
+        return percentile;
+    }
+
+    /**
+     * Sets the percentile of the recent latencies after which a read is
+     * hedged.
+     *
+     * @param percentile
+     *            the percentile (<tt>0 &lt; percentile &lt; 1</tt>)
+     */
+    public void setPercentile(final double percentile) {
+        if ((percentile <= 0.0) || (percentile >= 1.0)) {
+            throw new IllegalArgumentException("percentile must be in (0, 1): " + percentile);
+        }
+        this.percentile = percentile;
+    }
+
+    /**
+     * Gets the minimum delay before a read is hedged.
+     *
+     * @return the delay in milliseconds
+     */
+    public long getMinDelay() {
+        return TimeUnit.NANOSECONDS.toMillis(minDelayNs);
+    }
+
+    /**
+     * Sets the minimum delay before a read is hedged.
+     *
+     * @param minDelay
+     *            the delay in milliseconds
+     */
+    public void setMinDelay(final long minDelay) {
+        this.minDelayNs = TimeUnit.MILLISECONDS.toNanos(minDelay);
+    }
+
+    /**
+     * Gets the delay before a read is hedged as long as there are less than
+     * 20 latency samples.
+     *
+     * @return the delay in milliseconds
+     */
+    public long getInitialDelay() {
+        return TimeUnit.NANOSECONDS.toMillis(initialDelayNs);
+    }
+
+    /**
+     * Sets the delay before a read is hedged as long as there are less than
+     * 20 latency samples.
+     *
+     * @param initialDelay
+     *            the delay in milliseconds
+     */
+    public void setInitialDelay(final long initialDelay) {
+        this.initialDelayNs = TimeUnit.MILLISECONDS.toNanos(initialDelay);
+        if (sampleCount.get() < 20) {
+            thresholdNs = initialDelayNs;
+        }
+    }
+
+    /**
+     * Gets the number of reads issued with hedging enabled.
+     *
+     * @return the number of reads
+     */
+    public long getReads() {
+        return reads.get();
+    }
+
+    /**
+     * Gets the number of reads which have been sent a second time.
+     *
+     * @return the number of hedged reads
+     */
+    public long getHedgedReads() {
+        return hedgedReads.get();
+    }
+
+    /**
+     * Gets the number of hedged reads where the second request returned
+     * first.
+     *
+     * @return the number of wins
+     */
+    public long getHedgeWins() {
+        return hedgeWins.get();
+    }
+
+    /**
+     * Gets the fraction of reads which have been hedged.
+     *
+     * @return the hedge rate (<tt>0</tt> if there were no reads)
+     */
+    public double getHedgeRate() {
+        final long r = reads.get();
+        return (r == 0) ? 0.0 : ((double) hedgedReads.get() / r);
+    }
+
+    /**
+     * Gets the fraction of hedged reads where the second request returned
+     * first.
+     *
+     * @return the win rate (<tt>0</tt> if there were no hedged reads)
+     */
+    public double getHedgeWinRate() {
+        final long h = hedgedReads.get();
+        return (h == 0) ? 0.0 : ((double) hedgeWins.get() / h);
+    }
+
+    @Override
+    public String toString() {
+        return "reads=" + reads.get() + ", hedged=" + hedgedReads.get()
+                + ", hedgeWins=" + hedgeWins.get() + ", threshold="
+                + thresholdNs + "ns";
+    }
+}
@@ -49,6 +49,19 @@ import com.ericsson.otp.erlang.OtpErlangTuple;
  * </code>
  * </pre>
  *
+ * <h3>Asynchronous operations</h3>
+ *
+ * {@link #deleteAsync(String, int)} returns an {@link AsyncResult} right after
+ * the request has been sent, see
+ * {@link Connection#doRPCAsync(String, String, OtpErlangList)}. It does not
+ * change the result returned by {@link #getLastDeleteResult()}.
+ *
+ * <h3>Near cache</h3>
+ *
+ * Deleted keys are removed from the {@link NearCache} set via
+ * {@link #setNearCache(NearCache)}, i.e. the cache used by the
+ * {@link TransactionSingleOp} objects reading these keys.
+ *
  * <h3>Connection errors</h3>
  *
  * Errors when setting up connections or trying to send/receive RPCs will be
@@ -59,7 +72,7 @@ import com.ericsson.otp.erlang.OtpErlangTuple;
  * number of automatic retries is adjustable (default: 3).
  *
  * @author Nico Kruber, kruber@zib.de
- * @version 3.4
+ * @version 3.6
  * @since 2.6
  */
 public class ReplicatedDHT {
@@ -75,6 +88,11 @@ public class ReplicatedDHT {
      */
     private final Connection connection;
 
+    /**
+     * Cache to invalidate deleted keys in (<tt>null</tt> if disabled).
+     */
+    private volatile NearCache nearCache = null;
+
     /**
      * Constructor, uses the default connection returned by
      * {@link ConnectionFactory#createConnection()}.
@@ -158,8 +176,14 @@ public class ReplicatedDHT {
     public int delete(final OtpErlangString key, final int timeout) throws ConnectionException,
     TimeoutException, UnknownException {
         lastDeleteResult = null;
-        final OtpErlangObject received_raw = connection.doRPC("api_rdht", "delete",
-                new OtpErlangObject[] { key, new OtpErlangInt(timeout) });
+        final OtpErlangObject received_raw;
+        try {
+            received_raw = connection.doRPC("api_rdht", "delete",
+                    new OtpErlangObject[] { connection.encodeStrings(key), new OtpErlangInt(timeout) });
+        } finally {
+            // the delete may have been executed even if the reply got lost
+            deleted(key);
+        }
         try {
             final OtpErlangTuple received = (OtpErlangTuple) received_raw;
             final OtpErlangAtom state = (OtpErlangAtom) received.elementAt(0);
@@ -249,6 +273,100 @@ public class ReplicatedDHT {
         return delete(new OtpErlangString(key), timeout);
     }
 
+    /**
+     * Tries to delete all replicas of the given <tt>key</tt> asynchronously.
+     *
+     * WARNING: This function can lead to inconsistent data (e.g. deleted items
+     * can re-appear). Also when re-creating an item the version before the
+     * delete can re-appear.
+     *
+     * The result fails with a {@link TimeoutException} if a timeout occurred
+     * while trying to delete the value or with an {@link UnknownException} if
+     * any other error occurs.
+     *
+     * @param key
+     *            the key to delete
+     * @param timeout
+     *            the time (in milliseconds) to wait for results
+     *
+     * @return the (future) result of the delete operation
+     *
+     * @throws ConnectionException
+     *             if the connection is not active or a communication error
+     *             occurs while sending or the remote node sends a message
+     *             containing an invalid cookie
+     *
+     * @since 3.6
+     *
+     * @see #delete(OtpErlangString, int)
+     */
+    public AsyncResult<DeleteResult> deleteAsync(final OtpErlangString key,
+            final int timeout) throws ConnectionException {
+        final AsyncResult<OtpErlangObject> result;
+        try {
+            result = connection.doRPCAsync("api_rdht", "delete",
+                    new OtpErlangObject[] { connection.encodeStrings(key), new OtpErlangInt(timeout) });
+        } catch (final ConnectionException e) {
+            deleted(key);
+            throw e;
+        }
+        result.addCallback(new ResultCallback<OtpErlangObject>() {
+            public void onSuccess(final OtpErlangObject value) {
+                deleted(key);
+            }
+
+            public void onFailure(final Exception e) {
+                // the delete may have been executed even if the reply got lost
+                deleted(key);
+            }
+        });
+        return AsyncResult.convert(result,
+                new AsyncResult.Converter<OtpErlangObject, DeleteResult>() {
+                    public DeleteResult convert(final OtpErlangObject received_raw)
+                            throws TimeoutException, UnknownException {
+                        try {
+                            final OtpErlangTuple received = (OtpErlangTuple) received_raw;
+                            final OtpErlangAtom state = (OtpErlangAtom) received.elementAt(0);
+                            if (state.equals(CommonErlangObjects.okAtom) && (received.arity() == 3)) {
+                                return new DeleteResult((OtpErlangList) received.elementAt(2));
+                            } else if (state.equals(CommonErlangObjects.failAtom)
+                                    && (received.arity() == 4)
+                                    && received.elementAt(1).equals(CommonErlangObjects.timeoutAtom)) {
+                                throw new TimeoutException(received_raw);
+                            }
+                            throw new UnknownException(received_raw);
+                        } catch (final ClassCastException e) {
+                            // e.printStackTrace();
+                            throw new UnknownException(e, received_raw);
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Tries to delete all replicas of the given <tt>key</tt> asynchronously.
+     *
+     * @param key
+     *            the key to delete
+     * @param timeout
+     *            the time (in milliseconds) to wait for results
+     *
+     * @return the (future) result of the delete operation
+     *
+     * @throws ConnectionException
+     *             if the connection is not active or a communication error
+     *             occurs while sending or the remote node sends a message
+     *             containing an invalid cookie
+     *
+     * @since 3.6
+     *
+     * @see #deleteAsync(OtpErlangString, int)
+     */
+    public AsyncResult<DeleteResult> deleteAsync(final String key,
+            final int timeout) throws ConnectionException {
+        return deleteAsync(new OtpErlangString(key), timeout);
+    }
+
     /**
      * Returns the result of the last call to {@link #delete(String)}.
      *
@@ -271,6 +389,43 @@ public class ReplicatedDHT {
         }
     }
 
+    /**
+     * Sets the cache to remove deleted keys from. Should be the cache used
+     * by the {@link TransactionSingleOp} objects reading these keys.
+     *
+     * @param nearCache
+     *            the cache to use (<tt>null</tt> to disable invalidation)
+     *
+     * @since 3.6
+     */
+    public void setNearCache(final NearCache nearCache) {
+        this.nearCache = nearCache;
+    }
+
+    /**
+     * Gets the cache deleted keys are removed from.
+     *
+     * @return the cache or <tt>null</tt> if disabled
+     *
+     * @since 3.6
+     */
+    public NearCache getNearCache() {
+        return nearCache;
+    }
+
+    /**
+     * Invalidates the given key in the near cache (if set) after a delete.
+     *
+     * @param key
+     *            the deleted key
+     */
+    private void deleted(final OtpErlangString key) {
+        final NearCache nearCache0 = nearCache;
+        if (nearCache0 != null) {
+            nearCache0.written(key.stringValue());
+        }
+    }
+
     /**
      * Closes the transaction's connection to a scalaris node.
      *
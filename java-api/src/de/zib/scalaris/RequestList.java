@@ -157,6 +157,58 @@ public abstract class RequestList {
         return new OtpErlangList(requests.toArray(new OtpErlangObject[0]));
     }
 
+    /**
+     * Gets the whole request list as erlang terms as required by
+     * <code>api_tx:req_list/2</code> with keys and values encoded as
+     * configured for the given connection (see
+     * {@link Connection#setBinaryStrings(boolean)}).
+     *
+     * @param connection
+     *            the connection the requests will be sent with
+     *
+     * @return an erlang list of requests
+     *
+     * @since 3.6
+     */
+    OtpErlangList getErlangReqList(final Connection connection) {
+        if (!connection.isBinaryStrings()) {
+            return getErlangReqList();
+        }
+        final OtpErlangObject[] result = new OtpErlangObject[requests.size()];
+        for (int i = 0; i < result.length; ++i) {
+            final OtpErlangTuple req = (OtpErlangTuple) requests.get(i);
+            final OtpErlangObject[] elements = req.elements();
+            // first element is the operation, e.g. 'read' or 'write'
+            for (int j = 1; j < elements.length; ++j) {
+                elements[j] = connection.encodeStrings(elements[j]);
+            }
+            result[i] = new OtpErlangTuple(elements);
+        }
+        return new OtpErlangList(result);
+    }
+
+    /**
+     * Gets the keys of all write operations in the list.
+     *
+     * @return the written keys (keys which are no strings are left out)
+     *
+     * @since 3.6
+     */
+    List<String> getWrittenKeys() {
+        final List<String> keys = new ArrayList<String>();
+        for (final OtpErlangObject req : requests) {
+            final OtpErlangTuple tuple = (OtpErlangTuple) req;
+            if (tuple.elementAt(0).equals(CommonErlangObjects.writeAtom)) {
+                try {
+                    keys.add(new ErlangValue(tuple.elementAt(1)).stringValue());
+                } catch (final ClassCastException e) {
+                    // such keys cannot be read through a near cache
+                }
+            }
+        }
+        return keys;
+    }
+
     /**
      * Returns whether the transactions contains a commit or not.
      *
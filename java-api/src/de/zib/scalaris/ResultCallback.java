@@ -0,0 +1,53 @@
+/**
+ *  Copyright 2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+/**
+ * Callback that is notified once an asynchronous operation has finished.
+ *
+ * Note: callbacks are executed by the thread that completes the operation,
+ * i.e. usually the receiver thread of a {@link Connection}. They should
+ * therefore return quickly and must not issue synchronous calls on the same
+ * connection. {@link RuntimeException}s thrown by a callback are ignored.
+ *
+ * @param <T>
+ *            the type of the result
+ *
+ * @author Nico Kruber, kruber@zib.de
+ * @version 3.6
+ * @since 3.6
+ *
+ * @see AsyncResult#addCallback(ResultCallback)
+ */
+public interface ResultCallback<T> {
+    /**
+     * Will be called if the operation succeeded.
+     *
+     * @param result
+     *            the result of the operation
+     */
+    public abstract void onSuccess(T result);
+
+    /**
+     * Will be called if the operation failed.
+     *
+     * @param e
+     *            the exception the synchronous variant of the operation would
+     *            have thrown, e.g. {@link ConnectionException} or
+     *            {@link NotFoundException}
+     */
+    public abstract void onFailure(Exception e);
+}
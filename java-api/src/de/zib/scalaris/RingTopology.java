@@ -0,0 +1,519 @@
+/**
+ *  Copyright 2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Client-side cache of the ring topology which routes requests to a VM
+ * hosting the node responsible for a key.
+ *
+ * Without routing, each request is sent to the node selected by the
+ * {@link ConnectionPolicy} and the DHT forwards it to the responsible nodes.
+ * This class periodically fetches the IDs of the scalaris nodes and the
+ * Erlang VMs hosting them from all nodes of the {@link ConnectionFactory}
+ * (see {@link ScalarisVM#getRingNodes()}). It hashes keys the way
+ * <tt>rt_chord</tt> does and borrows a connection to the VM of the node
+ * responsible for the key (its first replica) from the
+ * {@link ConnectionPool}:
+ *
+ * <pre>
+ * <code style="white-space:pre;">
+ *   RingTopology ring = new RingTopology(ConnectionFactory.getInstance());
+ *   ring.start();
+ *   Connection conn = ring.borrowConnection(key);
+ *   try {
+ *     TransactionSingleOp sc = new TransactionSingleOp(conn);
+ *     sc.write(key, value);
+ *   } finally {
+ *     ring.returnConnection(conn);
+ *   }
+ * </code>
+ * </pre>
+ *
+ * <p>
+ * A request is sent to the node selected by the {@link ConnectionPolicy}
+ * (and thus forwarded by the DHT) instead if the topology has not been
+ * refreshed successfully for longer than {@link #getMaxAge()} milliseconds,
+ * if the responsible VM is not one of the nodes of the
+ * {@link ConnectionFactory} or if no connection to it could be established.
+ * {@link #getStatistics()} shows how many requests have been routed and
+ * forwarded.
+ * </p>
+ *
+ * <p>
+ * Note: Only VMs known to the {@link ConnectionFactory} are used since the
+ * pool only keeps connections to these nodes, see
+ * {@link ConnectionFactory#addNode(String)}. The other three replicas of an
+ * item are still reached through the DHT.
+ * </p>
+ *
+ * @author Nico Kruber, kruber@zib.de
+ * @version 3.6
+ * @since 3.6
+ */
+public class RingTopology {
+    /**
+     * Immutable view of the ring at a given time.
+     */
+    private static final class View {
+        /**
+         * Node IDs mapped to the responsible VM's {@link PeerNode} (if known
+         * to the {@link ConnectionFactory}, otherwise <tt>null</tt>).
+         */
+        final TreeMap<BigInteger, PeerNode> nodes;
+        /**
+         * Time of the refresh (see {@link System#currentTimeMillis()}).
+         */
+        final long created;
+
+        View(final TreeMap<BigInteger, PeerNode> nodes, final long created) {
+            this.nodes = nodes;
+            this.created = created;
+        }
+    }
+
+    /**
+     * Statistics of the routing decisions.
+     *
+     * @author Nico Kruber, kruber@zib.de
+     * @version 3.6
+     * @since 3.6
+     */
+    public static class Statistics {
+        private final long routed;
+        private final long forwardedStale;
+        private final long forwardedUnknown;
+        private final long forwardedFailed;
+        private final long refreshes;
+        private final long refreshFailures;
+        private final int ringNodes;
+
+        /**
+         * Creates a new statistics object.
+         *
+         * @param routed
+         *            number of requests sent to the responsible VM
+         * @param forwardedStale
+         *            number of requests forwarded due to a stale topology
+         * @param forwardedUnknown
+         *            number of requests forwarded since the responsible VM
+         *            was unknown
+         * @param forwardedFailed
+         *            number of requests forwarded since the responsible VM
+         *            could not be connected
+         * @param refreshes
+         *            number of successful refreshes
+         * @param refreshFailures
+         *            number of failed refreshes
+         * @param ringNodes
+         *            number of scalaris nodes currently known
+         */
+        Statistics(final long routed, final long forwardedStale,
+                final long forwardedUnknown, final long forwardedFailed,
+                final long refreshes, final long refreshFailures,
+                final int ringNodes) {
+            this.routed = routed;
+            this.forwardedStale = forwardedStale;
+            this.forwardedUnknown = forwardedUnknown;
+            this.forwardedFailed = forwardedFailed;
+            this.refreshes = refreshes;
+            this.refreshFailures = refreshFailures;
+            this.ringNodes = ringNodes;
+        }
+
+        /**
+         * @return the number of requests sent to the responsible VM
+         */
+        public long getRouted() {
+            return routed;
+        }
+
+        /**
+         * @return the number of requests sent to the node selected by the
+         *         {@link ConnectionPolicy} (and forwarded by the DHT)
+         */
+        public long getForwarded() {
+            return forwardedStale + forwardedUnknown + forwardedFailed;
+        }
+
+        /**
+         * @return the number of requests forwarded due to a stale topology
+         */
+        public long getForwardedStale() {
+            return forwardedStale;
+        }
+
+        /**
+         * @return the number of requests forwarded since the responsible VM
+         *         was unknown to the {@link ConnectionFactory}
+         */
+        public long getForwardedUnknown() {
+            return forwardedUnknown;
+        }
+
+        /**
+         * @return the number of requests forwarded since no connection to
+         *         the responsible VM could be established
+         */
+        public long getForwardedFailed() {
+            return forwardedFailed;
+        }
+
+        /**
+         * @return the ratio of routed requests to all requests (<tt>0</tt>
+         *         if there were no requests)
+         */
+        public double getRoutedRatio() {
+            final long total = routed + getForwarded();
+            return (total == 0) ? 0.0 : ((double) routed / total);
+        }
+
+        /**
+         * @return the number of successful refreshes
+         */
+        public long getRefreshes() {
+            return refreshes;
+        }
+
+        /**
+         * @return the number of failed refreshes
+         */
+        public long getRefreshFailures() {
+            return refreshFailures;
+        }
+
+        /**
+         * @return the number of scalaris nodes currently known
+         */
+        public int getRingNodes() {
+            return ringNodes;
+        }
+
+        @Override
+        public String toString() {
+            return "routed: " + routed + ", forwarded: " + getForwarded()
+                    + " (stale: " + forwardedStale + ", unknown VM: "
+                    + forwardedUnknown + ", connect failed: "
+                    + forwardedFailed + "), routed ratio: "
+                    + String.format("%.3f", getRoutedRatio()) + ", refreshes: "
+                    + refreshes + " (" + refreshFailures + " failed), ring nodes: "
+                    + ringNodes;
+        }
+    }
+
+    private final ConnectionFactory factory;
+    private volatile View view = null;
+    private volatile long refreshInterval = 10000;
+    private volatile long maxAge = 30000;
+    private volatile long borrowTimeout = 5000;
+    private Timer refresher = null;
+
+    private final AtomicLong routed = new AtomicLong(0);
+    private final AtomicLong forwardedStale = new AtomicLong(0);
+    private final AtomicLong forwardedUnknown = new AtomicLong(0);
+    private final AtomicLong forwardedFailed = new AtomicLong(0);
+    private final AtomicLong refreshes = new AtomicLong(0);
+    private final AtomicLong refreshFailures = new AtomicLong(0);
+
+    /**
+     * Creates a new topology cache using the nodes and the connection pool
+     * of the given factory. The topology is fetched with {@link #refresh()}
+     * or periodically after {@link #start()}.
+     *
+     * @param factory
+     *            the factory to use
+     */
+    public RingTopology(final ConnectionFactory factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * Gets the position of the given key in the key space, i.e. its MD5 hash
+     * (see <tt>rt_chord:hash_key/1</tt>).
+     *
+     * @param key
+     *            the key used by the application
+     *
+     * @return the position of the key's first replica
+     */
+    public static BigInteger hashKey(final String key) {
+        try {
+            return new BigInteger(1, MessageDigest.getInstance("MD5").digest(
+                    key.getBytes(ErlangValue.UTF8)));
+        } catch (final NoSuchAlgorithmException e) {
+            throw new UnsupportedOperationException(e);
+        }
+    }
+
+    /**
+     * Gets the interval between two refreshes.
+     *
+     * @return the refresh interval (in milliseconds)
+     */
+    public long getRefreshInterval() {
+        return refreshInterval;
+    }
+
+    /**
+     * Sets the interval between two refreshes (default: 10000ms). Takes
+     * effect with the next call of {@link #start()}.
+     *
+     * @param refreshInterval
+     *            the refresh interval (in milliseconds)
+     */
+    public void setRefreshInterval(final long refreshInterval) {
+        this.refreshInterval = Math.max(1, refreshInterval);
+    }
+
+    /**
+     * Gets the maximum age of the topology used for routing.
+     *
+     * @return the maximum age (in milliseconds)
+     */
+    public long getMaxAge() {
+        return maxAge;
+    }
+
+    /**
+     * Sets the maximum age of the topology used for routing (default:
+     * 30000ms). Older topologies are considered stale and requests are
+     * forwarded.
+     *
+     * @param maxAge
+     *            the maximum age (in milliseconds)
+     */
+    public void setMaxAge(final long maxAge) {
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * Sets the maximum time to wait for a pooled connection (default:
+     * 5000ms).
+     *
+     * @param borrowTimeout
+     *            the timeout (in milliseconds)
+     */
+    public void setBorrowTimeout(final long borrowTimeout) {
+        this.borrowTimeout = borrowTimeout;
+    }
+
+    /**
+     * Refreshes the topology now and then every
+     * {@link #getRefreshInterval()} milliseconds in a background thread.
+     * Failures are counted in {@link #getStatistics()}.
+     */
+    public synchronized void start() {
+        close();
+        refresher = new Timer("scalaris-ring-topology", true);
+        refresher.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                try {
+                    refresh();
+                } catch (final ConnectionException e) {
+                    // counted, retried with the next run
+                } catch (final UnknownException e) {
+                    // counted, retried with the next run
+                }
+            }
+        }, 0, refreshInterval);
+    }
+
+    /**
+     * Stops refreshing the topology.
+     */
+    public synchronized void close() {
+        if (refresher != null) {
+            refresher.cancel();
+            refresher = null;
+        }
+    }
+
+    /**
+     * Fetches the ring nodes from all nodes of the {@link ConnectionFactory}
+     * and replaces the current topology if at least one of them answered.
+     *
+     * @throws ConnectionException
+     *             if no node could be contacted
+     * @throws UnknownException
+     *             if no node returned a valid answer
+     */
+    public void refresh() throws ConnectionException, UnknownException {
+        final ConnectionPool pool = factory.getConnectionPool();
+        final Map<String, PeerNode> vms = new HashMap<String, PeerNode>();
+        for (final PeerNode node : factory.getNodes()) {
+            vms.put(node.getNode().node(), node);
+        }
+        final SortedMap<BigInteger, String> ringNodes = new TreeMap<BigInteger, String>();
+        ConnectionException connectionFailure = null;
+        UnknownException unknownFailure = null;
+        boolean success = false;
+        for (final PeerNode node : vms.values()) {
+            Connection conn = null;
+            try {
+                conn = pool.borrowConnection(node, borrowTimeout, TimeUnit.MILLISECONDS);
+                ringNodes.putAll(new ScalarisVM(conn).getRingNodes());
+                success = true;
+            } catch (final ConnectionException e) {
+                connectionFailure = e;
+            } catch (final UnknownException e) {
+                unknownFailure = e;
+            } finally {
+                pool.returnConnection(conn);
+            }
+        }
+        if (!success) {
+            refreshFailures.incrementAndGet();
+            if (unknownFailure != null) {
+                throw unknownFailure;
+            }
+            throw (connectionFailure != null) ? connectionFailure
+                    : new ConnectionException("no nodes available");
+        }
+        view = createView(ringNodes, vms, System.currentTimeMillis());
+        refreshes.incrementAndGet();
+    }
+
+    /**
+     * Creates a new view of the ring.
+     *
+     * @param ringNodes
+     *            node IDs mapped to the names of their Erlang VMs
+     * @param vms
+     *            VM names mapped to the nodes known to the factory
+     * @param created
+     *            time of the refresh
+     *
+     * @return a new view
+     */
+    private static View createView(final SortedMap<BigInteger, String> ringNodes,
+            final Map<String, PeerNode> vms, final long created) {
+        final TreeMap<BigInteger, PeerNode> nodes = new TreeMap<BigInteger, PeerNode>();
+        for (final Map.Entry<BigInteger, String> e : ringNodes.entrySet()) {
+            nodes.put(e.getKey(), vms.get(e.getValue()));
+        }
+        return new View(nodes, created);
+    }
+
+    /**
+     * Sets the topology (for tests).
+     *
+     * @param ringNodes
+     *            node IDs mapped to the names of their Erlang VMs
+     * @param vms
+     *            VM names mapped to the nodes known to the factory
+     */
+    void setView(final SortedMap<BigInteger, String> ringNodes,
+            final Map<String, PeerNode> vms) {
+        view = createView(ringNodes, vms, System.currentTimeMillis());
+    }
+
+    /**
+     * Gets the VM hosting the node responsible for the given position in the
+     * key space, i.e. the node with the smallest ID greater than or equal to
+     * the position (wrapping around at the end of the key space).
+     *
+     * @param position
+     *            the position in the key space, see {@link #hashKey(String)}
+     *
+     * @return the VM or <tt>null</tt> if the topology is unknown or the VM is
+     *         not known to the {@link ConnectionFactory}
+     */
+    public PeerNode getResponsibleNode(final BigInteger position) {
+        final View v = view;
+        if ((v == null) || v.nodes.isEmpty()) {
+            return null;
+        }
+        Map.Entry<BigInteger, PeerNode> e = v.nodes.ceilingEntry(position);
+        if (e == null) {
+            e = v.nodes.firstEntry();
+        }
+        return e.getValue();
+    }
+
+    /**
+     * Borrows a connection from the pool of the {@link ConnectionFactory}
+     * to the VM responsible for the given key. Falls back to a connection
+     * selected by the {@link ConnectionPolicy} if the topology is stale, the
+     * VM is unknown or cannot be connected.
+     *
+     * @param key
+     *            the key of the next request(s)
+     *
+     * @return a connection (to be given back with
+     *         {@link #returnConnection(Connection)})
+     *
+     * @throws ConnectionException
+     *             if no connection could be established
+     */
+    public Connection borrowConnection(final String key) throws ConnectionException {
+        final ConnectionPool pool = factory.getConnectionPool();
+        final View v = view;
+        if ((v == null) || ((System.currentTimeMillis() - v.created) > maxAge)) {
+            forwardedStale.incrementAndGet();
+        } else {
+            final PeerNode node = getResponsibleNode(hashKey(key));
+            if (node == null) {
+                forwardedUnknown.incrementAndGet();
+            } else {
+                try {
+                    final Connection conn = pool.borrowConnection(node,
+                            borrowTimeout, TimeUnit.MILLISECONDS);
+                    routed.incrementAndGet();
+                    return conn;
+                } catch (final ConnectionException e) {
+                    forwardedFailed.incrementAndGet();
+                }
+            }
+        }
+        return pool.borrowConnection(borrowTimeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Gives a connection borrowed with {@link #borrowConnection(String)}
+     * back to the pool.
+     *
+     * @param conn
+     *            the connection to return (may be <tt>null</tt>)
+     */
+    public void returnConnection(final Connection conn) {
+        factory.getConnectionPool().returnConnection(conn);
+    }
+
+    /**
+     * Gets a snapshot of the routing statistics.
+     *
+     * @return the statistics
+     */
+    public Statistics getStatistics() {
+        final View v = view;
+        return new Statistics(routed.get(), forwardedStale.get(),
+                forwardedUnknown.get(), forwardedFailed.get(),
+                refreshes.get(), refreshFailures.get(),
+                (v == null) ? 0 : v.nodes.size());
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ *  Copyright 2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency histogram and error count of the RPCs to a single erlang function,
+ * e.g. <tt>api_tx:req_list</tt>.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ * @version 3.6
+ * @since 3.6
+ *
+ * @see RpcMetrics
+ */
+public class RpcFunctionMetrics implements RpcFunctionMetricsMBean {
+    private final String name;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicLong errors = new AtomicLong(0);
+
+    /**
+     * Creates empty metrics for the given function.
+     *
+     * @param name
+     *            the name of the function (<tt>module:function</tt>)
+     */
+    RpcFunctionMetrics(final String name) {
+        this.name = name;
+    }
+
+    /**
+     * Records a successful RPC.
+     *
+     * @param latencyNs
+     *            the time between sending the request and receiving the
+     *            result (in nanoseconds)
+     */
+    void success(final long latencyNs) {
+        latency.record(latencyNs);
+    }
+
+    /**
+     * Records a failed RPC attempt.
+     */
+    void failure() {
+        errors.incrementAndGet();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the latency histogram of the successful RPCs.
+     *
+     * @return the (live) histogram
+     */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    public long getCount() {
+        return latency.getCount();
+    }
+
+    public long getErrors() {
+        return errors.get();
+    }
+
+    public double getMean() {
+        return latency.getMean();
+    }
+
+    public long getP50() {
+        return latency.getPercentile(0.5);
+    }
+
+    public long getP90() {
+        return latency.getPercentile(0.9);
+    }
+
+    public long getP99() {
+        return latency.getPercentile(0.99);
+    }
+
+    public long getP999() {
+        return latency.getPercentile(0.999);
+    }
+
+    public long getMax() {
+        return latency.getMax();
+    }
+
+    public void reset() {
+        latency.reset();
+        errors.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return name + ": " + latency + ", errors: " + errors.get();
+    }
+}
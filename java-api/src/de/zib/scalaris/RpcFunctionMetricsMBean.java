@@ -0,0 +1,76 @@
+/**
+ *  Copyright 2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+/**
+ * JMX management interface of {@link RpcFunctionMetrics}. All latencies are
+ * in nanoseconds.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ * @version 3.6
+ * @since 3.6
+ */
+public interface RpcFunctionMetricsMBean {
+    /**
+     * @return the name of the function (<tt>module:function</tt>)
+     */
+    String getName();
+
+    /**
+     * @return the number of successful RPCs
+     */
+    long getCount();
+
+    /**
+     * @return the number of failed RPC attempts
+     */
+    long getErrors();
+
+    /**
+     * @return the mean latency
+     */
+    double getMean();
+
+    /**
+     * @return the median latency
+     */
+    long getP50();
+
+    /**
+     * @return the 90th percentile of the latency
+     */
+    long getP90();
+
+    /**
+     * @return the 99th percentile of the latency
+     */
+    long getP99();
+
+    /**
+     * @return the 99.9th percentile of the latency
+     */
+    long getP999();
+
+    /**
+     * @return the maximum latency
+     */
+    long getMax();
+
+    /**
+     * Resets the metrics of this function.
+     */
+    void reset();
+}
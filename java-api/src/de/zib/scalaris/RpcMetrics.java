@@ -0,0 +1,566 @@
+/**
+ *  Copyright 2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.ericsson.otp.erlang.OtpErlangObject;
+import com.ericsson.otp.erlang.OtpOutputStream;
+
+/**
+ * Client-side metrics of the RPCs issued by {@link Connection} objects.
+ *
+ * For each erlang function (<tt>module:function</tt>, e.g.
+ * <tt>api_tx:req_list</tt>), a {@link RpcFunctionMetrics} object keeps a
+ * {@link LatencyHistogram} of the successful RPCs and the number of failed
+ * attempts. Additionally, the number of re-tried RPCs, re-connects and
+ * failovers to other nodes are counted. Recording is lock-free and does not
+ * allocate objects (except for the first call of a function). Counting the
+ * bytes sent and received requires encoding the arguments and results a
+ * second time and is thus disabled by default (see
+ * {@link #setCountBytes(boolean)}).
+ *
+ * The metrics can be pulled with {@link #getStatistics()} or via JMX: the
+ * global instance ({@link #getInstance()}) is registered as
+ * <tt>de.zib.scalaris:type=RpcMetrics</tt> and each function as
+ * <tt>de.zib.scalaris:type=RpcMetrics,function="module:function"</tt>.
+ *
+ * <pre>
+ * <code style="white-space:pre;">
+ *   System.out.println(RpcMetrics.getInstance().getStatistics());
+ * </code>
+ * </pre>
+ *
+ * @author Nico Kruber, kruber@zib.de
+ * @version 3.6
+ * @since 3.6
+ *
+ * @see Connection#setMetrics(RpcMetrics)
+ */
+public class RpcMetrics implements RpcMetricsMBean {
+    /**
+     * JMX object name of the global instance.
+     */
+    public static final String OBJECT_NAME = "de.zib.scalaris:type=RpcMetrics";
+
+    private static final RpcMetrics instance = new RpcMetrics();
+
+    static {
+        try {
+            instance.registerMBeans();
+        } catch (final JMException e) {
+            // metrics are still available via getStatistics()
+        } catch (final SecurityException e) {
+            // metrics are still available via getStatistics()
+        }
+    }
+
+    /**
+     * Metrics of all functions, by module and function name.
+     */
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, RpcFunctionMetrics>> functions =
+            new ConcurrentHashMap<String, ConcurrentHashMap<String, RpcFunctionMetrics>>();
+
+    private final AtomicLong retries = new AtomicLong(0);
+    private final AtomicLong reconnects = new AtomicLong(0);
+    private final AtomicLong failovers = new AtomicLong(0);
+    private final AtomicLong bytesSent = new AtomicLong(0);
+    private final AtomicLong bytesReceived = new AtomicLong(0);
+    private volatile boolean countBytes = false;
+
+    /**
+     * The JMX object name this object is registered with (<tt>null</tt> if
+     * not registered).
+     */
+    private volatile String registeredName = null;
+
+    /**
+     * Creates a new (empty) metrics object which is not registered with JMX.
+     *
+     * @see #getInstance()
+     */
+    public RpcMetrics() {
+    }
+
+    /**
+     * Returns the global metrics object used by all connections by default.
+     *
+     * @return the global metrics object
+     */
+    public static RpcMetrics getInstance() {
+        return instance;
+    }
+
+    /**
+     * Gets the metrics of the given function (creating them if needed).
+     *
+     * @param mod
+     *            the module of the function
+     * @param fun
+     *            the function
+     *
+     * @return the metrics of the function
+     */
+    RpcFunctionMetrics getFunction(final String mod, final String fun) {
+        ConcurrentHashMap<String, RpcFunctionMetrics> modFunctions = functions.get(mod);
+        if (modFunctions == null) {
+            functions.putIfAbsent(mod, new ConcurrentHashMap<String, RpcFunctionMetrics>());
+            modFunctions = functions.get(mod);
+        }
+        RpcFunctionMetrics result = modFunctions.get(fun);
+        if (result == null) {
+            final RpcFunctionMetrics newMetrics = new RpcFunctionMetrics(mod + ":" + fun);
+            result = modFunctions.putIfAbsent(fun, newMetrics);
+            if (result == null) {
+                result = newMetrics;
+                final String name = registeredName;
+                if (name != null) {
+                    try {
+                        registerFunction(ManagementFactory.getPlatformMBeanServer(), name, result);
+                    } catch (final JMException e) {
+                        // still available via getStatistics()
+                    } catch (final SecurityException e) {
+                        // still available via getStatistics()
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Records an RPC which is re-tried after a failure.
+     *
+     * @param failed
+     *            the node the RPC failed on
+     * @param next
+     *            the node the RPC is re-tried on
+     */
+    void retried(final PeerNode failed, final PeerNode next) {
+        retries.incrementAndGet();
+        if (failed != next) {
+            failovers.incrementAndGet();
+        }
+    }
+
+    /**
+     * Records a failed connection attempt after which another (or the same)
+     * node is tried.
+     *
+     * @param failed
+     *            the node the connection failed to
+     * @param next
+     *            the node to try next
+     */
+    void connectFailed(final PeerNode failed, final PeerNode next) {
+        if (failed != next) {
+            failovers.incrementAndGet();
+        }
+    }
+
+    /**
+     * Records a re-connect.
+     */
+    void reconnected() {
+        reconnects.incrementAndGet();
+    }
+
+    /**
+     * Records the size of an object sent (if bytes are counted).
+     *
+     * @param value
+     *            the object sent
+     */
+    void sent(final OtpErlangObject value) {
+        if (countBytes) {
+            bytesSent.addAndGet(new OtpOutputStream(value).length());
+        }
+    }
+
+    /**
+     * Records the size of an object received (if bytes are counted).
+     *
+     * @param value
+     *            the object received
+     */
+    void received(final OtpErlangObject value) {
+        if (countBytes) {
+            bytesReceived.addAndGet(new OtpOutputStream(value).length());
+        }
+    }
+
+    /**
+     * Gets the (live) metrics of all functions called so far.
+     *
+     * @return a map of function names (<tt>module:function</tt>) to their
+     *         metrics
+     */
+    public SortedMap<String, RpcFunctionMetrics> getFunctionMetrics() {
+        final SortedMap<String, RpcFunctionMetrics> result = new TreeMap<String, RpcFunctionMetrics>();
+        for (final Map<String, RpcFunctionMetrics> modFunctions : functions.values()) {
+            for (final RpcFunctionMetrics function : modFunctions.values()) {
+                result.put(function.getName(), function);
+            }
+        }
+        return result;
+    }
+
+    public String[] getFunctions() {
+        return getFunctionMetrics().keySet().toArray(new String[0]);
+    }
+
+    public long getRequests() {
+        long result = 0;
+        for (final RpcFunctionMetrics function : getFunctionMetrics().values()) {
+            result += function.getCount();
+        }
+        return result;
+    }
+
+    public long getErrors() {
+        long result = 0;
+        for (final RpcFunctionMetrics function : getFunctionMetrics().values()) {
+            result += function.getErrors();
+        }
+        return result;
+    }
+
+    public long getRetries() {
+        return retries.get();
+    }
+
+    public long getReconnects() {
+        return reconnects.get();
+    }
+
+    public long getFailovers() {
+        return failovers.get();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    public boolean isCountBytes() {
+        return countBytes;
+    }
+
+    /**
+     * Sets whether to count the bytes sent and received (default: false).
+     * Counting requires encoding each request and result a second time.
+     *
+     * @param countBytes
+     *            whether to count bytes
+     */
+    public void setCountBytes(final boolean countBytes) {
+        this.countBytes = countBytes;
+    }
+
+    public void reset() {
+        for (final RpcFunctionMetrics function : getFunctionMetrics().values()) {
+            function.reset();
+        }
+        retries.set(0);
+        reconnects.set(0);
+        failovers.set(0);
+        bytesSent.set(0);
+        bytesReceived.set(0);
+    }
+
+    /**
+     * Registers this object as {@link #OBJECT_NAME} and the metrics of all
+     * (current and future) functions with the platform MBean server.
+     *
+     * @throws JMException
+     *             if the registration fails
+     */
+    public void registerMBeans() throws JMException {
+        registerMBeans(OBJECT_NAME);
+    }
+
+    /**
+     * Registers this object and the metrics of all (current and future)
+     * functions with the platform MBean server.
+     *
+     * @param name
+     *            the object name to use, e.g.
+     *            <tt>de.zib.scalaris:type=RpcMetrics,pool=1</tt>
+     *
+     * @throws JMException
+     *             if the registration fails
+     */
+    public synchronized void registerMBeans(final String name) throws JMException {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        server.registerMBean(this, new ObjectName(name));
+        registeredName = name;
+        for (final RpcFunctionMetrics function : getFunctionMetrics().values()) {
+            registerFunction(server, name, function);
+        }
+    }
+
+    /**
+     * Unregisters this object and the metrics of all functions from the
+     * platform MBean server.
+     *
+     * @throws JMException
+     *             if un-registering fails
+     */
+    public synchronized void unregisterMBeans() throws JMException {
+        final String name = registeredName;
+        if (name == null) {
+            return;
+        }
+        registeredName = null;
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (final RpcFunctionMetrics function : getFunctionMetrics().values()) {
+            final ObjectName functionName = getFunctionObjectName(name, function);
+            if (server.isRegistered(functionName)) {
+                server.unregisterMBean(functionName);
+            }
+        }
+        server.unregisterMBean(new ObjectName(name));
+    }
+
+    private static ObjectName getFunctionObjectName(final String name,
+            final RpcFunctionMetrics function) throws JMException {
+        return new ObjectName(name + ",function="
+                + ObjectName.quote(function.getName()));
+    }
+
+    private static void registerFunction(final MBeanServer server,
+            final String name, final RpcFunctionMetrics function)
+            throws JMException {
+        final ObjectName functionName = getFunctionObjectName(name, function);
+        if (!server.isRegistered(functionName)) {
+            server.registerMBean(function, functionName);
+        }
+    }
+
+    /**
+     * Gets a snapshot of the metrics.
+     *
+     * @return the statistics
+     */
+    public Statistics getStatistics() {
+        final SortedMap<String, FunctionStatistics> result = new TreeMap<String, FunctionStatistics>();
+        for (final RpcFunctionMetrics function : getFunctionMetrics().values()) {
+            result.put(function.getName(), new FunctionStatistics(
+                    function.getCount(), function.getErrors(),
+                    function.getMean(), function.getP50(), function.getP90(),
+                    function.getP99(), function.getP999(), function.getMax()));
+        }
+        return new Statistics(Collections.unmodifiableSortedMap(result),
+                retries.get(), reconnects.get(), failovers.get(),
+                bytesSent.get(), bytesReceived.get());
+    }
+
+    /**
+     * Statistics of the RPCs to a single function (immutable). All latencies
+     * are in nanoseconds.
+     *
+     * @author Nico Kruber, kruber@zib.de
+     * @version 3.6
+     * @since 3.6
+     */
+    public static class FunctionStatistics {
+        private final long count;
+        private final long errors;
+        private final double mean;
+        private final long p50;
+        private final long p90;
+        private final long p99;
+        private final long p999;
+        private final long max;
+
+        FunctionStatistics(final long count, final long errors,
+                final double mean, final long p50, final long p90,
+                final long p99, final long p999, final long max) {
+            this.count = count;
+            this.errors = errors;
+            this.mean = mean;
+            this.p50 = p50;
+            this.p90 = p90;
+            this.p99 = p99;
+            this.p999 = p999;
+            this.max = max;
+        }
+
+        /**
+         * @return the number of successful RPCs
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return the number of failed RPC attempts
+         */
+        public long getErrors() {
+            return errors;
+        }
+
+        /**
+         * @return the mean latency
+         */
+        public double getMean() {
+            return mean;
+        }
+
+        /**
+         * @return the median latency
+         */
+        public long getP50() {
+            return p50;
+        }
+
+        /**
+         * @return the 90th percentile of the latency
+         */
+        public long getP90() {
+            return p90;
+        }
+
+        /**
+         * @return the 99th percentile of the latency
+         */
+        public long getP99() {
+            return p99;
+        }
+
+        /**
+         * @return the 99.9th percentile of the latency
+         */
+        public long getP999() {
+            return p999;
+        }
+
+        /**
+         * @return the maximum latency
+         */
+        public long getMax() {
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return "count: " + count + ", errors: " + errors + ", mean: "
+                    + Math.round(mean) + "ns, p50: " + p50 + "ns, p90: " + p90
+                    + "ns, p99: " + p99 + "ns, p99.9: " + p999 + "ns, max: "
+                    + max + "ns";
+        }
+    }
+
+    /**
+     * Statistics of all RPCs (immutable).
+     *
+     * @author Nico Kruber, kruber@zib.de
+     * @version 3.6
+     * @since 3.6
+     */
+    public static class Statistics {
+        private final SortedMap<String, FunctionStatistics> functions;
+        private final long retries;
+        private final long reconnects;
+        private final long failovers;
+        private final long bytesSent;
+        private final long bytesReceived;
+
+        Statistics(final SortedMap<String, FunctionStatistics> functions,
+                final long retries, final long reconnects,
+                final long failovers, final long bytesSent,
+                final long bytesReceived) {
+            this.functions = functions;
+            this.retries = retries;
+            this.reconnects = reconnects;
+            this.failovers = failovers;
+            this.bytesSent = bytesSent;
+            this.bytesReceived = bytesReceived;
+        }
+
+        /**
+         * @return the statistics of each function (<tt>module:function</tt>)
+         */
+        public SortedMap<String, FunctionStatistics> getFunctions() {
+            return functions;
+        }
+
+        /**
+         * @return the number of RPCs re-tried after a failure
+         */
+        public long getRetries() {
+            return retries;
+        }
+
+        /**
+         * @return the number of re-connects
+         */
+        public long getReconnects() {
+            return reconnects;
+        }
+
+        /**
+         * @return the number of times another node has been chosen after a
+         *         failure
+         */
+        public long getFailovers() {
+            return failovers;
+        }
+
+        /**
+         * @return the number of (encoded) bytes sent (<tt>0</tt> unless
+         *         bytes are counted)
+         */
+        public long getBytesSent() {
+            return bytesSent;
+        }
+
+        /**
+         * @return the number of (encoded) bytes received (<tt>0</tt> unless
+         *         bytes are counted)
+         */
+        public long getBytesReceived() {
+            return bytesReceived;
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder();
+            sb.append("retries: ").append(retries).append(", reconnects: ")
+                    .append(reconnects).append(", failovers: ")
+                    .append(failovers).append(", bytes sent: ")
+                    .append(bytesSent).append(", bytes received: ")
+                    .append(bytesReceived);
+            for (final Map.Entry<String, FunctionStatistics> e : functions.entrySet()) {
+                sb.append('\n').append(e.getKey()).append(": ").append(e.getValue());
+            }
+            return sb.toString();
+        }
+    }
+}
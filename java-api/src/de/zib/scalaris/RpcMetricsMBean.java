@@ -0,0 +1,83 @@
+/**
+ *  Copyright 2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+/**
+ * JMX management interface of {@link RpcMetrics}.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ * @version 3.6
+ * @since 3.6
+ */
+public interface RpcMetricsMBean {
+    /**
+     * @return the number of successful RPCs of all functions
+     */
+    long getRequests();
+
+    /**
+     * @return the number of failed RPC attempts of all functions
+     */
+    long getErrors();
+
+    /**
+     * @return the number of RPCs re-tried after a failure
+     */
+    long getRetries();
+
+    /**
+     * @return the number of re-connects
+     */
+    long getReconnects();
+
+    /**
+     * @return the number of times another node has been chosen after a
+     *         failure
+     */
+    long getFailovers();
+
+    /**
+     * @return the number of (encoded) bytes sent
+     */
+    long getBytesSent();
+
+    /**
+     * @return the number of (encoded) bytes received
+     */
+    long getBytesReceived();
+
+    /**
+     * @return whether bytes are counted
+     */
+    boolean isCountBytes();
+
+    /**
+     * @param countBytes
+     *            whether to count bytes
+     */
+    void setCountBytes(boolean countBytes);
+
+    /**
+     * @return the names of all functions called so far
+     *         (<tt>module:function</tt>)
+     */
+    String[] getFunctions();
+
+    /**
+     * Resets all metrics.
+     */
+    void reset();
+}
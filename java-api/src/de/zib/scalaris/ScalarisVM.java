@@ -15,16 +15,20 @@
  */
 package de.zib.scalaris;
 
+import java.math.BigInteger;
 import java.net.Inet4Address;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
 import com.ericsson.otp.erlang.OtpErlangAtom;
 import com.ericsson.otp.erlang.OtpErlangInt;
 import com.ericsson.otp.erlang.OtpErlangList;
+import com.ericsson.otp.erlang.OtpErlangLong;
 import com.ericsson.otp.erlang.OtpErlangObject;
 import com.ericsson.otp.erlang.OtpErlangString;
 import com.ericsson.otp.erlang.OtpErlangTuple;
@@ -559,7 +563,7 @@ public class ScalarisVM {
                 if (connTuple.arity() != 4) {
                     throw new UnknownException(received_raw);
                 }
-                OtpErlangAtom name_otp = (OtpErlangAtom) connTuple.elementAt(i);
+                OtpErlangAtom name_otp = (OtpErlangAtom) connTuple.elementAt(0);
                 result.add(name_otp.atomValue());
             }
             return result;
@@ -568,6 +572,45 @@ public class ScalarisVM {
         }
     }
 
+    /**
+     * Gets the IDs of the Scalaris nodes in the Scalaris VM of the current
+     * connection and of their neighbours together with the name of the
+     * Erlang VM hosting them. A node is responsible for the keys between its
+     * predecessor's ID (exclusive) and its own ID (inclusive).
+     *
+     * @return a map of node IDs to Erlang node names (may be empty!)
+     *
+     * @throws ConnectionException
+     *             if the connection is not active or a communication error
+     *             occurs or an exit signal was received or the remote node
+     *             sends a message containing an invalid cookie
+     * @throws UnknownException
+     *             if any other error occurs
+     *
+     * @see RingTopology
+     * @since 3.6
+     */
+    public SortedMap<BigInteger, String> getRingNodes()
+            throws ConnectionException, UnknownException {
+        final OtpErlangObject received_raw = connection.doRPC("api_vm", "get_ring_nodes",
+                    new OtpErlangObject[] {});
+        try {
+            final OtpErlangList list = ErlangValue.otpObjectToOtpList(received_raw);
+            final SortedMap<BigInteger, String> result = new TreeMap<BigInteger, String>();
+            for (final OtpErlangObject o : list) {
+                final OtpErlangTuple nodeTuple = (OtpErlangTuple) o;
+                if (nodeTuple.arity() != 2) {
+                    throw new UnknownException(received_raw);
+                }
+                result.put(((OtpErlangLong) nodeTuple.elementAt(0)).bigIntegerValue(),
+                        ((OtpErlangAtom) nodeTuple.elementAt(1)).atomValue());
+            }
+            return result;
+        } catch (final ClassCastException e) {
+            throw new UnknownException(e, received_raw);
+        }
+    }
+
     /**
      * Tells the Scalaris VM of the current connection to shut down gracefully.
      *
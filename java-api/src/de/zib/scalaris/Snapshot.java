@@ -0,0 +1,902 @@
+/**
+ *  Copyright 2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import com.ericsson.otp.erlang.OtpErlangDecodeException;
+import com.ericsson.otp.erlang.OtpErlangObject;
+import com.ericsson.otp.erlang.OtpErlangString;
+import com.ericsson.otp.erlang.OtpInputStream;
+import com.ericsson.otp.erlang.OtpOutputStream;
+
+/**
+ * Exports all items stored in scalaris to a directory of snapshot files and
+ * imports such a snapshot again.
+ *
+ * <p>
+ * The export splits the key space into {@link #getSegments()} segments like
+ * {@link RangeScan} and reads them in parallel with
+ * {@link #getParallelism()} worker threads, each with a connection borrowed
+ * from the given {@link ConnectionPool}. Each segment is written to its own
+ * file (<tt>segment-00000.snap</tt>, ...) using a memory-mapped buffer. The
+ * import reads the segment files in parallel and writes the items with
+ * batches of {@link #getBatchSize()} requests using
+ * {@link TransactionSingleOp#req_list(TransactionSingleOp.RequestList)}.
+ * </p>
+ *
+ * <pre>
+ * <code style="white-space:pre;">
+ *   Snapshot snapshot = new Snapshot(ConnectionFactory.getInstance().getConnectionPool());
+ *   snapshot.setKeys(Snapshot.readKeys(new File("keys.txt")));
+ *   System.out.println(snapshot.exportTo(new File("dump")));
+ *   ...
+ *   System.out.println(snapshot.importFrom(new File("dump")));
+ * </code>
+ * </pre>
+ *
+ * <p>
+ * Scalaris only stores the hashed keys, i.e. a range read does not return
+ * the keys used by the application (see {@link RangeScan}). An item can only
+ * be imported if its key is known, either from the keys given during the
+ * export (stored in the snapshot) or from the keys given during the import
+ * (see {@link #setKeys(Collection)}). Other items are counted as
+ * <em>unresolved</em>. Imported items get new versions.
+ * </p>
+ *
+ * <p>
+ * Each file consists of a header (magic number, format version, segment
+ * index, number of records), the records and a CRC32 checksum of all
+ * previous bytes. A record contains a flags byte, the position of the item
+ * in the key space, the key (if known), the version and the value in the
+ * erlang external term format.
+ * </p>
+ *
+ * <p>
+ * Run a snapshot from the command line with
+ * <code>java -jar scalaris.jar -export &lt;dir&gt; [&lt;keyfile&gt;]</code>
+ * and <code>java -jar scalaris.jar -import &lt;dir&gt; [&lt;keyfile&gt;]</code>.
+ * </p>
+ *
+ * @author Nico Kruber, kruber@zib.de
+ * @version 3.6
+ * @since 3.6
+ */
+public class Snapshot {
+    /**
+     * Magic number at the start of each snapshot file (<tt>"SCSN"</tt>).
+     */
+    static final int MAGIC = 0x5343534E;
+
+    /**
+     * Version of the file format.
+     */
+    static final int FORMAT_VERSION = 1;
+
+    /**
+     * Size of the file header.
+     */
+    private static final int HEADER_SIZE = 16;
+
+    /**
+     * Flag of a record which includes the key.
+     */
+    private static final byte FLAG_KEY = 1;
+
+    /**
+     * A single item of a snapshot.
+     *
+     * @author Nico Kruber, kruber@zib.de
+     * @version 3.6
+     * @since 3.6
+     */
+    static class Record {
+        final BigInteger position;
+        final String key;
+        final long version;
+        final byte[] value;
+
+        /**
+         * Creates a new record.
+         *
+         * @param position
+         *            the position in the key space (see
+         *            {@link RangeScan.Entry#getKey()})
+         * @param key
+         *            the key used by the application (may be <tt>null</tt>)
+         * @param version
+         *            the version of the value
+         * @param value
+         *            the value in the erlang external term format
+         */
+        Record(final BigInteger position, final String key,
+                final long version, final byte[] value) {
+            this.position = position;
+            this.key = key;
+            this.version = version;
+            this.value = value;
+        }
+
+        /**
+         * Creates a record of an entry read from the database.
+         *
+         * @param entry
+         *            the entry (with its value already decoded, see
+         *            {@link RangeScan#toEntry(OtpErlangObject)})
+         * @param key
+         *            the key used by the application (may be <tt>null</tt>)
+         *
+         * @return the record
+         */
+        static Record fromEntry(final RangeScan.Entry entry, final String key) {
+            return new Record(entry.getKey().mod(RangeScan.QUARTER), key,
+                    entry.getVersion(),
+                    new OtpOutputStream(entry.getValue().value()).toByteArray());
+        }
+
+        /**
+         * Decodes the value of the record, i.e. the value the client wrote.
+         *
+         * @return the value
+         *
+         * @throws OtpErlangDecodeException
+         *             if the value is no valid erlang term
+         */
+        OtpErlangObject decodeValue() throws OtpErlangDecodeException {
+            return new OtpInputStream(value).read_any();
+        }
+    }
+
+    /**
+     * Statistics of an export or import.
+     *
+     * @author Nico Kruber, kruber@zib.de
+     * @version 3.6
+     * @since 3.6
+     */
+    public static class Statistics {
+        private final int files;
+        private final long items;
+        private final long unresolved;
+        private final long failed;
+        private final long bytes;
+        private final long durationNs;
+
+        /**
+         * Creates a new statistics object.
+         *
+         * @param files
+         *            number of segment files
+         * @param items
+         *            number of items exported or imported
+         * @param unresolved
+         *            number of items without a known key
+         * @param failed
+         *            number of failed writes
+         * @param bytes
+         *            size of all segment files
+         * @param durationNs
+         *            total duration (in nanoseconds)
+         */
+        Statistics(final int files, final long items, final long unresolved,
+                final long failed, final long bytes, final long durationNs) {
+            this.files = files;
+            this.items = items;
+            this.unresolved = unresolved;
+            this.failed = failed;
+            this.bytes = bytes;
+            this.durationNs = durationNs;
+        }
+
+        /**
+         * @return the number of segment files
+         */
+        public int getFiles() {
+            return files;
+        }
+
+        /**
+         * @return the number of items exported (or imported successfully)
+         */
+        public long getItems() {
+            return items;
+        }
+
+        /**
+         * @return the number of items without a known key (not importable)
+         */
+        public long getUnresolved() {
+            return unresolved;
+        }
+
+        /**
+         * @return the number of failed writes during an import
+         */
+        public long getFailed() {
+            return failed;
+        }
+
+        /**
+         * @return the size of all segment files in bytes
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return the total duration (in nanoseconds)
+         */
+        public long getDurationNs() {
+            return durationNs;
+        }
+
+        /**
+         * @return the number of items per second
+         */
+        public double getItemsPerSecond() {
+            return (items * 1000000000.0) / Math.max(1, durationNs);
+        }
+
+        /**
+         * @return the throughput in MB/s (based on the file sizes)
+         */
+        public double getMBps() {
+            return (bytes * 1000000000.0) / Math.max(1, durationNs) / (1024.0 * 1024.0);
+        }
+
+        @Override
+        public String toString() {
+            return files + " files, " + items + " items, " + unresolved
+                    + " unresolved, " + failed + " failed, " + bytes
+                    + " bytes in " + (durationNs / 1000000) + "ms ("
+                    + Math.round(getItemsPerSecond()) + " items/s, "
+                    + String.format("%.2f", getMBps()) + " MB/s)";
+        }
+    }
+
+    /**
+     * Counters of a running export or import.
+     */
+    private static class Counters {
+        final AtomicLong items = new AtomicLong(0);
+        final AtomicLong unresolved = new AtomicLong(0);
+        final AtomicLong failed = new AtomicLong(0);
+        final AtomicLong bytes = new AtomicLong(0);
+    }
+
+    private final ConnectionPool pool;
+    private int segments = 64;
+    private int parallelism = 8;
+    private int batchSize = 100;
+    private int retries = 2;
+    private boolean readAllReplicas = false;
+    private Map<BigInteger, String> keys = new HashMap<BigInteger, String>();
+
+    /**
+     * Creates a new snapshot tool using connections of the given pool.
+     *
+     * @param pool
+     *            the pool to borrow connections from
+     */
+    public Snapshot(final ConnectionPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Gets the number of segments (files) of an export.
+     *
+     * @return the number of segments
+     */
+    public int getSegments() {
+        return segments;
+    }
+
+    /**
+     * Sets the number of segments (files) of an export (default: 64). Each
+     * segment is read with a single RPC, i.e. all of its items are held in
+     * memory at once.
+     *
+     * @param segments
+     *            the number of segments (at least <tt>1</tt>)
+     */
+    public void setSegments(final int segments) {
+        this.segments = Math.max(1, segments);
+    }
+
+    /**
+     * Gets the number of segments exported or imported in parallel.
+     *
+     * @return the number of worker threads
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Sets the number of segments exported or imported in parallel
+     * (default: 8). Each worker thread borrows its own connection from the
+     * pool.
+     *
+     * @param parallelism
+     *            the number of worker threads (at least <tt>1</tt>)
+     */
+    public void setParallelism(final int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Gets the number of writes per request list during an import.
+     *
+     * @return the batch size
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Sets the number of writes per request list during an import
+     * (default: 100).
+     *
+     * @param batchSize
+     *            the batch size (at least <tt>1</tt>)
+     */
+    public void setBatchSize(final int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Sets the number of re-tries for segments timing out during an export
+     * (default: 2).
+     *
+     * @param retries
+     *            the number of re-tries
+     *
+     * @see RangeScan#setRetries(int)
+     */
+    public void setRetries(final int retries) {
+        this.retries = Math.max(0, retries);
+    }
+
+    /**
+     * Sets whether all four replicas are read during an export (default:
+     * <tt>false</tt>).
+     *
+     * @param readAllReplicas
+     *            whether to read all replicas
+     *
+     * @see RangeScan#setReadAllReplicas(boolean)
+     */
+    public void setReadAllReplicas(final boolean readAllReplicas) {
+        this.readAllReplicas = readAllReplicas;
+    }
+
+    /**
+     * Sets the keys used by the application. During an export, they are
+     * stored with the items, during an import, they are used for items
+     * without a stored key.
+     *
+     * @param keys
+     *            the keys
+     */
+    public void setKeys(final Collection<String> keys) {
+        final Map<BigInteger, String> newKeys = new HashMap<BigInteger, String>(keys.size());
+        for (final String key : keys) {
+            newKeys.put(RangeScan.hashKey(key), key);
+        }
+        this.keys = newKeys;
+    }
+
+    /**
+     * Reads keys from the given file (UTF-8, one key per line, empty lines
+     * are ignored).
+     *
+     * @param file
+     *            the file to read
+     *
+     * @return a list of keys
+     *
+     * @throws IOException
+     *             if reading the file fails
+     */
+    public static List<String> readKeys(final File file) throws IOException {
+        final List<String> result = new ArrayList<String>();
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), ErlangValue.UTF8));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.length() > 0) {
+                    result.add(line);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return result;
+    }
+
+    /**
+     * Creates the worker threads.
+     *
+     * @return an executor service
+     */
+    private ExecutorService createWorkers() {
+        return Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+            private int count = 0;
+            public synchronized Thread newThread(final Runnable r) {
+                final Thread t = new Thread(r, "Snapshot-" + (++count));
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Exports all items to the given directory.
+     *
+     * @param dir
+     *            the directory to write the segment files to (created if
+     *            necessary, existing segment files are overwritten)
+     *
+     * @return statistics of the export
+     *
+     * @throws IOException
+     *             if writing a file fails
+     * @throws ConnectionException
+     *             if a connection fails
+     * @throws TimeoutException
+     *             if a segment timed out in all attempts
+     * @throws UnknownException
+     *             if any other error occurs
+     */
+    public Statistics exportTo(final File dir) throws IOException,
+            ConnectionException, TimeoutException, UnknownException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("cannot create directory " + dir);
+        }
+        final long start = System.nanoTime();
+        final Counters counters = new Counters();
+        final BigInteger[][] ranges = RangeScan.getSegmentRanges(segments);
+        final List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(ranges.length);
+        for (int i = 0; i < ranges.length; ++i) {
+            final int segment = i;
+            final BigInteger from = ranges[i][0];
+            final BigInteger to = ranges[i][1];
+            tasks.add(new Callable<Object>() {
+                public Object call() throws Exception {
+                    exportSegment(dir, segment, from, to, counters);
+                    return null;
+                }
+            });
+        }
+        runAll(tasks);
+        return new Statistics(ranges.length, counters.items.get(),
+                counters.unresolved.get(), 0, counters.bytes.get(),
+                System.nanoTime() - start);
+    }
+
+    /**
+     * Reads a single segment and writes its segment file.
+     *
+     * @param dir
+     *            the directory to write to
+     * @param segment
+     *            index of the segment
+     * @param from
+     *            first key of the segment (inclusive)
+     * @param to
+     *            last key of the segment (inclusive)
+     * @param counters
+     *            counters to update
+     *
+     * @throws IOException
+     *             if writing the file fails
+     * @throws ConnectionException
+     *             if the connection fails
+     * @throws TimeoutException
+     *             if the segment timed out in all attempts
+     * @throws UnknownException
+     *             if any other error occurs
+     */
+    private void exportSegment(final File dir, final int segment,
+            final BigInteger from, final BigInteger to, final Counters counters)
+            throws IOException, ConnectionException, TimeoutException,
+            UnknownException {
+        final List<RangeScan.Entry> entries = new ArrayList<RangeScan.Entry>();
+        final Connection conn = pool.borrowConnection();
+        try {
+            final int quarters = readAllReplicas ? 4 : 1;
+            for (int q = 0; q < quarters; ++q) {
+                final BigInteger offset = RangeScan.QUARTER.multiply(BigInteger.valueOf(q));
+                RangeScan.rangeRead(conn, from.add(offset), to.add(offset), retries, entries);
+            }
+        } finally {
+            pool.returnConnection(conn);
+        }
+        final Collection<RangeScan.Entry> result = readAllReplicas ? RangeScan
+                .mergeReplicas(entries) : entries;
+        final List<Record> records = new ArrayList<Record>(result.size());
+        for (final RangeScan.Entry entry : result) {
+            final BigInteger position = entry.getKey().mod(RangeScan.QUARTER);
+            final String key = keys.get(position);
+            if (key == null) {
+                counters.unresolved.incrementAndGet();
+            }
+            records.add(Record.fromEntry(entry, key));
+        }
+        counters.items.addAndGet(records.size());
+        counters.bytes.addAndGet(writeSegmentFile(getSegmentFile(dir, segment), segment, records));
+    }
+
+    /**
+     * Imports all segment files of the given directory.
+     *
+     * @param dir
+     *            the directory containing the segment files
+     *
+     * @return statistics of the import
+     *
+     * @throws IOException
+     *             if reading a file fails or a file is corrupt
+     * @throws ConnectionException
+     *             if a connection fails
+     * @throws UnknownException
+     *             if any other error occurs
+     */
+    public Statistics importFrom(final File dir) throws IOException,
+            ConnectionException, UnknownException {
+        final File[] files = dir.listFiles(new FilenameFilter() {
+            public boolean accept(final File d, final String name) {
+                return name.startsWith("segment-") && name.endsWith(".snap");
+            }
+        });
+        if (files == null) {
+            throw new FileNotFoundException(dir.toString());
+        }
+        Arrays.sort(files);
+        final long start = System.nanoTime();
+        final Counters counters = new Counters();
+        final List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(files.length);
+        for (final File file : files) {
+            tasks.add(new Callable<Object>() {
+                public Object call() throws Exception {
+                    importSegment(file, counters);
+                    return null;
+                }
+            });
+        }
+        try {
+            runAll(tasks);
+        } catch (final TimeoutException e) {
+            // not thrown by importSegment
+            throw new UnknownException(e);
+        }
+        return new Statistics(files.length, counters.items.get(),
+                counters.unresolved.get(), counters.failed.get(),
+                counters.bytes.get(), System.nanoTime() - start);
+    }
+
+    /**
+     * Imports a single segment file.
+     *
+     * @param file
+     *            the file to import
+     * @param counters
+     *            counters to update
+     *
+     * @throws IOException
+     *             if reading the file fails or the file is corrupt
+     * @throws ConnectionException
+     *             if the connection fails
+     * @throws UnknownException
+     *             if any other error occurs
+     */
+    private void importSegment(final File file, final Counters counters)
+            throws IOException, ConnectionException, UnknownException {
+        final List<Record> records = readSegmentFile(file);
+        counters.bytes.addAndGet(file.length());
+        final Connection conn = pool.borrowConnection();
+        try {
+            final TransactionSingleOp sc = new TransactionSingleOp(conn);
+            TransactionSingleOp.RequestList batch = new TransactionSingleOp.RequestList();
+            for (final Record record : records) {
+                final String key = (record.key != null) ? record.key : keys.get(record.position);
+                if (key == null) {
+                    counters.unresolved.incrementAndGet();
+                    continue;
+                }
+                final OtpErlangObject value;
+                try {
+                    value = record.decodeValue();
+                } catch (final OtpErlangDecodeException e) {
+                    throw new IOException(file + ": invalid value of " + key);
+                }
+                batch.addWrite(new OtpErlangString(key), value);
+                if (batch.size() >= batchSize) {
+                    writeBatch(sc, batch, counters);
+                    batch = new TransactionSingleOp.RequestList();
+                }
+            }
+            writeBatch(sc, batch, counters);
+        } finally {
+            pool.returnConnection(conn);
+        }
+    }
+
+    /**
+     * Writes a batch of items and updates the counters.
+     *
+     * @param sc
+     *            the transaction object to use
+     * @param batch
+     *            the write requests
+     * @param counters
+     *            counters to update
+     *
+     * @throws ConnectionException
+     *             if the connection fails
+     * @throws UnknownException
+     *             if any other error occurs
+     */
+    private static void writeBatch(final TransactionSingleOp sc,
+            final TransactionSingleOp.RequestList batch, final Counters counters)
+            throws ConnectionException, UnknownException {
+        final TransactionSingleOp.ResultList results = sc.req_list(batch);
+        for (int i = 0; i < results.size(); ++i) {
+            try {
+                results.processWriteAt(i);
+                counters.items.incrementAndGet();
+            } catch (final TimeoutException e) {
+                counters.failed.incrementAndGet();
+            } catch (final AbortException e) {
+                counters.failed.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Runs all tasks with the worker threads and re-throws the first
+     * failure.
+     *
+     * @param tasks
+     *            the tasks to run
+     *
+     * @throws IOException
+     *             if a task failed with this exception
+     * @throws ConnectionException
+     *             if a task failed with this exception
+     * @throws TimeoutException
+     *             if a task failed with this exception
+     * @throws UnknownException
+     *             if a task failed with any other exception or the current
+     *             thread was interrupted
+     */
+    private void runAll(final List<Callable<Object>> tasks) throws IOException,
+            ConnectionException, TimeoutException, UnknownException {
+        final ExecutorService workers = createWorkers();
+        try {
+            final List<Future<Object>> results = new ArrayList<Future<Object>>(tasks.size());
+            for (final Callable<Object> task : tasks) {
+                results.add(workers.submit(task));
+            }
+            for (final Future<Object> result : results) {
+                try {
+                    result.get();
+                } catch (final ExecutionException e) {
+                    final Throwable cause = e.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    } else if (cause instanceof ConnectionException) {
+                        throw (ConnectionException) cause;
+                    } else if (cause instanceof TimeoutException) {
+                        throw (TimeoutException) cause;
+                    } else if (cause instanceof UnknownException) {
+                        throw (UnknownException) cause;
+                    }
+                    throw new UnknownException(cause);
+                }
+            }
+        } catch (final InterruptedException e) {
+            throw new UnknownException(e);
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    /**
+     * Gets the file of the given segment.
+     *
+     * @param dir
+     *            the snapshot directory
+     * @param segment
+     *            index of the segment
+     *
+     * @return the segment file
+     */
+    static File getSegmentFile(final File dir, final int segment) {
+        return new File(dir, String.format("segment-%05d.snap", segment));
+    }
+
+    /**
+     * Writes a segment file using a memory-mapped buffer.
+     *
+     * @param file
+     *            the file to write (overwritten if it exists)
+     * @param segment
+     *            index of the segment
+     * @param records
+     *            the records to write
+     *
+     * @return the size of the file
+     *
+     * @throws IOException
+     *             if writing the file fails
+     */
+    static long writeSegmentFile(final File file, final int segment,
+            final List<Record> records) throws IOException {
+        final byte[][] positions = new byte[records.size()][];
+        final byte[][] keyBytes = new byte[records.size()][];
+        long size = HEADER_SIZE + 8;
+        for (int i = 0; i < records.size(); ++i) {
+            final Record record = records.get(i);
+            positions[i] = record.position.toByteArray();
+            size += 1 + 1 + positions[i].length + 8 + 4 + record.value.length;
+            if (record.key != null) {
+                keyBytes[i] = record.key.getBytes(ErlangValue.UTF8);
+                size += 4 + keyBytes[i].length;
+            }
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException(file + ": segment too large, use more segments");
+        }
+
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(size);
+            final FileChannel channel = raf.getChannel();
+            final MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buf.putInt(MAGIC);
+            buf.putInt(FORMAT_VERSION);
+            buf.putInt(segment);
+            buf.putInt(records.size());
+            for (int i = 0; i < records.size(); ++i) {
+                final Record record = records.get(i);
+                buf.put((keyBytes[i] != null) ? FLAG_KEY : 0);
+                buf.put((byte) positions[i].length);
+                buf.put(positions[i]);
+                if (keyBytes[i] != null) {
+                    buf.putInt(keyBytes[i].length);
+                    buf.put(keyBytes[i]);
+                }
+                buf.putLong(record.version);
+                buf.putInt(record.value.length);
+                buf.put(record.value);
+            }
+            buf.putLong(checksum(buf, (int) size - 8));
+            buf.force();
+        } finally {
+            raf.close();
+        }
+        return size;
+    }
+
+    /**
+     * Reads a segment file and verifies its checksum.
+     *
+     * @param file
+     *            the file to read
+     *
+     * @return the records of the file
+     *
+     * @throws IOException
+     *             if reading the file fails or the file is corrupt
+     */
+    static List<Record> readSegmentFile(final File file) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final long size = raf.length();
+            if ((size < HEADER_SIZE + 8) || (size > Integer.MAX_VALUE)) {
+                throw new IOException(file + ": invalid file size " + size);
+            }
+            final MappedByteBuffer buf = raf.getChannel().map(
+                    FileChannel.MapMode.READ_ONLY, 0, size);
+            buf.position((int) size - 8);
+            if (buf.getLong() != checksum(buf, (int) size - 8)) {
+                throw new IOException(file + ": checksum mismatch");
+            }
+            buf.position(0);
+            if ((buf.getInt() != MAGIC) || (buf.getInt() != FORMAT_VERSION)) {
+                throw new IOException(file + ": no snapshot file (version " + FORMAT_VERSION + ")");
+            }
+            buf.getInt(); // segment
+            final int count = buf.getInt();
+            final List<Record> records = new ArrayList<Record>(count);
+            try {
+                for (int i = 0; i < count; ++i) {
+                    final byte flags = buf.get();
+                    final byte[] position = new byte[buf.get()];
+                    buf.get(position);
+                    String key = null;
+                    if ((flags & FLAG_KEY) != 0) {
+                        final byte[] keyBytes = new byte[buf.getInt()];
+                        buf.get(keyBytes);
+                        key = new String(keyBytes, ErlangValue.UTF8);
+                    }
+                    final long version = buf.getLong();
+                    final byte[] value = new byte[buf.getInt()];
+                    buf.get(value);
+                    records.add(new Record(new BigInteger(position), key, version, value));
+                }
+            } catch (final RuntimeException e) {
+                // BufferUnderflowException, NegativeArraySizeException
+                throw new IOException(file + ": invalid record (" + e + ")");
+            }
+            return records;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Calculates the CRC32 checksum of the first <tt>length</tt> bytes of
+     * the given buffer.
+     *
+     * @param buf
+     *            the buffer (its position is changed)
+     * @param length
+     *            number of bytes to include
+     *
+     * @return the checksum
+     */
+    private static long checksum(final ByteBuffer buf, final int length) {
+        final CRC32 crc = new CRC32();
+        final byte[] chunk = new byte[Math.min(length, 64 * 1024)];
+        buf.position(0);
+        int remaining = length;
+        while (remaining > 0) {
+            final int n = Math.min(remaining, chunk.length);
+            buf.get(chunk, 0, n);
+            crc.update(chunk, 0, n);
+            remaining -= n;
+        }
+        return crc.getValue();
+    }
+}
@@ -15,6 +15,8 @@
  */
 package de.zib.scalaris;
 
+import java.util.LinkedHashSet;
+import java.util.Set;
 
 import com.ericsson.otp.erlang.OtpErlangList;
 import com.ericsson.otp.erlang.OtpErlangObject;
@@ -50,7 +52,9 @@ import com.ericsson.otp.erlang.OtpErlangTuple;
  *       <p>An example using erlang objects to improve performance for
  *       inserting strings is provided by
  *       {@link de.zib.scalaris.examples.ErlangValueFastString} and can be
- *       tested by {@link de.zib.scalaris.examples.FastStringBenchmark}.</p>
+ *       tested by {@link de.zib.scalaris.examples.FastStringBenchmark}.
+ *       {@link Connection#setBinaryStrings(boolean)} sends all strings as
+ *       UTF-8 binaries instead.</p>
  * </ul>
  * </p>
  *
@@ -93,8 +97,24 @@ import com.ericsson.otp.erlang.OtpErlangTuple;
  * by classifying nodes as good or bad depending on their previous state. The
  * number of automatic retries is adjustable (default: 3).
  *
+ * <h3>Asynchronous operations</h3>
+ *
+ * {@link #req_listAsync(RequestList)}, {@link #readAsync(String)} and
+ * {@link #commitAsync()} send their request without waiting for the result.
+ * Since every request of a transaction depends on the transaction log of the
+ * previous one, the result of an asynchronous call must be available before
+ * the next request is issued on the same object. Use separate
+ * {@link Transaction} objects (which may share a {@link Connection}) to have
+ * several transactions in flight.
+ *
+ * <h3>Near cache</h3>
+ *
+ * If a {@link NearCache} is set with {@link #setNearCache(NearCache)}, the
+ * keys written in the transaction are invalidated in it with each commit
+ * attempt. Reads of a transaction never use the cache.
+ *
  * @author Nico Kruber, kruber@zib.de
- * @version 3.5
+ * @version 3.6
  * @since 2.0
  */
 public class Transaction {
@@ -108,6 +128,17 @@ public class Transaction {
      */
     private final Connection connection;
 
+    /**
+     * Cache to invalidate the written keys in (<tt>null</tt> if disabled).
+     */
+    private volatile NearCache nearCache = null;
+
+    /**
+     * Keys written in the current transaction (only collected if a near
+     * cache is set, guarded by itself).
+     */
+    private final Set<String> writtenKeys = new LinkedHashSet<String>();
+
     /**
      * Constructor, uses the default connection returned by
      * {@link ConnectionFactory#createConnection()}.
@@ -274,14 +305,94 @@ public class Transaction {
         if (req.isEmpty()) {
             return new ResultList(new OtpErlangList());
         }
-        OtpErlangObject received_raw = null;
+        writing(req);
+        try {
+            OtpErlangObject received_raw = null;
+            if (transLog == null) {
+                received_raw = connection.doRPC("api_tx", "req_list",
+                        new OtpErlangObject[] { req.getErlangReqList(connection) });
+            } else {
+                received_raw = connection.doRPC("api_tx", "req_list",
+                        new OtpErlangObject[] { transLog, req.getErlangReqList(connection) });
+            }
+            return processResult_req_list(req, received_raw);
+        } finally {
+            committed(req);
+        }
+    }
+
+    /**
+     * Executes all requests in <code>req</code> asynchronously.
+     *
+     * The result fails with the exceptions described in
+     * {@link #req_list(RequestList)}. The transaction log is updated when the
+     * result arrives, i.e. no further request must be issued on this object
+     * before the returned result is available.
+     *
+     * @param req
+     *            the requests to issue
+     *
+     * @return the (future) results of all requests in the same order as they
+     *         appear in <code>req</code>
+     *
+     * @throws ConnectionException
+     *             if the connection is not active or a communication error
+     *             occurs while sending or the remote node sends a message
+     *             containing an invalid cookie
+     *
+     * @see #req_list(RequestList)
+     * @since 3.6
+     */
+    public AsyncResult<ResultList> req_listAsync(final RequestList req)
+            throws ConnectionException {
+        if (req.isEmpty()) {
+            final AsyncResult<ResultList> result = new AsyncResult<ResultList>();
+            result.complete(new ResultList(new OtpErlangList()));
+            return result;
+        }
+        writing(req);
+        AsyncResult<OtpErlangObject> received = null;
         if (transLog == null) {
-            received_raw = connection.doRPC("api_tx", "req_list",
-                    new OtpErlangObject[] { req.getErlangReqList() });
+            received = connection.doRPCAsync("api_tx", "req_list",
+                    new OtpErlangObject[] { req.getErlangReqList(connection) });
         } else {
-            received_raw = connection.doRPC("api_tx", "req_list",
-                    new OtpErlangObject[] { transLog, req.getErlangReqList() });
+            received = connection.doRPCAsync("api_tx", "req_list",
+                    new OtpErlangObject[] { transLog, req.getErlangReqList(connection) });
         }
+        return AsyncResult.convert(received,
+                new AsyncResult.Converter<OtpErlangObject, ResultList>() {
+                    public ResultList convert(final OtpErlangObject received_raw)
+                            throws TimeoutException, AbortException, UnknownException {
+                        try {
+                            return processResult_req_list(req, received_raw);
+                        } finally {
+                            committed(req);
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Processes the result of a <tt>api_tx:req_list/1,2</tt> call and sets
+     * the new transaction log.
+     *
+     * @param req
+     *            the requests that have been issued
+     * @param received_raw
+     *            the raw result from erlang
+     *
+     * @return the results list
+     *
+     * @throws TimeoutException
+     *             if a timeout occurred while trying to write the value
+     * @throws AbortException
+     *             if the commit failed
+     * @throws UnknownException
+     *             if any other error occurs
+     */
+    private ResultList processResult_req_list(final RequestList req,
+            final OtpErlangObject received_raw) throws TimeoutException,
+            AbortException, UnknownException {
         try {
             /*
              * possible return values:
@@ -338,6 +449,31 @@ public class Transaction {
         req_list((RequestList) new RequestList().addCommit());
     }
 
+    /**
+     * Commits the current transaction asynchronously.
+     *
+     * The result fails with the exceptions described in {@link #commit()}.
+     *
+     * @return the (future) result of the commit (<tt>null</tt> on success)
+     *
+     * @throws ConnectionException
+     *             if the connection is not active or a communication error
+     *             occurs while sending or the remote node sends a message
+     *             containing an invalid cookie
+     *
+     * @see #commit()
+     * @since 3.6
+     */
+    public AsyncResult<Void> commitAsync() throws ConnectionException {
+        return AsyncResult.convert(
+                req_listAsync((RequestList) new RequestList().addCommit()),
+                new AsyncResult.Converter<ResultList, Void>() {
+                    public Void convert(final ResultList result) {
+                        return null;
+                    }
+                });
+    }
+
     /**
      * Cancels the current transaction.
      *
@@ -351,6 +487,9 @@ public class Transaction {
      */
     public void abort() {
         transLog = null;
+        synchronized (writtenKeys) {
+            writtenKeys.clear();
+        }
     }
 
     /**
@@ -415,6 +554,61 @@ public class Transaction {
         return read(new OtpErlangString(key));
     }
 
+    /**
+     * Gets the value stored under the given <code>key</code> asynchronously.
+     *
+     * The result fails with the exceptions described in
+     * {@link #read(OtpErlangString)}.
+     *
+     * @param key
+     *            the key to look up
+     *
+     * @return the (future) value stored under the given <code>key</code>
+     *
+     * @throws ConnectionException
+     *             if the connection is not active or a communication error
+     *             occurs while sending or the remote node sends a message
+     *             containing an invalid cookie
+     *
+     * @see #read(OtpErlangString)
+     * @since 3.6
+     */
+    public AsyncResult<ErlangValue> readAsync(final OtpErlangString key)
+            throws ConnectionException {
+        return AsyncResult.convert(
+                req_listAsync((RequestList) new RequestList().addRead(key)),
+                new AsyncResult.Converter<ResultList, ErlangValue>() {
+                    public ErlangValue convert(final ResultList result)
+                            throws TimeoutException, NotFoundException, UnknownException {
+                        if (result.size() == 1) {
+                            return result.processReadAt(0);
+                        }
+                        throw new UnknownException(result.getResults());
+                    }
+                });
+    }
+
+    /**
+     * Gets the value stored under the given <code>key</code> asynchronously.
+     *
+     * @param key
+     *            the key to look up
+     *
+     * @return the (future) value stored under the given <code>key</code>
+     *
+     * @throws ConnectionException
+     *             if the connection is not active or a communication error
+     *             occurs while sending or the remote node sends a message
+     *             containing an invalid cookie
+     *
+     * @see #readAsync(OtpErlangString)
+     * @since 3.6
+     */
+    public AsyncResult<ErlangValue> readAsync(final String key)
+            throws ConnectionException {
+        return readAsync(new OtpErlangString(key));
+    }
+
     /**
      * Stores the given <code>key</code>/<code>value</code> pair.
      *
@@ -475,6 +669,71 @@ public class Transaction {
         write(new OtpErlangString(key), ErlangValue.convertToErlang(value));
     }
 
+    /**
+     * Sets the cache to invalidate the keys written in this transaction in
+     * when committing.
+     *
+     * @param nearCache
+     *            the cache to use (<tt>null</tt> to disable invalidations)
+     *
+     * @see TransactionSingleOp#setNearCache(NearCache)
+     * @since 3.6
+     */
+    public void setNearCache(final NearCache nearCache) {
+        this.nearCache = nearCache;
+    }
+
+    /**
+     * Gets the cache the keys written in this transaction are invalidated
+     * in.
+     *
+     * @return the cache or <tt>null</tt> if disabled
+     *
+     * @since 3.6
+     */
+    public NearCache getNearCache() {
+        return nearCache;
+    }
+
+    /**
+     * Remembers the keys written by the given requests (if a near cache is
+     * set).
+     *
+     * @param req
+     *            the requests to issue
+     */
+    private void writing(final RequestList req) {
+        if (nearCache != null) {
+            synchronized (writtenKeys) {
+                writtenKeys.addAll(req.getWrittenKeys());
+            }
+        }
+    }
+
+    /**
+     * Invalidates all keys written in the transaction in the near cache (if
+     * set) if the given requests contain a commit. Failed commits may have
+     * been committed nevertheless so the keys are invalidated with each
+     * attempt but are only forgotten once the transaction is finished.
+     *
+     * @param req
+     *            the issued requests
+     */
+    private void committed(final RequestList req) {
+        final NearCache nearCache0 = nearCache;
+        if (!req.isCommit() || (nearCache0 == null)) {
+            return;
+        }
+        synchronized (writtenKeys) {
+            for (final String key : writtenKeys) {
+                nearCache0.written(key);
+            }
+            if (transLog == null) {
+                writtenKeys.clear();
+            }
+        }
+    }
+
     /**
      * Closes the transaction's connection to a scalaris node.
      *
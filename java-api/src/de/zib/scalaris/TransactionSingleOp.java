@@ -54,7 +54,9 @@ import com.ericsson.otp.erlang.OtpErlangTuple;
  *       <p>An example using erlang objects to improve performance for
  *       inserting strings is provided by
  *       {@link de.zib.scalaris.examples.ErlangValueFastString} and can be
- *       tested by {@link de.zib.scalaris.examples.FastStringBenchmark}.</p>
+ *       tested by {@link de.zib.scalaris.examples.FastStringBenchmark}.
+ *       {@link Connection#setBinaryStrings(boolean)} sends all strings as
+ *       UTF-8 binaries instead.</p>
  * </ul>
  * </p>
  *
@@ -99,8 +101,30 @@ import com.ericsson.otp.erlang.OtpErlangTuple;
  * retries by classifying nodes as good or bad depending on their previous
  * state. The number of automatic retries is adjustable (default: 3).
  *
+ * <h3>Asynchronous operations</h3>
+ *
+ * All operations are also available as asynchronous variants, e.g.
+ * {@link #readAsync(String)} or {@link #writeAsync(String, Object)}, which
+ * return an {@link AsyncResult} right after the request has been sent. They
+ * are pipelined over the object's connection, see
+ * {@link Connection#doRPCAsync(String, String, OtpErlangList)}.
+ * Many concurrent single operations from different threads can be combined
+ * into batches by a {@link TransactionSingleOpBatcher}.
+ *
+ * <h3>Hedged reads</h3>
+ *
+ * Reads may optionally be hedged, i.e. if a read takes longer than a given
+ * percentile of the recent read latencies, it is also sent over a second
+ * connection to a different node and the first reply is used, see
+ * {@link #setReadHedging(ReadHedging, Connection)} and {@link ReadHedging}.
+ *
+ * <h3>Near cache</h3>
+ *
+ * Frequently read keys which rarely change may be cached on the client, see
+ * {@link #setNearCache(NearCache)} and {@link NearCache}.
+ *
  * @author Nico Kruber, kruber@zib.de
- * @version 3.5
+ * @version 3.6
  * @since 2.0
  */
 public class TransactionSingleOp {
@@ -109,6 +133,21 @@ public class TransactionSingleOp {
      */
     private final Connection connection;
 
+    /**
+     * Settings of hedged reads (<tt>null</tt> if disabled).
+     */
+    private volatile ReadHedging hedging = null;
+
+    /**
+     * Connection to send hedged reads to.
+     */
+    private volatile Connection hedgeConnection = null;
+
+    /**
+     * Client-side cache of read values (<tt>null</tt> if disabled).
+     */
+    private volatile NearCache nearCache = null;
+
     /**
      * Constructor, uses the default connection returned by
      * {@link ConnectionFactory#createConnection()}.
@@ -263,8 +302,68 @@ public class TransactionSingleOp {
         if (req.isEmpty()) {
             return new ResultList(new OtpErlangList());
         }
-        final OtpErlangObject received_raw = connection.doRPC("api_tx", "req_list_commit_each",
-                    new OtpErlangObject[] { req.getErlangReqList() });
+        try {
+            final OtpErlangObject received_raw = connection.doRPC("api_tx", "req_list_commit_each",
+                        new OtpErlangObject[] { req.getErlangReqList(connection) });
+            return processResult_req_list(received_raw);
+        } finally {
+            written(req);
+        }
+    }
+
+    /**
+     * Executes all requests in <code>req</code> asynchronously and commits
+     * each one of them in a single transaction.
+     *
+     * @param req
+     *            the requests to issue
+     *
+     * @return the (future) results of all requests in the same order as they
+     *         appear in <code>req</code>
+     *
+     * @throws ConnectionException
+     *             if the connection is not active or a communication error
+     *             occurs while sending or the remote node sends a message
+     *             containing an invalid cookie
+     *
+     * @see #req_list(RequestList)
+     * @since 3.6
+     */
+    public AsyncResult<ResultList> req_listAsync(final RequestList req)
+            throws ConnectionException {
+        if (req.isEmpty()) {
+            final AsyncResult<ResultList> result = new AsyncResult<ResultList>();
+            result.complete(new ResultList(new OtpErlangList()));
+            return result;
+        }
+        return AsyncResult.convert(
+                connection.doRPCAsync("api_tx", "req_list_commit_each",
+                        new OtpErlangObject[] { req.getErlangReqList(connection) }),
+                new AsyncResult.Converter<OtpErlangObject, ResultList>() {
+                    public ResultList convert(final OtpErlangObject received_raw)
+                            throws UnknownException {
+                        try {
+                            return processResult_req_list(received_raw);
+                        } finally {
+                            written(req);
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Processes the result of a <tt>api_tx:req_list_commit_each/1</tt> call.
+     *
+     * @param received_raw
+     *            the raw result from erlang
+     *
+     * @return the results list
+     *
+     * @throws UnknownException
+     *             if the result has an unexpected format
+     */
+    static ResultList processResult_req_list(final OtpErlangObject received_raw)
+            throws UnknownException {
         try {
             /*
              * possible return values:
@@ -305,8 +404,54 @@ public class TransactionSingleOp {
     public ErlangValue read(final OtpErlangString key)
             throws ConnectionException, TimeoutException, NotFoundException,
             UnknownException {
-        final OtpErlangObject received_raw = connection.doRPC("api_tx", "read",
-                new OtpErlangList(key));
+        final NearCache nearCache0 = nearCache;
+        if (nearCache0 == null) {
+            return readFromRing(key);
+        }
+        final String keyString = key.stringValue();
+        final ErlangValue cached = nearCache0.get(keyString);
+        if (cached != null) {
+            return cached;
+        }
+        final long generation = nearCache0.getGeneration();
+        final long start = System.nanoTime();
+        final ErlangValue value = readFromRing(key);
+        nearCache0.put(keyString, value, generation, start);
+        return value;
+    }
+
+    /**
+     * Gets the value stored under the given <tt>key</tt> from scalaris
+     * (bypassing the near cache).
+     *
+     * @param key
+     *            the key to look up
+     *
+     * @return the value stored under the given <tt>key</tt>
+     *
+     * @throws ConnectionException
+     *             if the connection is not active or a communication error
+     *             occurs or an exit signal was received or the remote node
+     *             sends a message containing an invalid cookie
+     * @throws TimeoutException
+     *             if a timeout occurred while trying to fetch the value
+     * @throws NotFoundException
+     *             if the requested key does not exist
+     * @throws UnknownException
+     *             if any other error occurs
+     */
+    private ErlangValue readFromRing(final OtpErlangString key)
+            throws ConnectionException, TimeoutException, NotFoundException,
+            UnknownException {
+        final OtpErlangObject received_raw;
+        final ReadHedging hedging0 = hedging;
+        if (hedging0 == null) {
+            received_raw = connection.doRPC("api_tx", "read",
+                    new OtpErlangList(connection.encodeStrings(key)));
+        } else {
+            received_raw = hedging0.doRPC(connection, hedgeConnection,
+                    "api_tx", "read", new OtpErlangList(connection.encodeStrings(key)));
+        }
         return new ErlangValue(CommonErlangObjects.processResult_read(received_raw));
     }
 
@@ -337,6 +482,60 @@ public class TransactionSingleOp {
         return read(new OtpErlangString(key));
     }
 
+    /**
+     * Gets the value stored under the given <tt>key</tt> asynchronously.
+     *
+     * The result fails with a {@link TimeoutException},
+     * {@link NotFoundException} or {@link UnknownException} as described in
+     * {@link #read(OtpErlangString)}.
+     *
+     * @param key
+     *            the key to look up
+     *
+     * @return the (future) value stored under the given <tt>key</tt>
+     *
+     * @throws ConnectionException
+     *             if the connection is not active or a communication error
+     *             occurs while sending or the remote node sends a message
+     *             containing an invalid cookie
+     *
+     * @see #read(OtpErlangString)
+     * @since 3.6
+     */
+    public AsyncResult<ErlangValue> readAsync(final OtpErlangString key)
+            throws ConnectionException {
+        return AsyncResult.convert(
+                connection.doRPCAsync("api_tx", "read",
+                        new OtpErlangList(connection.encodeStrings(key))),
+                new AsyncResult.Converter<OtpErlangObject, ErlangValue>() {
+                    public ErlangValue convert(final OtpErlangObject received_raw)
+                            throws TimeoutException, NotFoundException, UnknownException {
+                        return new ErlangValue(CommonErlangObjects.processResult_read(received_raw));
+                    }
+                });
+    }
+
+    /**
+     * Gets the value stored under the given <tt>key</tt> asynchronously.
+     *
+     * @param key
+     *            the key to look up
+     *
+     * @return the (future) value stored under the given <tt>key</tt>
+     *
+     * @throws ConnectionException
+     *             if the connection is not active or a communication error
+     *             occurs while sending or the remote node sends a message
+     *             containing an invalid cookie
+     *
+     * @see #readAsync(OtpErlangString)
+     * @since 3.6
+     */
+    public AsyncResult<ErlangValue> readAsync(final String key)
+            throws ConnectionException {
+        return readAsync(new OtpErlangString(key));
+    }
+
     // /////////////////////////////
     // write methods
     // /////////////////////////////
@@ -364,9 +563,14 @@ public class TransactionSingleOp {
      */
     public void write(final OtpErlangString key, final OtpErlangObject value)
             throws ConnectionException, TimeoutException, AbortException, UnknownException {
-        final OtpErlangObject received_raw = connection.doRPC("api_tx", "write",
-                new OtpErlangObject[] { key, value });
-        CommonErlangObjects.processResult_commit(received_raw);
+        try {
+            final OtpErlangObject received_raw = connection.doRPC("api_tx", "write",
+                    new OtpErlangObject[] { connection.encodeStrings(key),
+                            connection.encodeStrings(value) });
+            CommonErlangObjects.processResult_commit(received_raw);
+        } finally {
+            written(key);
+        }
     }
 
     /**
@@ -399,6 +603,73 @@ public class TransactionSingleOp {
         write(new OtpErlangString(key), ErlangValue.convertToErlang(value));
     }
 
+    /**
+     * Stores the given <tt>key</tt>/<tt>value</tt> pair asynchronously.
+     *
+     * The result fails with a {@link TimeoutException},
+     * {@link AbortException} or {@link UnknownException} as described in
+     * {@link #write(OtpErlangString, OtpErlangObject)}.
+     *
+     * @param key
+     *            the key to store the value for
+     * @param value
+     *            the value to store
+     *
+     * @return the (future) result of the operation (<tt>null</tt> on success)
+     *
+     * @throws ConnectionException
+     *             if the connection is not active or a communication error
+     *             occurs while sending or the remote node sends a message
+     *             containing an invalid cookie
+     *
+     * @see #write(OtpErlangString, OtpErlangObject)
+     * @since 3.6
+     */
+    public AsyncResult<Void> writeAsync(final OtpErlangString key, final OtpErlangObject value)
+            throws ConnectionException {
+        return AsyncResult.convert(
+                connection.doRPCAsync("api_tx", "write",
+                        new OtpErlangObject[] { connection.encodeStrings(key),
+                                connection.encodeStrings(value) }),
+                new AsyncResult.Converter<OtpErlangObject, Void>() {
+                    public Void convert(final OtpErlangObject received_raw)
+                            throws TimeoutException, AbortException, UnknownException {
+                        try {
+                            CommonErlangObjects.processResult_commit(received_raw);
+                            return null;
+                        } finally {
+                            written(key);
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Stores the given <tt>key</tt>/<tt>value</tt> pair asynchronously.
+     *
+     * @param <T>
+     *            the type of the value to store.
+     *            See {@link ErlangValue} for a list of supported types.
+     * @param key
+     *            the key to store the value for
+     * @param value
+     *            the value to store
+     *
+     * @return the (future) result of the operation (<tt>null</tt> on success)
+     *
+     * @throws ConnectionException
+     *             if the connection is not active or a communication error
+     *             occurs while sending or the remote node sends a message
+     *             containing an invalid cookie
+     *
+     * @see #writeAsync(OtpErlangString, OtpErlangObject)
+     * @since 3.6
+     */
+    public <T> AsyncResult<Void> writeAsync(final String key, final T value)
+            throws ConnectionException {
+        return writeAsync(new OtpErlangString(key), ErlangValue.convertToErlang(value));
+    }
+
     // /////////////////////////////
     // test and set
     // /////////////////////////////
@@ -435,8 +706,37 @@ public class TransactionSingleOp {
             final OtpErlangObject old_value, final OtpErlangObject new_value)
             throws ConnectionException, TimeoutException, AbortException,
             NotFoundException, KeyChangedException, UnknownException {
-        final OtpErlangObject received_raw = connection.doRPC("api_tx", "test_and_set",
-                new OtpErlangObject[] { key, old_value, new_value });
+        try {
+            final OtpErlangObject received_raw = connection.doRPC("api_tx", "test_and_set",
+                    new OtpErlangObject[] { connection.encodeStrings(key),
+                            connection.encodeStrings(old_value),
+                            connection.encodeStrings(new_value) });
+            processResult_testAndSet(received_raw);
+        } finally {
+            written(key);
+        }
+    }
+
+    /**
+     * Processes the result of a <tt>api_tx:test_and_set/3</tt> call.
+     *
+     * @param received_raw
+     *            the raw result from erlang
+     *
+     * @throws TimeoutException
+     *             if a timeout occurred while trying to write the value
+     * @throws AbortException
+     *             if the commit of the write failed
+     * @throws NotFoundException
+     *             if the requested key does not exist
+     * @throws KeyChangedException
+     *             if the key did not match the old value
+     * @throws UnknownException
+     *             if any other error occurs
+     */
+    private static void processResult_testAndSet(final OtpErlangObject received_raw)
+            throws TimeoutException, AbortException, NotFoundException,
+            KeyChangedException, UnknownException {
         /*
          * possible return values:
          *  {ok} | {fail, timeout | abort | not_found | {key_changed, RealOldValue}
@@ -513,12 +813,203 @@ public class TransactionSingleOp {
     }
 
     /**
-     * Closes the transaction's connection to a scalaris node.
+     * Stores the given <tt>key</tt>/<tt>new_value</tt> pair if the old value
+     * at <tt>key</tt> is <tt>old_value</tt> (atomic test_and_set) -
+     * asynchronously.
+     *
+     * The result fails with the exceptions described in
+     * {@link #testAndSet(OtpErlangString, OtpErlangObject, OtpErlangObject)}.
+     *
+     * @param key
+     *            the key to store the value for
+     * @param old_value
+     *            the old value to check
+     * @param new_value
+     *            the value to store
+     *
+     * @return the (future) result of the operation (<tt>null</tt> on success)
+     *
+     * @throws ConnectionException
+     *             if the connection is not active or a communication error
+     *             occurs while sending or the remote node sends a message
+     *             containing an invalid cookie
+     *
+     * @see #testAndSet(OtpErlangString, OtpErlangObject, OtpErlangObject)
+     * @since 3.6
+     */
+    public AsyncResult<Void> testAndSetAsync(final OtpErlangString key,
+            final OtpErlangObject old_value, final OtpErlangObject new_value)
+            throws ConnectionException {
+        return AsyncResult.convert(
+                connection.doRPCAsync("api_tx", "test_and_set",
+                        new OtpErlangObject[] { connection.encodeStrings(key),
+                                connection.encodeStrings(old_value),
+                                connection.encodeStrings(new_value) }),
+                new AsyncResult.Converter<OtpErlangObject, Void>() {
+                    public Void convert(final OtpErlangObject received_raw)
+                            throws TimeoutException, AbortException,
+                            NotFoundException, KeyChangedException,
+                            UnknownException {
+                        try {
+                            processResult_testAndSet(received_raw);
+                            return null;
+                        } finally {
+                            written(key);
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Stores the given <tt>key</tt>/<tt>new_value</tt> pair if the old value
+     * at <tt>key</tt> is <tt>old_value</tt> (atomic test_and_set) -
+     * asynchronously.
+     *
+     * @param <OldT>
+     *            the type of the stored (old) value.
+     *            See {@link ErlangValue} for a list of supported types.
+     * @param <NewT>
+     *            the type of the (new) value to store.
+     *            See {@link ErlangValue} for a list of supported types.
+     * @param key
+     *            the key to store the value for
+     * @param old_value
+     *            the old value to check
+     * @param new_value
+     *            the value to store
+     *
+     * @return the (future) result of the operation (<tt>null</tt> on success)
+     *
+     * @throws ConnectionException
+     *             if the connection is not active or a communication error
+     *             occurs while sending or the remote node sends a message
+     *             containing an invalid cookie
+     *
+     * @see #testAndSetAsync(OtpErlangString, OtpErlangObject, OtpErlangObject)
+     * @since 3.6
+     */
+    public <OldT, NewT> AsyncResult<Void> testAndSetAsync(final String key,
+            final OldT old_value, final NewT new_value)
+            throws ConnectionException {
+        return testAndSetAsync(new OtpErlangString(key),
+                ErlangValue.convertToErlang(old_value),
+                ErlangValue.convertToErlang(new_value));
+    }
+
+    /**
+     * Enables hedged reads for {@link #read(OtpErlangString)} and
+     * {@link #read(String)}.
+     *
+     * Hedged requests are only sent if <tt>hedgeConnection</tt> is connected
+     * to a different node than this object's connection.
+     *
+     * @param hedging
+     *            the hedging settings and statistics (may be shared among
+     *            several objects)
+     * @param hedgeConnection
+     *            the connection to send hedged reads to
+     *
+     * @since 3.6
+     */
+    public void setReadHedging(final ReadHedging hedging,
+            final Connection hedgeConnection) {
+        this.hedgeConnection = hedgeConnection;
+        this.hedging = hedging;
+    }
+
+    /**
+     * Disables hedged reads.
+     *
+     * Note: The connection set with
+     * {@link #setReadHedging(ReadHedging, Connection)} is not closed.
+     *
+     * @since 3.6
+     */
+    public void disableReadHedging() {
+        hedging = null;
+        hedgeConnection = null;
+    }
+
+    /**
+     * Gets the settings and statistics of hedged reads.
+     *
+     * @return the hedging object or <tt>null</tt> if disabled
+     *
+     * @since 3.6
+     */
+    public ReadHedging getReadHedging() {
+        return hedging;
+    }
+
+    /**
+     * Sets the cache to consult in {@link #read(OtpErlangString)} and
+     * {@link #read(String)} and to invalidate on writes.
+     *
+     * Note: {@link #readAsync(OtpErlangString)} and the reads of
+     * {@link #req_list(RequestList)} bypass the cache. Writes invalidate it
+     * with all methods, i.e. also in request lists.
+     *
+     * @param nearCache
+     *            the cache to use (<tt>null</tt> to disable caching)
+     *
+     * @since 3.6
+     */
+    public void setNearCache(final NearCache nearCache) {
+        this.nearCache = nearCache;
+    }
+
+    /**
+     * Gets the cache consulted by reads.
+     *
+     * @return the cache or <tt>null</tt> if disabled
+     *
+     * @since 3.6
+     */
+    public NearCache getNearCache() {
+        return nearCache;
+    }
+
+    /**
+     * Invalidates the given key in the near cache (if set) after a write.
+     *
+     * @param key
+     *            the written key
+     */
+    private void written(final OtpErlangString key) {
+        final NearCache nearCache0 = nearCache;
+        if (nearCache0 != null) {
+            nearCache0.written(key.stringValue());
+        }
+    }
+
+    /**
+     * Invalidates the keys of all writes in the given request list in the
+     * near cache (if set).
+     *
+     * @param req
+     *            the issued requests
+     */
+    private void written(final RequestList req) {
+        final NearCache nearCache0 = nearCache;
+        if (nearCache0 != null) {
+            for (final String key : req.getWrittenKeys()) {
+                nearCache0.written(key);
+            }
+        }
+    }
+
+    /**
+     * Closes the transaction's connection to a scalaris node (and the
+     * connection used for hedged reads, if any).
      *
      * Note: Subsequent calls to the other methods will throw
      * {@link ConnectionException}s!
      */
     public void closeConnection() {
         connection.close();
+        final Connection hedgeConnection0 = hedgeConnection;
+        if (hedgeConnection0 != null) {
+            hedgeConnection0.close();
+        }
     }
 }
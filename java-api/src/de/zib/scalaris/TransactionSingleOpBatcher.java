@@ -0,0 +1,839 @@
+/**
+ *  Copyright 2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.ericsson.otp.erlang.OtpErlangObject;
+import com.ericsson.otp.erlang.OtpErlangString;
+
+/**
+ * Thread-safe front-end to {@link TransactionSingleOp} which combines
+ * concurrent single-op reads and writes into batches.
+ *
+ * Requests from all threads are collected until either
+ * {@link #getMaxBatchSize()} requests are pending or the oldest pending
+ * request has waited for {@link #getMaxDelay()} microseconds. They are then
+ * sent as a single {@link TransactionSingleOp.RequestList} via
+ * {@link TransactionSingleOp#req_listAsync(TransactionSingleOp.RequestList)},
+ * i.e. <tt>api_tx:req_list_commit_each/1</tt>, and each caller receives the
+ * result from its slot of the {@link TransactionSingleOp.ResultList}. Each
+ * request is still committed in its own transaction.
+ *
+ * <pre>
+ * <code style="white-space:pre;">
+ *   TransactionSingleOpBatcher batcher = new TransactionSingleOpBatcher(conn);
+ *   // called concurrently from many threads:
+ *   batcher.write(key, value);                    // {@link #write(String, Object)}
+ *   String value = batcher.read(key).stringValue(); // {@link #read(String)}
+ *   ...
+ *   batcher.close();                              // {@link #close()}
+ * </code>
+ * </pre>
+ *
+ * Batches are pipelined over the connection, i.e. a new batch may be sent
+ * before the results of the previous one have arrived. The distribution of
+ * the batch sizes is available via {@link #getStatistics()}.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ * @version 3.6
+ * @since 3.6
+ */
+public class TransactionSingleOpBatcher {
+    /**
+     * A single pending request.
+     */
+    private static final class Request {
+        /**
+         * The key to read or write.
+         */
+        final OtpErlangString key;
+        /**
+         * The value to write (<tt>null</tt> for reads).
+         */
+        final OtpErlangObject value;
+        /**
+         * The (future) result of a read.
+         */
+        final AsyncResult<ErlangValue> readResult;
+        /**
+         * The (future) result of a write.
+         */
+        final AsyncResult<Void> writeResult;
+        /**
+         * The time the request has been created at (see
+         * {@link System#nanoTime()}).
+         */
+        final long created = System.nanoTime();
+
+        Request(final OtpErlangString key) {
+            this.key = key;
+            this.value = null;
+            this.readResult = new AsyncResult<ErlangValue>();
+            this.writeResult = null;
+        }
+
+        Request(final OtpErlangString key, final OtpErlangObject value) {
+            this.key = key;
+            this.value = value;
+            this.readResult = null;
+            this.writeResult = new AsyncResult<Void>();
+        }
+
+        void fail(final Exception e) {
+            if (readResult != null) {
+                readResult.fail(e);
+            } else {
+                writeResult.fail(e);
+            }
+        }
+    }
+
+    /**
+     * Number of buckets of the batch size histogram.
+     */
+    private static final int BUCKETS = 32;
+
+    /**
+     * The object to send the batches with.
+     */
+    private final TransactionSingleOp sc;
+    /**
+     * Lock protecting {@link #pending}, {@link #inFlight} and
+     * {@link #closed}.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+    /**
+     * Signalled when the first request is queued, the batch is full or the
+     * batcher is closed.
+     */
+    private final Condition changed = lock.newCondition();
+    /**
+     * Requests waiting to be sent.
+     */
+    private final LinkedList<Request> pending = new LinkedList<Request>();
+    /**
+     * Number of sent batches without a result.
+     */
+    private int inFlight = 0;
+    /**
+     * Whether the batcher has been closed.
+     */
+    private boolean closed = false;
+    /**
+     * The thread sending the batches.
+     */
+    private final Thread flusher;
+
+    /**
+     * Maximum time (in nanoseconds) a request waits for other requests.
+     */
+    private volatile long maxDelayNs;
+    /**
+     * Maximum number of requests per batch.
+     */
+    private volatile int maxBatchSize;
+
+    private final AtomicLong requests = new AtomicLong(0);
+    private final AtomicLong batches = new AtomicLong(0);
+    private final AtomicLong sentRequests = new AtomicLong(0);
+    private final AtomicLong maxBatch = new AtomicLong(0);
+    /**
+     * Number of batches with a size in <tt>(2^(i-1), 2^i]</tt> at index
+     * <tt>i</tt>.
+     */
+    private final AtomicLongArray batchSizes = new AtomicLongArray(BUCKETS);
+
+    /**
+     * Creates a batcher using a new connection created by
+     * {@link ConnectionFactory#createConnection()} with a maximum delay of
+     * 1000 microseconds and up to 64 requests per batch.
+     *
+     * @throws ConnectionException
+     *             if the connection fails
+     */
+    public TransactionSingleOpBatcher() throws ConnectionException {
+        this(ConnectionFactory.getInstance().createConnection());
+    }
+
+    /**
+     * Creates a batcher using the given connection with a maximum delay of
+     * 1000 microseconds and up to 64 requests per batch.
+     *
+     * @param conn
+     *            connection to use for the batches
+     */
+    public TransactionSingleOpBatcher(final Connection conn) {
+        this(conn, 1000, 64);
+    }
+
+    /**
+     * Creates a batcher using the given connection.
+     *
+     * @param conn
+     *            connection to use for the batches
+     * @param maxDelay
+     *            maximum time (in microseconds) a request waits for other
+     *            requests
+     * @param maxBatchSize
+     *            maximum number of requests per batch
+     */
+    public TransactionSingleOpBatcher(final Connection conn,
+            final long maxDelay, final int maxBatchSize) {
+        this.sc = new TransactionSingleOp(conn);
+        setMaxDelay(maxDelay);
+        setMaxBatchSize(maxBatchSize);
+        flusher = new Thread("TransactionSingleOpBatcher") {
+            @Override
+            public void run() {
+                flushLoop();
+            }
+        };
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Queues the given request.
+     *
+     * @param request
+     *            the request
+     *
+     * @throws ConnectionException
+     *             if the batcher has been closed
+     */
+    private void enqueue(final Request request) throws ConnectionException {
+        requests.incrementAndGet();
+        lock.lock();
+        try {
+            if (closed) {
+                throw new ConnectionException("batcher closed");
+            }
+            pending.add(request);
+            if ((pending.size() == 1) || (pending.size() >= maxBatchSize)) {
+                changed.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Main loop of the {@link #flusher} thread.
+     */
+    private void flushLoop() {
+        while (true) {
+            final List<Request> batch;
+            lock.lock();
+            try {
+                while (!closed) {
+                    if (pending.isEmpty()) {
+                        changed.awaitUninterruptibly();
+                        continue;
+                    }
+                    if (pending.size() >= maxBatchSize) {
+                        break;
+                    }
+                    final long waitNs = (pending.getFirst().created + maxDelayNs)
+                            - System.nanoTime();
+                    if (waitNs <= 0) {
+                        break;
+                    }
+                    try {
+                        changed.awaitNanos(waitNs);
+                    } catch (final InterruptedException e) {
+                        // check again
+                    }
+                }
+                if (closed && pending.isEmpty()) {
+                    return;
+                }
+                final int size = Math.min(pending.size(), maxBatchSize);
+                batch = new ArrayList<Request>(size);
+                for (int i = 0; i < size; ++i) {
+                    batch.add(pending.removeFirst());
+                }
+            } finally {
+                lock.unlock();
+            }
+            send(batch);
+        }
+    }
+
+    /**
+     * Sends the given batch and dispatches the results to the callers.
+     *
+     * @param batch
+     *            the requests to send
+     */
+    private void send(final List<Request> batch) {
+        final int size = batch.size();
+        batches.incrementAndGet();
+        sentRequests.addAndGet(size);
+        batchSizes.incrementAndGet(Math.min(BUCKETS - 1,
+                32 - Integer.numberOfLeadingZeros(size - 1)));
+        long max;
+        while ((max = maxBatch.get()) < size && !maxBatch.compareAndSet(max, size)) {
+            // retry
+        }
+
+        final TransactionSingleOp.RequestList req = new TransactionSingleOp.RequestList();
+        for (final Request request : batch) {
+            if (request.value == null) {
+                req.addRead(request.key);
+            } else {
+                req.addWrite(request.key, request.value);
+            }
+        }
+        final AsyncResult<TransactionSingleOp.ResultList> result;
+        try {
+            result = sc.req_listAsync(req);
+        } catch (final ConnectionException e) {
+            for (final Request request : batch) {
+                request.fail(e);
+            }
+            return;
+        } catch (final RuntimeException e) {
+            // e.g. no node to connect to - must not end the flusher thread
+            for (final Request request : batch) {
+                request.fail(e);
+            }
+            return;
+        }
+        batchStarted();
+        result.addCallback(new ResultCallback<TransactionSingleOp.ResultList>() {
+            public void onSuccess(final TransactionSingleOp.ResultList results) {
+                batchFinished();
+                for (int i = 0; i < size; ++i) {
+                    final Request request = batch.get(i);
+                    try {
+                        if (request.value == null) {
+                            request.readResult.complete(results.processReadAt(i));
+                        } else {
+                            results.processWriteAt(i);
+                            request.writeResult.complete(null);
+                        }
+                    } catch (final Exception e) {
+                        request.fail(e);
+                    }
+                }
+            }
+
+            public void onFailure(final Exception e) {
+                batchFinished();
+                for (final Request request : batch) {
+                    request.fail(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Increases the number of batches in flight.
+     */
+    private void batchStarted() {
+        lock.lock();
+        try {
+            ++inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Decreases the number of batches in flight.
+     */
+    private void batchFinished() {
+        lock.lock();
+        try {
+            if (--inFlight == 0) {
+                changed.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits for the given result and re-throws the original exception.
+     *
+     * @param result
+     *            the (future) result
+     *
+     * @return the result
+     *
+     * @throws ConnectionException
+     *             if the connection is not active or a communication error
+     *             occurs or the current thread was interrupted
+     * @throws TimeoutException
+     *             if a timeout occurred
+     * @throws NotFoundException
+     *             if the requested key does not exist
+     * @throws AbortException
+     *             if the commit failed
+     * @throws UnknownException
+     *             if any other error occurs
+     */
+    private static <T> T waitFor(final AsyncResult<T> result)
+            throws ConnectionException, TimeoutException, NotFoundException,
+            AbortException, UnknownException {
+        try {
+            return result.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConnectionException(e);
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof ConnectionException) {
+                throw (ConnectionException) cause;
+            } else if (cause instanceof TimeoutException) {
+                throw (TimeoutException) cause;
+            } else if (cause instanceof NotFoundException) {
+                throw (NotFoundException) cause;
+            } else if (cause instanceof AbortException) {
+                throw (AbortException) cause;
+            } else if (cause instanceof UnknownException) {
+                throw (UnknownException) cause;
+            }
+            throw new UnknownException(cause);
+        }
+    }
+
+    /**
+     * Queues a read of the given <tt>key</tt>.
+     *
+     * @param key
+     *            the key to look up
+     *
+     * @return the (future) value stored under the given <tt>key</tt>
+     *
+     * @throws ConnectionException
+     *             if the batcher has been closed
+     *
+     * @see TransactionSingleOp#read(OtpErlangString)
+     */
+    public AsyncResult<ErlangValue> readAsync(final OtpErlangString key)
+            throws ConnectionException {
+        final Request request = new Request(key);
+        enqueue(request);
+        return request.readResult;
+    }
+
+    /**
+     * Queues a read of the given <tt>key</tt>.
+     *
+     * @param key
+     *            the key to look up
+     *
+     * @return the (future) value stored under the given <tt>key</tt>
+     *
+     * @throws ConnectionException
+     *             if the batcher has been closed
+     *
+     * @see #readAsync(OtpErlangString)
+     */
+    public AsyncResult<ErlangValue> readAsync(final String key)
+            throws ConnectionException {
+        return readAsync(new OtpErlangString(key));
+    }
+
+    /**
+     * Gets the value stored under the given <tt>key</tt> (as part of the next
+     * batch).
+     *
+     * @param key
+     *            the key to look up
+     *
+     * @return the value stored under the given <tt>key</tt>
+     *
+     * @throws ConnectionException
+     *             if the connection is not active or a communication error
+     *             occurs or an exit signal was received or the remote node
+     *             sends a message containing an invalid cookie
+     * @throws TimeoutException
+     *             if a timeout occurred while trying to fetch the value
+     * @throws NotFoundException
+     *             if the requested key does not exist
+     * @throws UnknownException
+     *             if any other error occurs
+     *
+     * @see TransactionSingleOp#read(OtpErlangString)
+     */
+    public ErlangValue read(final OtpErlangString key)
+            throws ConnectionException, TimeoutException, NotFoundException,
+            UnknownException {
+        try {
+            return waitFor(readAsync(key));
+        } catch (final AbortException e) {
+            throw new UnknownException(e);
+        }
+    }
+
+    /**
+     * Gets the value stored under the given <tt>key</tt> (as part of the next
+     * batch).
+     *
+     * @param key
+     *            the key to look up
+     *
+     * @return the value stored under the given <tt>key</tt>
+     *
+     * @throws ConnectionException
+     *             if the connection is not active or a communication error
+     *             occurs or an exit signal was received or the remote node
+     *             sends a message containing an invalid cookie
+     * @throws TimeoutException
+     *             if a timeout occurred while trying to fetch the value
+     * @throws NotFoundException
+     *             if the requested key does not exist
+     * @throws UnknownException
+     *             if any other error occurs
+     *
+     * @see #read(OtpErlangString)
+     */
+    public ErlangValue read(final String key) throws ConnectionException,
+            TimeoutException, NotFoundException, UnknownException {
+        return read(new OtpErlangString(key));
+    }
+
+    /**
+     * Queues a write of the given <tt>value</tt> to the given <tt>key</tt>.
+     *
+     * @param key
+     *            the key to write the value to
+     * @param value
+     *            the value to write
+     *
+     * @return the (future) result of the write
+     *
+     * @throws ConnectionException
+     *             if the batcher has been closed
+     *
+     * @see TransactionSingleOp#write(OtpErlangString, OtpErlangObject)
+     */
+    public AsyncResult<Void> writeAsync(final OtpErlangString key,
+            final OtpErlangObject value) throws ConnectionException {
+        final Request request = new Request(key, value);
+        enqueue(request);
+        return request.writeResult;
+    }
+
+    /**
+     * Queues a write of the given <tt>value</tt> to the given <tt>key</tt>.
+     *
+     * @param <T>
+     *            type of the value to write
+     * @param key
+     *            the key to write the value to
+     * @param value
+     *            the value to write
+     *
+     * @return the (future) result of the write
+     *
+     * @throws ConnectionException
+     *             if the batcher has been closed
+     *
+     * @see #writeAsync(OtpErlangString, OtpErlangObject)
+     */
+    public <T> AsyncResult<Void> writeAsync(final String key, final T value)
+            throws ConnectionException {
+        return writeAsync(new OtpErlangString(key),
+                ErlangValue.convertToErlang(value));
+    }
+
+    /**
+     * Stores the given <tt>key</tt>/<tt>value</tt> pair (as part of the next
+     * batch).
+     *
+     * @param key
+     *            the key to store the value for
+     * @param value
+     *            the value to store
+     *
+     * @throws ConnectionException
+     *             if the connection is not active or a communication error
+     *             occurs or an exit signal was received or the remote node
+     *             sends a message containing an invalid cookie
+     * @throws TimeoutException
+     *             if a timeout occurred while trying to write the value
+     * @throws AbortException
+     *             if the commit failed
+     * @throws UnknownException
+     *             if any other error occurs
+     *
+     * @see TransactionSingleOp#write(OtpErlangString, OtpErlangObject)
+     */
+    public void write(final OtpErlangString key, final OtpErlangObject value)
+            throws ConnectionException, TimeoutException, AbortException,
+            UnknownException {
+        try {
+            waitFor(writeAsync(key, value));
+        } catch (final NotFoundException e) {
+            throw new UnknownException(e);
+        }
+    }
+
+    /**
+     * Stores the given <tt>key</tt>/<tt>value</tt> pair (as part of the next
+     * batch).
+     *
+     * @param <T>
+     *            type of the value to store
+     * @param key
+     *            the key to store the value for
+     * @param value
+     *            the value to store
+     *
+     * @throws ConnectionException
+     *             if the connection is not active or a communication error
+     *             occurs or an exit signal was received or the remote node
+     *             sends a message containing an invalid cookie
+     * @throws TimeoutException
+     *             if a timeout occurred while trying to write the value
+     * @throws AbortException
+     *             if the commit failed
+     * @throws UnknownException
+     *             if any other error occurs
+     *
+     * @see #write(OtpErlangString, OtpErlangObject)
+     */
+    public <T> void write(final String key, final T value)
+            throws ConnectionException, TimeoutException, AbortException,
+            UnknownException {
+        write(new OtpErlangString(key), ErlangValue.convertToErlang(value));
+    }
+
+    /**
+     * Sends all pending requests, stops the batching thread and closes the
+     * connection after all sent batches have been answered.
+     *
+     * Note: Subsequent calls to the other methods will throw
+     * {@link ConnectionException}s!
+     */
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            flusher.join();
+            lock.lock();
+            try {
+                while (inFlight > 0) {
+                    changed.await();
+                }
+            } finally {
+                lock.unlock();
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        sc.closeConnection();
+    }
+
+    /**
+     * Gets the maximum time a request waits for other requests.
+     *
+     * @return the maximum delay in microseconds
+     */
+    public long getMaxDelay() {
+        return TimeUnit.NANOSECONDS.toMicros(maxDelayNs);
+    }
+
+    /**
+     * Sets the maximum time a request waits for other requests.
+     *
+     * @param maxDelay
+     *            the maximum delay in microseconds (<tt>0</tt> to send
+     *            requests as soon as the previous batch is sent)
+     */
+    public void setMaxDelay(final long maxDelay) {
+        if (maxDelay < 0) {
+            throw new IllegalArgumentException("maxDelay must not be negative: " + maxDelay);
+        }
+        this.maxDelayNs = TimeUnit.MICROSECONDS.toNanos(maxDelay);
+    }
+
+    /**
+     * Gets the maximum number of requests per batch.
+     *
+     * @return the maximum batch size
+     */
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * Sets the maximum number of requests per batch.
+     *
+     * @param maxBatchSize
+     *            the maximum batch size
+     */
+    public void setMaxBatchSize(final int maxBatchSize) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize must be positive: " + maxBatchSize);
+        }
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Sets the cache to invalidate the keys of the batched writes in (reads
+     * do not use the cache).
+     *
+     * @param nearCache
+     *            the cache to use (<tt>null</tt> to disable invalidations)
+     *
+     * @see TransactionSingleOp#setNearCache(NearCache)
+     */
+    public void setNearCache(final NearCache nearCache) {
+        sc.setNearCache(nearCache);
+    }
+
+    /**
+     * Gets the cache the keys of the batched writes are invalidated in.
+     *
+     * @return the cache or <tt>null</tt> if disabled
+     */
+    public NearCache getNearCache() {
+        return sc.getNearCache();
+    }
+
+    /**
+     * Gets a snapshot of the batcher's statistics.
+     *
+     * @return the statistics
+     */
+    public Statistics getStatistics() {
+        final long[] histogram = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; ++i) {
+            histogram[i] = batchSizes.get(i);
+        }
+        return new Statistics(requests.get(), batches.get(),
+                sentRequests.get(), maxBatch.get(), histogram);
+    }
+
+    /**
+     * Statistics of a {@link TransactionSingleOpBatcher} (immutable).
+     *
+     * @author Nico Kruber, kruber@zib.de
+     * @version 3.6
+     * @since 3.6
+     */
+    public static class Statistics {
+        private final long requests;
+        private final long batches;
+        private final long sentRequests;
+        private final long maxBatchSize;
+        private final long[] histogram;
+
+        Statistics(final long requests, final long batches,
+                final long sentRequests, final long maxBatchSize,
+                final long[] histogram) {
+            this.requests = requests;
+            this.batches = batches;
+            this.sentRequests = sentRequests;
+            this.maxBatchSize = maxBatchSize;
+            this.histogram = histogram;
+        }
+
+        /**
+         * @return the number of queued requests
+         */
+        public long getRequests() {
+            return requests;
+        }
+
+        /**
+         * @return the number of sent batches
+         */
+        public long getBatches() {
+            return batches;
+        }
+
+        /**
+         * @return the number of requests in all sent batches
+         */
+        public long getSentRequests() {
+            return sentRequests;
+        }
+
+        /**
+         * @return the size of the largest batch
+         */
+        public long getMaxBatchSize() {
+            return maxBatchSize;
+        }
+
+        /**
+         * @return the average number of requests per batch
+         */
+        public double getAvgBatchSize() {
+            return (batches == 0) ? 0.0 : ((double) sentRequests / batches);
+        }
+
+        /**
+         * Gets the batch size histogram. Index <tt>i</tt> contains the
+         * number of batches with <tt>2^(i-1) &lt; size &lt;= 2^i</tt>,
+         * i.e. sizes 1, 2, 3-4, 5-8, 9-16, ...
+         *
+         * @return the number of batches per size bucket
+         */
+        public long[] getBatchSizeHistogram() {
+            return histogram.clone();
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder();
+            sb.append("requests=").append(requests);
+            sb.append(", batches=").append(batches);
+            sb.append(", avgBatchSize=").append(getAvgBatchSize());
+            sb.append(", maxBatchSize=").append(maxBatchSize);
+            sb.append(", batchSizes={");
+            boolean first = true;
+            for (int i = 0; i < histogram.length; ++i) {
+                if (histogram[i] == 0) {
+                    continue;
+                }
+                if (!first) {
+                    sb.append(", ");
+                }
+                first = false;
+                final long upper = 1L << i;
+                final long lower = (i == 0) ? 1 : ((upper >> 1) + 1);
+                if (lower == upper) {
+                    sb.append(upper);
+                } else {
+                    sb.append(lower).append('-').append(upper);
+                }
+                sb.append(": ").append(histogram[i]);
+            }
+            sb.append('}');
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,736 @@
+/**
+ *  Copyright 2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Configurable key/value workload in the style of the Yahoo! Cloud Serving
+ * Benchmark (YCSB) which is executed by a {@link LoadGenerator}.
+ *
+ * A workload is defined by a properties file (see {@link #read(File)}) using
+ * the YCSB core workload property names:
+ * <table border="1">
+ * <tr><th>property</th><th>default</th><th>description</th></tr>
+ * <tr><td><tt>recordcount</tt></td><td>1000</td><td>number of records
+ * written in the load phase</td></tr>
+ * <tr><td><tt>operationcount</tt></td><td>0</td><td>number of operations of
+ * the run phase (<tt>0</tt>: run for <tt>maxexecutiontime</tt>)</td></tr>
+ * <tr><td><tt>maxexecutiontime</tt></td><td>10</td><td>duration of the run
+ * phase (seconds)</td></tr>
+ * <tr><td><tt>threadcount</tt></td><td>16</td><td>number of worker
+ * threads</td></tr>
+ * <tr><td><tt>target</tt></td><td>0</td><td>target rate (ops/s, <tt>0</tt>:
+ * closed loop, i.e. as fast as possible)</td></tr>
+ * <tr><td><tt>readproportion</tt></td><td>0.95</td><td>fraction of
+ * reads</td></tr>
+ * <tr><td><tt>updateproportion</tt></td><td>0.05</td><td>fraction of writes
+ * to existing records</td></tr>
+ * <tr><td><tt>insertproportion</tt></td><td>0</td><td>fraction of writes of
+ * new records</td></tr>
+ * <tr><td><tt>readmodifywriteproportion</tt></td><td>0</td><td>fraction of
+ * read-modify-write transactions</td></tr>
+ * <tr><td><tt>requestdistribution</tt></td><td>uniform</td><td>key
+ * distribution: <tt>uniform</tt>, <tt>zipfian</tt>, <tt>hotspot</tt> or
+ * <tt>latest</tt></td></tr>
+ * <tr><td><tt>zipfianconstant</tt></td><td>0.99</td><td>skew of the
+ * <tt>zipfian</tt> and <tt>latest</tt> distributions</td></tr>
+ * <tr><td><tt>hotspotdatafraction</tt></td><td>0.2</td><td>fraction of
+ * records in the hot set</td></tr>
+ * <tr><td><tt>hotspotopnfraction</tt></td><td>0.8</td><td>fraction of
+ * operations on the hot set</td></tr>
+ * <tr><td><tt>fieldlengthdistribution</tt></td><td>constant</td><td>value
+ * size distribution: <tt>constant</tt>, <tt>uniform</tt> or
+ * <tt>zipfian</tt></td></tr>
+ * <tr><td><tt>fieldlength</tt></td><td>100</td><td>(maximum) value size in
+ * characters</td></tr>
+ * <tr><td><tt>minfieldlength</tt></td><td>1</td><td>minimum value size of
+ * the <tt>uniform</tt> and <tt>zipfian</tt> value size
+ * distributions</td></tr>
+ * <tr><td><tt>keyprefix</tt></td><td>user</td><td>prefix of all
+ * keys</td></tr>
+ * <tr><td><tt>loadphase</tt></td><td>true</td><td>whether to write all
+ * records before the run phase</td></tr>
+ * </table>
+ *
+ * Proportions are relative to each other, i.e. they do not need to add up to
+ * <tt>1</tt>. Reads and updates use a {@link TransactionSingleOp} object, a
+ * read-modify-write reads and writes a record in a {@link Transaction}.
+ * Reads of records which do not exist (yet) are not counted as errors. In
+ * contrast to YCSB, record keys are not scrambled since scalaris hashes all
+ * keys anyway, i.e. popular records are spread over the ring. Scans are not
+ * supported.
+ *
+ * <pre>
+ * <code style="white-space:pre;">
+ *   Workload workload = Workload.read(new File("workloads/workloada"));
+ *   System.out.println(workload.runLoadPhase());
+ *   System.out.println(workload.runTransactionPhase());
+ * </code>
+ * </pre>
+ *
+ * @author Nico Kruber, kruber@zib.de
+ * @version 3.6
+ * @since 3.6
+ */
+public class Workload {
+    /**
+     * A distribution of non-negative integers, e.g. of keys or value sizes.
+     *
+     * Implementations must be thread-safe.
+     *
+     * @author Nico Kruber, kruber@zib.de
+     * @version 3.6
+     * @since 3.6
+     */
+    public static interface Distribution {
+        /**
+         * Draws the next value.
+         *
+         * @param random
+         *            the random number generator of the current thread
+         * @param items
+         *            the number of items, i.e. values are in
+         *            <tt>[0, items)</tt>
+         *
+         * @return the value
+         */
+        public abstract long next(Random random, long items);
+    }
+
+    /**
+     * Constant distribution which always returns the largest value.
+     *
+     * @author Nico Kruber, kruber@zib.de
+     * @version 3.6
+     * @since 3.6
+     */
+    public static class Constant implements Distribution {
+        public long next(final Random random, final long items) {
+            return Math.max(0, items - 1);
+        }
+    }
+
+    /**
+     * Uniform distribution.
+     *
+     * @author Nico Kruber, kruber@zib.de
+     * @version 3.6
+     * @since 3.6
+     */
+    public static class Uniform implements Distribution {
+        public long next(final Random random, final long items) {
+            return randomLong(random, items);
+        }
+    }
+
+    /**
+     * Zipfian distribution, i.e. value <tt>i</tt> is drawn with a probability
+     * proportional to <tt>1 / (i+1)^theta</tt>.
+     *
+     * Implements the algorithm of Gray et al., "Quickly Generating
+     * Billion-Record Synthetic Databases" (SIGMOD 1994) as used by YCSB. The
+     * normalisation constant is extended incrementally if the number of items
+     * grows.
+     *
+     * @author Nico Kruber, kruber@zib.de
+     * @version 3.6
+     * @since 3.6
+     */
+    public static class Zipfian implements Distribution {
+        /**
+         * Constants for a given number of items (immutable).
+         */
+        private static class Zeta {
+            private final long items;
+            private final double zetan;
+            private final double eta;
+
+            Zeta(final long items, final double zetan, final double eta) {
+                this.items = items;
+                this.zetan = zetan;
+                this.eta = eta;
+            }
+        }
+
+        private final double theta;
+        private final double alpha;
+        private final double zeta2theta;
+        private volatile Zeta zeta = new Zeta(0, 0.0, 0.0);
+
+        /**
+         * Creates a new zipfian distribution.
+         *
+         * @param theta
+         *            the skew, in <tt>(0, 1)</tt> (YCSB default: 0.99)
+         */
+        public Zipfian(final double theta) {
+            if (!((theta > 0.0) && (theta < 1.0))) {
+                throw new IllegalArgumentException("theta must be in (0, 1): " + theta);
+            }
+            this.theta = theta;
+            this.alpha = 1.0 / (1.0 - theta);
+            this.zeta2theta = zeta(0, 2, theta, 0.0);
+        }
+
+        /**
+         * Extends the sum <tt>1 / i^theta</tt> from <tt>i = from + 1</tt> to
+         * <tt>to</tt>.
+         */
+        private static double zeta(final long from, final long to,
+                final double theta, final double initial) {
+            double sum = initial;
+            for (long i = from; i < to; ++i) {
+                sum += 1.0 / Math.pow(i + 1, theta);
+            }
+            return sum;
+        }
+
+        private Zeta getZeta(final long items) {
+            Zeta z = zeta;
+            if (z.items >= items) {
+                // a concurrent thread may already have seen more items
+                return z;
+            }
+            synchronized (this) {
+                z = zeta;
+                if (z.items < items) {
+                    final double zetan = zeta(z.items, items, theta, z.zetan);
+                    final double eta = (1.0 - Math.pow(2.0 / items, 1.0 - theta))
+                            / (1.0 - (zeta2theta / zetan));
+                    z = new Zeta(items, zetan, eta);
+                    zeta = z;
+                }
+                return z;
+            }
+        }
+
+        public long next(final Random random, final long items) {
+            if (items <= 1) {
+                return 0;
+            }
+            final Zeta z = getZeta(items);
+            final double u = random.nextDouble();
+            final double uz = u * z.zetan;
+            final long result;
+            if (uz < 1.0) {
+                result = 0;
+            } else if (uz < (1.0 + Math.pow(0.5, theta))) {
+                result = 1;
+            } else {
+                result = (long) (z.items * Math.pow(((z.eta * u) - z.eta) + 1.0, alpha));
+            }
+            return Math.min(result, items - 1);
+        }
+    }
+
+    /**
+     * Distribution with a hot set of the smallest values which is accessed
+     * more frequently than the rest, both uniformly.
+     *
+     * @author Nico Kruber, kruber@zib.de
+     * @version 3.6
+     * @since 3.6
+     */
+    public static class Hotspot implements Distribution {
+        private final double dataFraction;
+        private final double opnFraction;
+
+        /**
+         * Creates a new hotspot distribution.
+         *
+         * @param dataFraction
+         *            fraction of the values in the hot set, in <tt>[0, 1]</tt>
+         * @param opnFraction
+         *            fraction of the draws from the hot set, in
+         *            <tt>[0, 1]</tt>
+         */
+        public Hotspot(final double dataFraction, final double opnFraction) {
+            if (!((dataFraction >= 0.0) && (dataFraction <= 1.0))
+                    || !((opnFraction >= 0.0) && (opnFraction <= 1.0))) {
+                throw new IllegalArgumentException("fractions must be in [0, 1]: "
+                        + dataFraction + ", " + opnFraction);
+            }
+            this.dataFraction = dataFraction;
+            this.opnFraction = opnFraction;
+        }
+
+        public long next(final Random random, final long items) {
+            final long hot = Math.max(1, (long) (items * dataFraction));
+            if ((hot >= items) || (random.nextDouble() < opnFraction)) {
+                return randomLong(random, Math.min(hot, items));
+            } else {
+                return hot + randomLong(random, items - hot);
+            }
+        }
+    }
+
+    /**
+     * Zipfian distribution favouring the largest values, i.e. the most
+     * recently inserted records.
+     *
+     * @author Nico Kruber, kruber@zib.de
+     * @version 3.6
+     * @since 3.6
+     */
+    public static class Latest implements Distribution {
+        private final Zipfian zipfian;
+
+        /**
+         * Creates a new latest distribution.
+         *
+         * @param theta
+         *            the skew, in <tt>(0, 1)</tt>
+         */
+        public Latest(final double theta) {
+            this.zipfian = new Zipfian(theta);
+        }
+
+        public long next(final Random random, final long items) {
+            return Math.max(0, items - 1 - zipfian.next(random, items));
+        }
+    }
+
+    /**
+     * State of a worker thread.
+     */
+    private static class Client {
+        private final Random random;
+        private TransactionSingleOp sc = null;
+        private Transaction tx = null;
+
+        Client(final long seed) {
+            this.random = new Random(seed);
+        }
+
+        void close() {
+            if (sc != null) {
+                sc.closeConnection();
+            }
+            if (tx != null) {
+                tx.closeConnection();
+            }
+        }
+    }
+
+    private final long recordCount;
+    private final long operationCount;
+    private final long maxExecutionTime;
+    private final int threadCount;
+    private final double target;
+    private final double readProportion;
+    private final double updateProportion;
+    private final double insertProportion;
+    private final double readModifyWriteProportion;
+    private final Distribution keyDistribution;
+    private final Distribution valueLengthDistribution;
+    private final int fieldLength;
+    private final int minFieldLength;
+    private final String keyPrefix;
+    private final boolean loadPhase;
+    /**
+     * Random characters, values are prefixes of it.
+     */
+    private final String values;
+    private final AtomicLong seeds = new AtomicLong(System.nanoTime());
+    /**
+     * Next record to insert.
+     */
+    private final AtomicLong nextInsert;
+    /**
+     * Number of records which may be accessed, i.e. one more than the
+     * largest inserted record.
+     */
+    private final AtomicLong records;
+
+    /**
+     * Creates a workload from the given properties (see {@link Workload}).
+     *
+     * @param properties
+     *            the workload definition
+     *
+     * @throws IllegalArgumentException
+     *             if a property is invalid
+     */
+    public Workload(final Properties properties) throws IllegalArgumentException {
+        recordCount = Math.max(1, getLong(properties, "recordcount", 1000));
+        operationCount = Math.max(0, getLong(properties, "operationcount", 0));
+        maxExecutionTime = Math.max(1, getLong(properties, "maxexecutiontime", 10));
+        threadCount = (int) Math.max(1, getLong(properties, "threadcount", 16));
+        target = Math.max(0.0, getDouble(properties, "target", 0.0));
+        readProportion = getProportion(properties, "readproportion", 0.95);
+        updateProportion = getProportion(properties, "updateproportion", 0.05);
+        insertProportion = getProportion(properties, "insertproportion", 0.0);
+        readModifyWriteProportion = getProportion(properties, "readmodifywriteproportion", 0.0);
+        if ((readProportion + updateProportion + insertProportion + readModifyWriteProportion) <= 0.0) {
+            throw new IllegalArgumentException("no operations defined");
+        }
+        if (getDouble(properties, "scanproportion", 0.0) > 0.0) {
+            throw new IllegalArgumentException("scans are not supported");
+        }
+        final double theta = getDouble(properties, "zipfianconstant", 0.99);
+        keyDistribution = createDistribution(properties.getProperty(
+                "requestdistribution", "uniform"), theta, properties);
+        valueLengthDistribution = createDistribution(properties.getProperty(
+                "fieldlengthdistribution", "constant"), theta, properties);
+        if ((keyDistribution instanceof Constant)
+                || (valueLengthDistribution instanceof Hotspot)
+                || (valueLengthDistribution instanceof Latest)) {
+            throw new IllegalArgumentException("unsupported distribution");
+        }
+        fieldLength = (int) Math.max(0, getLong(properties, "fieldlength", 100));
+        minFieldLength = (int) Math.min(fieldLength,
+                Math.max(0, getLong(properties, "minfieldlength", 1)));
+        keyPrefix = properties.getProperty("keyprefix", "user");
+        loadPhase = Boolean.parseBoolean(properties.getProperty("loadphase", "true").trim());
+        final Random random = new Random();
+        final char[] chars = new char[fieldLength];
+        for (int i = 0; i < fieldLength; ++i) {
+            chars[i] = (char) ('a' + random.nextInt(26));
+        }
+        values = new String(chars);
+        nextInsert = new AtomicLong(recordCount);
+        records = new AtomicLong(recordCount);
+    }
+
+    /**
+     * Reads a workload from a properties file (see {@link Workload}).
+     *
+     * @param file
+     *            the workload file
+     *
+     * @return the workload
+     *
+     * @throws IOException
+     *             if reading the file fails
+     * @throws IllegalArgumentException
+     *             if a property is invalid
+     */
+    public static Workload read(final File file) throws IOException,
+            IllegalArgumentException {
+        final Properties properties = new Properties();
+        final InputStream in = new FileInputStream(file);
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+        return new Workload(properties);
+    }
+
+    private static long getLong(final Properties properties, final String name,
+            final long def) throws IllegalArgumentException {
+        final String value = properties.getProperty(name);
+        if (value == null) {
+            return def;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (final NumberFormatException e) {
+            throw new IllegalArgumentException("invalid " + name + ": " + value, e);
+        }
+    }
+
+    private static double getDouble(final Properties properties,
+            final String name, final double def) throws IllegalArgumentException {
+        final String value = properties.getProperty(name);
+        if (value == null) {
+            return def;
+        }
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (final NumberFormatException e) {
+            throw new IllegalArgumentException("invalid " + name + ": " + value, e);
+        }
+    }
+
+    private static double getProportion(final Properties properties,
+            final String name, final double def) throws IllegalArgumentException {
+        final double result = getDouble(properties, name, def);
+        if (!(result >= 0.0)) {
+            throw new IllegalArgumentException("invalid " + name + ": " + result);
+        }
+        return result;
+    }
+
+    private static Distribution createDistribution(final String name,
+            final double theta, final Properties properties)
+            throws IllegalArgumentException {
+        final String type = name.trim().toLowerCase(Locale.ENGLISH);
+        if (type.equals("constant")) {
+            return new Constant();
+        } else if (type.equals("uniform")) {
+            return new Uniform();
+        } else if (type.equals("zipfian")) {
+            return new Zipfian(theta);
+        } else if (type.equals("latest")) {
+            return new Latest(theta);
+        } else if (type.equals("hotspot")) {
+            return new Hotspot(getDouble(properties, "hotspotdatafraction", 0.2),
+                    getDouble(properties, "hotspotopnfraction", 0.8));
+        } else {
+            throw new IllegalArgumentException("unknown distribution: " + name);
+        }
+    }
+
+    /**
+     * Draws a uniformly distributed value in <tt>[0, n)</tt>.
+     */
+    private static long randomLong(final Random random, final long n) {
+        return (n <= 1) ? 0 : Math.min(n - 1, (long) (random.nextDouble() * n));
+    }
+
+    /**
+     * @return the number of records of the load phase
+     */
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * @return the key distribution
+     */
+    public Distribution getKeyDistribution() {
+        return keyDistribution;
+    }
+
+    /**
+     * @return the value size distribution
+     */
+    public Distribution getValueLengthDistribution() {
+        return valueLengthDistribution;
+    }
+
+    /**
+     * @return whether the records should be written before the run phase
+     */
+    public boolean isLoadPhase() {
+        return loadPhase;
+    }
+
+    /**
+     * Gets the key of the given record.
+     *
+     * @param record
+     *            the record number
+     *
+     * @return the key
+     */
+    String getKey(final long record) {
+        return keyPrefix + record;
+    }
+
+    /**
+     * Draws the next record to access.
+     *
+     * @param random
+     *            the random number generator of the current thread
+     *
+     * @return the record number
+     */
+    long nextRecord(final Random random) {
+        return keyDistribution.next(random, records.get());
+    }
+
+    /**
+     * Draws the next value to write.
+     *
+     * @param random
+     *            the random number generator of the current thread
+     *
+     * @return the value
+     */
+    String nextValue(final Random random) {
+        final int length = minFieldLength
+                + (int) valueLengthDistribution.next(random, (fieldLength - minFieldLength) + 1);
+        return values.substring(0, length);
+    }
+
+    /**
+     * Creates the load generator of the load phase which writes all
+     * {@link #getRecordCount()} records.
+     *
+     * @return the load generator
+     */
+    public LoadGenerator createLoadPhase() {
+        final LoadGenerator generator = new LoadGenerator();
+        generator.setRate(0);
+        generator.setCount(recordCount);
+        generator.setThreads(threadCount);
+        generator.add(new Operation("load", 1) {
+            @Override
+            protected void execute(final Client client, final long seq)
+                    throws Exception {
+                client.sc.write(getKey(seq), nextValue(client.random));
+            }
+        });
+        return generator;
+    }
+
+    /**
+     * Creates the load generator of the run phase with the configured
+     * operation mix.
+     *
+     * @return the load generator
+     */
+    public LoadGenerator createTransactionPhase() {
+        final LoadGenerator generator = new LoadGenerator();
+        generator.setRate(target);
+        generator.setCount(operationCount);
+        generator.setDuration(maxExecutionTime * 1000);
+        generator.setThreads(threadCount);
+        final double total = readProportion + updateProportion
+                + insertProportion + readModifyWriteProportion;
+        if (readProportion > 0.0) {
+            generator.add(new Operation("read", getWeight(readProportion, total)) {
+                @Override
+                protected void execute(final Client client, final long seq)
+                        throws Exception {
+                    try {
+                        client.sc.read(getKey(nextRecord(client.random)));
+                    } catch (final NotFoundException e) {
+                        // a valid result
+                    }
+                }
+            });
+        }
+        if (updateProportion > 0.0) {
+            generator.add(new Operation("update", getWeight(updateProportion, total)) {
+                @Override
+                protected void execute(final Client client, final long seq)
+                        throws Exception {
+                    client.sc.write(getKey(nextRecord(client.random)),
+                            nextValue(client.random));
+                }
+            });
+        }
+        if (insertProportion > 0.0) {
+            generator.add(new Operation("insert", getWeight(insertProportion, total)) {
+                @Override
+                protected void execute(final Client client, final long seq)
+                        throws Exception {
+                    final long record = nextInsert.getAndIncrement();
+                    client.sc.write(getKey(record), nextValue(client.random));
+                    long cur;
+                    while ((record >= (cur = records.get()))
+                            && !records.compareAndSet(cur, record + 1)) {
+                        // retry
+                    }
+                }
+            });
+        }
+        if (readModifyWriteProportion > 0.0) {
+            generator.add(new Operation("readmodifywrite",
+                    getWeight(readModifyWriteProportion, total)) {
+                @Override
+                protected Client init() throws ConnectionException {
+                    final Client client = new Client(seeds.getAndIncrement());
+                    client.tx = new Transaction();
+                    return client;
+                }
+
+                @Override
+                protected void execute(final Client client, final long seq)
+                        throws Exception {
+                    final String key = getKey(nextRecord(client.random));
+                    try {
+                        try {
+                            client.tx.read(key);
+                        } catch (final NotFoundException e) {
+                            // a valid result
+                        }
+                        client.tx.write(key, nextValue(client.random));
+                        client.tx.commit();
+                    } catch (final Exception e) {
+                        client.tx.abort();
+                        throw e;
+                    }
+                }
+            });
+        }
+        return generator;
+    }
+
+    private static int getWeight(final double proportion, final double total) {
+        return (int) Math.max(1, Math.round((proportion / total) * 10000));
+    }
+
+    /**
+     * Writes all records.
+     *
+     * @return the statistics of the load phase
+     *
+     * @throws InterruptedException
+     *             if interrupted while waiting for the workers
+     * @throws IOException
+     *             if writing the log fails
+     * @throws IllegalStateException
+     *             if initialising a worker failed
+     *
+     * @see #createLoadPhase()
+     */
+    public LoadGenerator.Statistics runLoadPhase() throws InterruptedException,
+            IOException, IllegalStateException {
+        return createLoadPhase().run();
+    }
+
+    /**
+     * Executes the configured operation mix.
+     *
+     * @return the statistics of the run phase
+     *
+     * @throws InterruptedException
+     *             if interrupted while waiting for the workers
+     * @throws IOException
+     *             if writing the log fails
+     * @throws IllegalStateException
+     *             if initialising a worker failed
+     *
+     * @see #createTransactionPhase()
+     */
+    public LoadGenerator.Statistics runTransactionPhase()
+            throws InterruptedException, IOException, IllegalStateException {
+        return createTransactionPhase().run();
+    }
+
+    /**
+     * Operation of the workload with a {@link Client} per worker thread.
+     */
+    private abstract class Operation extends LoadGenerator.Operation<Client> {
+        Operation(final String name, final int weight) {
+            super(name, weight);
+        }
+
+        @Override
+        protected Client init() throws ConnectionException {
+            final Client client = new Client(seeds.getAndIncrement());
+            client.sc = new TransactionSingleOp();
+            return client;
+        }
+
+        @Override
+        protected void cleanup(final Client client) {
+            client.close();
+        }
+    }
+}
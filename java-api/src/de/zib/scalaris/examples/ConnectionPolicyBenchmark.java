@@ -0,0 +1,182 @@
+/**
+ *  Copyright 2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris.examples;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import de.zib.scalaris.ConnectionPolicy;
+import de.zib.scalaris.DefaultConnectionPolicy;
+import de.zib.scalaris.LockFreeConnectionPolicy;
+import de.zib.scalaris.PeerNode;
+
+/**
+ * Contention benchmark of the {@link DefaultConnectionPolicy} and the
+ * {@link LockFreeConnectionPolicy} class.
+ *
+ * A number of threads (1 to 256) concurrently select nodes from a single
+ * policy object. Every <tt>flapEvery</tt>'th operation of a thread marks a
+ * random node as failed and then as successfully connected again, simulating
+ * a flapping node. No scalaris node is required.
+ *
+ * <p>
+ * Run the benchmark with
+ * <code>java -cp scalaris-examples.jar de.zib.scalaris.examples.ConnectionPolicyBenchmark [durationMs] [flapEvery]</code>
+ * </p>
+ *
+ * @author Nico Kruber, kruber@zib.de
+ * @version 3.6
+ * @since 3.6
+ */
+public class ConnectionPolicyBenchmark {
+    /**
+     * Number of nodes the policies choose from.
+     */
+    private static final int NODES = 8;
+    /**
+     * Thread counts to test.
+     */
+    private static final int[] THREADS = {1, 2, 4, 8, 16, 32, 64, 128, 256};
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args
+     *            command line arguments: the duration of each run in
+     *            milliseconds (default: 1000) and the number of operations
+     *            between two node failures (default: 1000)
+     *
+     * @throws InterruptedException
+     *             if the benchmark is interrupted
+     */
+    public static void main(final String[] args) throws InterruptedException {
+        long duration = 1000;
+        int flapEvery = 1000;
+        if ((args != null) && (args.length >= 1)) {
+            duration = Long.parseLong(args[0]);
+        }
+        if ((args != null) && (args.length >= 2)) {
+            flapEvery = Integer.parseInt(args[1]);
+        }
+
+        System.out.println("Benchmark of de.zib.scalaris.ConnectionPolicy implementations:");
+        System.out.println("Each run takes " + duration + "ms, " + NODES
+                + " nodes, a node fails every " + flapEvery + " operations");
+        System.out.println("threads \tspeed (operations / second)");
+        System.out.println("        \t(1)\t(2)");
+        for (final int threads : THREADS) {
+            final long r1 = run(new DefaultConnectionPolicy(createNodes()), threads, duration, flapEvery);
+            final long r2 = run(new LockFreeConnectionPolicy(createNodes()), threads, duration, flapEvery);
+            System.out.println(threads + "\t\t" + r1 + "\t" + r2);
+        }
+        System.out.println("(1) DefaultConnectionPolicy");
+        System.out.println("(2) LockFreeConnectionPolicy");
+    }
+
+    /**
+     * Creates the list of nodes to use.
+     *
+     * @return a list of {@link #NODES} nodes
+     */
+    private static List<PeerNode> createNodes() {
+        final List<PeerNode> nodes = new ArrayList<PeerNode>(NODES);
+        for (int i = 0; i < NODES; ++i) {
+            nodes.add(new PeerNode("node" + i + "@localhost"));
+        }
+        return nodes;
+    }
+
+    /**
+     * Runs the benchmark with the given number of threads.
+     *
+     * @param policy
+     *            the policy to test
+     * @param threads
+     *            the number of threads
+     * @param duration
+     *            the duration of the run in milliseconds
+     * @param flapEvery
+     *            the number of operations between two node failures
+     *
+     * @return the number of operations per second
+     *
+     * @throws InterruptedException
+     *             if the benchmark is interrupted
+     */
+    private static long run(final ConnectionPolicy policy, final int threads,
+            final long duration, final int flapEvery) throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        final Worker[] workers = new Worker[threads];
+        for (int i = 0; i < threads; ++i) {
+            workers[i] = new Worker(policy, start, flapEvery);
+            workers[i].start();
+        }
+        final long begin = System.nanoTime();
+        start.countDown();
+        TimeUnit.MILLISECONDS.sleep(duration);
+        for (final Worker worker : workers) {
+            worker.stopped = true;
+        }
+        long ops = 0;
+        for (final Worker worker : workers) {
+            worker.join();
+            ops += worker.ops;
+        }
+        final long timeTaken = System.nanoTime() - begin;
+        return (ops * 1000000000L) / timeTaken;
+    }
+
+    /**
+     * Benchmark thread selecting nodes from a shared policy.
+     */
+    private static class Worker extends Thread {
+        private final ConnectionPolicy policy;
+        private final CountDownLatch start;
+        private final int flapEvery;
+        private final Random random = new Random();
+        volatile boolean stopped = false;
+        long ops = 0;
+
+        Worker(final ConnectionPolicy policy, final CountDownLatch start,
+                final int flapEvery) {
+            this.policy = policy;
+            this.start = start;
+            this.flapEvery = flapEvery;
+        }
+
+        @Override
+        public void run() {
+            try {
+                start.await();
+            } catch (final InterruptedException e) {
+                return;
+            }
+            while (!stopped) {
+                final PeerNode node = policy.selectNode();
+                if ((++ops % flapEvery) == 0) {
+                    policy.nodeFailed(node);
+                    if (random.nextBoolean()) {
+                        policy.selectNode();
+                    }
+                    policy.nodeConnectSuccess(node);
+                }
+            }
+        }
+    }
+}
@@ -15,14 +15,24 @@
  */
 package de.zib.scalaris.examples;
 
+import java.io.UnsupportedEncodingException;
 import java.util.HashSet;
+import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 import com.ericsson.otp.erlang.OtpErlangBinary;
+import com.ericsson.otp.erlang.OtpErlangDecodeException;
+import com.ericsson.otp.erlang.OtpErlangObject;
 import com.ericsson.otp.erlang.OtpErlangString;
+import com.ericsson.otp.erlang.OtpInputStream;
+import com.ericsson.otp.erlang.OtpOutputStream;
 
 import de.zib.scalaris.Benchmark;
+import de.zib.scalaris.Connection;
+import de.zib.scalaris.ConnectionFactory;
+import de.zib.scalaris.ErlangValue;
+import de.zib.scalaris.TransactionSingleOp;
 
 /**
  * Mini benchmark of the {@link de.zib.scalaris.Transaction} and
@@ -34,8 +44,15 @@ import de.zib.scalaris.Benchmark;
  * <code>java -cp scalaris-examples.jar de.zib.scalaris.examples.FastStringBenchmark</code>
  * </p>
  *
+ * <p>
+ * <code>java -cp scalaris-examples.jar de.zib.scalaris.examples.FastStringBenchmark sizes [testruns]</code>
+ * compares erlang strings with the UTF-8 binaries of
+ * {@link Connection#setBinaryStrings(boolean)} for text sizes from 10 bytes
+ * to 1 MB instead (see {@link #sizebench(int)}).
+ * </p>
+ *
  * @author Nico Kruber, kruber@zib.de
- * @version 3.0
+ * @version 3.6
  * @since 2.0
  */
 public class FastStringBenchmark extends Benchmark {
@@ -53,6 +70,13 @@ public class FastStringBenchmark extends Benchmark {
      */
     public static void main(final String[] args) {
         int testruns = 100;
+        if ((args != null) && (args.length >= 1) && args[0].equals("sizes")) {
+            if (args.length >= 2) {
+                testruns = Integer.parseInt(args[1]);
+            }
+            sizebench(testruns);
+            return;
+        }
         final HashSet<Integer> benchmarks = new HashSet<Integer>(10);
         if ((args != null) && (args.length >= 2)) {
             testruns = Integer.parseInt(args[0]);
@@ -293,4 +317,192 @@ public class FastStringBenchmark extends Benchmark {
                 "re-use object" };
         printResults(columns, rows, results, testruns);
     }
+
+    /**
+     * Compares erlang strings (lists of characters) with UTF-8 encoded
+     * binaries for texts of 10 bytes up to 1 MB:
+     * <ol>
+     *  <li>size of the value in the erlang external term format (bytes)</li>
+     *  <li>conversions per second of a {@link String} to the external term
+     *      format and back (no scalaris node required)</li>
+     *  <li>write and read operations per second with a
+     *      {@link TransactionSingleOp} (<tt>n/a</tt> if no scalaris node is
+     *      available)</li>
+     * </ol>
+     *
+     * @param testruns
+     *            the maximum number of writes and reads per text size
+     */
+    public static void sizebench(final int testruns) {
+        System.out.println("Benchmark of Connection#setBinaryStrings(boolean):");
+        sizebench(testruns, false);
+        System.out.println("-----");
+        sizebench(testruns, true);
+        System.out.println("(1) ISO-8859-1 texts (erlang strings use 1 byte per character up to 65535 characters)");
+        System.out.println("(2) texts with other unicode characters, e.g. \"\\u2013\" (erlang strings use a list of integers)");
+    }
+
+    /**
+     * Runs the {@link #sizebench(int)} benchmark with texts of the given
+     * kind.
+     *
+     * @param testruns
+     *            the maximum number of writes and reads per text size
+     * @param unicode
+     *            whether the texts contain characters outside ISO-8859-1
+     */
+    private static void sizebench(final int testruns, final boolean unicode) {
+        final int[] sizes = {10, 100, 1000, 10000, 100000, 1000000};
+        System.out.println((unicode ? "(2)" : "(1)")
+                + " size (B)\tterm size (B)\t\tconversions / s\t\toperations / s");
+        System.out.println("            \tstring\tbinary\tstring\tbinary\tstring\tbinary");
+        for (final int size : sizes) {
+            final String text = getRandomText(size, unicode);
+            final long[] results = getResultArray(1, 6)[0];
+            try {
+                final OtpErlangObject asString = new OtpErlangString(text);
+                final OtpErlangObject asBinary = new OtpErlangBinary(text.getBytes("UTF-8"));
+                results[0] = new OtpOutputStream(asString).size();
+                results[1] = new OtpOutputStream(asBinary).size();
+                final int iterations = Math.max(10, 20000000 / size);
+                // first round is the warm-up
+                for (int round = 0; round < 2; ++round) {
+                    results[2] = conversionBench(text, iterations, false);
+                    results[3] = conversionBench(text, iterations, true);
+                }
+            } catch (final Exception e) {
+                // e.printStackTrace();
+            }
+            final String name = (unicode ? "U_" : "L_") + size;
+            final int operations = Math.max(5, Math.min(testruns, 100000000 / size));
+            try {
+                results[4] = operationBench(text, operations, false, "fastsizebench_S_" + name);
+                TimeUnit.SECONDS.sleep(1);
+            } catch (final Exception e) {
+                // e.printStackTrace();
+            }
+            try {
+                results[5] = operationBench(text, operations, true, "fastsizebench_B_" + name);
+                TimeUnit.SECONDS.sleep(1);
+            } catch (final Exception e) {
+                // e.printStackTrace();
+            }
+            System.out.print(size + "    \t");
+            for (final long result : results) {
+                System.out.print("\t" + ((result == -1) ? "n/a" : result));
+            }
+            System.out.println();
+        }
+    }
+
+    /**
+     * Creates a random (wiki-like) text of the given size (in bytes if
+     * encoded in UTF-8) which mostly consists of ASCII characters.
+     *
+     * @param size
+     *            the size of the text
+     * @param unicode
+     *            whether to include characters outside ISO-8859-1
+     *
+     * @return a random text
+     */
+    private static String getRandomText(final int size, final boolean unicode) {
+        final Random r = new Random();
+        final StringBuilder sb = new StringBuilder(size);
+        int bytes = 0;
+        while (bytes < size) {
+            final int c = r.nextInt(64);
+            if ((c == 0) && ((bytes + 2) <= size)) {
+                sb.append('\u00fc'); // 2 bytes in UTF-8
+                bytes += 2;
+            } else if (unicode && (c == 1) && ((bytes + 3) <= size)) {
+                sb.append('\u2013'); // 3 bytes in UTF-8
+                bytes += 3;
+            } else if (c < 10) {
+                sb.append(' ');
+                ++bytes;
+            } else {
+                sb.append((char) ('a' + (c % 26)));
+                ++bytes;
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Converts the given text to the erlang external term format and back
+     * <tt>iterations</tt> times.
+     *
+     * @param text
+     *            the text to convert
+     * @param iterations
+     *            the number of conversions
+     * @param binary
+     *            whether to use UTF-8 binaries or erlang strings
+     *
+     * @return the number of conversions per second
+     *
+     * @throws UnsupportedEncodingException
+     *             if UTF-8 is not supported
+     * @throws OtpErlangDecodeException
+     *             if decoding fails
+     */
+    private static long conversionBench(final String text, final int iterations,
+            final boolean binary) throws UnsupportedEncodingException,
+            OtpErlangDecodeException {
+        final long start = System.nanoTime();
+        int hash = 0;
+        for (int i = 0; i < iterations; ++i) {
+            final OtpErlangObject value = binary ? new OtpErlangBinary(
+                    text.getBytes("UTF-8")) : new OtpErlangString(text);
+            final byte[] term = new OtpOutputStream(value).toByteArray();
+            final OtpErlangObject received = new OtpInputStream(term).read_any();
+            hash += new ErlangValue(received).stringValue().length();
+        }
+        final long timeTaken = System.nanoTime() - start;
+        if (hash == 42) {
+            System.out.print("");
+        }
+        return (iterations * 1000000000L) / Math.max(1, timeTaken);
+    }
+
+    /**
+     * Writes and reads the given text <tt>operations</tt> times using a
+     * single {@link TransactionSingleOp} object.
+     *
+     * @param text
+     *            the text to write
+     * @param operations
+     *            the number of writes (and reads)
+     * @param binary
+     *            whether to use UTF-8 binaries or erlang strings
+     * @param name
+     *            the name of the benchmark (will be used as part of the key and
+     *            must therefore be unique)
+     *
+     * @return the number of operations (writes and reads) per second
+     *
+     * @throws Exception
+     *             if an error occurs
+     */
+    private static long operationBench(final String text, final int operations,
+            final boolean binary, final String name) throws Exception {
+        final String key = benchTime + name;
+        final Connection connection = ConnectionFactory.getInstance().createConnection();
+        connection.setBinaryStrings(binary);
+        final TransactionSingleOp sc = new TransactionSingleOp(connection);
+        try {
+            final long start = System.nanoTime();
+            for (int i = 0; i < operations; ++i) {
+                sc.write(key + '_' + i, text);
+                if (sc.read(key + '_' + i).stringValue().length() != text.length()) {
+                    throw new Exception("wrong value read");
+                }
+            }
+            final long timeTaken = System.nanoTime() - start;
+            return (2 * operations * 1000000000L) / Math.max(1, timeTaken);
+        } finally {
+            sc.closeConnection();
+        }
+    }
 }
@@ -15,17 +15,24 @@
  */
 package de.zib.scalaris.examples;
 
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 import com.ericsson.otp.erlang.OtpErlangString;
 
 import de.zib.scalaris.AbortException;
 import de.zib.scalaris.ConnectionException;
 import de.zib.scalaris.PubSub;
+import de.zib.scalaris.PubSubListener;
+import de.zib.scalaris.PubSubServer;
 import de.zib.scalaris.TimeoutException;
 import de.zib.scalaris.UnknownException;
 
 /**
  * Provides an example for using the <tt>subscribe</tt> methods of the
- * {@link PubSub} class.
+ * {@link PubSub} class and for receiving the published events with a
+ * {@link PubSubServer}.
  *
  * @author Nico Kruber, kruber@zib.de
  * @version 2.5
@@ -36,7 +43,9 @@ public class PubSubSubscribeExample {
      * Subscribes a given URL to a given topic, both provided on the command
      * line, with the <tt>subscribe</tt> methods of {@link PubSub}.<br />
      * If no URL or topic is given, the default URL <tt>"url"</tt> and the
-     * default topic <tt>"topic"</tt> is used.
+     * default topic <tt>"topic"</tt> is used.<br />
+     * Afterwards, an embedded {@link PubSubServer} is subscribed to the topic
+     * and receives an event published to it (no web server needed).
      *
      * @param args
      *            command line arguments (first argument can be an optional
@@ -109,5 +118,52 @@ public class PubSubSubscribeExample {
             System.out.println("      subscribe(" + topic + ", " + URL
                     + ") failed with unknown: " + e.getMessage());
         }
+
+        PubSubServer server = null;
+        try {
+            System.out.println("  creating object...");
+            server = new PubSubServer();
+            System.out.println("    `void subscribe(String, PubSubListener)`...");
+            final CountDownLatch received = new CountDownLatch(1);
+            server.subscribe(topic, new PubSubListener() {
+                public void onNotify(final String topic, final String content) {
+                    System.out.println("      notify(" + topic + ", " + content
+                            + ") received");
+                    received.countDown();
+                }
+            });
+            System.out.println("      subscribe(" + topic + ", "
+                    + server.getUrl() + ") succeeded");
+            final PubSub sc = new PubSub();
+            sc.publish(topic, "content");
+            sc.closeConnection();
+            if (!received.await(5, TimeUnit.SECONDS)) {
+                System.out.println("      no notification received");
+            }
+        } catch (final IOException e) {
+            System.out.println("      starting the server failed: "
+                    + e.getMessage());
+        } catch (final ConnectionException e) {
+            System.out.println("      subscribe(" + topic + ", "
+                    + server.getUrl() + ") failed: " + e.getMessage());
+        } catch (final TimeoutException e) {
+            System.out.println("      subscribe(" + topic + ", "
+                    + server.getUrl() + ") failed with timeout: "
+                    + e.getMessage());
+        } catch (final AbortException e) {
+            System.out.println("      subscribe(" + topic + ", "
+                    + server.getUrl() + ") failed with abort: "
+                    + e.getMessage());
+        } catch (final UnknownException e) {
+            System.out.println("      subscribe(" + topic + ", "
+                    + server.getUrl() + ") failed with unknown: "
+                    + e.getMessage());
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (server != null) {
+                server.close();
+            }
+        }
     }
 }
@@ -0,0 +1,184 @@
+/**
+ *  Copyright 2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Test cases for the {@link ConnectionPool} class.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ *
+ * @version 3.6
+ * @since 3.6
+ */
+public class ConnectionPoolTest {
+    /**
+     * Test method for {@link ConnectionPool#borrowConnection()} and
+     * {@link ConnectionPool#returnConnection(Connection)}.
+     *
+     * Checks that returned connections are re-used.
+     *
+     * @throws ConnectionException
+     *             if the connection fails
+     */
+    @Test
+    public final void testBorrowReturn() throws ConnectionException {
+        final ConnectionPool pool = new ConnectionPool(new ConnectionFactory(), 0, 2, 60000);
+        try {
+            final Connection c1 = pool.borrowConnection();
+            assertTrue(c1.isConnected());
+            pool.returnConnection(c1);
+            final Connection c2 = pool.borrowConnection();
+            assertSame(c1, c2);
+            pool.returnConnection(c2);
+
+            final ConnectionPool.Statistics stats = pool.getStatistics();
+            assertEquals(2, stats.getBorrows());
+            assertEquals(1, stats.getHits());
+            assertEquals(1, stats.getCreations());
+            assertEquals(1, stats.getConnections());
+            assertEquals(1, stats.getIdleConnections());
+        } finally {
+            pool.close();
+        }
+    }
+
+    /**
+     * Test method for {@link ConnectionPool#borrowConnection(long, TimeUnit)}.
+     *
+     * Checks that borrowing from an exhausted pool times out.
+     *
+     * @throws ConnectionException
+     *             if the connection fails
+     */
+    @Test
+    public final void testBorrowTimeout() throws ConnectionException {
+        final ConnectionPool pool = new ConnectionPool(new ConnectionFactory(), 0, 1, 60000);
+        try {
+            final Connection c1 = pool.borrowConnection();
+            try {
+                pool.borrowConnection(10, TimeUnit.MILLISECONDS);
+                fail("borrowing from an exhausted pool must time out");
+            } catch (final ConnectionException e) {
+                assertEquals(1, pool.getStatistics().getBorrowTimeouts());
+            }
+            pool.returnConnection(c1);
+        } finally {
+            pool.close();
+        }
+    }
+
+    /**
+     * Test method for {@link ConnectionPool#borrowConnection()}.
+     *
+     * Checks that closed connections are not handed out again.
+     *
+     * @throws ConnectionException
+     *             if the connection fails
+     */
+    @Test
+    public final void testValidateOnBorrow() throws ConnectionException {
+        final ConnectionPool pool = new ConnectionPool(new ConnectionFactory(), 0, 2, 60000);
+        try {
+            final Connection c1 = pool.borrowConnection();
+            pool.returnConnection(c1);
+            c1.close();
+            final Connection c2 = pool.borrowConnection();
+            assertNotSame(c1, c2);
+            assertTrue(c2.isConnected());
+            assertEquals(1, pool.getStatistics().getValidationFailures());
+            pool.returnConnection(c2);
+        } finally {
+            pool.close();
+        }
+    }
+
+    /**
+     * Test method for {@link ConnectionPool#close()}.
+     *
+     * @throws ConnectionException
+     *             if the connection fails
+     */
+    @Test(expected=ConnectionException.class)
+    public final void testClosedPool() throws ConnectionException {
+        final ConnectionPool pool = new ConnectionPool(new ConnectionFactory(), 0, 2, 60000);
+        pool.close();
+        pool.borrowConnection();
+    }
+
+    /**
+     * Test method for {@link ConnectionPool#setMaxSize(int)}.
+     *
+     * Checks that connections above a reduced limit are closed when they are
+     * returned.
+     *
+     * @throws ConnectionException
+     *             if the connection fails
+     */
+    @Test
+    public final void testSetMaxSize() throws ConnectionException {
+        final ConnectionPool pool = new ConnectionPool(new ConnectionFactory(), 0, 2, 60000);
+        try {
+            final Connection c1 = pool.borrowConnection();
+            final Connection c2 = pool.borrowConnection(c1.getRemote(), 5, TimeUnit.SECONDS);
+            pool.setMaxSize(1);
+            pool.returnConnection(c1);
+            assertTrue(!c1.isConnected());
+            pool.returnConnection(c2);
+            assertTrue(c2.isConnected());
+
+            final ConnectionPool.Statistics stats = pool.getStatistics();
+            assertEquals(1, stats.getConnections());
+            assertEquals(1, stats.getIdleConnections());
+        } finally {
+            pool.close();
+        }
+    }
+
+    /**
+     * Test method for {@link ConnectionPool#returnConnection(Connection)}.
+     *
+     * Checks that settings of a borrower do not leak to the next one.
+     *
+     * @throws ConnectionException
+     *             if the connection fails
+     */
+    @Test
+    public final void testReturnResetsSettings() throws ConnectionException {
+        final ConnectionPool pool = new ConnectionPool(new ConnectionFactory(), 0, 1, 60000);
+        try {
+            final Connection c1 = pool.borrowConnection();
+            final boolean binaryStrings = c1.isBinaryStrings();
+            c1.setBinaryStrings(!binaryStrings);
+            c1.setRpcTimeout(1);
+            c1.setMetrics(new RpcMetrics());
+            pool.returnConnection(c1);
+            final Connection c2 = pool.borrowConnection();
+            assertSame(c1, c2);
+            assertEquals(binaryStrings, c2.isBinaryStrings());
+            assertEquals(Connection.DEFAULT_RPC_TIMEOUT, c2.getRpcTimeout());
+            assertSame(RpcMetrics.getInstance(), c2.getMetrics());
+            pool.returnConnection(c2);
+        } finally {
+            pool.close();
+        }
+    }
+}
@@ -19,6 +19,7 @@ import static org.junit.Assert.*;
 
 import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -37,6 +38,7 @@ import com.ericsson.otp.erlang.OtpErlangList;
 import com.ericsson.otp.erlang.OtpErlangLong;
 import com.ericsson.otp.erlang.OtpErlangObject;
 import com.ericsson.otp.erlang.OtpErlangString;
+import com.ericsson.otp.erlang.OtpErlangTuple;
 
 /**
  * Unit tests for {@link ErlangValue}.
@@ -503,6 +505,78 @@ public class ErlangValueTest {
         assertEquals(value, eValOtp.doubleListValue());
     }
 
+    /**
+     * Test method for {@link de.zib.scalaris.ErlangValue#longArrayValue()}
+     * and {@link de.zib.scalaris.ErlangValue#intArrayValue()}.
+     *
+     * @throws Exception if a test with a random array of longs failed
+     */
+    @Test
+    public final void testLongArrayValue() throws Exception {
+        Random random = new Random();
+        for (int i = 0; i < 10000; ++i) {
+            long[] current = null;
+            try {
+                current = new long[random.nextInt(1000)];
+                for (int j = 0; j < current.length; ++j) {
+                    current[j] = random.nextLong();
+                }
+                ErlangValue eVal = new ErlangValue(current);
+                assertArrayEquals(current, eVal.longArrayValue());
+                assertEquals(current.length, eVal.longListValue().size());
+            } catch (ClassCastException e) {
+                throw new Exception("testLongArrayValue(" + Arrays.toString(current) + ") failed", e);
+            }
+        }
+
+        int[] ints = new int[] {1, -2, Integer.MAX_VALUE, Integer.MIN_VALUE};
+        assertArrayEquals(ints, new ErlangValue(ints).intArrayValue());
+        assertArrayEquals(new long[] {1, -2, Integer.MAX_VALUE, Integer.MIN_VALUE},
+                new ErlangValue(ints).longArrayValue());
+
+        // OTP decodes lists of small integers as strings:
+        ErlangValue small = new ErlangValue(new OtpErlangString("\u0000\u0001\u00ff"));
+        assertArrayEquals(new long[] {0, 1, 255}, small.longArrayValue());
+        assertArrayEquals(new int[] {0, 1, 255}, small.intArrayValue());
+        assertArrayEquals(new long[0], new ErlangValue(new OtpErlangList()).longArrayValue());
+
+        try {
+            new ErlangValue(new long[] {Long.MAX_VALUE}).intArrayValue();
+            fail("expected ClassCastException");
+        } catch (ClassCastException e) {
+        }
+        try {
+            new ErlangValue(new OtpErlangList(new OtpErlangLong(
+                    BigInteger.valueOf(Long.MAX_VALUE).add(BigInteger.ONE)))).longArrayValue();
+            fail("expected ClassCastException");
+        } catch (ClassCastException e) {
+        }
+    }
+
+    /**
+     * Test method for {@link de.zib.scalaris.ErlangValue#doubleArrayValue()}.
+     *
+     * @throws Exception if a test with a random array of doubles failed
+     */
+    @Test
+    public final void testDoubleArrayValue() throws Exception {
+        Random random = new Random();
+        for (int i = 0; i < 10000; ++i) {
+            double[] current = null;
+            try {
+                current = new double[random.nextInt(1000)];
+                for (int j = 0; j < current.length; ++j) {
+                    current[j] = random.nextDouble();
+                }
+                ErlangValue eVal = new ErlangValue(current);
+                assertArrayEquals(current, eVal.doubleArrayValue(), 0.0);
+                assertEquals(current.length, eVal.doubleListValue().size());
+            } catch (ClassCastException e) {
+                throw new Exception("testDoubleArrayValue(" + Arrays.toString(current) + ") failed", e);
+            }
+        }
+    }
+
     /**
      * Test method for {@link de.zib.scalaris.ErlangValue#stringListValue()}.
      *
@@ -540,6 +614,47 @@ public class ErlangValueTest {
         assertEquals(value, eValOtp.stringListValue());
     }
 
+    /**
+     * Test method for
+     * {@link de.zib.scalaris.ErlangValue#lazyListValue(ErlangValue.ListElementConverter)}
+     * and {@link de.zib.scalaris.ErlangValue#lazyStringListValue()}.
+     */
+    @Test
+    public final void testLazyListValue() {
+        Random random = new Random();
+        List<String> value = new ArrayList<String>(1000);
+        for (int i = 0; i < 1000; ++i) {
+            value.add(getRandomString(random, random.nextInt(20), false));
+        }
+        ErlangValue eVal = new ErlangValue(value);
+        assertEquals(value, eVal.lazyStringListValue());
+
+        final int[] converted = {0};
+        List<String> lazy = eVal.lazyListValue(new ErlangValue.ListElementConverter<String>() {
+            public String convert(final int i, final ErlangValue v) {
+                ++converted[0];
+                return v.stringValue();
+            }
+        });
+        assertEquals(value.size(), lazy.size());
+        assertEquals(0, converted[0]);
+        assertEquals(value.get(500), lazy.get(500));
+        assertEquals(value.subList(0, 50), lazy.subList(0, 50));
+        assertEquals(51, converted[0]);
+
+        try {
+            lazy.get(1000);
+            fail("expected IndexOutOfBoundsException");
+        } catch (IndexOutOfBoundsException e) {
+        }
+        try {
+            lazy.add("a");
+            fail("expected UnsupportedOperationException");
+        } catch (UnsupportedOperationException e) {
+        }
+        assertTrue(new ErlangValue(new OtpErlangList()).lazyStringListValue().isEmpty());
+    }
+
     /**
      * Test method for {@link de.zib.scalaris.ErlangValue#binaryListValue()}.
      *
@@ -849,6 +964,98 @@ public class ErlangValueTest {
         }
     }
 
+    /**
+     * Test method for {@link de.zib.scalaris.ErlangValue#jsonValue(Class)}
+     * writing a {@link JSONBeanTest2} with {@link ErlangValueBinaryBean} and
+     * reading a {@link JSONBeanTest2} and a {@link Map}.
+     *
+     * @throws Exception
+     *             if a test with a random list of mixed objects (bool, int,
+     *             long, BigInteger, double, String) failed
+     */
+    @Test
+    public final void testJsonValueBinaryBean2() throws Exception {
+        Random random = new Random();
+
+        for (int i = 0; i < 10000; ++i) {
+            JSONBeanTest2 bean2 = new JSONBeanTest2();
+            bean2.setA2(random.nextBoolean());
+            bean2.setB2(random.nextInt());
+            bean2.setC2(random.nextLong());
+            bean2.setD2(getRandomBigInt(random));
+            bean2.setE2(random.nextDouble());
+            bean2.setF2(getRandomString(random, random.nextInt(100), false));
+            bean2.setG2(getRandomList(random, 100));
+            JSONBeanTest1 bean1 = new JSONBeanTest1();
+            bean1.setA(random.nextBoolean());
+            bean1.setB(random.nextInt());
+            bean1.setC(random.nextLong());
+            bean1.setD(getRandomBigInt(random));
+            bean1.setE(random.nextDouble());
+            bean1.setF(getRandomString(random, 10, false));
+            bean2.setH2(bean1);
+            Map<String, Object> map2 = getRandomMapRecursive(random, 10, 3, true);
+            bean2.setI2(map2);
+            ErlangValue value = new ErlangValueBinaryBean(bean2);
+
+            JSONBeanTest2 actual = value.jsonValue(JSONBeanTest2.class);
+            assertEquals(bean2.getA2(), actual.getA2());
+            assertEquals(bean2.getB2(), actual.getB2());
+            assertEquals(bean2.getC2(), actual.getC2());
+            assertEquals(bean2.getD2(), actual.getD2());
+            assertEquals(bean2.getE2(), actual.getE2(), 0.0);
+            assertEquals(bean2.getF2(), actual.getF2());
+            assertEquals(bean2.getG2(), actual.getG2());
+            JSONBeanTest1 bean1_act = actual.getH2();
+            assertEquals(bean1.getA(), bean1_act.getA());
+            assertEquals(bean1.getB(), bean1_act.getB());
+            assertEquals(bean1.getC(), bean1_act.getC());
+            assertEquals(bean1.getD(), bean1_act.getD());
+            assertEquals(bean1.getE(), bean1_act.getE(), 0.0);
+            assertEquals(bean1.getF(), bean1_act.getF());
+            compareMap(map2, actual.getI2());
+
+            Map<String, Object> actualMap = value.jsonValue();
+            assertEquals(bean2.getF2(), actualMap.get("f2"));
+            compareMap(map2, (Map<String, Object>) actualMap.get("i2"));
+        }
+    }
+
+    /**
+     * Test method for {@link ErlangValueBinaryBean} checking that the schema
+     * of a Bean class is written once per value and that binaries of the
+     * first version (without schemas) can still be read.
+     */
+    @Test
+    public final void testJsonValueBinaryBeanSchema() {
+        JSONBeanTest1 bean1 = new JSONBeanTest1();
+        bean1.setB(4711);
+        bean1.setF("some text");
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("x", bean1);
+        map.put("y", bean1);
+        byte[] single = BinaryBeanCodec.encode(bean1);
+        byte[] twice = BinaryBeanCodec.encode(map);
+        // the second Bean only refers to the schema written for the first
+        assertTrue(twice.length < (2 * single.length));
+        ErlangValue value = new ErlangValue(new ErlangValueBinaryBean(map).value());
+        Map<String, Object> actual = value.jsonValue();
+        for (String key : new String[] {"x", "y"}) {
+            @SuppressWarnings("unchecked")
+            Map<String, Object> actualBean = (Map<String, Object>) actual.get(key);
+            assertEquals(4711, actualBean.get("b"));
+            assertEquals("some text", actualBean.get("f"));
+        }
+
+        // version 1: {"b": 4711, "f": "v1"} with property names
+        byte[] v1 = new byte[] { BinaryBeanCodec.VERSION_1, 8, 2,
+                1, 'b', 3, (byte) 0xCE, 0x49,
+                1, 'f', 6, 2, 'v', '1' };
+        JSONBeanTest1 actualV1 = BinaryBeanCodec.decode(v1, JSONBeanTest1.class);
+        assertEquals(4711, actualV1.getB());
+        assertEquals("v1", actualV1.getF());
+    }
+
 
     private static class JSONBeanTest3 {
         private List<JSONBeanTest1> a3 = new ArrayList<JSONBeanTest1>();
@@ -986,4 +1193,111 @@ public class ErlangValueTest {
             }
         }
     }
+
+    /**
+     * Test method for {@link ErlangValueCompressed} with strings and
+     * binaries which are read with {@link ErlangValue#stringValue()} and
+     * {@link ErlangValue#binaryValue()}.
+     */
+    @Test
+    public final void testCompressedStringBinary() {
+        ErlangValueCompressed.resetStatistics();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 500; ++i) {
+            sb.append("Scalaris wiki text ").append(i % 10).append(' ');
+        }
+        final String text = sb.toString();
+        ErlangValue value = new ErlangValueCompressed(text, "test");
+        assertTrue(value.value() instanceof OtpErlangTuple);
+        assertEquals(text, value.stringValue());
+        assertEquals(text, new ErlangValue(value.value()).stringValue());
+
+        byte[] data = new byte[4096];
+        ErlangValue binValue = new ErlangValueCompressed(data, "test");
+        assertArrayEquals(data, binValue.binaryValue());
+
+        // small values are not compressed
+        ErlangValue small = new ErlangValueCompressed("small", "test");
+        assertEquals(new OtpErlangString("small"), small.value());
+        assertEquals("small", small.stringValue());
+
+        // random data does not get smaller
+        Random random = new Random();
+        random.nextBytes(data);
+        ErlangValue randomValue = new ErlangValueCompressed(data, "test");
+        assertEquals(new OtpErlangBinary(data), randomValue.value());
+
+        ErlangValueCompressed.Statistics stats = ErlangValueCompressed.getStatistics("test");
+        assertEquals(2, stats.getCompressed());
+        assertEquals(2, stats.getSkipped());
+        assertTrue(stats.getRatio() > 10.0);
+        assertEquals(3, ErlangValueCompressed.getStatistics(
+                ErlangValueCompressed.DEFAULT_CALL_SITE).getDecompressed());
+    }
+
+    /**
+     * Test method for {@link ErlangValueCompressed} with JSON objects and
+     * lists which are read with {@link ErlangValue#jsonValue(Class)} and
+     * {@link ErlangValue#stringListValue()}.
+     */
+    @Test
+    public final void testCompressedJsonList() {
+        Random random = new Random();
+        List<String> list = new ArrayList<String>();
+        for (int i = 0; i < 100; ++i) {
+            list.add("Category:" + (i % 5));
+        }
+        ErlangValue value = new ErlangValueCompressed(list);
+        assertEquals(list, value.stringListValue());
+
+        JSONBeanTest1 bean1 = new JSONBeanTest1();
+        bean1.setA(random.nextBoolean());
+        bean1.setB(random.nextInt());
+        bean1.setC(random.nextLong());
+        bean1.setD(getRandomBigInt(random));
+        bean1.setE(random.nextDouble());
+        bean1.setF(new String(new char[2000]).replace('\0', 'a'));
+        ErlangValue jsonValue = new ErlangValueCompressed(bean1);
+        JSONBeanTest1 actual = jsonValue.jsonValue(JSONBeanTest1.class);
+        assertEquals(bean1.getF(), actual.getF());
+        assertEquals(bean1.getB(), actual.getB());
+        assertEquals(bean1.getF(), jsonValue.jsonValue().get("f"));
+
+        ErlangValue binaryBean = new ErlangValueCompressed(new ErlangValueBinaryBean(bean1));
+        assertEquals(bean1.getF(), binaryBean.jsonValue(JSONBeanTest1.class).getF());
+    }
+
+    /**
+     * Test method for {@link ErlangValue#stringsToBinaries(OtpErlangObject)}
+     * and reading the UTF-8 binaries with {@link ErlangValue#stringValue()}
+     * and {@link ErlangValue#stringListValue()}.
+     */
+    @Test
+    public final void testStringsToBinaries() {
+        Random random = new Random();
+        for (int i = 0; i < 1000; ++i) {
+            String text = getRandomString(random, random.nextInt(200), false);
+            OtpErlangObject binary = ErlangValue.stringsToBinaries(new OtpErlangString(text));
+            assertTrue(binary instanceof OtpErlangBinary);
+            assertEquals(text, new ErlangValue(binary).stringValue());
+        }
+        String umlauts = "\u00e4\u00f6\u00fc \u20ac";
+        OtpErlangObject binary = ErlangValue.stringsToBinaries(new OtpErlangString(umlauts));
+        assertEquals(umlauts.length() + 5, ((OtpErlangBinary) binary).size());
+        assertEquals(umlauts, new ErlangValue(binary).stringValue());
+
+        List<String> list = new ArrayList<String>();
+        list.add("a");
+        list.add(umlauts);
+        OtpErlangObject otpList = ErlangValue.stringsToBinaries(ErlangValue.convertToErlang(list));
+        assertTrue(((OtpErlangList) otpList).elementAt(1) instanceof OtpErlangBinary);
+        assertEquals(list, new ErlangValue(otpList).stringListValue());
+
+        // other values are not changed
+        OtpErlangObject number = new OtpErlangLong(4711);
+        assertSame(number, ErlangValue.stringsToBinaries(number));
+        OtpErlangObject numbers = new OtpErlangList(new OtpErlangObject[] {
+                new OtpErlangLong(1), new OtpErlangLong(2) });
+        assertSame(numbers, ErlangValue.stringsToBinaries(numbers));
+    }
 }
@@ -0,0 +1,1305 @@
+/**
+ *  Copyright 2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ericsson.otp.erlang.OtpErlangAtom;
+import com.ericsson.otp.erlang.OtpErlangDecodeException;
+import com.ericsson.otp.erlang.OtpErlangExit;
+import com.ericsson.otp.erlang.OtpErlangInt;
+import com.ericsson.otp.erlang.OtpErlangList;
+import com.ericsson.otp.erlang.OtpErlangLong;
+import com.ericsson.otp.erlang.OtpErlangObject;
+import com.ericsson.otp.erlang.OtpErlangPid;
+import com.ericsson.otp.erlang.OtpErlangString;
+import com.ericsson.otp.erlang.OtpErlangTuple;
+import com.ericsson.otp.erlang.OtpMbox;
+import com.ericsson.otp.erlang.OtpNode;
+
+/**
+ * Pure Java stand-in for a scalaris VM which answers the RPCs of the Java
+ * API from an in-memory map.
+ *
+ * The node is a JInterface {@link OtpNode} with a <tt>rex</tt> mailbox, i.e.
+ * clients connect to it like to a real scalaris node (see
+ * {@link ConnectionFactory}) and both the synchronous RPCs and the
+ * asynchronous <tt>gen_server</tt> calls of a {@link Connection} are
+ * answered. If no <tt>epmd</tt> is running, a minimal one is started in the
+ * current JVM so that no erlang installation is needed at all. Supported
+ * functions:
+ * <ul>
+ * <li><tt>api_tx</tt>: <tt>read/1</tt>, <tt>write/2</tt>,
+ * <tt>test_and_set/3</tt>, <tt>req_list/1,2</tt> (optimistic transactions
+ * validated at commit) and <tt>req_list_commit_each/1</tt></li>
+ * <li><tt>api_pubsub</tt>: <tt>publish/2</tt>, <tt>publish_list/1</tt>
+ * (subscribers are notified by a JSON-RPC <tt>notify</tt> call or a
+ * <tt>{notify, Topic, Content}</tt> message like by a real node),
+ * <tt>subscribe/2</tt>, <tt>unsubscribe/2</tt> and
+ * <tt>get_subscribers/1</tt></li>
+ * <li><tt>api_rdht</tt>: <tt>delete/1,2</tt></li>
+ * <li><tt>api_vm</tt>: all functions used by {@link ScalarisVM} (dht nodes
+ * are only names, <tt>shutdown_vm/0</tt> and <tt>kill_vm/0</tt> crash the
+ * fake node)</li>
+ * </ul>
+ * Other functions are answered with <tt>{badrpc, {'EXIT', {undef, ...}}}</tt>
+ * like by a real node.
+ *
+ * Several nodes can share their data (see
+ * {@link #FakeScalarisNode(String, String, FakeScalarisNode)}) and report
+ * each other as further VMs, e.g. to test failover with a
+ * {@link ConnectionPolicy} or {@link NodeDiscovery}. In order to measure the
+ * client in isolation, replies can be delayed (see
+ * {@link #setLatency(long, long)}), a fraction of the requests can fail with
+ * a timeout (see {@link #setFailureRate(double)}) and the node can crash and
+ * restart (see {@link #crash()} and {@link #restart()}).
+ *
+ * <pre>
+ * <code style="white-space:pre;">
+ *   FakeScalarisNode node = new FakeScalarisNode("node1@localhost", "chocolate chip cookie");
+ *   TransactionSingleOp sc = new TransactionSingleOp();
+ *   sc.write("key", "value");
+ *   node.close();
+ * </code>
+ * </pre>
+ *
+ * The node is part of the test sources and thus not included in
+ * <tt>scalaris.jar</tt>. It can also be run stand-alone for other
+ * processes, e.g. for the unit tests (see the <tt>test-fake</tt> ant
+ * target), after compiling the tests with <tt>ant scalaris.test.compile</tt>:
+ * <pre>
+ * <code style="white-space:pre;">
+ *   java -cp classes:lib/OtpErlang-1.5.4.jar de.zib.scalaris.FakeScalarisNode node1@localhost "chocolate chip cookie"
+ * </code>
+ * </pre>
+ *
+ * @author Nico Kruber, kruber@zib.de
+ * @version 3.6
+ * @since 3.6
+ */
+public class FakeScalarisNode {
+    /**
+     * Statistics of a fake node.
+     *
+     * @author Nico Kruber, kruber@zib.de
+     * @version 3.6
+     * @since 3.6
+     */
+    public static class Statistics {
+        private final long requests;
+        private final long failures;
+        private final long publishes;
+        private final long crashes;
+        private final int items;
+
+        /**
+         * Creates a new statistics object.
+         *
+         * @param requests
+         *            number of answered requests
+         * @param failures
+         *            number of injected failures
+         * @param publishes
+         *            number of published messages
+         * @param crashes
+         *            number of crashes
+         * @param items
+         *            number of stored items
+         */
+        Statistics(final long requests, final long failures,
+                final long publishes, final long crashes, final int items) {
+            this.requests = requests;
+            this.failures = failures;
+            this.publishes = publishes;
+            this.crashes = crashes;
+            this.items = items;
+        }
+
+        /**
+         * @return the number of answered requests
+         */
+        public long getRequests() {
+            return requests;
+        }
+
+        /**
+         * @return the number of injected failures
+         */
+        public long getFailures() {
+            return failures;
+        }
+
+        /**
+         * @return the number of published messages
+         */
+        public long getPublishes() {
+            return publishes;
+        }
+
+        /**
+         * @return the number of crashes
+         */
+        public long getCrashes() {
+            return crashes;
+        }
+
+        /**
+         * @return the number of stored items (of all nodes sharing the data)
+         */
+        public int getItems() {
+            return items;
+        }
+
+        @Override
+        public String toString() {
+            return "requests: " + requests + " (" + failures
+                    + " failed), publishes: " + publishes + ", crashes: "
+                    + crashes + ", items: " + items;
+        }
+    }
+
+    /**
+     * A stored value with its version (immutable).
+     */
+    private static class Item {
+        private final long version;
+        private final OtpErlangObject value;
+
+        Item(final long version, final OtpErlangObject value) {
+            this.version = version;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Data and nodes shared by several fake nodes.
+     */
+    private static class Cluster {
+        private final ConcurrentHashMap<String, Item> items = new ConcurrentHashMap<String, Item>();
+        /**
+         * Serialises all writes, reads do not lock.
+         */
+        private final Object writeLock = new Object();
+        private final List<FakeScalarisNode> nodes = new CopyOnWriteArrayList<FakeScalarisNode>();
+    }
+
+    /**
+     * An entry of a transaction log.
+     */
+    private static class TLogEntry {
+        /**
+         * Version of the item when first accessed (<tt>-1</tt> if it did not
+         * exist).
+         */
+        private final long version;
+        private boolean written;
+        /**
+         * The value (<tt>null</tt> if not found).
+         */
+        private OtpErlangObject value;
+
+        TLogEntry(final long version, final boolean written,
+                final OtpErlangObject value) {
+            this.version = version;
+            this.written = written;
+            this.value = value;
+        }
+    }
+
+    private static final OtpErlangAtom rexAtom = new OtpErlangAtom("rex");
+    private static final OtpErlangAtom genCallAtom = new OtpErlangAtom("$gen_call");
+    private static final OtpErlangAtom callAtom = new OtpErlangAtom("call");
+    private static final OtpErlangAtom badrpcAtom = new OtpErlangAtom("badrpc");
+    private static final OtpErlangAtom exitAtom = new OtpErlangAtom("EXIT");
+    private static final OtpErlangAtom undefAtom = new OtpErlangAtom("undef");
+    private static final OtpErlangAtom badargAtom = new OtpErlangAtom("badarg");
+    private static final OtpErlangAtom valueAtom = new OtpErlangAtom("value");
+    private static final OtpErlangAtom notifyAtom = new OtpErlangAtom("notify");
+    private static final OtpErlangTuple failTimeout = new OtpErlangTuple(new OtpErlangObject[] {
+            CommonErlangObjects.failAtom, CommonErlangObjects.timeoutAtom });
+    private static final OtpErlangTuple failAbort = new OtpErlangTuple(new OtpErlangObject[] {
+            CommonErlangObjects.failAtom, CommonErlangObjects.abortAtom });
+    private static final OtpErlangTuple failNotFound = new OtpErlangTuple(new OtpErlangObject[] {
+            CommonErlangObjects.failAtom, CommonErlangObjects.notFoundAtom });
+    /**
+     * Number of replicas reported by <tt>api_rdht:delete</tt>.
+     */
+    private static final int REPLICAS = 4;
+    /**
+     * Number of threads answering requests.
+     */
+    private static final int THREADS = 4;
+
+    private final String name;
+    private final String cookie;
+    private final Cluster cluster;
+    private final long startTime = System.currentTimeMillis();
+    private final Random random = new Random();
+    private final ScheduledExecutorService delayedReplies;
+    private final ExecutorService notifier;
+    private volatile long minLatency = 0;
+    private volatile long maxLatency = 0;
+    private volatile double failureRate = 0.0;
+    /**
+     * Names of the dht nodes reported by <tt>api_vm</tt>.
+     */
+    private final List<String> dhtNodes = new ArrayList<String>();
+    private int nextDhtNode = 1;
+
+    private OtpNode node = null;
+    private OtpMbox rex = null;
+    private volatile boolean running = false;
+
+    private final AtomicLong requests = new AtomicLong(0);
+    private final AtomicLong failures = new AtomicLong(0);
+    private final AtomicLong publishes = new AtomicLong(0);
+    private final AtomicLong crashes = new AtomicLong(0);
+
+    /**
+     * Creates and starts a fake node with its own (empty) data.
+     *
+     * @param name
+     *            the name of the node, e.g. <tt>node1@localhost</tt> (see
+     *            {@link ConnectionFactory#fixLocalhostName(String)})
+     * @param cookie
+     *            the cookie clients must use
+     *
+     * @throws IOException
+     *             if the node could not be started
+     */
+    public FakeScalarisNode(final String name, final String cookie)
+            throws IOException {
+        this(name, cookie, new Cluster());
+    }
+
+    /**
+     * Creates and starts a fake node sharing the data of another fake node,
+     * e.g. like another VM of the same scalaris ring.
+     *
+     * @param name
+     *            the name of the node, e.g. <tt>node2@localhost</tt>
+     * @param cookie
+     *            the cookie clients must use
+     * @param other
+     *            the node to share the data with
+     *
+     * @throws IOException
+     *             if the node could not be started
+     */
+    public FakeScalarisNode(final String name, final String cookie,
+            final FakeScalarisNode other) throws IOException {
+        this(name, cookie, other.cluster);
+    }
+
+    private FakeScalarisNode(final String name, final String cookie,
+            final Cluster cluster) throws IOException {
+        this.name = ConnectionFactory.fixLocalhostName(name);
+        this.cookie = cookie;
+        this.cluster = cluster;
+        this.delayedReplies = Executors.newSingleThreadScheduledExecutor(
+                daemonThreads("fake-scalaris-replies-" + this.name));
+        this.notifier = Executors.newFixedThreadPool(2,
+                daemonThreads("fake-scalaris-notify-" + this.name));
+        cluster.nodes.add(this);
+        setDhtNodes(1);
+        restart();
+    }
+
+    /**
+     * @return the name of the node
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Delays all replies by a random time between <tt>min</tt> and
+     * <tt>max</tt> (default: 0).
+     *
+     * @param min
+     *            the minimum latency (in microseconds)
+     * @param max
+     *            the maximum latency (in microseconds)
+     */
+    public void setLatency(final long min, final long max) {
+        this.minLatency = Math.max(0, min);
+        this.maxLatency = Math.max(this.minLatency, max);
+    }
+
+    /**
+     * Sets the fraction of requests to fail with a timeout (default: 0).
+     * Applies to the functions of <tt>api_tx</tt>, <tt>api_pubsub</tt> and
+     * <tt>api_rdht</tt> which may return <tt>{fail, timeout}</tt>. A failed
+     * request has no effect.
+     *
+     * @param failureRate
+     *            the fraction, in <tt>[0, 1]</tt>
+     */
+    public void setFailureRate(final double failureRate) {
+        if (!((failureRate >= 0.0) && (failureRate <= 1.0))) {
+            throw new IllegalArgumentException("failure rate must be in [0, 1]: " + failureRate);
+        }
+        this.failureRate = failureRate;
+    }
+
+    /**
+     * Sets the number of dht nodes reported by <tt>api_vm</tt> (default: 1).
+     *
+     * @param dhtNodes
+     *            the number of dht nodes
+     */
+    public void setDhtNodes(final int dhtNodes) {
+        synchronized (this.dhtNodes) {
+            this.dhtNodes.clear();
+            addDhtNodes(dhtNodes);
+        }
+    }
+
+    /**
+     * @return whether the node is running, i.e. reachable by clients
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Starts the node (again) after a {@link #crash()}. The data is kept.
+     *
+     * @throws IOException
+     *             if the node could not be started
+     */
+    public synchronized void restart() throws IOException {
+        if (running) {
+            return;
+        }
+        Epmd.ensureRunning();
+        node = new OtpNode(name, cookie);
+        rex = node.createMbox("rex");
+        running = true;
+        final OtpMbox mbox = rex;
+        for (int i = 0; i < THREADS; ++i) {
+            final Thread worker = new Thread(new Runnable() {
+                public void run() {
+                    serve(mbox);
+                }
+            }, "fake-scalaris-" + name + "-" + i);
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    /**
+     * Stops the node abruptly, i.e. all client connections break and
+     * requests in flight are not answered. The data is kept so that other
+     * nodes sharing it or a {@link #restart()} can still serve it.
+     */
+    public synchronized void crash() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        crashes.incrementAndGet();
+        node.closeMbox(rex);
+        node.close();
+    }
+
+    /**
+     * Stops the node and releases its resources.
+     */
+    public void close() {
+        crash();
+        crashes.decrementAndGet();
+        cluster.nodes.remove(this);
+        delayedReplies.shutdownNow();
+        notifier.shutdownNow();
+    }
+
+    /**
+     * Removes all items (of all nodes sharing the data).
+     */
+    public void clear() {
+        synchronized (cluster.writeLock) {
+            cluster.items.clear();
+        }
+    }
+
+    /**
+     * Gets a snapshot of the node's statistics.
+     *
+     * @return the statistics
+     */
+    public Statistics getStatistics() {
+        return new Statistics(requests.get(), failures.get(), publishes.get(),
+                crashes.get(), cluster.items.size());
+    }
+
+    /**
+     * Receives and answers requests until the node crashes.
+     *
+     * @param mbox
+     *            the <tt>rex</tt> mailbox
+     */
+    private void serve(final OtpMbox mbox) {
+        while (running) {
+            final OtpErlangObject msg;
+            try {
+                msg = mbox.receive(100);
+            } catch (final OtpErlangExit e) {
+                continue;
+            } catch (final OtpErlangDecodeException e) {
+                continue;
+            }
+            if (msg instanceof OtpErlangTuple) {
+                handle(mbox, (OtpErlangTuple) msg);
+            }
+        }
+    }
+
+    /**
+     * Answers an RPC, i.e. <tt>{Pid, {call, Mod, Fun, Args, _}}</tt> with
+     * <tt>{rex, Result}</tt> or <tt>{'$gen_call', {Pid, Tag}, {call, Mod,
+     * Fun, Args, _}}</tt> with <tt>{Tag, Result}</tt>. Other messages are
+     * ignored.
+     *
+     * @param mbox
+     *            the mailbox to reply with
+     * @param msg
+     *            the received message
+     */
+    private void handle(final OtpMbox mbox, final OtpErlangTuple msg) {
+        final OtpErlangPid to;
+        final OtpErlangObject tag;
+        final OtpErlangObject request;
+        try {
+            if ((msg.arity() == 3) && genCallAtom.equals(msg.elementAt(0))) {
+                final OtpErlangTuple from = (OtpErlangTuple) msg.elementAt(1);
+                to = (OtpErlangPid) from.elementAt(0);
+                tag = from.elementAt(1);
+                request = msg.elementAt(2);
+            } else if (msg.arity() == 2) {
+                to = (OtpErlangPid) msg.elementAt(0);
+                tag = rexAtom;
+                request = msg.elementAt(1);
+            } else {
+                return;
+            }
+        } catch (final ClassCastException e) {
+            return;
+        }
+        if (!(request instanceof OtpErlangTuple)
+                || (((OtpErlangTuple) request).arity() != 5)
+                || !callAtom.equals(((OtpErlangTuple) request).elementAt(0))) {
+            return;
+        }
+        final OtpErlangTuple call = (OtpErlangTuple) request;
+        final OtpErlangObject result = call(call.elementAt(1), call.elementAt(2),
+                call.elementAt(3));
+        requests.incrementAndGet();
+        final OtpErlangTuple reply = new OtpErlangTuple(new OtpErlangObject[] { tag, result });
+        final long latency = nextLatency();
+        if (latency <= 0) {
+            mbox.send(to, reply);
+        } else {
+            delayedReplies.schedule(new Runnable() {
+                public void run() {
+                    if (running) {
+                        mbox.send(to, reply);
+                    }
+                }
+            }, latency, TimeUnit.MICROSECONDS);
+        }
+    }
+
+    private long nextLatency() {
+        final long min = minLatency;
+        final long max = maxLatency;
+        if (max <= min) {
+            return min;
+        }
+        return min + (long) (random.nextDouble() * ((max - min) + 1));
+    }
+
+    /**
+     * Executes a function.
+     *
+     * @param modRaw
+     *            the module
+     * @param funRaw
+     *            the function
+     * @param argsRaw
+     *            the arguments
+     *
+     * @return the result (<tt>{badrpc, Reason}</tt> on errors)
+     */
+    private OtpErlangObject call(final OtpErlangObject modRaw,
+            final OtpErlangObject funRaw, final OtpErlangObject argsRaw) {
+        try {
+            final String mod = ((OtpErlangAtom) modRaw).atomValue();
+            final String fun = ((OtpErlangAtom) funRaw).atomValue();
+            final OtpErlangObject[] args = ErlangValue.otpObjectToOtpList(argsRaw).elements();
+            OtpErlangObject result = null;
+            if (mod.equals("api_tx")) {
+                result = callTx(fun, args);
+            } else if (mod.equals("api_pubsub")) {
+                result = callPubSub(fun, args);
+            } else if (mod.equals("api_rdht")) {
+                result = callRdht(fun, args);
+            } else if (mod.equals("api_vm")) {
+                result = callVm(fun, args);
+            }
+            if (result == null) {
+                return badRpc(undefAtom, modRaw, funRaw, argsRaw);
+            }
+            return result;
+        } catch (final ClassCastException e) {
+            return badRpc(badargAtom, modRaw, funRaw, argsRaw);
+        } catch (final IndexOutOfBoundsException e) {
+            return badRpc(badargAtom, modRaw, funRaw, argsRaw);
+        }
+    }
+
+    private static OtpErlangObject badRpc(final OtpErlangAtom reason,
+            final OtpErlangObject mod, final OtpErlangObject fun,
+            final OtpErlangObject args) {
+        final OtpErlangTuple mfa = new OtpErlangTuple(new OtpErlangObject[] { mod, fun, args });
+        final OtpErlangTuple error = new OtpErlangTuple(new OtpErlangObject[] {
+                reason, new OtpErlangList(mfa) });
+        return new OtpErlangTuple(new OtpErlangObject[] { badrpcAtom,
+                new OtpErlangTuple(new OtpErlangObject[] { exitAtom, error }) });
+    }
+
+    /**
+     * Decides whether to inject a failure into the current request.
+     *
+     * @return <tt>true</tt> if the request should fail
+     */
+    private boolean fail() {
+        if ((failureRate > 0.0) && (random.nextDouble() < failureRate)) {
+            failures.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    private static String toKey(final OtpErlangObject key) {
+        return new ErlangValue(key).stringValue();
+    }
+
+    private static OtpErlangTuple ok(final OtpErlangObject value) {
+        return new OtpErlangTuple(new OtpErlangObject[] { CommonErlangObjects.okAtom, value });
+    }
+
+    private OtpErlangObject read(final String key) {
+        final Item item = cluster.items.get(key);
+        return (item == null) ? failNotFound : ok(item.value);
+    }
+
+    private void write(final String key, final OtpErlangObject value) {
+        synchronized (cluster.writeLock) {
+            final Item item = cluster.items.get(key);
+            cluster.items.put(key, new Item((item == null) ? 0 : (item.version + 1), value));
+        }
+    }
+
+    private OtpErlangObject callTx(final String fun, final OtpErlangObject[] args) {
+        if (fun.equals("read") && (args.length == 1)) {
+            return fail() ? failTimeout : read(toKey(args[0]));
+        } else if (fun.equals("write") && (args.length == 2)) {
+            if (fail()) {
+                return failTimeout;
+            }
+            write(toKey(args[0]), args[1]);
+            return CommonErlangObjects.okTupleAtom;
+        } else if (fun.equals("test_and_set") && (args.length == 3)) {
+            if (fail()) {
+                return failTimeout;
+            }
+            final String key = toKey(args[0]);
+            synchronized (cluster.writeLock) {
+                final Item item = cluster.items.get(key);
+                if (item == null) {
+                    return failNotFound;
+                } else if (!item.value.equals(args[1])) {
+                    return new OtpErlangTuple(new OtpErlangObject[] {
+                            CommonErlangObjects.failAtom,
+                            new OtpErlangTuple(new OtpErlangObject[] {
+                                    CommonErlangObjects.keyChangedAtom, item.value }) });
+                }
+                cluster.items.put(key, new Item(item.version + 1, args[2]));
+            }
+            return CommonErlangObjects.okTupleAtom;
+        } else if (fun.equals("req_list") && ((args.length == 1) || (args.length == 2))) {
+            final OtpErlangObject tlog = (args.length == 2) ? args[0] : new OtpErlangList();
+            final OtpErlangList reqs = ErlangValue.otpObjectToOtpList(args[args.length - 1]);
+            if (fail()) {
+                final OtpErlangObject[] results = new OtpErlangObject[reqs.arity()];
+                for (int i = 0; i < results.length; ++i) {
+                    results[i] = failTimeout;
+                }
+                return new OtpErlangTuple(new OtpErlangObject[] { tlog, new OtpErlangList(results) });
+            }
+            return reqList(decodeTLog(tlog), reqs);
+        } else if (fun.equals("req_list_commit_each") && (args.length == 1)) {
+            final OtpErlangList reqs = ErlangValue.otpObjectToOtpList(args[0]);
+            final OtpErlangObject[] results = new OtpErlangObject[reqs.arity()];
+            for (int i = 0; i < results.length; ++i) {
+                final OtpErlangTuple req = (OtpErlangTuple) reqs.elementAt(i);
+                if (fail()) {
+                    results[i] = failTimeout;
+                } else if (CommonErlangObjects.readAtom.equals(req.elementAt(0)) && (req.arity() == 2)) {
+                    results[i] = read(toKey(req.elementAt(1)));
+                } else if (CommonErlangObjects.writeAtom.equals(req.elementAt(0)) && (req.arity() == 3)) {
+                    write(toKey(req.elementAt(1)), req.elementAt(2));
+                    results[i] = CommonErlangObjects.okTupleAtom;
+                } else {
+                    results[i] = failAbort;
+                }
+            }
+            return new OtpErlangList(results);
+        }
+        return null;
+    }
+
+    /**
+     * Executes the requests of a transaction. Reads are served from the
+     * transaction log or the store, writes are buffered in the log and a
+     * commit validates that no item of the log has changed since it was
+     * first accessed before applying the writes atomically.
+     *
+     * @param tlog
+     *            the transaction log
+     * @param reqs
+     *            the requests
+     *
+     * @return <tt>{TLog, Results}</tt>
+     */
+    private OtpErlangObject reqList(final Map<String, TLogEntry> tlog,
+            final OtpErlangList reqs) {
+        final OtpErlangObject[] results = new OtpErlangObject[reqs.arity()];
+        for (int i = 0; i < results.length; ++i) {
+            final OtpErlangTuple req = (OtpErlangTuple) reqs.elementAt(i);
+            final OtpErlangObject op = req.elementAt(0);
+            if (CommonErlangObjects.readAtom.equals(op) && (req.arity() == 2)) {
+                final String key = toKey(req.elementAt(1));
+                TLogEntry entry = tlog.get(key);
+                if (entry == null) {
+                    final Item item = cluster.items.get(key);
+                    entry = (item == null) ? new TLogEntry(-1, false, null)
+                            : new TLogEntry(item.version, false, item.value);
+                    tlog.put(key, entry);
+                }
+                results[i] = (entry.value == null) ? failNotFound : ok(entry.value);
+            } else if (CommonErlangObjects.writeAtom.equals(op) && (req.arity() == 3)) {
+                final String key = toKey(req.elementAt(1));
+                TLogEntry entry = tlog.get(key);
+                if (entry == null) {
+                    final Item item = cluster.items.get(key);
+                    entry = new TLogEntry((item == null) ? -1 : item.version, true, null);
+                    tlog.put(key, entry);
+                }
+                entry.written = true;
+                entry.value = req.elementAt(2);
+                results[i] = CommonErlangObjects.okTupleAtom;
+            } else if (CommonErlangObjects.commitTupleAtom.equals(req)) {
+                if (commit(tlog)) {
+                    tlog.clear();
+                    results[i] = CommonErlangObjects.okTupleAtom;
+                } else {
+                    results[i] = failAbort;
+                }
+            } else {
+                throw new ClassCastException("unknown request: " + req);
+            }
+        }
+        return new OtpErlangTuple(new OtpErlangObject[] { encodeTLog(tlog),
+                new OtpErlangList(results) });
+    }
+
+    private boolean commit(final Map<String, TLogEntry> tlog) {
+        synchronized (cluster.writeLock) {
+            for (final Map.Entry<String, TLogEntry> e : tlog.entrySet()) {
+                final Item item = cluster.items.get(e.getKey());
+                if (((item == null) ? -1 : item.version) != e.getValue().version) {
+                    return false;
+                }
+            }
+            for (final Map.Entry<String, TLogEntry> e : tlog.entrySet()) {
+                final TLogEntry entry = e.getValue();
+                if (entry.written) {
+                    cluster.items.put(e.getKey(), new Item(entry.version + 1, entry.value));
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Encodes a transaction log as a list of
+     * <tt>{Key, Version, Written, {value, Value} | not_found}</tt> tuples.
+     */
+    private static OtpErlangObject encodeTLog(final Map<String, TLogEntry> tlog) {
+        final OtpErlangObject[] entries = new OtpErlangObject[tlog.size()];
+        int i = 0;
+        for (final Map.Entry<String, TLogEntry> e : tlog.entrySet()) {
+            final TLogEntry entry = e.getValue();
+            entries[i++] = new OtpErlangTuple(new OtpErlangObject[] {
+                    new OtpErlangString(e.getKey()),
+                    new OtpErlangLong(entry.version),
+                    entry.written ? CommonErlangObjects.trueAtom : CommonErlangObjects.falseAtom,
+                    (entry.value == null) ? CommonErlangObjects.notFoundAtom
+                            : new OtpErlangTuple(new OtpErlangObject[] { valueAtom, entry.value }) });
+        }
+        return new OtpErlangList(entries);
+    }
+
+    private static Map<String, TLogEntry> decodeTLog(final OtpErlangObject tlog) {
+        final Map<String, TLogEntry> result = new LinkedHashMap<String, TLogEntry>();
+        for (final OtpErlangObject o : ErlangValue.otpObjectToOtpList(tlog)) {
+            final OtpErlangTuple t = (OtpErlangTuple) o;
+            final OtpErlangObject value = t.elementAt(3);
+            result.put(toKey(t.elementAt(0)), new TLogEntry(
+                    ((OtpErlangLong) t.elementAt(1)).longValue(),
+                    CommonErlangObjects.trueAtom.equals(t.elementAt(2)),
+                    (value instanceof OtpErlangTuple) ? ((OtpErlangTuple) value).elementAt(1) : null));
+        }
+        return result;
+    }
+
+    private OtpErlangObject callPubSub(final String fun, final OtpErlangObject[] args) {
+        if (fun.equals("publish") && (args.length == 2)) {
+            if (fail()) {
+                return failTimeout;
+            }
+            publish(args[0], args[1]);
+            return CommonErlangObjects.okTupleAtom;
+        } else if (fun.equals("publish_list") && (args.length == 1)) {
+            final OtpErlangList events = ErlangValue.otpObjectToOtpList(args[0]);
+            final OtpErlangObject[] results = new OtpErlangObject[events.arity()];
+            for (int i = 0; i < results.length; ++i) {
+                final OtpErlangTuple event = (OtpErlangTuple) events.elementAt(i);
+                if (fail()) {
+                    results[i] = failTimeout;
+                } else {
+                    publish(event.elementAt(0), event.elementAt(1));
+                    results[i] = CommonErlangObjects.okTupleAtom;
+                }
+            }
+            return new OtpErlangList(results);
+        } else if (fun.equals("subscribe") && (args.length == 2)) {
+            if (fail()) {
+                return failTimeout;
+            }
+            final String topic = toKey(args[0]);
+            synchronized (cluster.writeLock) {
+                final List<OtpErlangObject> urls = getSubscribers(topic);
+                urls.add(0, args[1]);
+                write(topic, new OtpErlangList(urls.toArray(new OtpErlangObject[urls.size()])));
+            }
+            return CommonErlangObjects.okTupleAtom;
+        } else if (fun.equals("unsubscribe") && (args.length == 2)) {
+            if (fail()) {
+                return failTimeout;
+            }
+            final String topic = toKey(args[0]);
+            synchronized (cluster.writeLock) {
+                final List<OtpErlangObject> urls = getSubscribers(topic);
+                if (!urls.remove(args[1])) {
+                    return failNotFound;
+                }
+                write(topic, new OtpErlangList(urls.toArray(new OtpErlangObject[urls.size()])));
+            }
+            return CommonErlangObjects.okTupleAtom;
+        } else if (fun.equals("get_subscribers") && (args.length == 1)) {
+            final List<OtpErlangObject> urls = getSubscribers(toKey(args[0]));
+            return new OtpErlangList(urls.toArray(new OtpErlangObject[urls.size()]));
+        }
+        return null;
+    }
+
+    /**
+     * Sends an event to all subscribers of its topic.
+     *
+     * @param topic
+     *            the topic of the event
+     * @param content
+     *            the published content
+     */
+    private void publish(final OtpErlangObject topic, final OtpErlangObject content) {
+        final String topicString = toKey(topic);
+        final String contentString = new ErlangValue(content).stringValue();
+        publishes.incrementAndGet();
+        for (final OtpErlangObject subscriber : getSubscribers(topicString)) {
+            if (subscriber instanceof OtpErlangPid) {
+                rex.send((OtpErlangPid) subscriber, new OtpErlangTuple(new OtpErlangObject[] {
+                        notifyAtom, topic, content }));
+            } else {
+                notify(new ErlangValue(subscriber).stringValue(), topicString, contentString);
+            }
+        }
+    }
+
+    /**
+     * Asynchronously sends a JSON-RPC <tt>notify</tt> call to a subscriber
+     * (errors are ignored like by a real node).
+     *
+     * @param url
+     *            the subscriber's URL
+     * @param topic
+     *            the topic of the published message
+     * @param content
+     *            the published message
+     */
+    private void notify(final String url, final String topic, final String content) {
+        final String body = "{\"jsonrpc\":\"2.0\",\"method\":\"notify\",\"params\":["
+                + PubSubServer.toJSON(topic) + ","
+                + PubSubServer.toJSON(content) + "],\"id\":"
+                + publishes.get() + "}";
+        try {
+            notifier.execute(new Runnable() {
+                public void run() {
+                    try {
+                        final HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+                        connection.setDoOutput(true);
+                        connection.setRequestMethod("POST");
+                        connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+                        final OutputStream out = connection.getOutputStream();
+                        out.write(body.getBytes("UTF-8"));
+                        out.close();
+                        final InputStream in = connection.getInputStream();
+                        while (in.read() != -1) {
+                            // discard the response
+                        }
+                        in.close();
+                    } catch (final IOException e) {
+                        // ignore unreachable subscribers
+                    }
+                }
+            });
+        } catch (final RejectedExecutionException e) {
+            // node closed
+        }
+    }
+
+    private List<OtpErlangObject> getSubscribers(final String topic) {
+        final Item item = cluster.items.get(topic);
+        final List<OtpErlangObject> result = new ArrayList<OtpErlangObject>();
+        if (item != null) {
+            for (final OtpErlangObject url : ErlangValue.otpObjectToOtpList(item.value)) {
+                result.add(url);
+            }
+        }
+        return result;
+    }
+
+    private OtpErlangObject callRdht(final String fun, final OtpErlangObject[] args) {
+        if (fun.equals("delete") && ((args.length == 1) || (args.length == 2))) {
+            if (fail()) {
+                return new OtpErlangTuple(new OtpErlangObject[] {
+                        CommonErlangObjects.failAtom, CommonErlangObjects.timeoutAtom,
+                        new OtpErlangLong(0), new OtpErlangList() });
+            }
+            final boolean deleted;
+            synchronized (cluster.writeLock) {
+                deleted = (cluster.items.remove(toKey(args[0])) != null);
+            }
+            final OtpErlangObject[] results = new OtpErlangObject[REPLICAS];
+            for (int i = 0; i < REPLICAS; ++i) {
+                results[i] = deleted ? CommonErlangObjects.okAtom : new OtpErlangAtom("undef");
+            }
+            return new OtpErlangTuple(new OtpErlangObject[] {
+                    CommonErlangObjects.okAtom,
+                    new OtpErlangLong(deleted ? REPLICAS : 0),
+                    new OtpErlangList(results) });
+        }
+        return null;
+    }
+
+    private OtpErlangObject callVm(final String fun, final OtpErlangObject[] args)
+            throws ClassCastException {
+        if (fun.equals("get_version") && (args.length == 0)) {
+            return new OtpErlangString("fake");
+        } else if (fun.equals("get_info") && (args.length == 0)) {
+            return new OtpErlangList(new OtpErlangObject[] {
+                    infoTuple("scalaris_version", new OtpErlangString("fake")),
+                    infoTuple("erlang_version", new OtpErlangString("java")),
+                    infoTuple("mem_total", new OtpErlangLong(Runtime.getRuntime().totalMemory())),
+                    infoTuple("uptime", new OtpErlangLong(System.currentTimeMillis() - startTime)),
+                    infoTuple("erlang_node", new OtpErlangAtom(name)),
+                    infoTuple("ip", localIp()),
+                    infoTuple("port", new OtpErlangInt(getPort())),
+                    infoTuple("yaws_port", new OtpErlangInt(0)) });
+        } else if (fun.equals("number_of_nodes") && (args.length == 0)) {
+            synchronized (dhtNodes) {
+                return new OtpErlangInt(dhtNodes.size());
+            }
+        } else if (fun.equals("get_nodes") && (args.length == 0)) {
+            synchronized (dhtNodes) {
+                return toStringList(dhtNodes);
+            }
+        } else if (fun.equals("add_nodes") && (args.length == 1)) {
+            final int number = (int) ((OtpErlangLong) args[0]).longValue();
+            return new OtpErlangTuple(new OtpErlangObject[] {
+                    toStringList(addDhtNodes(number)), new OtpErlangList() });
+        } else if ((fun.equals("shutdown_node") || fun.equals("kill_node")) && (args.length == 1)) {
+            synchronized (dhtNodes) {
+                return dhtNodes.remove(toKey(args[0])) ? CommonErlangObjects.okAtom
+                        : CommonErlangObjects.notFoundAtom;
+            }
+        } else if ((fun.equals("shutdown_nodes") || fun.equals("kill_nodes")) && (args.length == 1)) {
+            final long number = ((OtpErlangLong) args[0]).longValue();
+            final List<String> removed = new ArrayList<String>();
+            synchronized (dhtNodes) {
+                while ((removed.size() < number) && !dhtNodes.isEmpty()) {
+                    removed.add(dhtNodes.remove(dhtNodes.size() - 1));
+                }
+            }
+            return toStringList(removed);
+        } else if ((fun.equals("shutdown_nodes_by_name") || fun.equals("kill_nodes_by_name"))
+                && (args.length == 1)) {
+            final List<String> removed = new ArrayList<String>();
+            final List<String> notFound = new ArrayList<String>();
+            synchronized (dhtNodes) {
+                for (final OtpErlangObject o : ErlangValue.otpObjectToOtpList(args[0])) {
+                    final String dhtNode = toKey(o);
+                    (dhtNodes.remove(dhtNode) ? removed : notFound).add(dhtNode);
+                }
+            }
+            return new OtpErlangTuple(new OtpErlangObject[] {
+                    toStringList(removed), toStringList(notFound) });
+        } else if (fun.equals("get_other_vms") && (args.length == 1)) {
+            final long max = ((OtpErlangLong) args[0]).longValue();
+            final List<OtpErlangObject> vms = new ArrayList<OtpErlangObject>();
+            for (final FakeScalarisNode other : cluster.nodes) {
+                if ((other != this) && other.isRunning() && (vms.size() < max)) {
+                    vms.add(new OtpErlangTuple(new OtpErlangObject[] {
+                            new OtpErlangAtom(other.name), localIp(),
+                            new OtpErlangInt(other.getPort()), new OtpErlangInt(0) }));
+                }
+            }
+            return new OtpErlangList(vms.toArray(new OtpErlangObject[vms.size()]));
+        } else if (fun.equals("get_ring_nodes") && (args.length == 0)) {
+            final List<FakeScalarisNode> running = new ArrayList<FakeScalarisNode>();
+            for (final FakeScalarisNode other : cluster.nodes) {
+                if (other.isRunning()) {
+                    running.add(other);
+                }
+            }
+            // evenly distributed ids
+            final BigInteger step = BigInteger.ONE.shiftLeft(128).divide(
+                    BigInteger.valueOf(Math.max(1, running.size())));
+            final OtpErlangObject[] ring = new OtpErlangObject[running.size()];
+            for (int i = 0; i < ring.length; ++i) {
+                ring[i] = new OtpErlangTuple(new OtpErlangObject[] {
+                        new OtpErlangLong(step.multiply(BigInteger.valueOf(i + 1)).subtract(BigInteger.ONE)),
+                        new OtpErlangAtom(running.get(i).name) });
+            }
+            return new OtpErlangList(ring);
+        } else if ((fun.equals("shutdown_vm") || fun.equals("kill_vm")) && (args.length == 0)) {
+            // reply first (if anyone waits for it), then go down
+            final Thread killer = new Thread(new Runnable() {
+                public void run() {
+                    crash();
+                }
+            });
+            killer.setDaemon(true);
+            killer.start();
+            return CommonErlangObjects.okAtom;
+        }
+        return null;
+    }
+
+    /**
+     * Adds dht nodes with new names.
+     *
+     * @param number
+     *            the number of nodes to add
+     *
+     * @return the names of the new nodes
+     */
+    private List<String> addDhtNodes(final int number) {
+        final List<String> added = new ArrayList<String>(Math.max(0, number));
+        synchronized (dhtNodes) {
+            for (int i = 0; i < number; ++i) {
+                added.add("dht_node_" + nextDhtNode++);
+            }
+            dhtNodes.addAll(added);
+        }
+        return added;
+    }
+
+    private static OtpErlangList toStringList(final List<String> strings) {
+        final OtpErlangObject[] result = new OtpErlangObject[strings.size()];
+        for (int i = 0; i < result.length; ++i) {
+            result[i] = new OtpErlangString(strings.get(i));
+        }
+        return new OtpErlangList(result);
+    }
+
+    private static ThreadFactory daemonThreads(final String name) {
+        return new ThreadFactory() {
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    private static OtpErlangTuple infoTuple(final String key, final OtpErlangObject value) {
+        return new OtpErlangTuple(new OtpErlangObject[] { new OtpErlangAtom(key), value });
+    }
+
+    private static OtpErlangTuple localIp() {
+        return new OtpErlangTuple(new OtpErlangObject[] { new OtpErlangInt(127),
+                new OtpErlangInt(0), new OtpErlangInt(0), new OtpErlangInt(1) });
+    }
+
+    private synchronized int getPort() {
+        return (node == null) ? 0 : node.port();
+    }
+
+    /**
+     * Minimal erlang port mapper daemon which is started if no <tt>epmd</tt>
+     * is running. Supports the requests used by JInterface and erlang nodes:
+     * <tt>ALIVE2_REQ</tt>, <tt>PORT_PLEASE2_REQ</tt>, <tt>NAMES_REQ</tt> and
+     * JInterface's (legacy) unpublish request.
+     */
+    private static class Epmd implements Runnable {
+        private static final int ALIVE2_REQ = 120;
+        private static final int ALIVE2_RESP = 121;
+        private static final int PORT_PLEASE2_REQ = 122;
+        private static final int PORT2_RESP = 119;
+        private static final int NAMES_REQ = 110;
+        private static final int STOP_REQ = 115;
+
+        /**
+         * A registered node (immutable).
+         */
+        private static class Registration {
+            private final int port;
+            private final int type;
+            private final int protocol;
+            private final int highestVersion;
+            private final int lowestVersion;
+
+            Registration(final int port, final int type, final int protocol,
+                    final int highestVersion, final int lowestVersion) {
+                this.port = port;
+                this.type = type;
+                this.protocol = protocol;
+                this.highestVersion = highestVersion;
+                this.lowestVersion = lowestVersion;
+            }
+        }
+
+        private static Epmd instance = null;
+
+        private final ServerSocket server;
+        private final int port;
+        private final ConcurrentHashMap<String, Registration> nodes = new ConcurrentHashMap<String, Registration>();
+        private int creation = 0;
+
+        private Epmd(final ServerSocket server, final int port) {
+            this.server = server;
+            this.port = port;
+        }
+
+        /**
+         * Starts an epmd in this JVM unless one is already reachable.
+         *
+         * @throws IOException
+         *             if starting failed
+         */
+        static synchronized void ensureRunning() throws IOException {
+            if (instance != null) {
+                return;
+            }
+            int port = 4369;
+            final String env = System.getenv("ERL_EPMD_PORT");
+            if (env != null) {
+                try {
+                    port = Integer.parseInt(env);
+                } catch (final NumberFormatException e) {
+                    // use default
+                }
+            }
+            try {
+                new Socket((String) null, port).close();
+                // a (real) epmd is running
+                return;
+            } catch (final IOException e) {
+                // start our own
+            }
+            instance = new Epmd(new ServerSocket(port), port);
+            final Thread acceptor = new Thread(instance, "fake-scalaris-epmd");
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        public void run() {
+            while (true) {
+                final Socket socket;
+                try {
+                    socket = server.accept();
+                } catch (final IOException e) {
+                    return;
+                }
+                final Thread handler = new Thread(new Runnable() {
+                    public void run() {
+                        try {
+                            handle(socket);
+                        } catch (final IOException e) {
+                            // client gone
+                        } finally {
+                            try {
+                                socket.close();
+                            } catch (final IOException e) {
+                                // ignore
+                            }
+                        }
+                    }
+                }, "fake-scalaris-epmd-" + socket.getPort());
+                handler.setDaemon(true);
+                handler.start();
+            }
+        }
+
+        private void handle(final Socket socket) throws IOException {
+            final DataInputStream in = new DataInputStream(socket.getInputStream());
+            final byte[] req = new byte[in.readUnsignedShort()];
+            in.readFully(req);
+            final DataInputStream body = new DataInputStream(new ByteArrayInputStream(req));
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final DataOutputStream out = new DataOutputStream(bytes);
+            switch (body.readUnsignedByte()) {
+            case ALIVE2_REQ: {
+                final Registration reg = new Registration(body.readUnsignedShort(),
+                        body.readUnsignedByte(), body.readUnsignedByte(),
+                        body.readUnsignedShort(), body.readUnsignedShort());
+                final byte[] alive = new byte[body.readUnsignedShort()];
+                body.readFully(alive);
+                final String alive_str = new String(alive, "ISO-8859-1");
+                // a re-started node replaces its old registration
+                nodes.put(alive_str, reg);
+                out.writeByte(ALIVE2_RESP);
+                out.writeByte(0);
+                synchronized (this) {
+                    creation = (creation % 3) + 1;
+                    out.writeShort(creation);
+                }
+                socket.getOutputStream().write(bytes.toByteArray());
+                // registered as long as the connection is open
+                final InputStream alive_in = socket.getInputStream();
+                try {
+                    while (alive_in.read() >= 0) {
+                        // ignore
+                    }
+                } finally {
+                    nodes.remove(alive_str, reg);
+                }
+                break;
+            }
+            case PORT_PLEASE2_REQ: {
+                final String alive_str = new String(req, 1, req.length - 1, "ISO-8859-1");
+                final Registration reg = nodes.get(alive_str);
+                out.writeByte(PORT2_RESP);
+                if (reg == null) {
+                    out.writeByte(1);
+                } else {
+                    out.writeByte(0);
+                    out.writeShort(reg.port);
+                    out.writeByte(reg.type);
+                    out.writeByte(reg.protocol);
+                    out.writeShort(reg.highestVersion);
+                    out.writeShort(reg.lowestVersion);
+                    final byte[] alive = alive_str.getBytes("ISO-8859-1");
+                    out.writeShort(alive.length);
+                    out.write(alive);
+                    out.writeShort(0);
+                }
+                // JInterface reads the response with a single read()
+                socket.getOutputStream().write(bytes.toByteArray());
+                break;
+            }
+            case NAMES_REQ: {
+                out.writeInt(port);
+                for (final Map.Entry<String, Registration> e : nodes.entrySet()) {
+                    out.write(("name " + e.getKey() + " at port " + e.getValue().port + "\n")
+                            .getBytes("ISO-8859-1"));
+                }
+                socket.getOutputStream().write(bytes.toByteArray());
+                break;
+            }
+            case STOP_REQ: {
+                nodes.remove(new String(req, 1, req.length - 1, "ISO-8859-1"));
+                break;
+            }
+            default:
+                break;
+            }
+        }
+    }
+
+    /**
+     * Runs a fake node until the JVM is terminated.
+     *
+     * @param args
+     *            the node's name (default: <tt>node1@localhost</tt>) and
+     *            cookie (default: <tt>chocolate chip cookie</tt>)
+     *
+     * @throws IOException
+     *             if the node could not be started
+     * @throws InterruptedException
+     *             if interrupted while running
+     */
+    public static void main(final String[] args) throws IOException,
+            InterruptedException {
+        final String name = (args.length >= 1) ? args[0] : "node1@localhost";
+        final String cookie = (args.length >= 2) ? args[1] : "chocolate chip cookie";
+        final FakeScalarisNode node = new FakeScalarisNode(name, cookie);
+        System.out.println("fake scalaris node " + node.getName() + " started");
+        synchronized (node) {
+            while (true) {
+                node.wait();
+            }
+        }
+    }
+}
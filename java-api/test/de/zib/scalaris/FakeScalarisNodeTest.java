@@ -0,0 +1,251 @@
+/**
+ *  Copyright 2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.ericsson.otp.erlang.OtpErlangList;
+
+/**
+ * Test cases for the {@link FakeScalarisNode} class (without a scalaris
+ * node).
+ *
+ * @author Nico Kruber, kruber@zib.de
+ *
+ * @version 3.6
+ * @since 3.6
+ */
+public class FakeScalarisNodeTest {
+    private static final String COOKIE = "fake cookie";
+    /**
+     * Client name counter (the pseudo UUIDs of different connection
+     * factories overlap).
+     */
+    private static final AtomicInteger clients = new AtomicInteger(0);
+
+    private static Connection connect(final FakeScalarisNode... nodes)
+            throws ConnectionException {
+        final StringBuilder names = new StringBuilder();
+        for (final FakeScalarisNode node : nodes) {
+            names.append(node.getName()).append(',');
+        }
+        final Properties properties = new Properties();
+        properties.setProperty("scalaris.node", names.toString());
+        properties.setProperty("scalaris.cookie", COOKIE);
+        properties.setProperty("scalaris.client.name", "fake_test_client_" + clients.getAndIncrement());
+        properties.setProperty("scalaris.client.appendUUID", "false");
+        return new ConnectionFactory(properties).createConnection();
+    }
+
+    /**
+     * Test method for the transaction API of a
+     * {@link FakeScalarisNode}, i.e. reads, writes and conflicting
+     * transactions.
+     *
+     * @throws Exception
+     *             if the test fails
+     */
+    @Test
+    public final void testTransactions() throws Exception {
+        final FakeScalarisNode node = new FakeScalarisNode("fake_tx@localhost", COOKIE);
+        try {
+            final TransactionSingleOp sc = new TransactionSingleOp(connect(node));
+            try {
+                sc.read("key");
+                assertTrue(false);
+            } catch (final NotFoundException e) {
+            }
+            sc.write("key", "value1");
+            assertEquals("value1", sc.read("key").stringValue());
+            sc.testAndSet("key", "value1", "value2");
+            try {
+                sc.testAndSet("key", "value1", "value3");
+                assertTrue(false);
+            } catch (final KeyChangedException e) {
+                assertEquals("value2", new ErlangValue(e.getOldValue()).stringValue());
+            }
+
+            // t1 read an outdated value -> abort
+            final Transaction t1 = new Transaction(connect(node));
+            final Transaction t2 = new Transaction(connect(node));
+            assertEquals("value2", t1.read("key").stringValue());
+            t1.write("key", "t1");
+            t2.write("key", "t2");
+            t2.commit();
+            try {
+                t1.commit();
+                assertTrue(false);
+            } catch (final AbortException e) {
+            }
+            assertEquals("t2", sc.read("key").stringValue());
+            t1.closeConnection();
+            t2.closeConnection();
+            sc.closeConnection();
+            assertEquals(1, node.getStatistics().getItems());
+        } finally {
+            node.close();
+        }
+    }
+
+    /**
+     * Test method for {@link FakeScalarisNode#setFailureRate(double)} and
+     * {@link FakeScalarisNode#setLatency(long, long)} (also with
+     * {@link Connection#setRpcTimeout(long)}).
+     *
+     * @throws Exception
+     *             if the test fails
+     */
+    @Test
+    public final void testFailuresAndLatency() throws Exception {
+        final FakeScalarisNode node = new FakeScalarisNode("fake_fail@localhost", COOKIE);
+        try {
+            final TransactionSingleOp sc = new TransactionSingleOp(connect(node));
+            node.setFailureRate(1.0);
+            try {
+                sc.write("key", "value");
+                assertTrue(false);
+            } catch (final TimeoutException e) {
+            }
+            node.setFailureRate(0.0);
+            node.setLatency(50000, 50000);
+            final long start = System.nanoTime();
+            sc.write("key", "value");
+            assertTrue((System.nanoTime() - start) >= 50000000L);
+            sc.closeConnection();
+
+            // asynchronous requests without a reply in time fail
+            final Connection connection = connect(node);
+            connection.setRpcTimeout(100);
+            node.setLatency(1000000, 1000000);
+            final AsyncResult<ErlangValue> result =
+                    new TransactionSingleOp(connection).readAsync("key");
+            try {
+                result.get(900, TimeUnit.MILLISECONDS);
+                assertTrue(false);
+            } catch (final ExecutionException e) {
+                assertTrue(e.getCause() instanceof ConnectionException);
+            }
+            connection.close();
+
+            final FakeScalarisNode.Statistics stats = node.getStatistics();
+            assertEquals(3, stats.getRequests());
+            assertEquals(1, stats.getFailures());
+        } finally {
+            node.close();
+        }
+    }
+
+    /**
+     * Test method for {@link FakeScalarisNode#crash()} and
+     * {@link FakeScalarisNode#restart()} with two nodes sharing their data.
+     *
+     * @throws Exception
+     *             if the test fails
+     */
+    @Test
+    public final void testCrashRestart() throws Exception {
+        final FakeScalarisNode node1 = new FakeScalarisNode("fake_crash1@localhost", COOKIE);
+        final FakeScalarisNode node2 = new FakeScalarisNode("fake_crash2@localhost", COOKIE, node1);
+        try {
+            final TransactionSingleOp sc1 = new TransactionSingleOp(connect(node1));
+            sc1.write("key", "value");
+            final ScalarisVM vm = new ScalarisVM(connect(node1));
+            assertEquals(1, vm.getOtherVMs(10).size());
+            vm.closeConnection();
+
+            node1.crash();
+            assertTrue(!node1.isRunning());
+            // in-flight and new requests on existing connections fail
+            try {
+                sc1.read("key");
+                assertTrue(false);
+            } catch (final ConnectionException e) {
+            }
+            try {
+                connect(node1);
+                assertTrue(false);
+            } catch (final ConnectionException e) {
+            }
+            // the data survives on the other node
+            final TransactionSingleOp sc2 = new TransactionSingleOp(connect(node2));
+            assertEquals("value", sc2.read("key").stringValue());
+            sc2.write("key", "value2");
+
+            node1.restart();
+            final TransactionSingleOp sc3 = new TransactionSingleOp(connect(node1));
+            assertEquals("value2", sc3.read("key").stringValue());
+            assertEquals(1, node1.getStatistics().getCrashes());
+            sc1.closeConnection();
+            sc2.closeConnection();
+            sc3.closeConnection();
+        } finally {
+            node2.close();
+            node1.close();
+        }
+    }
+
+    /**
+     * Test method for {@link Connection#doRPC(String, String, OtpErlangList)}
+     * failing over to another node if the connection fails while the reply
+     * to a synchronous RPC is collected by the receiver thread of
+     * asynchronous RPCs.
+     *
+     * @throws Exception
+     *             if the test fails
+     */
+    @Test
+    public final void testFailoverWithReceiver() throws Exception {
+        final FakeScalarisNode node1 = new FakeScalarisNode("fake_failover1@localhost", COOKIE);
+        final FakeScalarisNode node2 = new FakeScalarisNode("fake_failover2@localhost", COOKIE, node1);
+        try {
+            final Connection connection = connect(node1, node2);
+            final TransactionSingleOp sc = new TransactionSingleOp(connection);
+            // starts the receiver thread
+            sc.writeAsync("key", "value").get();
+
+            final FakeScalarisNode crashed = node1.getName().equals(
+                    connection.getRemote().getNode().node()) ? node1 : node2;
+            crashed.setLatency(1000000, 1000000);
+            final Thread crasher = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        Thread.sleep(200);
+                    } catch (final InterruptedException e) {
+                    }
+                    crashed.crash();
+                }
+            };
+            crasher.start();
+            // in flight while the node crashes -> re-sent to the other node
+            assertEquals("value", sc.read("key").stringValue());
+            crasher.join();
+            assertTrue(!crashed.isRunning());
+            sc.closeConnection();
+        } finally {
+            node2.close();
+            node1.close();
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/**
+ *  Copyright 2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Test cases for the {@link LatencyAwareConnectionPolicy} class.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ *
+ * @version 3.6
+ * @since 3.6
+ */
+public class LatencyAwareConnectionPolicyTest {
+    private static final long ms = 1000000;
+
+    private static List<PeerNode> createNodes(final int count) {
+        final List<PeerNode> remotes = new ArrayList<PeerNode>(count);
+        for (int i = 0; i < count; ++i) {
+            remotes.add(new PeerNode("test" + i + "@localhost"));
+        }
+        return remotes;
+    }
+
+    /**
+     * Test method for
+     * {@link LatencyAwareConnectionPolicy#rpcFinished(PeerNode, long)} and
+     * {@link LatencyAwareConnectionPolicy#getLatencyNs(PeerNode)} (also for
+     * RPCs finishing after the node was removed).
+     */
+    @Test
+    public final void testRpcFinished() {
+        final List<PeerNode> remotes = createNodes(1);
+        final PeerNode p1 = remotes.get(0);
+        final LatencyAwareConnectionPolicy p = new LatencyAwareConnectionPolicy(remotes);
+        p.setDecayHalfLife(0);
+        assertEquals(-1, p.getLatencyNs(p1));
+
+        p.rpcStarted(p1);
+        assertEquals(1, p.getInFlight(p1));
+        p.rpcFinished(p1, 10 * ms);
+        assertEquals(0, p.getInFlight(p1));
+        assertEquals(10 * ms, p.getLatencyNs(p1));
+
+        p.rpcStarted(p1);
+        p.rpcFinished(p1, 20 * ms);
+        // 10ms + 0.2 * (20ms - 10ms)
+        assertEquals(12 * ms, p.getLatencyNs(p1));
+
+        p.rpcStarted(p1);
+        p.rpcFailed(p1);
+        assertEquals(0, p.getInFlight(p1));
+        assertEquals(12 * ms, p.getLatencyNs(p1));
+
+        // RPCs in flight while the node is removed (and added again)
+        p.rpcStarted(p1);
+        p.rpcStarted(p1);
+        p.availableNodeRemoved(p1);
+        p.rpcFinished(p1, 10 * ms);
+        assertEquals(0, p.getInFlight(p1));
+        assertEquals(-1, p.getLatencyNs(p1));
+        p.availableNodeAdded(p1);
+        p.rpcStarted(p1);
+        p.rpcFailed(p1);
+        p.rpcFailed(p1);
+        assertEquals(0, p.getInFlight(p1));
+    }
+
+    /**
+     * Test method for {@link LatencyAwareConnectionPolicy#selectNode()}.
+     *
+     * Slow nodes should not be chosen if there is a fast one.
+     */
+    @Test
+    public final void testSelectNodeLatency() {
+        final List<PeerNode> remotes = createNodes(2);
+        final PeerNode fast = remotes.get(0);
+        final PeerNode slow = remotes.get(1);
+        final LatencyAwareConnectionPolicy p = new LatencyAwareConnectionPolicy(remotes);
+        p.rpcStarted(fast);
+        p.rpcFinished(fast, 1 * ms);
+        p.rpcStarted(slow);
+        p.rpcFinished(slow, 100 * ms);
+        for (int i = 0; i < 100; ++i) {
+            assertSame(fast, p.selectNode());
+        }
+    }
+
+    /**
+     * Test method for {@link LatencyAwareConnectionPolicy#selectNode()}.
+     *
+     * Nodes with many RPCs in flight should be avoided.
+     */
+    @Test
+    public final void testSelectNodeInFlight() {
+        final List<PeerNode> remotes = createNodes(2);
+        final PeerNode busy = remotes.get(0);
+        final PeerNode idle = remotes.get(1);
+        final LatencyAwareConnectionPolicy p = new LatencyAwareConnectionPolicy(remotes);
+        p.rpcStarted(busy);
+        p.rpcFinished(busy, 1 * ms);
+        p.rpcStarted(idle);
+        p.rpcFinished(idle, 2 * ms);
+        for (int i = 0; i < 10; ++i) {
+            p.rpcStarted(busy);
+        }
+        for (int i = 0; i < 100; ++i) {
+            assertSame(idle, p.selectNode());
+        }
+    }
+
+    /**
+     * Test method for {@link LatencyAwareConnectionPolicy#selectNode()}.
+     *
+     * Failed nodes should not be chosen even if they are fast.
+     */
+    @Test
+    public final void testSelectNodeFailed() {
+        final List<PeerNode> remotes = createNodes(2);
+        final PeerNode fast = remotes.get(0);
+        final PeerNode slow = remotes.get(1);
+        final LatencyAwareConnectionPolicy p = new LatencyAwareConnectionPolicy(remotes);
+        p.rpcStarted(fast);
+        p.rpcFinished(fast, 1 * ms);
+        p.rpcStarted(slow);
+        p.rpcFinished(slow, 100 * ms);
+        p.nodeFailed(fast);
+        for (int i = 0; i < 100; ++i) {
+            assertSame(slow, p.selectNode());
+        }
+    }
+
+    /**
+     * Test method for {@link LatencyAwareConnectionPolicy#setDecayHalfLife(long)}.
+     *
+     * Latencies of idle nodes decay towards the mean latency of all nodes, so
+     * a slow node never becomes cheaper than a fast one.
+     *
+     * @throws InterruptedException
+     *             if the sleep is interrupted
+     */
+    @Test
+    public final void testDecay() throws InterruptedException {
+        final List<PeerNode> remotes = createNodes(3);
+        final PeerNode slow = remotes.get(0);
+        final PeerNode fast = remotes.get(1);
+        final LatencyAwareConnectionPolicy p = new LatencyAwareConnectionPolicy(remotes);
+        p.setDecayHalfLife(10);
+        p.rpcStarted(slow);
+        p.rpcFinished(slow, 100 * ms);
+        for (final PeerNode node : remotes.subList(1, 3)) {
+            p.rpcStarted(node);
+            p.rpcFinished(node, 10 * ms);
+        }
+        TimeUnit.MILLISECONDS.sleep(50);
+        // mean: 40ms
+        final long slowLatency = p.getLatencyNs(slow);
+        final long fastLatency = p.getLatencyNs(fast);
+        assertTrue(slowLatency < (45 * ms));
+        assertTrue(slowLatency > (39 * ms));
+        assertTrue(fastLatency > (35 * ms));
+        assertTrue(fastLatency <= slowLatency);
+
+        // a single node has nothing to decay towards
+        final PeerNode single = createNodes(1).get(0);
+        final LatencyAwareConnectionPolicy p2 = new LatencyAwareConnectionPolicy(single);
+        p2.setDecayHalfLife(10);
+        p2.rpcStarted(single);
+        p2.rpcFinished(single, 100 * ms);
+        TimeUnit.MILLISECONDS.sleep(50);
+        assertEquals(100 * ms, p2.getLatencyNs(single));
+    }
+}
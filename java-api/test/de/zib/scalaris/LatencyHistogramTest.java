@@ -0,0 +1,132 @@
+/**
+ *  Copyright 2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Test cases for the {@link LatencyHistogram} and {@link RpcMetrics} classes.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ *
+ * @version 3.6
+ * @since 3.6
+ */
+public class LatencyHistogramTest {
+    /**
+     * Test method for {@link LatencyHistogram#getBucket(long)} and the bucket
+     * bounds.
+     */
+    @Test
+    public final void testBuckets() {
+        assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.getBucket(Long.MAX_VALUE));
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.getUpperBound(LatencyHistogram.BUCKETS - 1));
+        long expectedLower = 0;
+        for (int i = 0; i < LatencyHistogram.BUCKETS; ++i) {
+            final long lower = LatencyHistogram.getLowerBound(i);
+            final long upper = LatencyHistogram.getUpperBound(i);
+            // buckets are contiguous
+            assertEquals(expectedLower, lower);
+            assertEquals(i, LatencyHistogram.getBucket(lower));
+            assertEquals(i, LatencyHistogram.getBucket(upper));
+            // relative error below 1/SUB_BUCKETS
+            assertTrue((upper - lower) * LatencyHistogram.SUB_BUCKETS <= lower
+                    || lower < LatencyHistogram.SUB_BUCKETS);
+            expectedLower = upper + 1;
+        }
+    }
+
+    /**
+     * Test method for {@link LatencyHistogram#getPercentile(double)}.
+     */
+    @Test
+    public final void testPercentiles() {
+        final LatencyHistogram h = new LatencyHistogram();
+        assertEquals(0, h.getPercentile(0.5));
+        for (long i = 1; i <= 1000; ++i) {
+            h.record(i * 1000);
+        }
+        assertEquals(1000, h.getCount());
+        assertEquals(500500.0, h.getMean(), 0.001);
+        assertEquals(1000000, h.getMax());
+        assertTrue(Math.abs(h.getPercentile(0.5) - 500000) <= 500000 / LatencyHistogram.SUB_BUCKETS);
+        assertTrue(Math.abs(h.getPercentile(0.99) - 990000) <= 990000 / LatencyHistogram.SUB_BUCKETS);
+        assertEquals(1000000, h.getPercentile(1.0));
+
+        final LatencyHistogram other = new LatencyHistogram();
+        other.record(5000000, 10);
+        h.add(other);
+        assertEquals(1010, h.getCount());
+        assertEquals(5000000, h.getMax());
+        h.reset();
+        assertEquals(0, h.getCount());
+    }
+
+    /**
+     * Test method for {@link LatencyHistogram#encodeBuckets()} and
+     * {@link LatencyHistogram#decode(String, long, long)}.
+     */
+    @Test
+    public final void testEncodeDecode() {
+        final LatencyHistogram h = new LatencyHistogram();
+        assertEquals("", h.encodeBuckets());
+        h.record(3);
+        h.record(1000, 5);
+        h.record(123456789);
+        final LatencyHistogram decoded = LatencyHistogram.decode(
+                h.encodeBuckets(), h.getSum(), h.getMax());
+        assertEquals(h.encodeBuckets(), decoded.encodeBuckets());
+        assertEquals(7, decoded.getCount());
+        assertEquals(h.getSum(), decoded.getSum());
+        assertEquals(123456789, decoded.getMax());
+        assertEquals(h.getPercentile(0.5), decoded.getPercentile(0.5));
+    }
+
+    /**
+     * Test method for {@link RpcMetrics#getStatistics()}.
+     */
+    @Test
+    public final void testRpcMetrics() {
+        final RpcMetrics metrics = new RpcMetrics();
+        final RpcFunctionMetrics read = metrics.getFunction("api_tx", "read");
+        assertTrue(read == metrics.getFunction("api_tx", "read"));
+        read.success(1000);
+        read.success(2000);
+        read.failure();
+        metrics.getFunction("api_tx", "req_list").success(3000);
+        final PeerNode a = new PeerNode("a@localhost");
+        final PeerNode b = new PeerNode("b@localhost");
+        metrics.retried(a, a);
+        metrics.retried(a, b);
+        metrics.reconnected();
+
+        final RpcMetrics.Statistics stats = metrics.getStatistics();
+        assertEquals(2, stats.getFunctions().size());
+        assertEquals(2, stats.getFunctions().get("api_tx:read").getCount());
+        assertEquals(1, stats.getFunctions().get("api_tx:read").getErrors());
+        assertEquals(2000, stats.getFunctions().get("api_tx:read").getMax());
+        assertEquals(2, stats.getRetries());
+        assertEquals(1, stats.getFailovers());
+        assertEquals(1, stats.getReconnects());
+        assertEquals(3, metrics.getRequests());
+        metrics.reset();
+        assertEquals(0, metrics.getRequests());
+        assertEquals(0, metrics.getRetries());
+    }
+}
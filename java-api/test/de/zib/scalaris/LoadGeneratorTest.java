@@ -0,0 +1,166 @@
+/**
+ *  Copyright 2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+/**
+ * Test cases for the {@link LoadGenerator} and {@link LatencyHistogramLog}
+ * classes (without a scalaris node).
+ *
+ * @author Nico Kruber, kruber@zib.de
+ *
+ * @version 3.6
+ * @since 3.6
+ */
+public class LoadGeneratorTest {
+    /**
+     * Operation which does nothing, except for stalling once and failing
+     * every 10th time if requested.
+     */
+    private static class TestOperation extends LoadGenerator.Operation<Object> {
+        private final long stallAt;
+        private final long stallMs;
+        private final boolean fail;
+
+        TestOperation(final String name, final long stallAt, final long stallMs,
+                final boolean fail) {
+            super(name, 1);
+            this.stallAt = stallAt;
+            this.stallMs = stallMs;
+            this.fail = fail;
+        }
+
+        @Override
+        protected Object init() {
+            return new Object();
+        }
+
+        @Override
+        protected void execute(final Object state, final long seq) throws Exception {
+            if (seq == stallAt) {
+                Thread.sleep(stallMs);
+            }
+            if (fail && ((seq % 10) == 0)) {
+                throw new Exception("failed");
+            }
+        }
+    }
+
+    /**
+     * Test method for {@link LoadGenerator#run()} with operations executed
+     * in time.
+     *
+     * @throws Exception
+     *             if the test fails
+     */
+    @Test
+    public final void testRun() throws Exception {
+        final LoadGenerator generator = new LoadGenerator();
+        generator.setRate(2000);
+        generator.setDuration(500);
+        generator.setThreads(4);
+        generator.setSeed(0);
+        generator.add(new TestOperation("a", -1, 0, false));
+        generator.add(new TestOperation("b", -1, 0, true));
+        final LoadGenerator.Statistics stats = generator.run();
+
+        assertEquals(1000, stats.getExecuted());
+        final LoadGenerator.OperationStatistics a = stats.getOperations().get(0);
+        final LoadGenerator.OperationStatistics b = stats.getOperations().get(1);
+        assertEquals(1000, a.getCount() + b.getCount() + b.getErrors());
+        assertEquals(0, a.getErrors());
+        assertTrue(b.getErrors() > 0);
+        // all operations are scheduled within 500ms
+        assertTrue(stats.getDuration() >= 490000000L);
+        assertTrue(stats.getAchievedRate() <= 2050);
+    }
+
+    /**
+     * Test method for {@link LoadGenerator#run()} with a closed-loop load.
+     *
+     * @throws Exception
+     *             if the test fails
+     */
+    @Test
+    public final void testClosedLoop() throws Exception {
+        final LoadGenerator generator = new LoadGenerator();
+        generator.setRate(0);
+        generator.setCount(5000);
+        generator.setThreads(4);
+        generator.add(new TestOperation("a", 100, 200, false));
+        LoadGenerator.Statistics stats = generator.run();
+        assertEquals(5000, stats.getExecuted());
+        // the stall only delays a single operation (and its thread)
+        final LatencyHistogram latency = stats.getOperations().get(0).getLatency();
+        assertTrue(latency.getPercentile(0.99) < 200000000L);
+        assertTrue(latency.getMax() >= 200000000L);
+
+        // limited by the duration instead
+        generator.setCount(0);
+        generator.setDuration(200);
+        stats = generator.run();
+        assertTrue(stats.getExecuted() > 0);
+        assertTrue(stats.getDuration() < 400000000L);
+    }
+
+    /**
+     * Test method for {@link LoadGenerator#run()} with a stalled operation:
+     * the operations due during the stall must be recorded with the time
+     * they had to wait (coordinated omission).
+     *
+     * @throws Exception
+     *             if the test fails
+     */
+    @Test
+    public final void testCoordinatedOmission() throws Exception {
+        final LoadGenerator generator = new LoadGenerator();
+        generator.setRate(1000);
+        generator.setDuration(1000);
+        generator.setThreads(1);
+        generator.setLogInterval(100);
+        final StringWriter log = new StringWriter();
+        generator.setLog(new LatencyHistogramLog(log, System.currentTimeMillis()));
+        generator.add(new TestOperation("op", 100, 200, false));
+        final LoadGenerator.Statistics stats = generator.run();
+
+        final LoadGenerator.OperationStatistics op = stats.getOperations().get(0);
+        assertEquals(1000, op.getCount());
+        // ~200 of 1000 operations waited for the stalled one
+        assertTrue(op.getLatency().getPercentile(0.99) >= 100000000L);
+        assertTrue(op.getLatency().getMax() >= 200000000L);
+        // only one operation itself was slow
+        assertTrue(op.getServiceTime().getPercentile(0.99) < 100000000L);
+        assertTrue(op.getServiceTime().getMax() >= 200000000L);
+
+        // the intervals of the log add up to the totals
+        final SortedMap<String, LatencyHistogram> merged = LatencyHistogramLog.read(
+                new StringReader(log.toString()), new TreeMap<String, LatencyHistogram>());
+        assertEquals(1, merged.size());
+        assertEquals(1000, merged.get("op").getCount());
+        assertEquals(op.getLatency().getSum(), merged.get("op").getSum());
+        assertEquals(op.getLatency().getMax(), merged.get("op").getMax());
+        assertEquals(op.getLatency().getPercentile(0.999), merged.get("op").getPercentile(0.999));
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ *  Copyright 2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Test cases for the {@link LockFreeConnectionPolicy} class.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ *
+ * @version 3.6
+ * @since 3.6
+ */
+public class LockFreeConnectionPolicyTest extends
+        ConnectionPolicyTestBase<LockFreeConnectionPolicy> {
+    @Override
+    protected LockFreeConnectionPolicy newPolicy(final PeerNode remoteNode) {
+        return new LockFreeConnectionPolicy(remoteNode);
+    }
+
+    @Override
+    protected LockFreeConnectionPolicy newPolicy(
+            final List<PeerNode> availableRemoteNodes) {
+        return new LockFreeConnectionPolicy(availableRemoteNodes);
+    }
+
+    @Override
+    protected List<PeerNode> getGoodNodes(final LockFreeConnectionPolicy p) {
+        return p.getGoodNodes();
+    }
+
+    @Override
+    protected List<PeerNode> getBadNodes(final LockFreeConnectionPolicy p) {
+        return p.getBadNodes();
+    }
+
+    @Override
+    protected int getMaxRetries(final LockFreeConnectionPolicy p) {
+        return p.getMaxRetries();
+    }
+
+    @Override
+    protected void setMaxRetries(final LockFreeConnectionPolicy p,
+            final int maxRetries) {
+        p.setMaxRetries(maxRetries);
+    }
+
+    /**
+     * Concurrently fails, resets and selects nodes and checks that the final
+     * classification matches the nodes' states.
+     *
+     * @throws InterruptedException
+     *             if the threads are interrupted
+     */
+    @Test
+    public final void testConcurrentUpdates() throws InterruptedException {
+        final List<PeerNode> remotes = new ArrayList<PeerNode>();
+        for (int i = 0; i < 8; ++i) {
+            remotes.add(new PeerNode("test" + i + "@localhost"));
+        }
+        final LockFreeConnectionPolicy p = new LockFreeConnectionPolicy(remotes);
+        // assertions fail silently in other threads -> collect their errors
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        final Thread[] threads = new Thread[16];
+        for (int t = 0; t < threads.length; ++t) {
+            final int offset = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 1000; ++i) {
+                            final PeerNode node = remotes.get((offset + i) % remotes.size());
+                            if ((i % 2) == 0) {
+                                p.nodeFailed(node);
+                            } else {
+                                p.nodeConnectSuccess(node);
+                            }
+                            if (p.selectNode() == null) {
+                                throw new AssertionError("selectNode() returned null");
+                            }
+                        }
+                    } catch (final Throwable e) {
+                        errors.add(e);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(errors.toString(), 0, errors.size());
+
+        final List<PeerNode> goodNodes = p.getGoodNodes();
+        final List<PeerNode> badNodes = p.getBadNodes();
+        assertEquals(remotes.size(), goodNodes.size() + badNodes.size());
+        for (final PeerNode node : remotes) {
+            if (node.getFailureCount() == 0) {
+                assertTrue(goodNodes.contains(node));
+            } else {
+                assertTrue(badNodes.contains(node));
+            }
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/**
+ *  Copyright 2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import static org.junit.Assert.*;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Test cases for the {@link NearCache} class (without a scalaris node or
+ * using a {@link FakeScalarisNode}).
+ *
+ * @author Nico Kruber, kruber@zib.de
+ *
+ * @version 3.6
+ * @since 3.6
+ */
+public class NearCacheTest {
+    private static void put(final NearCache cache, final String key, final String value) {
+        cache.put(key, new ErlangValue(value), cache.getGeneration(), System.nanoTime());
+    }
+
+    /**
+     * Test method for {@link NearCache#get(String)} and
+     * {@link NearCache#put(String, ErlangValue, long, long)}.
+     */
+    @Test
+    public final void testGetPut() {
+        final NearCache cache = new NearCache(10, 60000);
+        assertNull(cache.get("a"));
+        put(cache, "a", "1");
+        assertEquals("1", cache.get("a").stringValue());
+
+        final NearCache.Statistics stats = cache.getStatistics();
+        assertEquals(1, stats.getHits());
+        assertEquals(1, stats.getMisses());
+        assertEquals(0.5, stats.getHitRatio(), 0.0);
+        assertEquals(1, stats.getSize());
+    }
+
+    /**
+     * Test method for {@link NearCache#setMaxSize(int)}.
+     *
+     * The least recently used entries should be evicted.
+     */
+    @Test
+    public final void testEviction() {
+        final NearCache cache = new NearCache(2, 60000);
+        put(cache, "a", "1");
+        put(cache, "b", "2");
+        assertNotNull(cache.get("a"));
+        put(cache, "c", "3");
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("a"));
+        assertNotNull(cache.get("c"));
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getStatistics().getEvictions());
+    }
+
+    /**
+     * Test method for {@link NearCache#setTtl(long)}.
+     *
+     * @throws InterruptedException
+     *             if the sleep is interrupted
+     */
+    @Test
+    public final void testExpiration() throws InterruptedException {
+        final NearCache cache = new NearCache(10, 10);
+        put(cache, "a", "1");
+        TimeUnit.MILLISECONDS.sleep(50);
+        assertNull(cache.get("a"));
+        assertEquals(1, cache.getStatistics().getExpirations());
+        assertEquals(0, cache.size());
+    }
+
+    /**
+     * Test method for {@link NearCache#invalidate(String)}.
+     */
+    @Test
+    public final void testInvalidate() {
+        final NearCache cache = new NearCache(10, 60000);
+        put(cache, "a", "1");
+        put(cache, "b", "2");
+        cache.invalidate("a");
+        assertNull(cache.get("a"));
+        assertNotNull(cache.get("b"));
+        cache.invalidateAll();
+        assertNull(cache.get("b"));
+        assertEquals(2, cache.getStatistics().getInvalidations());
+    }
+
+    /**
+     * Test method for {@link NearCache#put(String, ErlangValue, long, long)}.
+     *
+     * Values read before an invalidation must not be cached.
+     */
+    @Test
+    public final void testInvalidateDuringRead() {
+        final NearCache cache = new NearCache(10, 60000);
+        final long generation = cache.getGeneration();
+        cache.written("a");
+        cache.put("a", new ErlangValue("old"), generation, System.nanoTime());
+        assertNull(cache.get("a"));
+    }
+
+    /**
+     * Test method for the invalidation of written keys by request lists of
+     * {@link TransactionSingleOp}, {@link TransactionSingleOpBatcher},
+     * commits of {@link Transaction} and deletes of {@link ReplicatedDHT}.
+     *
+     * @throws Exception
+     *             if the test fails
+     */
+    @Test
+    public final void testWriteInvalidation() throws Exception {
+        final FakeScalarisNode node = new FakeScalarisNode("fake_near_cache@localhost", "fake cookie");
+        final Properties properties = new Properties();
+        properties.setProperty("scalaris.node", node.getName());
+        properties.setProperty("scalaris.cookie", "fake cookie");
+        properties.setProperty("scalaris.client.name", "near_cache_test");
+        final ConnectionFactory factory = new ConnectionFactory(properties);
+        final NearCache cache = new NearCache(10, 60000);
+        final TransactionSingleOp sc = new TransactionSingleOp(factory.createConnection());
+        sc.setNearCache(cache);
+        try {
+            sc.write("a", "1");
+            assertEquals("1", sc.read("a").stringValue());
+
+            final TransactionSingleOp.RequestList req = new TransactionSingleOp.RequestList();
+            req.addWrite("a", "2").addRead("b");
+            sc.req_list(req);
+            assertNull(cache.get("a"));
+            assertEquals("2", sc.read("a").stringValue());
+            sc.req_listAsync((TransactionSingleOp.RequestList) new TransactionSingleOp.RequestList()
+                    .addWrite("a", "3")).get();
+            assertEquals("3", sc.read("a").stringValue());
+
+            final TransactionSingleOpBatcher batcher = new TransactionSingleOpBatcher(
+                    factory.createConnection());
+            batcher.setNearCache(cache);
+            batcher.write("a", "4");
+            batcher.close();
+            assertEquals("4", sc.read("a").stringValue());
+
+            final Transaction t = new Transaction(factory.createConnection());
+            t.setNearCache(cache);
+            t.write("a", "5");
+            // not committed yet
+            assertNotNull(cache.get("a"));
+            t.commit();
+            assertNull(cache.get("a"));
+            assertEquals("5", sc.read("a").stringValue());
+            t.closeConnection();
+
+            final ReplicatedDHT rdht = new ReplicatedDHT(factory.createConnection());
+            rdht.setNearCache(cache);
+            rdht.delete("a");
+            assertNull(cache.get("a"));
+            sc.write("a", "6");
+            assertEquals("6", sc.read("a").stringValue());
+            rdht.deleteAsync("a", 2000).get();
+            assertNull(cache.get("a"));
+            rdht.closeConnection();
+        } finally {
+            sc.closeConnection();
+            node.close();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ *  Copyright 2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Test cases for the {@link NodeDiscovery} class (without a scalaris node).
+ *
+ * @author Nico Kruber, kruber@zib.de
+ *
+ * @version 3.6
+ * @since 3.6
+ */
+public class NodeDiscoveryTest {
+    private static List<String> getNodeNames(final ConnectionFactory factory) {
+        final List<String> result = new ArrayList<String>();
+        for (final PeerNode node : factory.getNodes()) {
+            result.add(node.getNode().node());
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * Node discovery with a fake liveness check.
+     */
+    private static class CheckedNodeDiscovery extends NodeDiscovery {
+        final Set<String> alive = new HashSet<String>();
+        final List<String> checked = new ArrayList<String>();
+
+        CheckedNodeDiscovery(final ConnectionFactory factory) {
+            super(factory);
+        }
+
+        @Override
+        boolean isAlive(final PeerNode node) {
+            checked.add(node.getNode().node());
+            return alive.contains(node.getNode().node());
+        }
+    }
+
+    /**
+     * Test method for
+     * {@link NodeDiscovery#update(java.util.Collection, String)}.
+     */
+    @Test
+    public final void testUpdate() {
+        final Properties properties = new Properties();
+        properties.setProperty("scalaris.node", "seed@host1");
+        final ConnectionFactory factory = new ConnectionFactory(properties);
+        final CheckedNodeDiscovery discovery = new CheckedNodeDiscovery(factory);
+        discovery.setRemoveAfter(2);
+
+        List<PeerNode> added = discovery.update(Arrays.asList("seed@host1", "a@host2", "b@host3"), "seed@host1");
+        assertEquals(2, added.size());
+        assertEquals(Arrays.asList("a@host2", "b@host3", "seed@host1"), getNodeNames(factory));
+
+        // b is missing once - kept without a check
+        added = discovery.update(Arrays.asList("a@host2"), "seed@host1");
+        assertTrue(added.isEmpty());
+        assertTrue(discovery.checked.isEmpty());
+        assertEquals(Arrays.asList("a@host2", "b@host3", "seed@host1"), getNodeNames(factory));
+
+        // b is missing twice but replies - kept
+        discovery.alive.add("b@host3");
+        discovery.update(Arrays.asList("a@host2"), "seed@host1");
+        assertEquals(Arrays.asList("b@host3"), discovery.checked);
+        assertEquals(Arrays.asList("a@host2", "b@host3", "seed@host1"), getNodeNames(factory));
+
+        // b does not reply any more - removed, the seed node is never removed
+        discovery.alive.clear();
+        discovery.checked.clear();
+        discovery.update(Arrays.asList("a@host2"), "seed@host1");
+        assertTrue(discovery.checked.isEmpty());
+        discovery.update(Arrays.asList("a@host2"), "seed@host1");
+        assertEquals(Arrays.asList("b@host3"), discovery.checked);
+        assertEquals(Arrays.asList("a@host2", "seed@host1"), getNodeNames(factory));
+
+        // a answered the polls itself - never checked or removed
+        discovery.checked.clear();
+        for (int i = 0; i < 3; ++i) {
+            discovery.update(new ArrayList<String>(), "a@host2");
+        }
+        assertTrue(discovery.checked.isEmpty());
+        assertEquals(Arrays.asList("a@host2", "seed@host1"), getNodeNames(factory));
+
+        final NodeDiscovery.Statistics stats = discovery.getStatistics();
+        assertEquals(2, stats.getNodesAdded());
+        assertEquals(1, stats.getNodesRemoved());
+        assertEquals(Arrays.asList("a@host2"), stats.getDiscoveredNodes());
+    }
+}
@@ -0,0 +1,233 @@
+/**
+ *  Copyright 2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.ericsson.otp.erlang.OtpErlangList;
+import com.ericsson.otp.erlang.OtpErlangObject;
+import com.ericsson.otp.erlang.OtpSelf;
+
+/**
+ * Test cases for {@link PubSub#publishAll(PubSub.PublishList)} and the
+ * {@link PubSubBatcher} class (using a {@link FakeScalarisNode}).
+ *
+ * @author Nico Kruber, kruber@zib.de
+ *
+ * @version 3.6
+ * @since 3.6
+ */
+public class PubSubBatcherTest {
+    private static FakeScalarisNode node;
+    private static ConnectionFactory factory;
+
+    /**
+     * Starts a fake scalaris node.
+     *
+     * @throws Exception
+     *             if the node could not be started
+     */
+    @BeforeClass
+    public static void setUp() throws Exception {
+        node = new FakeScalarisNode("fake_batcher@localhost", "fake cookie");
+        final Properties properties = new Properties();
+        properties.setProperty("scalaris.node", node.getName());
+        properties.setProperty("scalaris.cookie", "fake cookie");
+        properties.setProperty("scalaris.client.name", "pubsub_batcher_test");
+        factory = new ConnectionFactory(properties);
+    }
+
+    /**
+     * Stops the fake scalaris node.
+     */
+    @AfterClass
+    public static void tearDown() {
+        node.close();
+    }
+
+    /**
+     * Test method for {@link PubSub#publishAll(PubSub.PublishList)}.
+     *
+     * @throws Exception
+     *             if the test fails
+     */
+    @Test
+    public final void testPublishAll() throws Exception {
+        final PubSubReceiver receiver = new PubSubReceiver(factory,
+                PubSubReceiver.createExecutor(1, 1000));
+        final List<String> events = new ArrayList<String>();
+        final CountDownLatch latch = new CountDownLatch(2);
+        receiver.subscribe("testPublishAll", new PubSubListener() {
+            public void onNotify(final String topic, final String content) {
+                events.add(content);
+                latch.countDown();
+            }
+        });
+
+        final PubSub pubSub = new PubSub(factory.createConnection());
+        assertEquals(0, pubSub.publishAll(new PubSub.PublishList()).size());
+        final PubSub.PublishList list = new PubSub.PublishList();
+        list.addPublish("testPublishAll", "content1").addPublish("otherTopic", "content2")
+                .addPublish("testPublishAll", "content3");
+        final PubSub.PublishResultList results = pubSub.publishAll(list);
+        assertEquals(3, results.size());
+        for (int i = 0; i < results.size(); ++i) {
+            results.processPublishAt(i);
+        }
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertEquals("content1", events.get(0));
+        assertEquals("content3", events.get(1));
+
+        // failures are reported per event
+        node.setFailureRate(1.0);
+        try {
+            pubSub.publishAllAsync(list).get().processPublishAt(1);
+            assertTrue(false);
+        } catch (final TimeoutException e) {
+        } finally {
+            node.setFailureRate(0.0);
+        }
+        pubSub.closeConnection();
+        receiver.close();
+    }
+
+    /**
+     * Test method for {@link PubSubBatcher#publishAsync(String, String)}
+     * with batches limited by their size and delay.
+     *
+     * @throws Exception
+     *             if the test fails
+     */
+    @Test
+    public final void testBatches() throws Exception {
+        final long before = node.getStatistics().getRequests();
+        // large delay: only full batches are sent
+        final PubSubBatcher batcher = new PubSubBatcher(factory.createConnection(), 10000000, 100);
+        final List<AsyncResult<Void>> results = new ArrayList<AsyncResult<Void>>();
+        for (int i = 0; i < 1000; ++i) {
+            results.add(batcher.publishAsync("testBatches" + (i % 10), "content" + i));
+        }
+        for (final AsyncResult<Void> result : results) {
+            result.get(10, TimeUnit.SECONDS);
+        }
+        PubSubBatcher.Statistics stats = batcher.getStatistics();
+        assertEquals(1000, stats.getSentRequests());
+        assertEquals(10, stats.getBatches());
+        assertEquals(100, stats.getMaxBatchSize());
+        assertEquals(10, node.getStatistics().getRequests() - before);
+
+        // an incomplete batch is sent on flush
+        final AsyncResult<Void> result = batcher.publishAsync("testBatches", "content");
+        batcher.flush();
+        result.get(10, TimeUnit.SECONDS);
+
+        // ... or after the maximum delay
+        batcher.setMaxDelay(1000);
+        batcher.publish("testBatches", "content");
+        stats = batcher.getStatistics();
+        assertEquals(12, stats.getBatches());
+        assertEquals(0, stats.getFailedRequests());
+
+        node.setFailureRate(1.0);
+        try {
+            batcher.publish("testBatches", "content");
+            assertTrue(false);
+        } catch (final TimeoutException e) {
+        } finally {
+            node.setFailureRate(0.0);
+        }
+        assertEquals(1, batcher.getStatistics().getFailedRequests());
+
+        batcher.close();
+        try {
+            batcher.publishAsync("testBatches", "content");
+            assertTrue(false);
+        } catch (final ConnectionException e) {
+        }
+    }
+
+    /**
+     * Test method for {@link PubSubBatcher#close()} sending the pending
+     * events.
+     *
+     * @throws Exception
+     *             if the test fails
+     */
+    @Test
+    public final void testClose() throws Exception {
+        final PubSubBatcher batcher = new PubSubBatcher(factory.createConnection(), 10000000, 100);
+        final AsyncResult<Void> result = batcher.publishAsync("testClose", "content");
+        batcher.close();
+        result.get(0, TimeUnit.SECONDS);
+        assertEquals(1, batcher.getStatistics().getBatches());
+    }
+
+    /**
+     * Test method for {@link PubSubBatcher} with a connection throwing a
+     * {@link RuntimeException} when sending a batch: the batch's events fail
+     * and later events are still sent.
+     *
+     * @throws Exception
+     *             if the test fails
+     */
+    @Test
+    public final void testSendRuntimeException() throws Exception {
+        final boolean[] failSend = { true };
+        final Connection conn = new Connection(new OtpSelf(
+                factory.getClientName() + "_fail", factory.getCookie()),
+                new DefaultConnectionPolicy(factory.getNodes())) {
+            @Override
+            public AsyncResult<OtpErlangObject> doRPCAsync(final String mod,
+                    final String fun, final OtpErlangList args)
+                    throws ConnectionException {
+                synchronized (failSend) {
+                    if (failSend[0]) {
+                        throw new UnknownException("send failed");
+                    }
+                }
+                return super.doRPCAsync(mod, fun, args);
+            }
+        };
+        final PubSubBatcher batcher = new PubSubBatcher(conn);
+        try {
+            try {
+                batcher.publish("testSendRuntimeException", "content");
+                fail();
+            } catch (final UnknownException e) {
+                assertEquals("send failed", e.getMessage());
+            }
+            synchronized (failSend) {
+                failSend[0] = false;
+            }
+            batcher.publish("testSendRuntimeException", "content");
+            assertEquals(1, batcher.getStatistics().getFailedRequests());
+        } finally {
+            batcher.close();
+        }
+    }
+}
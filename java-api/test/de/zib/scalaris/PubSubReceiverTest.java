@@ -0,0 +1,205 @@
+/**
+ *  Copyright 2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.ericsson.otp.erlang.OtpErlangPid;
+
+/**
+ * Test cases for the {@link PubSubReceiver} class (using a
+ * {@link FakeScalarisNode}).
+ *
+ * @author Nico Kruber, kruber@zib.de
+ *
+ * @version 3.6
+ * @since 3.6
+ */
+public class PubSubReceiverTest {
+    private static FakeScalarisNode node;
+    private static ConnectionFactory factory;
+
+    /**
+     * Starts a fake scalaris node.
+     *
+     * @throws Exception
+     *             if the node could not be started
+     */
+    @BeforeClass
+    public static void setUp() throws Exception {
+        node = new FakeScalarisNode("fake_pubsub@localhost", "fake cookie");
+        final Properties properties = new Properties();
+        properties.setProperty("scalaris.node", node.getName());
+        properties.setProperty("scalaris.cookie", "fake cookie");
+        properties.setProperty("scalaris.client.name", "pubsub_receiver_test");
+        factory = new ConnectionFactory(properties);
+    }
+
+    /**
+     * Stops the fake scalaris node.
+     */
+    @AfterClass
+    public static void tearDown() {
+        node.close();
+    }
+
+    /**
+     * Test method for
+     * {@link PubSubReceiver#subscribe(String, PubSubListener)} and
+     * {@link PubSubReceiver#unsubscribe(String, PubSubListener)}.
+     *
+     * @throws Exception
+     *             if the test fails
+     */
+    @Test
+    public final void testSubscribe() throws Exception {
+        final ThreadPoolExecutor executor = PubSubReceiver.createExecutor(1, 1000);
+        final PubSubReceiver receiver = new PubSubReceiver(factory, executor);
+        final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch latch = new CountDownLatch(100);
+        final PubSubListener listener = new PubSubListener() {
+            public void onNotify(final String topic, final String content) {
+                events.add(topic + ":" + content);
+                latch.countDown();
+            }
+        };
+        receiver.subscribe("testSubscribe", listener);
+        final PubSub pubSub = new PubSub(factory.createConnection());
+        assertEquals(Arrays.asList(receiver.getPid()), pubSub.getSubscriberPids("testSubscribe"));
+        assertTrue(pubSub.getSubscribers("testSubscribe").listValue().isEmpty());
+
+        for (int i = 0; i < 100; ++i) {
+            pubSub.publish("testSubscribe", "content" + i);
+        }
+        pubSub.publish("otherTopic", "content");
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < 100; ++i) {
+            assertEquals("testSubscribe:content" + i, events.get(i));
+        }
+
+        receiver.unsubscribe("testSubscribe", listener);
+        assertTrue(pubSub.getSubscriberPids("testSubscribe").isEmpty());
+        try {
+            receiver.unsubscribe("testSubscribe", listener);
+            assertTrue(false);
+        } catch (final NotFoundException e) {
+        }
+        final PubSubReceiver.Statistics stats = receiver.getStatistics();
+        assertEquals(100, stats.getReceived());
+        assertEquals(100, stats.getDelivered());
+        assertEquals(0, stats.getDropped());
+        assertEquals(0, stats.getTopics());
+
+        pubSub.closeConnection();
+        receiver.close();
+        executor.shutdown();
+    }
+
+    /**
+     * Test method for {@link PubSub#getSubscribers(String)} and
+     * {@link PubSub#getSubscriberPids(String)} with a URL and a process
+     * subscribed to the same topic.
+     *
+     * @throws Exception
+     *             if the test fails
+     */
+    @Test
+    public final void testMixedSubscribers() throws Exception {
+        final ThreadPoolExecutor executor = PubSubReceiver.createExecutor(1, 1000);
+        final PubSubReceiver receiver = new PubSubReceiver(factory, executor);
+        final PubSub pubSub = new PubSub(factory.createConnection());
+        final String url = "http://localhost:1/jsonrpc";
+        pubSub.subscribe("testMixedSubscribers", url);
+        receiver.subscribe("testMixedSubscribers", new PubSubListener() {
+            public void onNotify(final String topic, final String content) {
+            }
+        });
+
+        assertEquals(Arrays.asList(url),
+                pubSub.getSubscribers("testMixedSubscribers").stringListValue());
+        assertEquals(Arrays.asList(url),
+                pubSub.getSubscribersAsync("testMixedSubscribers").get().stringListValue());
+        final List<OtpErlangPid> pids = pubSub.getSubscriberPids("testMixedSubscribers");
+        assertEquals(Arrays.asList(receiver.getPid()), pids);
+
+        pubSub.unsubscribe("testMixedSubscribers", url);
+        pubSub.closeConnection();
+        receiver.close();
+        executor.shutdown();
+    }
+
+    /**
+     * Test method for {@link PubSubReceiver#createExecutor(int, int)} with
+     * a slow listener: events exceeding the queue are dropped.
+     *
+     * @throws Exception
+     *             if the test fails
+     */
+    @Test
+    public final void testBoundedQueue() throws Exception {
+        final ThreadPoolExecutor executor = PubSubReceiver.createExecutor(1, 5);
+        final PubSubReceiver receiver = new PubSubReceiver(factory, executor);
+        final CountDownLatch blocked = new CountDownLatch(1);
+        receiver.subscribe("testBoundedQueue", new PubSubListener() {
+            public void onNotify(final String topic, final String content) {
+                try {
+                    blocked.await();
+                } catch (final InterruptedException e) {
+                }
+            }
+        });
+        final PubSub pubSub = new PubSub(factory.createConnection());
+        for (int i = 0; i < 20; ++i) {
+            pubSub.publish("testBoundedQueue", "content" + i);
+        }
+        final long deadline = System.currentTimeMillis() + 10000;
+        PubSubReceiver.Statistics stats = receiver.getStatistics();
+        // events are counted as received before they are queued or dropped
+        while (((stats.getReceived() < 20) || ((stats.getQueued() + stats.getDropped()) < 19))
+                && (System.currentTimeMillis() < deadline)) {
+            Thread.sleep(10);
+            stats = receiver.getStatistics();
+        }
+        assertEquals(20, stats.getReceived());
+        // one event is being delivered, five are queued
+        assertEquals(5, stats.getQueued());
+        assertEquals(14, stats.getDropped());
+
+        blocked.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        stats = receiver.getStatistics();
+        assertEquals(6, stats.getDelivered());
+        assertEquals(0, stats.getQueued());
+
+        pubSub.closeConnection();
+        receiver.close();
+    }
+}
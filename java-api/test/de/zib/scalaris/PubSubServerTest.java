@@ -0,0 +1,290 @@
+/**
+ *  Copyright 2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Test cases for the {@link PubSubServer} class (using a
+ * {@link FakeScalarisNode}).
+ *
+ * @author Nico Kruber, kruber@zib.de
+ *
+ * @version 3.6
+ * @since 3.6
+ */
+public class PubSubServerTest {
+    private static FakeScalarisNode node;
+    private static ConnectionFactory factory;
+
+    /**
+     * Starts a fake scalaris node.
+     *
+     * @throws Exception
+     *             if the node could not be started
+     */
+    @BeforeClass
+    public static void setUp() throws Exception {
+        node = new FakeScalarisNode("fake_pubsub_server@localhost", "fake cookie");
+        final Properties properties = new Properties();
+        properties.setProperty("scalaris.node", node.getName());
+        properties.setProperty("scalaris.cookie", "fake cookie");
+        properties.setProperty("scalaris.client.name", "pubsub_server_test");
+        factory = new ConnectionFactory(properties);
+    }
+
+    /**
+     * Stops the fake scalaris node.
+     */
+    @AfterClass
+    public static void tearDown() {
+        node.close();
+    }
+
+    private static PubSubServer newServer(final ThreadPoolExecutor executor)
+            throws IOException {
+        return new PubSubServer(factory, executor, new InetSocketAddress(
+                "127.0.0.1", 0));
+    }
+
+    /**
+     * Test method for {@link PubSubServer#subscribe(String, PubSubListener)}
+     * and {@link PubSubServer#unsubscribe(String, PubSubListener)}.
+     *
+     * @throws Exception
+     *             if the test fails
+     */
+    @Test
+    public final void testSubscribe() throws Exception {
+        final ThreadPoolExecutor executor = PubSubReceiver.createExecutor(1, 1000);
+        final PubSubServer server = newServer(executor);
+        final Set<String> events = new HashSet<String>();
+        final CountDownLatch latch = new CountDownLatch(100);
+        final PubSubListener listener = new PubSubListener() {
+            public void onNotify(final String topic, final String content) {
+                synchronized (events) {
+                    events.add(topic + ":" + content);
+                }
+                latch.countDown();
+            }
+        };
+        server.subscribe("testSubscribe", listener);
+        final PubSub pubSub = new PubSub(factory.createConnection());
+        assertEquals(Arrays.asList(server.getUrl()),
+                pubSub.getSubscribers("testSubscribe").stringListValue());
+
+        for (int i = 0; i < 100; ++i) {
+            pubSub.publish("testSubscribe", "content \"" + i + "\"\n\u00e4");
+        }
+        pubSub.publish("otherTopic", "content");
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < 100; ++i) {
+            assertTrue(events.contains("testSubscribe:content \"" + i + "\"\n\u00e4"));
+        }
+
+        server.unsubscribe("testSubscribe", listener);
+        assertTrue(pubSub.getSubscribers("testSubscribe").listValue().isEmpty());
+        try {
+            server.unsubscribe("testSubscribe", listener);
+            assertTrue(false);
+        } catch (final NotFoundException e) {
+        }
+        final PubSubServer.Statistics stats = server.getStatistics();
+        assertEquals(100, stats.getReceived());
+        assertEquals(100, stats.getDelivered());
+        assertEquals(0, stats.getDropped());
+        assertEquals(0, stats.getInvalid());
+        assertEquals(0, stats.getTopics());
+
+        pubSub.closeConnection();
+        server.close();
+        executor.shutdown();
+    }
+
+    /**
+     * Test method for the HTTP handling of {@link PubSubServer}: pipelined
+     * requests on a keep-alive connection, invalid requests and a bounded
+     * queue.
+     *
+     * @throws Exception
+     *             if the test fails
+     */
+    @Test
+    public final void testHttp() throws Exception {
+        final ThreadPoolExecutor executor = PubSubReceiver.createExecutor(1, 1);
+        final PubSubServer server = newServer(executor);
+        final CountDownLatch blocked = new CountDownLatch(1);
+        server.subscribe("testHttp", new PubSubListener() {
+            public void onNotify(final String topic, final String content) {
+                try {
+                    blocked.await();
+                } catch (final InterruptedException e) {
+                }
+            }
+        });
+        final String url = server.getUrl();
+        final int port = Integer.parseInt(url.substring(url.lastIndexOf(':') + 1,
+                url.length() - 1));
+        final Socket socket = new Socket("127.0.0.1", port);
+        final OutputStream out = socket.getOutputStream();
+        final InputStream in = socket.getInputStream();
+
+        // three pipelined requests: one is delivered, one queued, one dropped
+        final StringBuilder requests = new StringBuilder();
+        for (int i = 0; i < 3; ++i) {
+            requests.append(request("POST",
+                    "{\"jsonrpc\":\"2.0\",\"method\":\"notify\",\"params\":[\"testHttp\",\"c"
+                            + i + "\"],\"id\":" + i + "}"));
+        }
+        out.write(requests.toString().getBytes("UTF-8"));
+        assertEquals("{\"jsonrpc\":\"2.0\",\"result\":\"ok\",\"id\":0}", response(in, 200));
+        assertEquals("{\"jsonrpc\":\"2.0\",\"result\":\"ok\",\"id\":1}", response(in, 200));
+        assertTrue(response(in, 200).contains("\"code\":-32000"));
+
+        // invalid requests on the same connection
+        out.write(request("POST", "{\"method\":").getBytes("UTF-8"));
+        assertTrue(response(in, 200).contains("\"code\":-32700"));
+        final StringBuilder nested = new StringBuilder();
+        for (int i = 0; i < 100000; ++i) {
+            nested.append('[');
+        }
+        out.write(request("POST", nested.toString()).getBytes("UTF-8"));
+        assertTrue(response(in, 200).contains("\"code\":-32700"));
+        out.write(request("POST", "{\"method\":\"foo\",\"id\":\"x\"}").getBytes("UTF-8"));
+        assertTrue(response(in, 200).endsWith("\"id\":\"x\"}"));
+        out.write(request("POST", "{\"method\":\"notify\",\"params\":[1]}").getBytes("UTF-8"));
+        assertTrue(response(in, 200).contains("\"code\":-32602"));
+        out.write(request("GET", "").getBytes("UTF-8"));
+        response(in, 405);
+
+        PubSubServer.Statistics stats = server.getStatistics();
+        assertEquals(3, stats.getReceived());
+        assertEquals(1, stats.getQueued());
+        assertEquals(1, stats.getDropped());
+        assertEquals(5, stats.getInvalid());
+        assertEquals(1, stats.getConnections());
+
+        // the server closes the connection if requested
+        out.write("POST / HTTP/1.1\r\nConnection: close\r\nContent-Length: 2\r\n\r\n{}"
+                .getBytes("UTF-8"));
+        response(in, 200);
+        assertEquals(-1, in.read());
+        socket.close();
+
+        blocked.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        stats = server.getStatistics();
+        assertEquals(2, stats.getDelivered());
+        assertEquals(0, stats.getQueued());
+        assertEquals(0, stats.getConnections());
+        server.close();
+    }
+
+    /**
+     * Test method for the JSON decoding of {@link PubSubServer} (including
+     * its nesting limit).
+     */
+    @Test
+    public final void testJSONParser() {
+        final Object value = new PubSubServer.JSONParser(
+                " {\"a\": [1, -2.5e1, true, false, null, {}, []],"
+                        + " \"b\\u00e4\": \"\\\"\\\\\\/\\b\\f\\n\\r\\t\"} ")
+                .parse();
+        final Map<?, ?> map = (Map<?, ?>) value;
+        assertEquals(2, map.size());
+        final List<?> list = (List<?>) map.get("a");
+        assertEquals(7, list.size());
+        assertEquals(Long.valueOf(1), list.get(0));
+        assertEquals(Double.valueOf(-25), list.get(1));
+        assertEquals(Boolean.TRUE, list.get(2));
+        assertEquals(Boolean.FALSE, list.get(3));
+        assertEquals(null, list.get(4));
+        final String string = (String) map.get("b\u00e4");
+        assertEquals("\"\\/\b\f\n\r\t", string);
+        assertEquals("\"\\\"\\\\/\\u0008\\u000c\\u000a\\u000d\\u0009\"",
+                PubSubServer.toJSON(string));
+
+        final StringBuilder nested = new StringBuilder();
+        for (int i = 0; i < PubSubServer.JSONParser.MAX_DEPTH; ++i) {
+            nested.insert(0, i % 2 == 0 ? "[" : "{\"a\":").append(i % 2 == 0 ? "]" : "}");
+        }
+        new PubSubServer.JSONParser(nested.toString()).parse();
+
+        for (final String invalid : new String[] { "", "{", "[1,]", "\"a",
+                "{\"a\" 1}", "tru", "1 2", "\"\\x\"", "[" + nested + "]" }) {
+            try {
+                new PubSubServer.JSONParser(invalid).parse();
+                assertTrue(invalid, false);
+            } catch (final IllegalArgumentException e) {
+            }
+        }
+    }
+
+    private static String request(final String method, final String body)
+            throws IOException {
+        return method + " / HTTP/1.1\r\nHost: localhost\r\nContent-Length: "
+                + body.getBytes("UTF-8").length + "\r\n\r\n" + body;
+    }
+
+    /**
+     * Reads a response and checks its status.
+     *
+     * @return the response body
+     */
+    private static String response(final InputStream in, final int status)
+            throws IOException {
+        final ByteArrayOutputStream header = new ByteArrayOutputStream();
+        while (!header.toString("ISO-8859-1").endsWith("\r\n\r\n")) {
+            final int b = in.read();
+            assertTrue(b >= 0);
+            header.write(b);
+        }
+        final String headers = header.toString("ISO-8859-1");
+        assertTrue(headers, headers.startsWith("HTTP/1.1 " + status + " "));
+        final int start = headers.indexOf("Content-Length: ") + 16;
+        final int length = Integer.parseInt(headers.substring(start,
+                headers.indexOf("\r\n", start)));
+        final byte[] body = new byte[length];
+        for (int read = 0; read < length;) {
+            final int n = in.read(body, read, length - read);
+            assertTrue(n >= 0);
+            read += n;
+        }
+        return new String(body, "UTF-8");
+    }
+}
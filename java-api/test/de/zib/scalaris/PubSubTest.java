@@ -270,6 +270,54 @@ public class PubSubTest {
         }
     }
 
+    /**
+     * Test method for {@link PubSub#publishAll(PubSub.PublishList)} with a
+     * closed connection.
+     *
+     * @throws UnknownException
+     * @throws ConnectionException
+     */
+    @Test(expected=ConnectionException.class)
+    public void testPublishAll_NotConnected() throws ConnectionException,
+            UnknownException {
+        String topic = "_PublishAll_NotConnected";
+        PubSub conn = new PubSub();
+        conn.closeConnection();
+        conn.publishAll(new PubSub.PublishList().addPublish(testTime + topic, testData[0]));
+    }
+
+    /**
+     * Test method for
+     * {@link PubSub#publishAll(PubSub.PublishList)}.
+     * Publishes all values with a single request, using a distinct topic for
+     * each value and a single topic for all values.
+     *
+     * @throws UnknownException
+     * @throws TimeoutException
+     * @throws ConnectionException
+     */
+    @Test
+    public void testPublishAll() throws ConnectionException,
+            TimeoutException, UnknownException {
+        String topic = "_PublishAll";
+        PubSub conn = new PubSub();
+
+        try {
+            PubSub.PublishList events = new PubSub.PublishList();
+            for (int i = 0; i < testData.length; ++i) {
+                events.addPublish(testTime + topic + i, testData[i]);
+                events.addPublish(testTime + topic, testData[i]);
+            }
+            PubSub.PublishResultList results = conn.publishAll(events);
+            assertEquals(events.size(), results.size());
+            for (int i = 0; i < results.size(); ++i) {
+                results.processPublishAt(i);
+            }
+        } finally {
+            conn.closeConnection();
+        }
+    }
+
     // getSubscribers() test methods for not existing topics begin
 
     /**
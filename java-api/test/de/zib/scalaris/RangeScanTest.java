@@ -0,0 +1,152 @@
+/**
+ *  Copyright 2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.ericsson.otp.erlang.OtpErlangAtom;
+import com.ericsson.otp.erlang.OtpErlangBinary;
+import com.ericsson.otp.erlang.OtpErlangException;
+import com.ericsson.otp.erlang.OtpErlangLong;
+import com.ericsson.otp.erlang.OtpErlangObject;
+import com.ericsson.otp.erlang.OtpErlangString;
+import com.ericsson.otp.erlang.OtpErlangTuple;
+import com.ericsson.otp.erlang.OtpExternal;
+import com.ericsson.otp.erlang.OtpOutputStream;
+
+/**
+ * Test cases for the {@link RangeScan} class (without a scalaris node).
+ *
+ * @author Nico Kruber, kruber@zib.de
+ *
+ * @version 3.6
+ * @since 3.6
+ */
+public class RangeScanTest {
+    /**
+     * Test method for {@link RangeScan#getSegmentRanges(int)}.
+     */
+    @Test
+    public final void testSegmentRanges() {
+        for (final int n : new int[] { 1, 3, 16, 1000 }) {
+            final BigInteger[][] ranges = RangeScan.getSegmentRanges(n);
+            assertEquals(n, ranges.length);
+            assertEquals(BigInteger.ZERO, ranges[0][0]);
+            for (int i = 1; i < n; ++i) {
+                assertEquals(ranges[i - 1][1].add(BigInteger.ONE), ranges[i][0]);
+                assertTrue(ranges[i][0].compareTo(ranges[i][1]) < 0);
+            }
+            assertEquals(RangeScan.QUARTER.subtract(BigInteger.ONE), ranges[n - 1][1]);
+        }
+    }
+
+    /**
+     * Test method for {@link RangeScan#hashKey(String)}.
+     */
+    @Test
+    public final void testHashKey() {
+        // md5("") = d41d8cd98f00b204e9800998ecf8427e, top two bits removed
+        assertEquals(new BigInteger("141d8cd98f00b204e9800998ecf8427e", 16), RangeScan.hashKey(""));
+        assertTrue(RangeScan.hashKey("\u00fc").compareTo(RangeScan.QUARTER) < 0);
+    }
+
+    /**
+     * Test method for {@link RangeScan#toEntry(OtpErlangObject)}.
+     *
+     * @throws OtpErlangException
+     *             if the test fails
+     */
+    @Test
+    public final void testToEntry() throws OtpErlangException {
+        final RangeScan.Entry e = RangeScan.toEntry(dbEntry(BigInteger.TEN, encodeValue(new OtpErlangString("v")), 3));
+        assertEquals(BigInteger.TEN, e.getKey());
+        assertEquals("v", e.getValue().stringValue());
+        assertEquals(3, e.getVersion());
+        assertFalse(e.isWriteLocked());
+        assertEquals(0, e.getReadLocks());
+
+        // atoms and numbers are stored as they are
+        assertEquals(true, RangeScan.toEntry(dbEntry(BigInteger.TEN, new OtpErlangAtom(true), 0))
+                .getValue().boolValue());
+        assertEquals(4711, RangeScan.toEntry(dbEntry(BigInteger.TEN, new OtpErlangLong(4711), 0))
+                .getValue().longValue());
+
+        assertNull(RangeScan.toEntry(dbEntry(BigInteger.TEN, new OtpErlangAtom("empty_val"), -1)));
+    }
+
+    /**
+     * Test method for {@link RangeScan#mergeReplicas(List)}.
+     *
+     * @throws OtpErlangException
+     *             if the test fails
+     */
+    @Test
+    public final void testMergeReplicas() throws OtpErlangException {
+        final BigInteger key = BigInteger.valueOf(4711);
+        final List<RangeScan.Entry> entries = new ArrayList<RangeScan.Entry>();
+        for (int q = 0; q < 4; ++q) {
+            final BigInteger replicaKey = key.add(RangeScan.QUARTER.multiply(BigInteger.valueOf(q)));
+            // the third replica has the newest version
+            final int version = (q == 2) ? 5 : 4;
+            entries.add(RangeScan.toEntry(dbEntry(replicaKey, encodeValue(new OtpErlangString("v" + version)), version)));
+        }
+        entries.add(RangeScan.toEntry(dbEntry(BigInteger.ONE, encodeValue(new OtpErlangString("other")), 0)));
+
+        final Collection<RangeScan.Entry> merged = RangeScan.mergeReplicas(entries);
+        assertEquals(2, merged.size());
+        for (final RangeScan.Entry e : merged) {
+            if (e.getKey().equals(key)) {
+                assertEquals(5, e.getVersion());
+                assertEquals("v5", e.getValue().stringValue());
+            } else {
+                assertEquals(BigInteger.ONE, e.getKey());
+            }
+        }
+    }
+
+    /**
+     * Encodes a value the way <tt>api_tx:encode_value/1</tt> stores
+     * non-atom and non-number values, i.e. with <tt>term_to_binary/1</tt>.
+     *
+     * @param value
+     *            the value written by a client
+     *
+     * @return the value as stored in the database
+     */
+    static OtpErlangBinary encodeValue(final OtpErlangObject value) {
+        final OtpOutputStream out = new OtpOutputStream();
+        out.write1(OtpExternal.versionTag);
+        out.write_any(value);
+        return new OtpErlangBinary(out.toByteArray());
+    }
+
+    static OtpErlangTuple dbEntry(final BigInteger key,
+            final OtpErlangObject value, final long version) {
+        return new OtpErlangTuple(new OtpErlangObject[] {
+                new OtpErlangLong(key), value, new OtpErlangAtom(false),
+                new OtpErlangLong(0), new OtpErlangLong(version) });
+    }
+}
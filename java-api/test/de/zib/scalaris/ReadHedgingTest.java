@@ -0,0 +1,102 @@
+/**
+ *  Copyright 2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Test cases for the {@link ReadHedging} class.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ *
+ * @version 3.6
+ * @since 3.6
+ */
+public class ReadHedgingTest {
+    private static final long ms = 1000000;
+
+    /**
+     * Test method for {@link ReadHedging#getThresholdNs()} without enough
+     * samples.
+     */
+    @Test
+    public final void testInitialThreshold() {
+        final ReadHedging h = new ReadHedging(0.95, 100);
+        h.setInitialDelay(30);
+        assertEquals(30 * ms, h.getThresholdNs());
+        for (int i = 0; i < 10; ++i) {
+            h.addSample(1 * ms);
+        }
+        assertEquals(30 * ms, h.getThresholdNs());
+    }
+
+    /**
+     * Test method for {@link ReadHedging#getThresholdNs()} with enough
+     * samples.
+     */
+    @Test
+    public final void testPercentileThreshold() {
+        // threshold is re-calculated every 160 / 16 = 10 samples
+        final ReadHedging h = new ReadHedging(0.9, 160);
+        h.setMinDelay(0);
+        for (int i = 1; i <= 160; ++i) {
+            h.addSample(i * ms);
+        }
+        assertEquals(144 * ms, h.getThresholdNs());
+
+        // new samples replace the oldest ones:
+        for (int i = 0; i < 160; ++i) {
+            h.addSample(2 * ms);
+        }
+        assertEquals(2 * ms, h.getThresholdNs());
+    }
+
+    /**
+     * Test method for {@link ReadHedging#setMinDelay(long)}.
+     */
+    @Test
+    public final void testMinDelay() {
+        final ReadHedging h = new ReadHedging(0.5, 100);
+        h.setMinDelay(5);
+        for (int i = 0; i < 100; ++i) {
+            h.addSample(1 * ms);
+        }
+        assertEquals(5 * ms, h.getThresholdNs());
+    }
+
+    /**
+     * Test method for {@link ReadHedging#getHedgeRate()} and
+     * {@link ReadHedging#getHedgeWinRate()} without any reads.
+     */
+    @Test
+    public final void testEmptyStatistics() {
+        final ReadHedging h = new ReadHedging(0.95);
+        assertEquals(0, h.getReads());
+        assertEquals(0.0, h.getHedgeRate(), 0.0);
+        assertEquals(0.0, h.getHedgeWinRate(), 0.0);
+    }
+
+    /**
+     * Test method for {@link ReadHedging#ReadHedging(double)} with an invalid
+     * percentile.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public final void testInvalidPercentile() {
+        new ReadHedging(1.0);
+    }
+}
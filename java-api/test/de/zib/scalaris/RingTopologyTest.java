@@ -0,0 +1,78 @@
+/**
+ *  Copyright 2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+/**
+ * Test cases for the {@link RingTopology} class (without a scalaris node).
+ *
+ * @author Nico Kruber, kruber@zib.de
+ *
+ * @version 3.6
+ * @since 3.6
+ */
+public class RingTopologyTest {
+    /**
+     * Test method for {@link RingTopology#hashKey(String)}.
+     */
+    @Test
+    public final void testHashKey() {
+        // md5("")
+        assertEquals(new BigInteger("d41d8cd98f00b204e9800998ecf8427e", 16),
+                RingTopology.hashKey(""));
+    }
+
+    /**
+     * Test method for {@link RingTopology#getResponsibleNode(BigInteger)}.
+     */
+    @Test
+    public final void testGetResponsibleNode() {
+        final RingTopology ring = new RingTopology(new ConnectionFactory());
+        assertNull(ring.getResponsibleNode(BigInteger.ONE));
+
+        final PeerNode a = new PeerNode("a@localhost");
+        final PeerNode b = new PeerNode("b@localhost");
+        final Map<String, PeerNode> vms = new HashMap<String, PeerNode>();
+        vms.put("a@localhost", a);
+        vms.put("b@localhost", b);
+        final SortedMap<BigInteger, String> ringNodes = new TreeMap<BigInteger, String>();
+        ringNodes.put(BigInteger.valueOf(100), "a@localhost");
+        ringNodes.put(BigInteger.valueOf(200), "b@localhost");
+        ringNodes.put(BigInteger.valueOf(300), "c@localhost");
+        ring.setView(ringNodes, vms);
+
+        assertSame(a, ring.getResponsibleNode(BigInteger.valueOf(0)));
+        assertSame(a, ring.getResponsibleNode(BigInteger.valueOf(100)));
+        assertSame(b, ring.getResponsibleNode(BigInteger.valueOf(101)));
+        assertSame(b, ring.getResponsibleNode(BigInteger.valueOf(200)));
+        // VM unknown to the factory
+        assertNull(ring.getResponsibleNode(BigInteger.valueOf(250)));
+        // wraps around
+        assertSame(a, ring.getResponsibleNode(BigInteger.valueOf(301)));
+        assertEquals(3, ring.getStatistics().getRingNodes());
+    }
+}
@@ -0,0 +1,173 @@
+/**
+ *  Copyright 2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.ericsson.otp.erlang.OtpErlangAtom;
+import com.ericsson.otp.erlang.OtpErlangList;
+import com.ericsson.otp.erlang.OtpErlangLong;
+import com.ericsson.otp.erlang.OtpErlangObject;
+import com.ericsson.otp.erlang.OtpErlangString;
+import com.ericsson.otp.erlang.OtpOutputStream;
+
+/**
+ * Test cases for the file format of the {@link Snapshot} class (without a
+ * scalaris node).
+ *
+ * @author Nico Kruber, kruber@zib.de
+ *
+ * @version 3.6
+ * @since 3.6
+ */
+public class SnapshotTest {
+    /**
+     * Writes a segment file with some records.
+     *
+     * @return the file
+     *
+     * @throws IOException
+     *             if writing the file fails
+     */
+    private static File writeSample() throws IOException {
+        final File file = File.createTempFile("segment-", ".snap");
+        file.deleteOnExit();
+        final List<Snapshot.Record> records = new ArrayList<Snapshot.Record>();
+        records.add(new Snapshot.Record(RangeScan.hashKey("foo"), "foo", 1,
+                new OtpOutputStream(new OtpErlangString("bar")).toByteArray()));
+        records.add(new Snapshot.Record(RangeScan.QUARTER.subtract(BigInteger.ONE),
+                null, 0, new byte[0]));
+        Snapshot.writeSegmentFile(file, 3, records);
+        return file;
+    }
+
+    /**
+     * Test method for
+     * {@link Snapshot#writeSegmentFile(File, int, List)} and
+     * {@link Snapshot#readSegmentFile(File)}.
+     *
+     * @throws IOException
+     *             if the test fails
+     */
+    @Test
+    public final void testSegmentFile() throws IOException {
+        final File file = writeSample();
+        final List<Snapshot.Record> records = Snapshot.readSegmentFile(file);
+        assertEquals(2, records.size());
+        assertEquals(RangeScan.hashKey("foo"), records.get(0).position);
+        assertEquals("foo", records.get(0).key);
+        assertEquals(1, records.get(0).version);
+        assertArrayEquals(new OtpOutputStream(new OtpErlangString("bar")).toByteArray(),
+                records.get(0).value);
+        assertEquals(RangeScan.QUARTER.subtract(BigInteger.ONE), records.get(1).position);
+        assertNull(records.get(1).key);
+        assertEquals(0, records.get(1).value.length);
+    }
+
+    /**
+     * Test method for {@link Snapshot#readSegmentFile(File)} with a
+     * corrupt file.
+     *
+     * @throws IOException
+     *             if the test fails
+     */
+    @Test
+    public final void testSegmentFileChecksum() throws IOException {
+        final File file = writeSample();
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(20);
+            final int b = raf.read();
+            raf.seek(20);
+            raf.write(b ^ 0xFF);
+        } finally {
+            raf.close();
+        }
+        try {
+            Snapshot.readSegmentFile(file);
+            fail("expected an IOException");
+        } catch (final IOException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Test method for {@link Snapshot.Record#fromEntry(RangeScan.Entry, String)}
+     * and {@link Snapshot.Record#decodeValue()} with <tt>db_entry</tt>
+     * tuples as stored by the server, i.e. the values written by the client
+     * must survive an export and import through a segment file unchanged.
+     *
+     * @throws Exception
+     *             if the test fails
+     */
+    @Test
+    public final void testRoundTripEncodedEntries() throws Exception {
+        final OtpErlangObject[] values = {
+                new OtpErlangString("bar"),
+                new OtpErlangList(new OtpErlangObject[] {
+                        new OtpErlangLong(1), new OtpErlangString("two") }),
+                new ErlangValueBinaryBean(new SampleBean()).value(),
+                new OtpErlangAtom(true),
+                new OtpErlangLong(4711) };
+        final List<Snapshot.Record> records = new ArrayList<Snapshot.Record>();
+        for (int i = 0; i < values.length; ++i) {
+            // api_tx:encode_value/1 keeps atoms and numbers as they are
+            final boolean raw = (values[i] instanceof OtpErlangAtom)
+                    || (values[i] instanceof OtpErlangLong);
+            final OtpErlangObject stored = raw ? values[i] : RangeScanTest.encodeValue(values[i]);
+            final RangeScan.Entry entry = RangeScan.toEntry(RangeScanTest.dbEntry(
+                    RangeScan.hashKey("key" + i), stored, i));
+            records.add(Snapshot.Record.fromEntry(entry, "key" + i));
+        }
+        final File file = File.createTempFile("segment-", ".snap");
+        file.deleteOnExit();
+        Snapshot.writeSegmentFile(file, 0, records);
+
+        final List<Snapshot.Record> actual = Snapshot.readSegmentFile(file);
+        assertEquals(values.length, actual.size());
+        for (int i = 0; i < values.length; ++i) {
+            assertEquals("key" + i, actual.get(i).key);
+            assertEquals(RangeScan.hashKey("key" + i), actual.get(i).position);
+            assertEquals(i, actual.get(i).version);
+            assertEquals(values[i], actual.get(i).decodeValue());
+        }
+        assertEquals("bar", new ErlangValue(actual.get(0).decodeValue()).stringValue());
+        assertEquals(4711, new ErlangValue(actual.get(2).decodeValue())
+                .jsonValue(SampleBean.class).getId());
+    }
+
+    /**
+     * Simple Bean for {@link #testRoundTripEncodedEntries()}.
+     */
+    public static class SampleBean {
+        private int id = 4711;
+
+        public int getId() { return id; }
+        public void setId(final int id) { this.id = id; }
+    }
+}
@@ -0,0 +1,168 @@
+/**
+ *  Copyright 2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.Test;
+
+import com.ericsson.otp.erlang.OtpErlangList;
+import com.ericsson.otp.erlang.OtpErlangObject;
+import com.ericsson.otp.erlang.OtpSelf;
+
+/**
+ * Test cases for the {@link TransactionSingleOpBatcher} class.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ *
+ * @version 3.6
+ * @since 3.6
+ */
+public class TransactionSingleOpBatcherTest {
+    private final static long testTime = System.currentTimeMillis();
+
+    /**
+     * Test method for
+     * {@link TransactionSingleOpBatcher#writeAsync(String, Object)} and
+     * {@link TransactionSingleOpBatcher#readAsync(String)}.
+     *
+     * Queues more requests than fit into a single batch.
+     *
+     * @throws ConnectionException
+     * @throws InterruptedException
+     * @throws ExecutionException
+     */
+    @Test
+    public void testWriteReadAsync() throws ConnectionException,
+            InterruptedException, ExecutionException {
+        final String key = "_BatcherWriteReadAsync_";
+        final TransactionSingleOpBatcher batcher = new TransactionSingleOpBatcher(
+                ConnectionFactory.getInstance().createConnection(), 10000, 8);
+
+        try {
+            final List<AsyncResult<Void>> writes = new ArrayList<AsyncResult<Void>>(20);
+            for (int i = 0; i < 20; ++i) {
+                writes.add(batcher.writeAsync(testTime + key + i, "value" + i));
+            }
+            for (final AsyncResult<Void> write : writes) {
+                write.get();
+            }
+
+            final List<AsyncResult<ErlangValue>> reads = new ArrayList<AsyncResult<ErlangValue>>(20);
+            for (int i = 0; i < 20; ++i) {
+                reads.add(batcher.readAsync(testTime + key + i));
+            }
+            for (int i = 0; i < 20; ++i) {
+                assertEquals("value" + i, reads.get(i).get().stringValue());
+            }
+
+            final TransactionSingleOpBatcher.Statistics stats = batcher.getStatistics();
+            assertEquals(40, stats.getRequests());
+            assertEquals(40, stats.getSentRequests());
+            assertTrue(stats.getMaxBatchSize() <= 8);
+            assertTrue(stats.getBatches() >= 5);
+        } finally {
+            batcher.close();
+        }
+    }
+
+    /**
+     * Test method for {@link TransactionSingleOpBatcher#read(String)} with a
+     * non-existing key.
+     *
+     * @throws ConnectionException
+     * @throws TimeoutException
+     * @throws NotFoundException
+     * @throws UnknownException
+     */
+    @Test(expected = NotFoundException.class)
+    public void testRead_NotFound() throws ConnectionException,
+            TimeoutException, NotFoundException, UnknownException {
+        final String key = "_BatcherRead_NotFound";
+        final TransactionSingleOpBatcher batcher = new TransactionSingleOpBatcher();
+        try {
+            batcher.read(testTime + key);
+        } finally {
+            batcher.close();
+        }
+    }
+
+    /**
+     * Test method for {@link TransactionSingleOpBatcher#close()}.
+     *
+     * @throws ConnectionException
+     * @throws TimeoutException
+     * @throws AbortException
+     * @throws UnknownException
+     */
+    @Test(expected = ConnectionException.class)
+    public void testClosed() throws ConnectionException, TimeoutException,
+            AbortException, UnknownException {
+        final String key = "_BatcherClosed";
+        final TransactionSingleOpBatcher batcher = new TransactionSingleOpBatcher();
+        batcher.close();
+        batcher.write(testTime + key, "value");
+    }
+
+    /**
+     * Test method for {@link TransactionSingleOpBatcher} with a connection
+     * throwing a {@link RuntimeException} when sending a batch: the batch's
+     * requests fail and later requests are still sent.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testSendRuntimeException() throws Exception {
+        final String key = "_BatcherSendRuntimeException";
+        final ConnectionFactory factory = ConnectionFactory.getInstance();
+        final boolean[] failSend = { true };
+        final Connection conn = new Connection(new OtpSelf(
+                factory.getClientName() + "_batcher_fail", factory.getCookie()),
+                new DefaultConnectionPolicy(factory.getNodes())) {
+            @Override
+            public AsyncResult<OtpErlangObject> doRPCAsync(final String mod,
+                    final String fun, final OtpErlangList args)
+                    throws ConnectionException {
+                synchronized (failSend) {
+                    if (failSend[0]) {
+                        throw new UnknownException("send failed");
+                    }
+                }
+                return super.doRPCAsync(mod, fun, args);
+            }
+        };
+        final TransactionSingleOpBatcher batcher = new TransactionSingleOpBatcher(conn);
+        try {
+            try {
+                batcher.write(testTime + key, "value");
+                fail();
+            } catch (final UnknownException e) {
+                assertEquals("send failed", e.getMessage());
+            }
+            synchronized (failSend) {
+                failSend[0] = false;
+            }
+            batcher.write(testTime + key, "value");
+            assertEquals("value", batcher.read(testTime + key).stringValue());
+        } finally {
+            batcher.close();
+        }
+    }
+}
@@ -20,6 +20,7 @@ import static org.junit.Assert.assertEquals;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 
 import org.junit.Test;
 
@@ -35,7 +36,7 @@ import de.zib.scalaris.TransactionSingleOp.ResultList;
  * Unit test for the {@link TransactionSingleOp} class.
  *
  * @author Nico Kruber, kruber@zib.de
- * @version 3.2
+ * @version 3.6
  * @since 2.0
  */
 public class TransactionSingleOpTest {
@@ -1075,4 +1076,113 @@ public class TransactionSingleOpTest {
             conn.closeConnection();
         }
     }
+
+    /**
+     * Test method for
+     * {@link TransactionSingleOp#writeAsync(String, Object)}
+     * and {@link TransactionSingleOp#readAsync(String)}.
+     * Writes strings (pipelined) and uses a distinct key for each value. Tries
+     * to read the data (pipelined) afterwards.
+     *
+     * @throws ConnectionException
+     * @throws InterruptedException
+     * @throws ExecutionException
+     * @throws UnknownException
+     */
+    @Test
+    public void testWriteReadAsync() throws ConnectionException,
+            InterruptedException, ExecutionException, UnknownException {
+        final String key = "_WriteReadAsync_";
+        final TransactionSingleOp conn = new TransactionSingleOp();
+
+        try {
+            final List<AsyncResult<Void>> writes = new ArrayList<AsyncResult<Void>>(testData.length);
+            for (int i = 0; i < testData.length; ++i) {
+                writes.add(conn.writeAsync(testTime + key + i, testData[i]));
+            }
+            for (final AsyncResult<Void> write : writes) {
+                write.get();
+            }
+
+            // now try to read the data:
+            final List<AsyncResult<ErlangValue>> reads = new ArrayList<AsyncResult<ErlangValue>>(testData.length);
+            for (int i = 0; i < testData.length; ++i) {
+                reads.add(conn.readAsync(testTime + key + i));
+            }
+            for (int i = 0; i < testData.length; ++i) {
+                assertEquals(testData[i], reads.get(i).get().stringValue());
+            }
+        } finally {
+            conn.closeConnection();
+        }
+    }
+
+    /**
+     * Test method for {@link TransactionSingleOp#readAsync(String)} with a
+     * non-existing key.
+     *
+     * @throws ConnectionException
+     * @throws InterruptedException
+     */
+    @Test
+    public void testReadAsync_NotFound() throws ConnectionException,
+            InterruptedException {
+        final String key = "_ReadAsync_NotFound";
+        final TransactionSingleOp conn = new TransactionSingleOp();
+
+        try {
+            conn.readAsync(testTime + key).get();
+            assertTrue(false);
+        } catch (final ExecutionException e) {
+            assertTrue(e.getCause() instanceof NotFoundException);
+        } finally {
+            conn.closeConnection();
+        }
+    }
+
+    /**
+     * Test method for {@link TransactionSingleOp#readAsync(String)} with a
+     * callback throwing an exception which must not stop later (synchronous
+     * or asynchronous) requests from being answered.
+     *
+     * @throws ConnectionException
+     * @throws TimeoutException
+     * @throws NotFoundException
+     * @throws AbortException
+     * @throws InterruptedException
+     * @throws ExecutionException
+     * @throws UnknownException
+     */
+    @Test
+    public void testReadAsync_FailingCallback() throws ConnectionException,
+            TimeoutException, NotFoundException, AbortException,
+            InterruptedException,
+            ExecutionException, UnknownException {
+        final String key = "_ReadAsync_FailingCallback";
+        final TransactionSingleOp conn = new TransactionSingleOp();
+
+        try {
+            conn.write(testTime + key, testData[0]);
+            final AsyncResult<ErlangValue> read = conn.readAsync(testTime + key);
+            try {
+                read.addCallback(new ResultCallback<ErlangValue>() {
+                    public void onSuccess(final ErlangValue result) {
+                        throw new IllegalStateException("callback failure");
+                    }
+
+                    public void onFailure(final Exception e) {
+                        throw new IllegalStateException("callback failure");
+                    }
+                });
+            } catch (final IllegalStateException e) {
+                // already completed -> the callback ran in this thread
+            }
+            assertEquals(testData[0], read.get().stringValue());
+
+            assertEquals(testData[0], conn.readAsync(testTime + key).get().stringValue());
+            assertEquals(testData[0], conn.read(testTime + key).stringValue());
+        } finally {
+            conn.closeConnection();
+        }
+    }
 }
@@ -0,0 +1,146 @@
+/**
+ *  Copyright 2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Properties;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Test cases for the {@link Workload} class (without a scalaris node).
+ *
+ * @author Nico Kruber, kruber@zib.de
+ *
+ * @version 3.6
+ * @since 3.6
+ */
+public class WorkloadTest {
+    private static final int DRAWS = 100000;
+
+    private static long[] draw(final Workload.Distribution dist, final long items) {
+        final Random random = new Random(0);
+        final long[] counts = new long[(int) items];
+        for (int i = 0; i < DRAWS; ++i) {
+            final long value = dist.next(random, items);
+            assertTrue(value >= 0 && value < items);
+            ++counts[(int) value];
+        }
+        return counts;
+    }
+
+    private static long sum(final long[] counts, final int from, final int to) {
+        long result = 0;
+        for (int i = from; i < to; ++i) {
+            result += counts[i];
+        }
+        return result;
+    }
+
+    /**
+     * Test method for {@link Workload.Zipfian}.
+     */
+    @Test
+    public final void testZipfian() {
+        final long[] counts = draw(new Workload.Zipfian(0.99), 1000);
+        // p(0) = 1 / zeta(1000, 0.99) ~ 0.13
+        assertEquals(0.13, (double) counts[0] / DRAWS, 0.02);
+        assertTrue(counts[0] > counts[1] && counts[1] > counts[10]);
+        // the 10% most popular items get about 2/3 of the accesses
+        assertTrue(sum(counts, 0, 100) > DRAWS * 0.6);
+        // growing the number of items keeps the distribution valid
+        final Workload.Zipfian zipfian = new Workload.Zipfian(0.5);
+        draw(zipfian, 10);
+        draw(zipfian, 1000);
+        draw(zipfian, 10);
+    }
+
+    /**
+     * Test method for {@link Workload.Hotspot}.
+     */
+    @Test
+    public final void testHotspot() {
+        final long[] counts = draw(new Workload.Hotspot(0.2, 0.8), 1000);
+        assertEquals(0.8, (double) sum(counts, 0, 200) / DRAWS, 0.01);
+    }
+
+    /**
+     * Test method for {@link Workload.Latest}.
+     */
+    @Test
+    public final void testLatest() {
+        final long[] counts = draw(new Workload.Latest(0.99), 1000);
+        assertTrue(counts[999] > counts[998] && counts[998] > counts[989]);
+        assertTrue(sum(counts, 900, 1000) > DRAWS * 0.6);
+    }
+
+    /**
+     * Test method for {@link Workload#Workload(Properties)}.
+     */
+    @Test
+    public final void testProperties() {
+        final Properties properties = new Properties();
+        properties.setProperty("recordcount", "50");
+        properties.setProperty("requestdistribution", "hotspot");
+        properties.setProperty("fieldlengthdistribution", "uniform");
+        properties.setProperty("minfieldlength", "5");
+        properties.setProperty("fieldlength", "10");
+        properties.setProperty("keyprefix", "k");
+        final Workload workload = new Workload(properties);
+        assertEquals(50, workload.getRecordCount());
+        assertTrue(workload.getKeyDistribution() instanceof Workload.Hotspot);
+        assertEquals("k7", workload.getKey(7));
+        final Random random = new Random(0);
+        for (int i = 0; i < 1000; ++i) {
+            final int length = workload.nextValue(random).length();
+            assertTrue(length >= 5 && length <= 10);
+            assertTrue(workload.nextRecord(random) < 50);
+        }
+        // default mix: reads and updates
+        assertEquals(2, workload.createTransactionPhase().getOperations().size());
+        assertEquals(1, workload.createLoadPhase().getOperations().size());
+    }
+
+    /**
+     * Test method for {@link Workload#Workload(Properties)} with invalid
+     * properties.
+     */
+    @Test
+    public final void testInvalidProperties() {
+        final String[][] invalid = {
+                {"requestdistribution", "foo"},
+                {"requestdistribution", "constant"},
+                {"zipfianconstant", "1.5"},
+                {"recordcount", "many"},
+                {"readproportion", "-1"},
+                {"scanproportion", "0.5"}};
+        for (final String[] property : invalid) {
+            final Properties properties = new Properties();
+            properties.setProperty(property[0], property[1]);
+            properties.setProperty("requestdistribution",
+                    property[0].equals("requestdistribution") ? property[1] : "zipfian");
+            try {
+                new Workload(properties);
+                throw new AssertionError("accepted " + property[0] + "=" + property[1]);
+            } catch (final IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+}
@@ -192,10 +192,8 @@ pubsub_unsubscribe(Topic, URL) ->
 
 -spec pubsub_get_subscribers(string()) -> {array, [string()]}.
 pubsub_get_subscribers(Topic) ->
-    case api_pubsub:get_subscribers(Topic) of
-        [] -> {array, []};
-        Any -> {array, Any}
-    end.
+    % subscribed processes (of erlang or java clients) have no JSON representation
+    {array, [URL || URL <- api_pubsub:get_subscribers(Topic), not is_pid(URL)]}.
 
 %% interface for api_rdht calls
 -spec rdht_delete(client_key()) -> {struct, [{failure, string()}
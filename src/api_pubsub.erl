@@ -20,7 +20,7 @@
 -author('schuett@zib.de').
 -vsn('$Id$').
 
--export([publish/2, subscribe/2, unsubscribe/2, get_subscribers/1]).
+-export([publish/2, publish_list/1, subscribe/2, unsubscribe/2, get_subscribers/1]).
 
 %% @doc publishs an event under a given topic.
 %%      called e.g. from the java-interface
@@ -30,9 +30,30 @@ publish(Topic, Content) ->
     _ = [ pubsub_publish:publish(X, Topic, Content) || X <- Subscribers ],
     {ok}.
 
-%% @doc subscribes a url for a topic.
+%% @doc publishs several events with a single request, e.g. from the
+%%      java-interface. The subscribers of all topics are read at once. An
+%%      event fails if the subscribers of its topic could not be read.
+-spec publish_list([{Topic::string(), Content::string()}]) -> [{ok} | {fail, timeout}].
+publish_list([]) ->
+    [];
+publish_list(Events) ->
+    Topics = lists:usort([Topic || {Topic, _Content} <- Events]),
+    {_TLog, Results} = api_tx:req_list([{read, Topic} || Topic <- Topics]),
+    Subscribers = dict:from_list(lists:zip(Topics, Results)),
+    [begin
+         case dict:fetch(Topic, Subscribers) of
+             {ok, URLs} ->
+                 _ = [ pubsub_publish:publish(X, Topic, Content) || X <- URLs ],
+                 {ok};
+             {fail, not_found} -> {ok};
+             {fail, timeout} -> {fail, timeout}
+         end
+     end || {Topic, Content} <- Events].
+
+%% @doc subscribes a url or a process for a topic (processes receive
+%%      {notify, Topic, Content} messages).
 %%      called e.g. from the java-interface
--spec subscribe(string(), string()) -> api_tx:commit_result().
+-spec subscribe(string(), string() | pid()) -> api_tx:commit_result().
 subscribe(Topic, URL) ->
     {TLog, Res} = api_tx:read(api_tx:new_tlog(), Topic),
     {_TLog2, [_, CommitRes]} =
@@ -46,8 +67,8 @@ subscribe(Topic, URL) ->
         end,
     CommitRes.
 
-%% @doc unsubscribes a url for a topic.
--spec unsubscribe(string(), string()) -> api_tx:commit_result() | {fail, not_found}.
+%% @doc unsubscribes a url or a process for a topic.
+-spec unsubscribe(string(), string() | pid()) -> api_tx:commit_result() | {fail, not_found}.
 unsubscribe(Topic, URL) ->
     {TLog, Res} = api_tx:read(api_tx:new_tlog(), Topic),
     case Res of
@@ -64,8 +85,8 @@ unsubscribe(Topic, URL) ->
     end.
 
 %% @doc queries the subscribers of a query
-%% @spec get_subscribers(string()) -> [string()]
--spec get_subscribers(Topic::string()) -> [string()].
+%% @spec get_subscribers(string()) -> [string() | pid()]
+-spec get_subscribers(Topic::string()) -> [string() | pid()].
 get_subscribers(Topic) ->
     {Res, Value} = api_tx:read(Topic),
     case Res of
@@ -24,7 +24,7 @@
          number_of_nodes/0, get_nodes/0, add_nodes/1,
          shutdown_node/1, shutdown_nodes/1, shutdown_nodes_by_name/1,
          kill_node/1, kill_nodes/1, kill_nodes_by_name/1,
-         get_other_vms/1,
+         get_other_vms/1, get_ring_nodes/0,
          shutdown_vm/0, kill_vm/0]).
 
 -include("scalaris.hrl").
@@ -148,6 +148,20 @@ get_other_vms(MaxVMs) ->
                   DhtModule:is_alive_fully_joined(gen_component:get_state(Pid))]),
     util:random_subset(MaxVMs, lists:usort(RandomConns)).
 
+%% @doc Gets the IDs of the (fully joined) Scalaris nodes inside this VM and
+%%      of their neighbours together with the Erlang node hosting them. A node
+%%      is responsible for the keys between its predecessor's ID (exclusive)
+%%      and its own ID (inclusive).
+-spec get_ring_nodes() -> [{Id::?RT:key(), ErlNode::node()}].
+get_ring_nodes() ->
+    DhtModule = config:read(dht_node),
+    Nodes = lists:append(
+              [nodelist:to_list(dht_node_state:get(State, neighbors))
+               || Pid <- pid_groups:find_all(dht_node),
+                  State <- [gen_component:get_state(Pid)],
+                  DhtModule:is_alive_fully_joined(State)]),
+    lists:usort([{node:id(Node), node:erlNode(Node)} || Node <- Nodes]).
+
 %% @doc Graceful shutdown of this VM.
 -spec shutdown_vm() -> no_return().
 shutdown_vm() ->
@@ -26,9 +26,18 @@
 %% public functions
 %%====================================================================
 
-%% @doc publishs an event to a given url.
+%% @doc publishs an event to a given url or sends it as a
+%%      {notify, Topic, Content} message to a subscribed process, e.g. the
+%%      mailbox of a java client.
 %% @todo use pool:pspawn
--spec publish(URL::string(), Topic::string(), Content::string()) -> ok.
+-spec publish(URL::string() | pid(), Topic::string(), Content::string()) -> ok.
+publish(Pid, Topic, Content) when is_pid(Pid) ->
+    Msg = {notify, Topic, Content},
+    % do not block the caller while connecting to the subscriber's node
+    case erlang:send(Pid, Msg, [noconnect]) of
+        noconnect -> _ = spawn(fun() -> Pid ! Msg end), ok;
+        _ -> ok
+    end;
 publish(URL, Topic, Content) ->
     spawn(pubsub_publish, publish_internal, [URL, Topic, Content]),
     ok.
@@ -27,7 +27,7 @@
 
 -include("unittest.hrl").
 
-all() -> [test_db].
+all() -> [test_db, test_pid, test_publish_list].
 
 suite() -> [{timetrap, {seconds, 120}}].
 
@@ -55,3 +55,36 @@ test_db(_Config) ->
     ?equals(api_pubsub:get_subscribers("TestTopic"), []),
     ok.
 
+test_pid(_Config) ->
+    Self = self(),
+    ?equals(api_pubsub:subscribe("TestPidTopic", Self), {ok}),
+    ?equals(api_pubsub:get_subscribers("TestPidTopic"), [Self]),
+    ?equals(api_pubsub:publish("TestPidTopic", "TestContent"), {ok}),
+    receive
+        {notify, Topic, Content} ->
+            ?equals(Topic, "TestPidTopic"),
+            ?equals(Content, "TestContent")
+    after 5000 ->
+            ?ct_fail("no notification received", [])
+    end,
+    ?equals(api_pubsub:unsubscribe("TestPidTopic", Self), {ok}),
+    ?equals(api_pubsub:get_subscribers("TestPidTopic"), []),
+    ok.
+
+test_publish_list(_Config) ->
+    Self = self(),
+    ?equals(api_pubsub:publish_list([]), []),
+    ?equals(api_pubsub:subscribe("TestListTopic", Self), {ok}),
+    ?equals(api_pubsub:publish_list([{"TestListTopic", "Content1"},
+                                     {"TestOtherTopic", "Content2"},
+                                     {"TestListTopic", "Content3"}]),
+            [{ok}, {ok}, {ok}]),
+    [receive
+         {notify, Topic, Content} ->
+             ?equals(Topic, "TestListTopic"),
+             ?equals(Content, Expected)
+     after 5000 ->
+             ?ct_fail("no notification received", [])
+     end || Expected <- ["Content1", "Content3"]],
+    ?equals(api_pubsub:unsubscribe("TestListTopic", Self), {ok}),
+    ok.